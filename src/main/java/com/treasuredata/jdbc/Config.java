@@ -49,6 +49,38 @@ public class Config
     public final ApiConfig apiConfig;
     public final int resultRetryCountThreshold;
     public final long resultRetryWaitTimeMs;
+    public final long resultRetryMaxWaitTimeMs;
+    public final boolean resultStreaming;
+    public final int resultStreamingBufferSize;
+    public final int resultDownloadStreams;
+    public final long resultDownloadThreshold;
+    public final Option<String> resultCacheDir;
+    public final long resultCacheTtlMs;
+    public final long resultCacheMaxSize;
+    public final boolean resultPrefetch;
+    public final int resultPrefetchBatches;
+    public final long jobPollWaitTimeMs;
+    public final long jobPollMaxWaitTimeMs;
+    public final double jobPollMultiplier;
+    public final double jobPollJitter;
+    public final boolean jobPollPredict;
+    public final long jobPollPredictMaxWaitTimeMs;
+    public final int maxRows;
+    public final boolean maxRowsPushdown;
+    public final boolean clientShared;
+    public final long credentialsTtlMs;
+    public final boolean connectionLazy;
+    public final boolean connectionPreconnect;
+    public final long metadataCacheTtlMs;
+    public final boolean metadataPreload;
+    public final boolean metadataAllCatalogs;
+    public final int metadataThreads;
+    public final Option<String> metadataSnapshotDir;
+    public final int batchSize;
+    public final int resultDownloadTimeoutMs;
+    public final int batchMaxRows;
+    public final int executorMaxThreads;
+    public final int executorMaxDaemonThreads;
 
     public Config(
             String url,
@@ -58,7 +90,39 @@ public class Config
             Job.Type type,
             ApiConfig apiConfig,
             int resultRetryCountThreshold,
-            long resultRetryWaitTimeMs
+            long resultRetryWaitTimeMs,
+            long resultRetryMaxWaitTimeMs,
+            boolean resultStreaming,
+            int resultStreamingBufferSize,
+            int resultDownloadStreams,
+            long resultDownloadThreshold,
+            Option<String> resultCacheDir,
+            long resultCacheTtlMs,
+            long resultCacheMaxSize,
+            boolean resultPrefetch,
+            int resultPrefetchBatches,
+            long jobPollWaitTimeMs,
+            long jobPollMaxWaitTimeMs,
+            double jobPollMultiplier,
+            double jobPollJitter,
+            boolean jobPollPredict,
+            long jobPollPredictMaxWaitTimeMs,
+            int maxRows,
+            boolean maxRowsPushdown,
+            boolean clientShared,
+            long credentialsTtlMs,
+            boolean connectionLazy,
+            boolean connectionPreconnect,
+            long metadataCacheTtlMs,
+            boolean metadataPreload,
+            boolean metadataAllCatalogs,
+            int metadataThreads,
+            Option<String> metadataSnapshotDir,
+            int batchSize,
+            int resultDownloadTimeoutMs,
+            int batchMaxRows,
+            int executorMaxThreads,
+            int executorMaxDaemonThreads
     )
             throws SQLException
     {
@@ -73,6 +137,38 @@ public class Config
         this.apiConfig = apiConfig;
         this.resultRetryCountThreshold = resultRetryCountThreshold;
         this.resultRetryWaitTimeMs = resultRetryWaitTimeMs;
+        this.resultRetryMaxWaitTimeMs = resultRetryMaxWaitTimeMs;
+        this.resultStreaming = resultStreaming;
+        this.resultStreamingBufferSize = resultStreamingBufferSize;
+        this.resultDownloadStreams = resultDownloadStreams;
+        this.resultDownloadThreshold = resultDownloadThreshold;
+        this.resultCacheDir = resultCacheDir;
+        this.resultCacheTtlMs = resultCacheTtlMs;
+        this.resultCacheMaxSize = resultCacheMaxSize;
+        this.resultPrefetch = resultPrefetch;
+        this.resultPrefetchBatches = resultPrefetchBatches;
+        this.jobPollWaitTimeMs = jobPollWaitTimeMs;
+        this.jobPollMaxWaitTimeMs = jobPollMaxWaitTimeMs;
+        this.jobPollMultiplier = jobPollMultiplier;
+        this.jobPollJitter = jobPollJitter;
+        this.jobPollPredict = jobPollPredict;
+        this.jobPollPredictMaxWaitTimeMs = jobPollPredictMaxWaitTimeMs;
+        this.maxRows = maxRows;
+        this.maxRowsPushdown = maxRowsPushdown;
+        this.clientShared = clientShared;
+        this.credentialsTtlMs = credentialsTtlMs;
+        this.connectionLazy = connectionLazy;
+        this.connectionPreconnect = connectionPreconnect;
+        this.metadataCacheTtlMs = metadataCacheTtlMs;
+        this.metadataPreload = metadataPreload;
+        this.metadataAllCatalogs = metadataAllCatalogs;
+        this.metadataThreads = metadataThreads;
+        this.metadataSnapshotDir = metadataSnapshotDir;
+        this.batchSize = batchSize;
+        this.resultDownloadTimeoutMs = resultDownloadTimeoutMs;
+        this.batchMaxRows = batchMaxRows;
+        this.executorMaxThreads = executorMaxThreads;
+        this.executorMaxDaemonThreads = executorMaxDaemonThreads;
     }
 
     public Properties toProperties() {
@@ -361,6 +457,334 @@ public class Config
                 throw new SQLException("Invalid value for td.jdbc.result.retry.waittime: " + retryWaitTimeMs);
             }
         }
+        String retryMaxWaitTimeMs = getJDBCProperty(props, TD_JDBC_RESULT_RETRY_MAXWAITTIME);
+        if(retryMaxWaitTimeMs != null) {
+            try {
+                config.setResultRetryMaxWaitTimeMs(Long.parseLong(retryMaxWaitTimeMs));
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.retry.maxwaittime: " + retryMaxWaitTimeMs);
+            }
+        }
+
+        // streaming settings
+        String streaming = getJDBCProperty(props, TD_JDBC_RESULT_STREAMING);
+        if(streaming != null) {
+            config.setResultStreaming(Boolean.parseBoolean(streaming));
+        }
+        String streamingBufferSize = getJDBCProperty(props, TD_JDBC_RESULT_STREAMING_BUFFERSIZE);
+        if(streamingBufferSize != null) {
+            int bufferSize;
+            try {
+                bufferSize = Integer.parseInt(streamingBufferSize);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.streaming.buffersize: " + streamingBufferSize);
+            }
+            if (bufferSize <= 0) {
+                throw new SQLException("Invalid value for td.jdbc.result.streaming.buffersize: " + streamingBufferSize);
+            }
+            config.setResultStreamingBufferSize(bufferSize);
+        }
+
+        // parallel download settings
+        String downloadStreams = getJDBCProperty(props, TD_JDBC_RESULT_DOWNLOAD_STREAMS);
+        if(downloadStreams != null) {
+            int streams;
+            try {
+                streams = Integer.parseInt(downloadStreams);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.download.streams: " + downloadStreams);
+            }
+            if (streams <= 0) {
+                throw new SQLException("Invalid value for td.jdbc.result.download.streams: " + downloadStreams);
+            }
+            config.setResultDownloadStreams(streams);
+        }
+        String downloadThreshold = getJDBCProperty(props, TD_JDBC_RESULT_DOWNLOAD_THRESHOLD);
+        if(downloadThreshold != null) {
+            try {
+                config.setResultDownloadThreshold(Long.parseLong(downloadThreshold));
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.download.threshold: " + downloadThreshold);
+            }
+        }
+        String downloadTimeout = getJDBCProperty(props, TD_JDBC_RESULT_DOWNLOAD_TIMEOUT);
+        if(downloadTimeout != null) {
+            int timeout;
+            try {
+                timeout = Integer.parseInt(downloadTimeout);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.download.timeout: " + downloadTimeout);
+            }
+            if (timeout < 1) {
+                throw new SQLException("Invalid value for td.jdbc.result.download.timeout: " + downloadTimeout);
+            }
+            config.setResultDownloadTimeoutMs(timeout);
+        }
+
+        // result cache settings
+        String cacheDir = getJDBCProperty(props, TD_JDBC_RESULT_CACHE_DIR);
+        if(!isEmptyString(cacheDir)) {
+            config.setResultCacheDir(cacheDir);
+        }
+        String cacheTtl = getJDBCProperty(props, TD_JDBC_RESULT_CACHE_TTL);
+        if(cacheTtl != null) {
+            try {
+                config.setResultCacheTtlMs(Long.parseLong(cacheTtl));
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.cache.ttl: " + cacheTtl);
+            }
+        }
+        String cacheMaxSize = getJDBCProperty(props, TD_JDBC_RESULT_CACHE_MAXSIZE);
+        if(cacheMaxSize != null) {
+            try {
+                config.setResultCacheMaxSize(Long.parseLong(cacheMaxSize));
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.cache.maxsize: " + cacheMaxSize);
+            }
+        }
+
+        // prefetch settings
+        String prefetch = getJDBCProperty(props, TD_JDBC_RESULT_PREFETCH);
+        if(prefetch != null) {
+            config.setResultPrefetch(Boolean.parseBoolean(prefetch));
+        }
+        String prefetchBatches = getJDBCProperty(props, TD_JDBC_RESULT_PREFETCH_BATCHES);
+        if(prefetchBatches != null) {
+            int batches;
+            try {
+                batches = Integer.parseInt(prefetchBatches);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.result.prefetch.batches: " + prefetchBatches);
+            }
+            if (batches <= 0) {
+                throw new SQLException("Invalid value for td.jdbc.result.prefetch.batches: " + prefetchBatches);
+            }
+            config.setResultPrefetchBatches(batches);
+        }
+
+        // job status polling settings
+        String pollWaitTimeMs = getJDBCProperty(props, TD_JDBC_JOB_POLL_WAITTIME);
+        if(pollWaitTimeMs != null) {
+            long waitTime;
+            try {
+                waitTime = Long.parseLong(pollWaitTimeMs);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.waittime: " + pollWaitTimeMs);
+            }
+            if (waitTime <= 0) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.waittime: " + pollWaitTimeMs);
+            }
+            config.setJobPollWaitTimeMs(waitTime);
+        }
+        String pollMaxWaitTimeMs = getJDBCProperty(props, TD_JDBC_JOB_POLL_MAXWAITTIME);
+        if(pollMaxWaitTimeMs != null) {
+            long maxWaitTime;
+            try {
+                maxWaitTime = Long.parseLong(pollMaxWaitTimeMs);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.maxwaittime: " + pollMaxWaitTimeMs);
+            }
+            if (maxWaitTime <= 0) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.maxwaittime: " + pollMaxWaitTimeMs);
+            }
+            config.setJobPollMaxWaitTimeMs(maxWaitTime);
+        }
+        String pollMultiplier = getJDBCProperty(props, TD_JDBC_JOB_POLL_MULTIPLIER);
+        if(pollMultiplier != null) {
+            double multiplier;
+            try {
+                multiplier = Double.parseDouble(pollMultiplier);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.multiplier: " + pollMultiplier);
+            }
+            if (multiplier < 1.0) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.multiplier: " + pollMultiplier);
+            }
+            config.setJobPollMultiplier(multiplier);
+        }
+        String pollJitter = getJDBCProperty(props, TD_JDBC_JOB_POLL_JITTER);
+        if(pollJitter != null) {
+            double jitter;
+            try {
+                jitter = Double.parseDouble(pollJitter);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.jitter: " + pollJitter);
+            }
+            if (jitter < 0.0 || jitter > 1.0) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.jitter: " + pollJitter);
+            }
+            config.setJobPollJitter(jitter);
+        }
+        String pollPredict = getJDBCProperty(props, TD_JDBC_JOB_POLL_PREDICT);
+        if(pollPredict != null) {
+            config.setJobPollPredict(Boolean.parseBoolean(pollPredict));
+        }
+        String pollPredictMaxWaitTimeMs = getJDBCProperty(props, TD_JDBC_JOB_POLL_PREDICT_MAXWAITTIME);
+        if(pollPredictMaxWaitTimeMs != null) {
+            long maxWaitTime;
+            try {
+                maxWaitTime = Long.parseLong(pollPredictMaxWaitTimeMs);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.predict.maxwaittime: " + pollPredictMaxWaitTimeMs);
+            }
+            if (maxWaitTime <= 0) {
+                throw new SQLException("Invalid value for td.jdbc.job.poll.predict.maxwaittime: " + pollPredictMaxWaitTimeMs);
+            }
+            config.setJobPollPredictMaxWaitTimeMs(maxWaitTime);
+        }
+        String maxRows = getJDBCProperty(props, TD_JDBC_MAXROWS);
+        if(maxRows != null) {
+            int rows;
+            try {
+                rows = Integer.parseInt(maxRows);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.maxrows: " + maxRows);
+            }
+            if (rows < 0) {
+                throw new SQLException("Invalid value for td.jdbc.maxrows: " + maxRows);
+            }
+            config.setMaxRows(rows);
+        }
+        String maxRowsPushdown = getJDBCProperty(props, TD_JDBC_MAXROWS_PUSHDOWN);
+        if(maxRowsPushdown != null) {
+            config.setMaxRowsPushdown(Boolean.parseBoolean(maxRowsPushdown));
+        }
+        String clientShared = getJDBCProperty(props, TD_JDBC_CLIENT_SHARED);
+        if(clientShared != null) {
+            config.setClientShared(Boolean.parseBoolean(clientShared));
+        }
+        String credentialsTtlMs = getJDBCProperty(props, TD_JDBC_CREDENTIALS_TTL);
+        if(credentialsTtlMs != null) {
+            long ttl;
+            try {
+                ttl = Long.parseLong(credentialsTtlMs);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.credentials.ttl: " + credentialsTtlMs);
+            }
+            if (ttl < 0) {
+                throw new SQLException("Invalid value for td.jdbc.credentials.ttl: " + credentialsTtlMs);
+            }
+            config.setCredentialsTtlMs(ttl);
+        }
+        String connectionLazy = getJDBCProperty(props, TD_JDBC_CONNECTION_LAZY);
+        if(connectionLazy != null) {
+            config.setConnectionLazy(Boolean.parseBoolean(connectionLazy));
+        }
+        String connectionPreconnect = getJDBCProperty(props, TD_JDBC_CONNECTION_PRECONNECT);
+        if(connectionPreconnect != null) {
+            config.setConnectionPreconnect(Boolean.parseBoolean(connectionPreconnect));
+        }
+        String metadataCacheTtlMs = getJDBCProperty(props, TD_JDBC_METADATA_CACHE_TTL);
+        if(metadataCacheTtlMs != null) {
+            long ttl;
+            try {
+                ttl = Long.parseLong(metadataCacheTtlMs);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.metadata.cache.ttl: " + metadataCacheTtlMs);
+            }
+            if (ttl < 0) {
+                throw new SQLException("Invalid value for td.jdbc.metadata.cache.ttl: " + metadataCacheTtlMs);
+            }
+            config.setMetadataCacheTtlMs(ttl);
+        }
+        String metadataPreload = getJDBCProperty(props, TD_JDBC_METADATA_PRELOAD);
+        if(metadataPreload != null) {
+            config.setMetadataPreload(Boolean.parseBoolean(metadataPreload));
+        }
+        String metadataAllCatalogs = getJDBCProperty(props, TD_JDBC_METADATA_ALLCATALOGS);
+        if(metadataAllCatalogs != null) {
+            config.setMetadataAllCatalogs(Boolean.parseBoolean(metadataAllCatalogs));
+        }
+        String metadataThreads = getJDBCProperty(props, TD_JDBC_METADATA_THREADS);
+        if(metadataThreads != null) {
+            int threads;
+            try {
+                threads = Integer.parseInt(metadataThreads);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.metadata.threads: " + metadataThreads);
+            }
+            if (threads < 1) {
+                throw new SQLException("Invalid value for td.jdbc.metadata.threads: " + metadataThreads);
+            }
+            config.setMetadataThreads(threads);
+        }
+        String metadataSnapshotDir = getJDBCProperty(props, TD_JDBC_METADATA_SNAPSHOT_DIR);
+        if(!isEmptyString(metadataSnapshotDir)) {
+            config.setMetadataSnapshotDir(metadataSnapshotDir);
+        }
+        String batchSize = getJDBCProperty(props, TD_JDBC_BATCH_SIZE);
+        if(batchSize != null) {
+            int size;
+            try {
+                size = Integer.parseInt(batchSize);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.batch.size: " + batchSize);
+            }
+            if (size < 1) {
+                throw new SQLException("Invalid value for td.jdbc.batch.size: " + batchSize);
+            }
+            config.setBatchSize(size);
+        }
+        String batchMaxRows = getJDBCProperty(props, TD_JDBC_BATCH_MAXROWS);
+        if(batchMaxRows != null) {
+            int rows;
+            try {
+                rows = Integer.parseInt(batchMaxRows);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.batch.maxrows: " + batchMaxRows);
+            }
+            if (rows < 1) {
+                throw new SQLException("Invalid value for td.jdbc.batch.maxrows: " + batchMaxRows);
+            }
+            config.setBatchMaxRows(rows);
+        }
+        String executorMaxThreads = getJDBCProperty(props, TD_JDBC_EXECUTOR_MAXTHREADS);
+        if(executorMaxThreads != null) {
+            int threads;
+            try {
+                threads = Integer.parseInt(executorMaxThreads);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.executor.maxthreads: " + executorMaxThreads);
+            }
+            if (threads < 1) {
+                throw new SQLException("Invalid value for td.jdbc.executor.maxthreads: " + executorMaxThreads);
+            }
+            config.setExecutorMaxThreads(threads);
+        }
+        String executorMaxDaemonThreads = getJDBCProperty(props, TD_JDBC_EXECUTOR_MAXDAEMONTHREADS);
+        if(executorMaxDaemonThreads != null) {
+            int threads;
+            try {
+                threads = Integer.parseInt(executorMaxDaemonThreads);
+            }
+            catch (NumberFormatException e) {
+                throw new SQLException("Invalid value for td.jdbc.executor.maxdaemonthreads: " + executorMaxDaemonThreads);
+            }
+            if (threads < 1) {
+                throw new SQLException("Invalid value for td.jdbc.executor.maxdaemonthreads: " + executorMaxDaemonThreads);
+            }
+            config.setExecutorMaxDaemonThreads(threads);
+        }
 
         // proxy settings: host and port are supported by Java runtime.
         // http.proxyUser and http.proxyPassword are no longer supported but
@@ -32,6 +32,39 @@ public class ConfigBuilder
     private ApiConfig apiConfig;
     private int resultRetryCountThreshold = Config.TD_JDBC_RESULT_RETRYCOUNT_THRESHOLD_DEFAULTVALUE;
     private long resultRetryWaitTimeMs = Config.TD_JDBC_RESULT_RETRY_WAITTIME_DEFAULTVALUE;
+    private long resultRetryMaxWaitTimeMs = Config.TD_JDBC_RESULT_RETRY_MAXWAITTIME_DEFAULTVALUE;
+    private boolean resultStreaming = Config.TD_JDBC_RESULT_STREAMING_DEFAULTVALUE;
+    private int resultStreamingBufferSize = Config.TD_JDBC_RESULT_STREAMING_BUFFERSIZE_DEFAULTVALUE;
+    private int resultDownloadStreams = Config.TD_JDBC_RESULT_DOWNLOAD_STREAMS_DEFAULTVALUE;
+    private long resultDownloadThreshold = Config.TD_JDBC_RESULT_DOWNLOAD_THRESHOLD_DEFAULTVALUE;
+    private Option<String> resultCacheDir = Option.empty();
+    private long resultCacheTtlMs = Config.TD_JDBC_RESULT_CACHE_TTL_DEFAULTVALUE;
+    private long resultCacheMaxSize = Config.TD_JDBC_RESULT_CACHE_MAXSIZE_DEFAULTVALUE;
+    private boolean resultPrefetch = Config.TD_JDBC_RESULT_PREFETCH_DEFAULTVALUE;
+    private int resultPrefetchBatches = Config.TD_JDBC_RESULT_PREFETCH_BATCHES_DEFAULTVALUE;
+    private long jobPollWaitTimeMs = Config.TD_JDBC_JOB_POLL_WAITTIME_DEFAULTVALUE;
+    private long jobPollMaxWaitTimeMs = Config.TD_JDBC_JOB_POLL_MAXWAITTIME_DEFAULTVALUE;
+    private double jobPollMultiplier = Config.TD_JDBC_JOB_POLL_MULTIPLIER_DEFAULTVALUE;
+    private double jobPollJitter = Config.TD_JDBC_JOB_POLL_JITTER_DEFAULTVALUE;
+    private boolean jobPollPredict = Config.TD_JDBC_JOB_POLL_PREDICT_DEFAULTVALUE;
+    private long jobPollPredictMaxWaitTimeMs = Config.TD_JDBC_JOB_POLL_PREDICT_MAXWAITTIME_DEFAULTVALUE;
+    private int maxRows = Config.TD_JDBC_MAXROWS_DEFAULTVALUE;
+    private boolean maxRowsPushdown = Config.TD_JDBC_MAXROWS_PUSHDOWN_DEFAULTVALUE;
+    private boolean clientShared = Config.TD_JDBC_CLIENT_SHARED_DEFAULTVALUE;
+    private long credentialsTtlMs = Config.TD_JDBC_CREDENTIALS_TTL_DEFAULTVALUE;
+    private boolean connectionLazy = Config.TD_JDBC_CONNECTION_LAZY_DEFAULTVALUE;
+    private boolean connectionPreconnect = Config.TD_JDBC_CONNECTION_PRECONNECT_DEFAULTVALUE;
+    private long metadataCacheTtlMs = Config.TD_JDBC_METADATA_CACHE_TTL_DEFAULTVALUE;
+    private boolean metadataPreload = Config.TD_JDBC_METADATA_PRELOAD_DEFAULTVALUE;
+    private boolean metadataAllCatalogs = Config.TD_JDBC_METADATA_ALLCATALOGS_DEFAULTVALUE;
+    private int metadataThreads = Config.TD_JDBC_METADATA_THREADS_DEFAULTVALUE;
+    private Option<String> metadataSnapshotDir = Option.empty();
+    private int batchSize = Config.TD_JDBC_BATCH_SIZE_DEFAULTVALUE;
+    private int resultDownloadTimeoutMs = Config.TD_JDBC_RESULT_DOWNLOAD_TIMEOUT_DEFAULTVALUE;
+    private int batchMaxRows = Config.TD_JDBC_BATCH_MAXROWS_DEFAULTVALUE;
+    // 0: keep the limits of the driver
+    private int executorMaxThreads = 0;
+    private int executorMaxDaemonThreads = 0;
 
     public ConfigBuilder() {}
 
@@ -44,6 +77,38 @@ public class ConfigBuilder
         this.apiConfig = config.apiConfig;
         this.resultRetryCountThreshold = config.resultRetryCountThreshold;
         this.resultRetryWaitTimeMs = config.resultRetryWaitTimeMs;
+        this.resultRetryMaxWaitTimeMs = config.resultRetryMaxWaitTimeMs;
+        this.resultStreaming = config.resultStreaming;
+        this.resultStreamingBufferSize = config.resultStreamingBufferSize;
+        this.resultDownloadStreams = config.resultDownloadStreams;
+        this.resultDownloadThreshold = config.resultDownloadThreshold;
+        this.resultCacheDir = config.resultCacheDir;
+        this.resultCacheTtlMs = config.resultCacheTtlMs;
+        this.resultCacheMaxSize = config.resultCacheMaxSize;
+        this.resultPrefetch = config.resultPrefetch;
+        this.resultPrefetchBatches = config.resultPrefetchBatches;
+        this.jobPollWaitTimeMs = config.jobPollWaitTimeMs;
+        this.jobPollMaxWaitTimeMs = config.jobPollMaxWaitTimeMs;
+        this.jobPollMultiplier = config.jobPollMultiplier;
+        this.jobPollJitter = config.jobPollJitter;
+        this.jobPollPredict = config.jobPollPredict;
+        this.jobPollPredictMaxWaitTimeMs = config.jobPollPredictMaxWaitTimeMs;
+        this.maxRows = config.maxRows;
+        this.maxRowsPushdown = config.maxRowsPushdown;
+        this.clientShared = config.clientShared;
+        this.credentialsTtlMs = config.credentialsTtlMs;
+        this.connectionLazy = config.connectionLazy;
+        this.connectionPreconnect = config.connectionPreconnect;
+        this.metadataCacheTtlMs = config.metadataCacheTtlMs;
+        this.metadataPreload = config.metadataPreload;
+        this.metadataAllCatalogs = config.metadataAllCatalogs;
+        this.metadataThreads = config.metadataThreads;
+        this.metadataSnapshotDir = config.metadataSnapshotDir;
+        this.batchSize = config.batchSize;
+        this.resultDownloadTimeoutMs = config.resultDownloadTimeoutMs;
+        this.batchMaxRows = config.batchMaxRows;
+        this.executorMaxThreads = config.executorMaxThreads;
+        this.executorMaxDaemonThreads = config.executorMaxDaemonThreads;
     }
 
     public ConfigBuilder setUrl(String url)
@@ -95,6 +160,166 @@ public class ConfigBuilder
         return this;
     }
 
+    public ConfigBuilder setResultRetryMaxWaitTimeMs(long resultRetryMaxWaitTimeMs) {
+        this.resultRetryMaxWaitTimeMs = resultRetryMaxWaitTimeMs;
+        return this;
+    }
+
+    public ConfigBuilder setResultStreaming(boolean resultStreaming) {
+        this.resultStreaming = resultStreaming;
+        return this;
+    }
+
+    public ConfigBuilder setResultStreamingBufferSize(int resultStreamingBufferSize) {
+        this.resultStreamingBufferSize = resultStreamingBufferSize;
+        return this;
+    }
+
+    public ConfigBuilder setResultDownloadStreams(int resultDownloadStreams) {
+        this.resultDownloadStreams = resultDownloadStreams;
+        return this;
+    }
+
+    public ConfigBuilder setResultDownloadThreshold(long resultDownloadThreshold) {
+        this.resultDownloadThreshold = resultDownloadThreshold;
+        return this;
+    }
+
+    public ConfigBuilder setResultCacheDir(String resultCacheDir) {
+        this.resultCacheDir = Option.of(resultCacheDir);
+        return this;
+    }
+
+    public ConfigBuilder setResultCacheTtlMs(long resultCacheTtlMs) {
+        this.resultCacheTtlMs = resultCacheTtlMs;
+        return this;
+    }
+
+    public ConfigBuilder setResultCacheMaxSize(long resultCacheMaxSize) {
+        this.resultCacheMaxSize = resultCacheMaxSize;
+        return this;
+    }
+
+    public ConfigBuilder setResultPrefetch(boolean resultPrefetch) {
+        this.resultPrefetch = resultPrefetch;
+        return this;
+    }
+
+    public ConfigBuilder setResultPrefetchBatches(int resultPrefetchBatches) {
+        this.resultPrefetchBatches = resultPrefetchBatches;
+        return this;
+    }
+
+    public ConfigBuilder setJobPollWaitTimeMs(long jobPollWaitTimeMs) {
+        this.jobPollWaitTimeMs = jobPollWaitTimeMs;
+        return this;
+    }
+
+    public ConfigBuilder setJobPollMaxWaitTimeMs(long jobPollMaxWaitTimeMs) {
+        this.jobPollMaxWaitTimeMs = jobPollMaxWaitTimeMs;
+        return this;
+    }
+
+    public ConfigBuilder setJobPollMultiplier(double jobPollMultiplier) {
+        this.jobPollMultiplier = jobPollMultiplier;
+        return this;
+    }
+
+    public ConfigBuilder setJobPollJitter(double jobPollJitter) {
+        this.jobPollJitter = jobPollJitter;
+        return this;
+    }
+
+    public ConfigBuilder setJobPollPredict(boolean jobPollPredict) {
+        this.jobPollPredict = jobPollPredict;
+        return this;
+    }
+
+    public ConfigBuilder setJobPollPredictMaxWaitTimeMs(long jobPollPredictMaxWaitTimeMs) {
+        this.jobPollPredictMaxWaitTimeMs = jobPollPredictMaxWaitTimeMs;
+        return this;
+    }
+
+    public ConfigBuilder setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    public ConfigBuilder setMaxRowsPushdown(boolean maxRowsPushdown) {
+        this.maxRowsPushdown = maxRowsPushdown;
+        return this;
+    }
+
+    public ConfigBuilder setClientShared(boolean clientShared) {
+        this.clientShared = clientShared;
+        return this;
+    }
+
+    public ConfigBuilder setCredentialsTtlMs(long credentialsTtlMs) {
+        this.credentialsTtlMs = credentialsTtlMs;
+        return this;
+    }
+
+    public ConfigBuilder setConnectionLazy(boolean connectionLazy) {
+        this.connectionLazy = connectionLazy;
+        return this;
+    }
+
+    public ConfigBuilder setConnectionPreconnect(boolean connectionPreconnect) {
+        this.connectionPreconnect = connectionPreconnect;
+        return this;
+    }
+
+    public ConfigBuilder setMetadataCacheTtlMs(long metadataCacheTtlMs) {
+        this.metadataCacheTtlMs = metadataCacheTtlMs;
+        return this;
+    }
+
+    public ConfigBuilder setMetadataPreload(boolean metadataPreload) {
+        this.metadataPreload = metadataPreload;
+        return this;
+    }
+
+    public ConfigBuilder setMetadataAllCatalogs(boolean metadataAllCatalogs) {
+        this.metadataAllCatalogs = metadataAllCatalogs;
+        return this;
+    }
+
+    public ConfigBuilder setMetadataThreads(int metadataThreads) {
+        this.metadataThreads = metadataThreads;
+        return this;
+    }
+
+    public ConfigBuilder setMetadataSnapshotDir(String metadataSnapshotDir) {
+        this.metadataSnapshotDir = Option.of(metadataSnapshotDir);
+        return this;
+    }
+
+    public ConfigBuilder setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public ConfigBuilder setResultDownloadTimeoutMs(int resultDownloadTimeoutMs) {
+        this.resultDownloadTimeoutMs = resultDownloadTimeoutMs;
+        return this;
+    }
+
+    public ConfigBuilder setBatchMaxRows(int batchMaxRows) {
+        this.batchMaxRows = batchMaxRows;
+        return this;
+    }
+
+    public ConfigBuilder setExecutorMaxThreads(int executorMaxThreads) {
+        this.executorMaxThreads = executorMaxThreads;
+        return this;
+    }
+
+    public ConfigBuilder setExecutorMaxDaemonThreads(int executorMaxDaemonThreads) {
+        this.executorMaxDaemonThreads = executorMaxDaemonThreads;
+        return this;
+    }
+
     public Config createConnectionConfig() throws SQLException
     {
         return new Config(url,
@@ -104,7 +329,39 @@ public class ConfigBuilder
                 type,
                 apiConfig != null ? apiConfig : new ApiConfig.ApiConfigBuilder().createApiConfig(),
                 resultRetryCountThreshold,
-                resultRetryWaitTimeMs
+                resultRetryWaitTimeMs,
+                resultRetryMaxWaitTimeMs,
+                resultStreaming,
+                resultStreamingBufferSize,
+                resultDownloadStreams,
+                resultDownloadThreshold,
+                resultCacheDir,
+                resultCacheTtlMs,
+                resultCacheMaxSize,
+                resultPrefetch,
+                resultPrefetchBatches,
+                jobPollWaitTimeMs,
+                jobPollMaxWaitTimeMs,
+                jobPollMultiplier,
+                jobPollJitter,
+                jobPollPredict,
+                jobPollPredictMaxWaitTimeMs,
+                maxRows,
+                maxRowsPushdown,
+                clientShared,
+                credentialsTtlMs,
+                connectionLazy,
+                connectionPreconnect,
+                metadataCacheTtlMs,
+                metadataPreload,
+                metadataAllCatalogs,
+                metadataThreads,
+                metadataSnapshotDir,
+                batchSize,
+                resultDownloadTimeoutMs,
+                batchMaxRows,
+                executorMaxThreads,
+                executorMaxDaemonThreads
                 );
     }
 }
\ No newline at end of file
@@ -238,6 +238,100 @@ public interface Constants
     String TD_JDBC_RESULT_RETRY_WAITTIME = "td.jdbc.result.retry.waittime";
     long TD_JDBC_RESULT_RETRY_WAITTIME_DEFAULTVALUE = (20 * 1000); // millis
 
+    String TD_JDBC_RESULT_RETRY_MAXWAITTIME = "td.jdbc.result.retry.maxwaittime";
+    long TD_JDBC_RESULT_RETRY_MAXWAITTIME_DEFAULTVALUE = (5 * 60 * 1000); // millis
+
+    String TD_JDBC_RESULT_STREAMING = "td.jdbc.result.streaming";
+    boolean TD_JDBC_RESULT_STREAMING_DEFAULTVALUE = false;
+
+    String TD_JDBC_RESULT_STREAMING_BUFFERSIZE = "td.jdbc.result.streaming.buffersize";
+    int TD_JDBC_RESULT_STREAMING_BUFFERSIZE_DEFAULTVALUE = (8 * 1024 * 1024); // bytes
+
+    String TD_JDBC_RESULT_DOWNLOAD_STREAMS = "td.jdbc.result.download.streams";
+    int TD_JDBC_RESULT_DOWNLOAD_STREAMS_DEFAULTVALUE = 1;
+
+    String TD_JDBC_RESULT_DOWNLOAD_THRESHOLD = "td.jdbc.result.download.threshold";
+    long TD_JDBC_RESULT_DOWNLOAD_THRESHOLD_DEFAULTVALUE = (64 * 1024 * 1024); // bytes
+
+    String TD_JDBC_RESULT_DOWNLOAD_TIMEOUT = "td.jdbc.result.download.timeout";
+    int TD_JDBC_RESULT_DOWNLOAD_TIMEOUT_DEFAULTVALUE = 60000; // ms
+
+    String TD_JDBC_RESULT_CACHE_DIR = "td.jdbc.result.cache.dir";
+
+    String TD_JDBC_RESULT_CACHE_TTL = "td.jdbc.result.cache.ttl";
+    long TD_JDBC_RESULT_CACHE_TTL_DEFAULTVALUE = (60 * 60 * 1000); // millis
+
+    String TD_JDBC_RESULT_CACHE_MAXSIZE = "td.jdbc.result.cache.maxsize";
+    long TD_JDBC_RESULT_CACHE_MAXSIZE_DEFAULTVALUE = (1024L * 1024 * 1024); // bytes
+
+    String TD_JDBC_RESULT_PREFETCH = "td.jdbc.result.prefetch";
+    boolean TD_JDBC_RESULT_PREFETCH_DEFAULTVALUE = false;
+
+    String TD_JDBC_RESULT_PREFETCH_BATCHES = "td.jdbc.result.prefetch.batches";
+    int TD_JDBC_RESULT_PREFETCH_BATCHES_DEFAULTVALUE = 2;
+
+    String TD_JDBC_JOB_POLL_WAITTIME = "td.jdbc.job.poll.waittime";
+    long TD_JDBC_JOB_POLL_WAITTIME_DEFAULTVALUE = 100; // millis
+
+    String TD_JDBC_JOB_POLL_MAXWAITTIME = "td.jdbc.job.poll.maxwaittime";
+    long TD_JDBC_JOB_POLL_MAXWAITTIME_DEFAULTVALUE = (10 * 1000); // millis
+
+    String TD_JDBC_JOB_POLL_MULTIPLIER = "td.jdbc.job.poll.multiplier";
+    double TD_JDBC_JOB_POLL_MULTIPLIER_DEFAULTVALUE = 1.5;
+
+    String TD_JDBC_JOB_POLL_JITTER = "td.jdbc.job.poll.jitter";
+    double TD_JDBC_JOB_POLL_JITTER_DEFAULTVALUE = 0.2;
+
+    String TD_JDBC_JOB_POLL_PREDICT = "td.jdbc.job.poll.predict";
+    boolean TD_JDBC_JOB_POLL_PREDICT_DEFAULTVALUE = false;
+
+    String TD_JDBC_JOB_POLL_PREDICT_MAXWAITTIME = "td.jdbc.job.poll.predict.maxwaittime";
+    long TD_JDBC_JOB_POLL_PREDICT_MAXWAITTIME_DEFAULTVALUE = (60 * 1000); // millis
+
+    String TD_JDBC_MAXROWS = "td.jdbc.maxrows";
+    int TD_JDBC_MAXROWS_DEFAULTVALUE = 0; // no limit
+
+    String TD_JDBC_MAXROWS_PUSHDOWN = "td.jdbc.maxrows.pushdown";
+    boolean TD_JDBC_MAXROWS_PUSHDOWN_DEFAULTVALUE = true;
+
+    String TD_JDBC_CLIENT_SHARED = "td.jdbc.client.shared";
+    boolean TD_JDBC_CLIENT_SHARED_DEFAULTVALUE = true;
+
+    String TD_JDBC_CREDENTIALS_TTL = "td.jdbc.credentials.ttl";
+    long TD_JDBC_CREDENTIALS_TTL_DEFAULTVALUE = (60 * 60 * 1000); // millis
+
+    String TD_JDBC_CONNECTION_LAZY = "td.jdbc.connection.lazy";
+    boolean TD_JDBC_CONNECTION_LAZY_DEFAULTVALUE = false;
+
+    String TD_JDBC_CONNECTION_PRECONNECT = "td.jdbc.connection.preconnect";
+    boolean TD_JDBC_CONNECTION_PRECONNECT_DEFAULTVALUE = false;
+
+    String TD_JDBC_METADATA_CACHE_TTL = "td.jdbc.metadata.cache.ttl";
+    long TD_JDBC_METADATA_CACHE_TTL_DEFAULTVALUE = 0; // millis, disabled
+
+    String TD_JDBC_METADATA_PRELOAD = "td.jdbc.metadata.preload";
+    boolean TD_JDBC_METADATA_PRELOAD_DEFAULTVALUE = false;
+
+    String TD_JDBC_METADATA_ALLCATALOGS = "td.jdbc.metadata.allcatalogs";
+    boolean TD_JDBC_METADATA_ALLCATALOGS_DEFAULTVALUE = false;
+
+    String TD_JDBC_METADATA_THREADS = "td.jdbc.metadata.threads";
+    int TD_JDBC_METADATA_THREADS_DEFAULTVALUE = 8;
+
+    String TD_JDBC_METADATA_SNAPSHOT_DIR = "td.jdbc.metadata.snapshot.dir";
+
+    String TD_JDBC_BATCH_SIZE = "td.jdbc.batch.size";
+    int TD_JDBC_BATCH_SIZE_DEFAULTVALUE = 500;
+
+    String TD_JDBC_BATCH_MAXROWS = "td.jdbc.batch.maxrows";
+    int TD_JDBC_BATCH_MAXROWS_DEFAULTVALUE = 100000;
+
+    String TD_JDBC_EXECUTOR_MAXTHREADS = "td.jdbc.executor.maxthreads";
+    int TD_JDBC_EXECUTOR_MAXTHREADS_DEFAULTVALUE = 128;
+
+    String TD_JDBC_EXECUTOR_MAXDAEMONTHREADS = "td.jdbc.executor.maxdaemonthreads";
+    int TD_JDBC_EXECUTOR_MAXDAEMONTHREADS_DEFAULTVALUE = 64;
+
     // JDBC compliance
     boolean JDBC_COMPLIANT = false;
 
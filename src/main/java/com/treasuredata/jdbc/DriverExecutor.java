@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Thread pools shared by all connections of the driver for the background
+ * work of result sets: job status polls, result downloads, streaming and row
+ * prefetch.
+ *
+ * Short tasks that wait for nothing but I/O, e.g. a range of a download,
+ * run on daemon threads named td-jdbc-worker-N. At most
+ * td.jdbc.executor.maxthreads of them run at once and the others wait in the
+ * queue. Loops that live as long as a result set or a pool, and tasks that
+ * wait for other tasks, are submitted with {@link Scope#submitLongRunning}
+ * and get a daemon thread named td-jdbc-daemon-N at once, so that they never
+ * wait for a worker and never hold one that a task they wait for needs. At
+ * most td.jdbc.executor.maxdaemonthreads of them run at once. When all are
+ * in use, the submission is rejected and the caller does the work in its own
+ * thread or skips it. Idle threads of both pools exit after a minute.
+ *
+ * The limits are read from the system properties when the executor is
+ * created, and a connection can change them with the same keys in its
+ * properties. They apply to all connections of the driver.
+ *
+ * Tasks are submitted to a {@link Scope}, usually one per connection, which
+ * counts its tasks and cancels the remaining ones when it is closed.
+ */
+public class DriverExecutor
+{
+    private static final Logger LOG = Logger.getLogger(DriverExecutor.class.getName());
+
+    private static final long KEEP_ALIVE_TIME_MS = 60 * 1000;
+
+    private static DriverExecutor instance;
+
+    public static synchronized DriverExecutor getInstance()
+    {
+        if (instance == null) {
+            int maxThreads = getIntProperty(Constants.TD_JDBC_EXECUTOR_MAXTHREADS,
+                    Constants.TD_JDBC_EXECUTOR_MAXTHREADS_DEFAULTVALUE);
+            int maxDaemonThreads = getIntProperty(Constants.TD_JDBC_EXECUTOR_MAXDAEMONTHREADS,
+                    Constants.TD_JDBC_EXECUTOR_MAXDAEMONTHREADS_DEFAULTVALUE);
+            instance = new DriverExecutor(Math.max(1, maxThreads), Math.max(1, maxDaemonThreads));
+        }
+        return instance;
+    }
+
+    private static int getIntProperty(String key, int defaultValue)
+    {
+        String v = System.getProperty(key);
+        if (v == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(v);
+        }
+        catch (NumberFormatException e) {
+            LOG.warning("Invalid value for " + key + ": " + v);
+            return defaultValue;
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    // for the long-running tasks, without a queue
+    private final ThreadPoolExecutor daemons;
+    private final Scope sharedScope;
+
+    DriverExecutor(int maxThreads)
+    {
+        this(maxThreads, Constants.TD_JDBC_EXECUTOR_MAXDAEMONTHREADS_DEFAULTVALUE);
+    }
+
+    DriverExecutor(int maxThreads, int maxDaemonThreads)
+    {
+        this.pool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_TIME_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                newThreadFactory("td-jdbc-worker-"));
+        this.pool.allowCoreThreadTimeOut(true);
+        this.daemons = new ThreadPoolExecutor(0, maxDaemonThreads,
+                KEEP_ALIVE_TIME_MS, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(),
+                newThreadFactory("td-jdbc-daemon-"));
+        this.sharedScope = new Scope("shared");
+    }
+
+    private static ThreadFactory newThreadFactory(final String prefix)
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, prefix + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns a new scope. The tasks of the scope are cancelled when it is
+     * closed.
+     *
+     * @param name name of the scope for logging
+     */
+    public Scope newScope(String name)
+    {
+        return new Scope(name);
+    }
+
+    /**
+     * Returns the scope of the tasks that do not belong to a connection. It is
+     * never closed.
+     */
+    public Scope getSharedScope()
+    {
+        return sharedScope;
+    }
+
+    public int getMaxThreads()
+    {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Change the max number of the worker threads. The running tasks are
+     * not affected.
+     */
+    public synchronized void setMaxThreads(int maxThreads)
+    {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+        }
+        // the core size never exceeds the max size in between
+        if (maxThreads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(maxThreads);
+            pool.setCorePoolSize(maxThreads);
+        }
+        else {
+            pool.setCorePoolSize(maxThreads);
+            pool.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    public int getMaxDaemonThreads()
+    {
+        return daemons.getMaximumPoolSize();
+    }
+
+    /**
+     * Change the max number of the threads of the long-running tasks. The
+     * running tasks are not affected.
+     */
+    public synchronized void setMaxDaemonThreads(int maxDaemonThreads)
+    {
+        if (maxDaemonThreads < 1) {
+            throw new IllegalArgumentException("maxDaemonThreads must be positive: " + maxDaemonThreads);
+        }
+        daemons.setMaximumPoolSize(maxDaemonThreads);
+    }
+
+    public int getPoolSize()
+    {
+        return pool.getPoolSize();
+    }
+
+    /**
+     * Returns the number of the running tasks
+     */
+    public int getActiveCount()
+    {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Returns the number of the tasks waiting for a thread
+     */
+    public int getQueueDepth()
+    {
+        return pool.getQueue().size();
+    }
+
+    public long getCompletedTaskCount()
+    {
+        return pool.getCompletedTaskCount();
+    }
+
+    /**
+     * Returns the number of the running long-running tasks
+     */
+    public int getLongRunningCount()
+    {
+        return daemons.getActiveCount();
+    }
+
+    /**
+     * Tasks of a connection
+     */
+    public class Scope
+    {
+        private final String name;
+        private final Set<Task<?>> tasks = new HashSet<Task<?>>();
+        private final AtomicLong submittedCount = new AtomicLong();
+        private boolean closed = false;
+
+        private Scope(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Run the task on a worker thread. The task must not wait for other
+         * tasks of the executor.
+         *
+         * @param threadName name of the worker thread while it runs the
+         * task
+         * @throws RejectedExecutionException if the scope is already closed
+         */
+        public <T> Task<T> submit(String threadName, Callable<T> callable)
+        {
+            return execute(pool, new Task<T>(this, threadName, callable));
+        }
+
+        public Task<Void> submit(String threadName, Runnable runnable)
+        {
+            return execute(pool, new Task<Void>(this, threadName, runnable));
+        }
+
+        /**
+         * Run a loop or a task that waits for other tasks on a daemon thread
+         * of its own. It starts at once regardless of the worker threads in
+         * use.
+         *
+         * @param threadName name of the thread while it runs the task
+         * @throws RejectedExecutionException if the scope is already closed,
+         * or all the threads of the long-running tasks are in use. The
+         * caller does the work by itself or skips it.
+         */
+        public <T> Task<T> submitLongRunning(String threadName, Callable<T> callable)
+        {
+            return execute(daemons, new Task<T>(this, threadName, callable));
+        }
+
+        public Task<Void> submitLongRunning(String threadName, Runnable runnable)
+        {
+            return execute(daemons, new Task<Void>(this, threadName, runnable));
+        }
+
+        private <T> Task<T> execute(ThreadPoolExecutor executor, Task<T> task)
+        {
+            synchronized (this) {
+                if (closed) {
+                    throw new RejectedExecutionException("executor scope " + name + " is already closed");
+                }
+                tasks.add(task);
+            }
+            submittedCount.incrementAndGet();
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e) {
+                remove(task);
+                throw e;
+            }
+            return task;
+        }
+
+        private synchronized void remove(Task<?> task)
+        {
+            tasks.remove(task);
+        }
+
+        /**
+         * Returns the number of the tasks that are running or waiting for a
+         * thread
+         */
+        public synchronized int getPendingCount()
+        {
+            return tasks.size();
+        }
+
+        public long getSubmittedCount()
+        {
+            return submittedCount.get();
+        }
+
+        public synchronized boolean isClosed()
+        {
+            return closed;
+        }
+
+        /**
+         * Cancel the remaining tasks and interrupt the running ones. No task
+         * can be submitted afterwards.
+         */
+        public void close()
+        {
+            List<Task<?>> remaining;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                remaining = new ArrayList<Task<?>>(tasks);
+            }
+            if (!remaining.isEmpty()) {
+                LOG.info(String.format("cancel %d tasks of %s", remaining.size(), name));
+            }
+            for (Task<?> t : remaining) {
+                t.cancel(true);
+            }
+            // queued tasks are dropped from the pool
+            pool.purge();
+        }
+    }
+
+    /**
+     * A submitted task. {@link #awaitTermination(long)} waits until the task
+     * is not running on a thread any more, even if it is cancelled.
+     */
+    public static class Task<T>
+            extends FutureTask<T>
+    {
+        private final Scope scope;
+        private final String threadName;
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        Task(Scope scope, String threadName, Callable<T> callable)
+        {
+            super(callable);
+            this.scope = scope;
+            this.threadName = threadName;
+        }
+
+        Task(Scope scope, String threadName, Runnable runnable)
+        {
+            super(runnable, null);
+            this.scope = scope;
+            this.threadName = threadName;
+        }
+
+        @Override
+        public void run()
+        {
+            started.set(true);
+            Thread t = Thread.currentThread();
+            String workerName = t.getName();
+            if (threadName != null) {
+                t.setName(threadName);
+            }
+            try {
+                super.run();
+            }
+            finally {
+                t.setName(workerName);
+                terminated.countDown();
+            }
+        }
+
+        @Override
+        protected void done()
+        {
+            scope.remove(this);
+            if (isCancelled() && !started.get()) {
+                // the task will never run
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * @return true if the task is not running
+         */
+        public boolean awaitTermination(long timeoutMs)
+        {
+            try {
+                return terminated.await(timeoutMs, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return terminated.getCount() == 0;
+            }
+        }
+    }
+}
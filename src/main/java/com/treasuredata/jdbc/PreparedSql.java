@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL of a prepared statement split into literal segments and parameter
+ * markers. A '?' in a quoted string, a quoted identifier or a comment is not
+ * a parameter. The SQL is scanned once when the statement is prepared, and
+ * statements prepared with the same SQL share one instance.
+ */
+public class PreparedSql
+{
+    private static final int CACHE_MAX_ENTRIES = 1000;
+
+    private static final ConcurrentHashMap<String, PreparedSql> CACHE = new ConcurrentHashMap<String, PreparedSql>();
+
+    private final String sql;
+    // segments[i] is followed by the (i + 1)-th parameter, except the last one
+    private final String[] segments;
+    private final int literalLength;
+
+    private PreparedSql(String sql, List<String> segments)
+    {
+        this.sql = sql;
+        this.segments = segments.toArray(new String[segments.size()]);
+        int len = 0;
+        for (String s : this.segments) {
+            len += s.length();
+        }
+        this.literalLength = len;
+    }
+
+    public static PreparedSql parse(String sql)
+    {
+        PreparedSql parsed = CACHE.get(sql);
+        if (parsed != null) {
+            return parsed;
+        }
+
+        parsed = new PreparedSql(sql, split(sql));
+        if (CACHE.size() >= CACHE_MAX_ENTRIES) {
+            CACHE.clear();
+        }
+        PreparedSql prev = CACHE.putIfAbsent(sql, parsed);
+        return prev != null ? prev : parsed;
+    }
+
+    private static List<String> split(String sql)
+    {
+        List<String> segments = new ArrayList<String>();
+        int len = sql.length();
+        int start = 0;
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            switch (c) {
+            case '\\':
+                // the escaped character is never a parameter
+                i += 2;
+                break;
+            case '?':
+                segments.add(sql.substring(start, i));
+                start = ++i;
+                break;
+            default:
+                int end = skipQuotedOrComment(sql, i, true);
+                i = end >= 0 ? end : i + 1;
+                break;
+            }
+        }
+        segments.add(sql.substring(start));
+        return segments;
+    }
+
+    /**
+     * Returns the index next to the quoted text or the comment that starts
+     * at the given index, or -1 if none starts there. A '--' comment ends
+     * after the line break.
+     *
+     * @param backslashEscapes true if a backslash escapes the next character
+     * in a quoted text (Hive), false for standard SQL (Presto)
+     */
+    public static int skipQuotedOrComment(String sql, int i, boolean backslashEscapes)
+    {
+        int len = sql.length();
+        char c = sql.charAt(i);
+        switch (c) {
+        case '\'':
+        case '"':
+        case '`':
+            return skipQuoted(sql, i, c, backslashEscapes);
+        case '-':
+            if (i + 1 < len && sql.charAt(i + 1) == '-') {
+                int eol = sql.indexOf('\n', i + 2);
+                return eol < 0 ? len : eol + 1;
+            }
+            return -1;
+        case '/':
+            if (i + 1 < len && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                return end < 0 ? len : end + 2;
+            }
+            return -1;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the index next to the closing quote. A doubled quote inside
+     * the quoted text is read as two quoted texts next to each other.
+     */
+    private static int skipQuoted(String sql, int open, char quote, boolean backslashEscapes)
+    {
+        int len = sql.length();
+        int i = open + 1;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (c == '\\' && backslashEscapes) {
+                i += 2;
+            }
+            else if (c == quote) {
+                return i + 1;
+            }
+            else {
+                i++;
+            }
+        }
+        return len;
+    }
+
+    public String getSql()
+    {
+        return sql;
+    }
+
+    public int getParameterCount()
+    {
+        return segments.length - 1;
+    }
+
+    /**
+     * Returns the SQL with the parameters replaced by the given values. A
+     * parameter without a value is left as '?'.
+     *
+     * @param parameters the value of each parameter, the first parameter is 1
+     */
+    public String render(Map<Integer, String> parameters)
+    {
+        int count = getParameterCount();
+        if (count == 0) {
+            return sql;
+        }
+
+        String[] values = new String[count];
+        int size = literalLength;
+        for (int i = 0; i < count; i++) {
+            String v = parameters.get(i + 1);
+            values[i] = v;
+            size += v == null ? 1 : v.length();
+        }
+
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < count; i++) {
+            sb.append(segments[i]);
+            if (values[i] == null) {
+                sb.append('?');
+            }
+            else {
+                sb.append(values[i]);
+            }
+        }
+        sb.append(segments[count]);
+        return sb.toString();
+    }
+
+    static void clearCache()
+    {
+        CACHE.clear();
+    }
+}
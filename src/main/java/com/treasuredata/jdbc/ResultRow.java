@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.msgpack.MessageTypeException;
+import org.msgpack.packer.Packer;
+import org.msgpack.type.ValueFactory;
+import org.msgpack.type.ValueType;
+import org.msgpack.unpacker.Unpacker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Row of a result set. One instance is reused for all rows of a result set.
+ *
+ * The cells are read from the unpacker with primitive reads into typed slots.
+ * Integers, floating point numbers and booleans are kept as primitives and
+ * strings as the raw bytes. The msgpack Value of a cell is created only when
+ * it is asked by get(int), i.e. by ResultSet#getObject.
+ */
+class ResultRow
+        extends AbstractList<Object>
+        implements RandomAccess
+{
+    static final byte NIL = 0;
+    static final byte BOOLEAN = 1;
+    static final byte INTEGER = 2;
+    static final byte DOUBLE = 3;
+    static final byte RAW = 4;
+    // any other value, e.g. array, map, float and integers out of the range
+    // of long. It is kept as a Value.
+    static final byte VALUE = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] kinds = new byte[16];
+    private long[] longs = new long[16];
+    private double[] doubles = new double[16];
+    private byte[][] raws = new byte[16][];
+    private String[] strings = new String[16];
+    private Object[] values = new Object[16];
+    private int size = 0;
+
+    // invalid bytes are replaced with U+FFFD as RawValue#getString does
+    private final CharsetDecoder decoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Read the cells of the next row of the unpacker. The cells of the
+     * previous row are replaced.
+     *
+     * @param unpacker unpacker positioned at the beginning of a row
+     * @param schema schema of the result, or null if unknown. The cells of
+     * float columns are kept as they are encoded.
+     * @return false if there are no more rows
+     * @throws IOException
+     */
+    boolean read(Unpacker unpacker, TDResultSchema schema)
+            throws IOException
+    {
+        int n;
+        try {
+            n = unpacker.readArrayBegin();
+        }
+        catch (EOFException e) {
+            // end of the result. EOF in the middle of a row is an error.
+            return false;
+        }
+        clearFrom(n);
+        size = 0;
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            strings[i] = null;
+            values[i] = null;
+            raws[i] = null;
+            ValueType type = unpacker.getNextType();
+            switch (type) {
+                case NIL:
+                    unpacker.readNil();
+                    kinds[i] = NIL;
+                    break;
+                case BOOLEAN:
+                    longs[i] = unpacker.readBoolean() ? 1 : 0;
+                    kinds[i] = BOOLEAN;
+                    break;
+                case INTEGER:
+                    try {
+                        longs[i] = unpacker.readLong();
+                        kinds[i] = INTEGER;
+                    }
+                    catch (MessageTypeException e) {
+                        // uint64 above Long.MAX_VALUE. The unpacker does not
+                        // consume the cell when the conversion fails.
+                        values[i] = ValueFactory.createIntegerValue(unpacker.readBigInteger());
+                        kinds[i] = VALUE;
+                    }
+                    break;
+                case FLOAT:
+                    if (schema != null && schema.isFloat(i + 1)) {
+                        // keep the precision of float values
+                        values[i] = unpacker.readValue();
+                        kinds[i] = VALUE;
+                    }
+                    else {
+                        doubles[i] = unpacker.readDouble();
+                        kinds[i] = DOUBLE;
+                    }
+                    break;
+                case RAW:
+                    raws[i] = unpacker.readByteArray();
+                    kinds[i] = RAW;
+                    break;
+                default:
+                    values[i] = unpacker.readValue();
+                    kinds[i] = VALUE;
+                    break;
+            }
+        }
+        unpacker.readArrayEnd();
+        size = n;
+        return true;
+    }
+
+    /**
+     * Write the cells of the row as a msgpack array
+     */
+    void writeTo(Packer packer)
+            throws IOException
+    {
+        packer.writeArrayBegin(size);
+        for (int i = 0; i < size; i++) {
+            switch (kinds[i]) {
+                case NIL:
+                    packer.writeNil();
+                    break;
+                case BOOLEAN:
+                    packer.write(longs[i] != 0);
+                    break;
+                case INTEGER:
+                    packer.write(longs[i]);
+                    break;
+                case DOUBLE:
+                    packer.write(doubles[i]);
+                    break;
+                case RAW:
+                    packer.write(raws[i]);
+                    break;
+                default:
+                    packer.write(values[i]);
+                    break;
+            }
+        }
+        packer.writeArrayEnd();
+    }
+
+    private void ensureCapacity(int n)
+    {
+        if (kinds.length < n) {
+            int len = Math.max(n, kinds.length * 2);
+            kinds = new byte[len];
+            longs = new long[len];
+            doubles = new double[len];
+            raws = new byte[len][];
+            strings = new String[len];
+            values = new Object[len];
+        }
+    }
+
+    private void clearFrom(int n)
+    {
+        // release the cells of the previous row
+        for (int i = n; i < size; i++) {
+            raws[i] = null;
+            strings[i] = null;
+            values[i] = null;
+        }
+    }
+
+    /**
+     * Returns the kind of the cell
+     *
+     * @param index the first cell is 0
+     */
+    byte getKind(int index)
+    {
+        return kinds[index];
+    }
+
+    boolean getBoolean(int index)
+    {
+        return longs[index] != 0;
+    }
+
+    long getLong(int index)
+    {
+        return longs[index];
+    }
+
+    double getDouble(int index)
+    {
+        return doubles[index];
+    }
+
+    /**
+     * Returns the string of a raw cell. Bytes that are not valid UTF-8 are
+     * replaced with U+FFFD.
+     */
+    String getString(int index)
+    {
+        String s = strings[index];
+        if (s == null) {
+            try {
+                s = decoder.decode(ByteBuffer.wrap(raws[index])).toString();
+            }
+            catch (CharacterCodingException e) {
+                // not thrown with CodingErrorAction.REPLACE
+                throw new IllegalStateException(e);
+            }
+            strings[index] = s;
+        }
+        return s;
+    }
+
+    @Override
+    public Object get(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Object v = values[index];
+        if (v == null) {
+            v = toValue(index);
+            values[index] = v;
+        }
+        return v;
+    }
+
+    private Object toValue(int index)
+    {
+        switch (kinds[index]) {
+            case NIL:
+                return ValueFactory.createNilValue();
+            case BOOLEAN:
+                return ValueFactory.createBooleanValue(longs[index] != 0);
+            case INTEGER:
+                long l = longs[index];
+                if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                    return ValueFactory.createIntegerValue((int) l);
+                }
+                else {
+                    return ValueFactory.createIntegerValue(l);
+                }
+            case DOUBLE:
+                return ValueFactory.createFloatValue(doubles[index]);
+            case RAW:
+                return ValueFactory.createRawValue(raws[index], true);
+            default:
+                throw new IllegalStateException("unknown cell: " + kinds[index]);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+}
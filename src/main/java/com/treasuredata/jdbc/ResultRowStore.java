@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.msgpack.MessagePack;
+import org.msgpack.packer.Packer;
+import org.msgpack.unpacker.Unpacker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the rows read from a job result in a sidecar file so that a scrollable
+ * result set can go back to any row.
+ *
+ * The rows are appended to a data file as uncompressed msgpack arrays. The
+ * byte offset of each row is appended to an index file, 8 bytes per row, so
+ * that reading row n is one seek into the index, one seek into the data file
+ * and the decode of the row.
+ */
+class ResultRowStore
+{
+    private static final Logger LOG = Logger.getLogger(ResultRowStore.class.getName());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static class CountingOutputStream
+            extends FilterOutputStream
+    {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b)
+                throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private final MessagePack msgpack = new MessagePack();
+    private final TDResultSchema schema;
+    private final File dataFile;
+    private final File indexFile;
+
+    private final CountingOutputStream dataOut;
+    private final Packer packer;
+    private final DataOutputStream indexOut;
+    private long rowCount = 0;
+    private boolean flushed = true;
+
+    private RandomAccessFile dataReader;
+    private RandomAccessFile indexReader;
+    private Unpacker unpacker;
+    private long unpackerNextRow = -1;
+    private final ResultRow row = new ResultRow();
+
+    /**
+     * @param schema schema of the result, or null if unknown
+     */
+    ResultRowStore(TDResultSchema schema)
+            throws IOException
+    {
+        this.schema = schema;
+        this.dataFile = File.createTempFile("td-jdbc-rows-", ".msgpack");
+        this.indexFile = File.createTempFile("td-jdbc-rows-", ".idx");
+        this.dataOut = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile), BUFFER_SIZE));
+        this.packer = msgpack.createPacker(dataOut);
+        this.indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), BUFFER_SIZE));
+        LOG.fine("created the row store: " + dataFile);
+    }
+
+    /**
+     * Append a row. Its row number is getRowCount() after this call.
+     */
+    void append(ResultRow r)
+            throws IOException
+    {
+        indexOut.writeLong(dataOut.count);
+        r.writeTo(packer);
+        rowCount++;
+        flushed = false;
+    }
+
+    long getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Returns the row of the given row number, the first row is 1. The
+     * returned row is valid until the next call of this method.
+     */
+    ResultRow read(long rowNumber)
+            throws IOException
+    {
+        if (rowNumber < 1 || rowNumber > rowCount) {
+            throw new IOException("row " + rowNumber + " is not in the row store of " + rowCount + " rows");
+        }
+        if (!flushed) {
+            dataOut.flush();
+            indexOut.flush();
+            flushed = true;
+        }
+        if (dataReader == null) {
+            dataReader = new RandomAccessFile(dataFile, "r");
+            indexReader = new RandomAccessFile(indexFile, "r");
+        }
+
+        if (unpacker == null || rowNumber != unpackerNextRow) {
+            // seek to the row
+            indexReader.seek((rowNumber - 1) * 8);
+            long offset = indexReader.readLong();
+            dataReader.getChannel().position(offset);
+            unpacker = msgpack.createUnpacker(new BufferedInputStream(
+                    Channels.newInputStream(dataReader.getChannel()), BUFFER_SIZE));
+        }
+        if (!row.read(unpacker, schema)) {
+            throw new IOException("Cannot read row " + rowNumber + " from the row store");
+        }
+        unpackerNextRow = rowNumber + 1;
+        return row;
+    }
+
+    /**
+     * Close and delete the files
+     */
+    void close()
+    {
+        closeQuietly(packer);
+        closeQuietly(indexOut);
+        if (dataReader != null) {
+            closeQuietly(dataReader);
+            closeQuietly(indexReader);
+        }
+        unpacker = null;
+        dataFile.delete();
+        indexFile.delete();
+        LOG.fine("deleted the row store: " + dataFile);
+    }
+
+    private static void closeQuietly(Closeable c)
+    {
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.msgpack.unpacker.Unpacker;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * Decodes the rows of a job result on a background thread in batches of
+ * fetchSize rows, so that the application can process a row while the next
+ * rows are decoded.
+ *
+ * The batches and their rows are pooled. At most (batches + 2) * fetchSize
+ * rows are held: the prefetched batches, the batch being decoded and the
+ * batch being read by the consumer.
+ */
+class RowPrefetcher
+{
+    private static final Logger LOG = Logger.getLogger(RowPrefetcher.class.getName());
+
+    private static class Batch
+    {
+        final ResultRow[] rows;
+        int size = 0;
+
+        Batch(int fetchSize)
+        {
+            rows = new ResultRow[fetchSize];
+            for (int i = 0; i < fetchSize; i++) {
+                rows[i] = new ResultRow();
+            }
+        }
+    }
+
+    private static final Batch EOF = new Batch(0);
+
+    private final Unpacker unpacker;
+    private final TDResultSchema schema;
+    private final BlockingQueue<Batch> filled = new LinkedBlockingQueue<Batch>();
+    private final BlockingQueue<Batch> free = new LinkedBlockingQueue<Batch>();
+    private final DriverExecutor.Task<Void> decoder;
+
+    private volatile boolean closed = false;
+    private volatile Throwable error = null;
+
+    private Batch current = null;
+    private int pos = 0;
+    private boolean eof = false;
+
+    /**
+     * @param unpacker unpacker of the job result
+     * @param schema schema of the result, or null if unknown
+     * @param fetchSize number of rows in a batch
+     * @param batches max number of batches decoded ahead of the consumer
+     * @param executor executor of the decoder
+     */
+    RowPrefetcher(Unpacker unpacker, TDResultSchema schema, int fetchSize, int batches, DriverExecutor.Scope executor)
+    {
+        this.unpacker = unpacker;
+        this.schema = schema;
+        int rows = Math.max(1, fetchSize);
+        for (int i = 0; i < Math.max(1, batches) + 2; i++) {
+            free.add(new Batch(rows));
+        }
+        this.decoder = executor.submitLongRunning("td-jdbc-result-prefetch", new Runnable()
+        {
+            public void run()
+            {
+                decode();
+            }
+        });
+    }
+
+    private void decode()
+    {
+        try {
+            while (!closed) {
+                Batch batch = free.take();
+                batch.size = 0;
+                while (batch.size < batch.rows.length && batch.rows[batch.size].read(unpacker, schema)) {
+                    batch.size++;
+                }
+                boolean end = batch.size < batch.rows.length;
+                if (batch.size > 0) {
+                    filled.add(batch);
+                }
+                else {
+                    free.add(batch);
+                }
+                if (end) {
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // closed
+        }
+        catch (Throwable t) {
+            if (!closed) {
+                LOG.warning("failed to decode the job result: " + t);
+                error = t;
+            }
+        }
+        finally {
+            filled.add(EOF);
+        }
+    }
+
+    /**
+     * Returns the next row, or null if there are no more rows. The returned
+     * row is valid until the next call of this method.
+     *
+     * @throws IOException if the rows cannot be decoded
+     */
+    ResultRow next()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("result set is already closed");
+        }
+        while (!eof) {
+            if (current != null && pos < current.size) {
+                return current.rows[pos++];
+            }
+            if (current != null) {
+                // the consumer has read all rows of the batch
+                free.add(current);
+                current = null;
+            }
+
+            Batch batch;
+            try {
+                batch = filled.take();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while reading the job result");
+            }
+            if (batch == EOF) {
+                eof = true;
+            }
+            else {
+                current = batch;
+                pos = 0;
+            }
+        }
+        if (error != null) {
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            throw new IOException(error);
+        }
+        return null;
+    }
+
+    /**
+     * Stop decoding. The caller closes the unpacker to unblock a pending
+     * read, then waits for the decoder with {@link #awaitTermination(long)}.
+     */
+    void close()
+    {
+        closed = true;
+        decoder.cancel(true);
+        filled.clear();
+        free.clear();
+        current = null;
+    }
+
+    boolean awaitTermination(long timeoutMs)
+    {
+        return decoder.awaitTermination(timeoutMs);
+    }
+}
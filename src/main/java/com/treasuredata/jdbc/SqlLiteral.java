@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import com.treasure_data.model.Job;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Renders a parameter value of TDPreparedStatement as a SQL literal. The
+ * Presto renderer writes standard SQL literals, and the Hive renderer uses
+ * backslash escapes and casts for the types Hive has no literal for.
+ *
+ * The rendering does not depend on the default locale, so the same values
+ * always produce the same SQL, and repeated executions share the cached
+ * job results keyed on it.
+ */
+class SqlLiteral
+{
+    static final SqlLiteral PRESTO = new SqlLiteral();
+    static final SqlLiteral HIVE = new HiveLiteral();
+
+    static SqlLiteral forType(Job.Type type)
+    {
+        return type == Job.Type.HIVE ? HIVE : PRESTO;
+    }
+
+    String nullValue()
+    {
+        return "NULL";
+    }
+
+    String booleanValue(boolean x)
+    {
+        return x ? "true" : "false";
+    }
+
+    String longValue(long x)
+    {
+        return Long.toString(x);
+    }
+
+    String doubleValue(double x)
+    {
+        if (Double.isNaN(x)) {
+            return "nan()";
+        }
+        else if (Double.isInfinite(x)) {
+            return x > 0 ? "infinity()" : "-infinity()";
+        }
+        return Double.toString(x);
+    }
+
+    String floatValue(float x)
+    {
+        if (Float.isNaN(x) || Float.isInfinite(x)) {
+            return doubleValue(x);
+        }
+        return Float.toString(x);
+    }
+
+    String decimalValue(BigDecimal x)
+    {
+        return "DECIMAL '" + x.toPlainString() + "'";
+    }
+
+    String stringValue(String x)
+    {
+        StringBuilder sb = new StringBuilder(x.length() + 2);
+        sb.append('\'');
+        for (int i = 0; i < x.length(); i++) {
+            char c = x.charAt(i);
+            if (c == '\'') {
+                sb.append('\'');
+            }
+            sb.append(c);
+        }
+        sb.append('\'');
+        return sb.toString();
+    }
+
+    String bytesValue(byte[] x)
+    {
+        return "X'" + hex(x) + "'";
+    }
+
+    String dateValue(Date x, Calendar cal)
+    {
+        return "DATE '" + format(x, cal) + "'";
+    }
+
+    String timeValue(Time x, Calendar cal)
+    {
+        return "TIME '" + format(x, cal) + "'";
+    }
+
+    String timestampValue(Timestamp x, Calendar cal)
+    {
+        return "TIMESTAMP '" + format(x, cal) + "'";
+    }
+
+    String arrayValue(Object[] elements)
+            throws SQLException
+    {
+        return "ARRAY" + join('[', elements, ']');
+    }
+
+    String join(char open, Object[] elements, char close)
+            throws SQLException
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(open);
+        for (int i = 0; i < elements.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(objectValue(elements[i]));
+        }
+        sb.append(close);
+        return sb.toString();
+    }
+
+    /**
+     * Renders the value by its Java class, as setObject(int, Object) does.
+     */
+    String objectValue(Object x)
+            throws SQLException
+    {
+        if (x == null) {
+            return nullValue();
+        }
+        else if (x instanceof String || x instanceof Character || x instanceof URL) {
+            return stringValue(x.toString());
+        }
+        else if (x instanceof Boolean) {
+            return booleanValue((Boolean) x);
+        }
+        else if (x instanceof Byte || x instanceof Short || x instanceof Integer || x instanceof Long) {
+            return longValue(((Number) x).longValue());
+        }
+        else if (x instanceof Float) {
+            return floatValue((Float) x);
+        }
+        else if (x instanceof Double) {
+            return doubleValue((Double) x);
+        }
+        else if (x instanceof BigInteger) {
+            return x.toString();
+        }
+        else if (x instanceof BigDecimal) {
+            return decimalValue((BigDecimal) x);
+        }
+        else if (x instanceof byte[]) {
+            return bytesValue((byte[]) x);
+        }
+        else if (x instanceof Date) {
+            return dateValue((Date) x, null);
+        }
+        else if (x instanceof Time) {
+            return timeValue((Time) x, null);
+        }
+        else if (x instanceof Timestamp) {
+            return timestampValue((Timestamp) x, null);
+        }
+        else if (x instanceof java.util.Date) {
+            return timestampValue(new Timestamp(((java.util.Date) x).getTime()), null);
+        }
+        else if (x instanceof Clob) {
+            Clob clob = (Clob) x;
+            return stringValue(clob.getSubString(1, (int) clob.length()));
+        }
+        else if (x instanceof Array) {
+            return arrayValue(toArray(((Array) x).getArray()));
+        }
+        else if (x instanceof Object[]) {
+            return arrayValue((Object[]) x);
+        }
+        throw new SQLException("Unsupported parameter type: " + x.getClass().getName());
+    }
+
+    /**
+     * Renders the value as the given java.sql.Types type, as
+     * setObject(int, Object, int) does.
+     */
+    String objectValue(Object x, int targetSqlType)
+            throws SQLException
+    {
+        if (x == null || targetSqlType == Types.NULL) {
+            return nullValue();
+        }
+
+        try {
+            switch (targetSqlType) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return stringValue(x.toString());
+            case Types.BIT:
+            case Types.BOOLEAN:
+                if (x instanceof Number) {
+                    return booleanValue(((Number) x).doubleValue() != 0);
+                }
+                return booleanValue(x instanceof Boolean ? (Boolean) x : Boolean.parseBoolean(x.toString().trim()));
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                if (x instanceof Number) {
+                    return longValue(((Number) x).longValue());
+                }
+                return longValue(Long.parseLong(x.toString().trim()));
+            case Types.REAL:
+                if (x instanceof Number) {
+                    return floatValue(((Number) x).floatValue());
+                }
+                return floatValue(Float.parseFloat(x.toString().trim()));
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                if (x instanceof Number) {
+                    return doubleValue(((Number) x).doubleValue());
+                }
+                return doubleValue(Double.parseDouble(x.toString().trim()));
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                if (x instanceof BigDecimal) {
+                    return decimalValue((BigDecimal) x);
+                }
+                return decimalValue(new BigDecimal(x.toString().trim()));
+            case Types.DATE:
+                if (x instanceof java.util.Date) {
+                    return dateValue(new Date(((java.util.Date) x).getTime()), null);
+                }
+                return dateValue(Date.valueOf(x.toString().trim()), null);
+            case Types.TIME:
+                if (x instanceof java.util.Date) {
+                    return timeValue(new Time(((java.util.Date) x).getTime()), null);
+                }
+                return timeValue(Time.valueOf(x.toString().trim()), null);
+            case Types.TIMESTAMP:
+                if (x instanceof Timestamp) {
+                    return timestampValue((Timestamp) x, null);
+                }
+                else if (x instanceof java.util.Date) {
+                    return timestampValue(new Timestamp(((java.util.Date) x).getTime()), null);
+                }
+                return timestampValue(Timestamp.valueOf(x.toString().trim()), null);
+            default:
+                return objectValue(x);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            // NumberFormatException is also an IllegalArgumentException
+            throw new SQLException("Cannot convert " + x + " to SQL type " + targetSqlType, e);
+        }
+    }
+
+    private static Object[] toArray(Object array)
+            throws SQLException
+    {
+        if (array instanceof Object[]) {
+            return (Object[]) array;
+        }
+        // an array of a primitive type
+        int len = java.lang.reflect.Array.getLength(array);
+        Object[] elements = new Object[len];
+        for (int i = 0; i < len; i++) {
+            elements[i] = java.lang.reflect.Array.get(array, i);
+        }
+        return elements;
+    }
+
+    static String hex(byte[] x)
+    {
+        StringBuilder sb = new StringBuilder(x.length * 2);
+        for (byte b : x) {
+            sb.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)));
+            sb.append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+        }
+        return sb.toString();
+    }
+
+    static String format(Date x, Calendar cal)
+    {
+        if (cal == null) {
+            return x.toString();
+        }
+        return formatter("yyyy-MM-dd", cal).format(x);
+    }
+
+    static String format(Time x, Calendar cal)
+    {
+        if (cal == null) {
+            return x.toString();
+        }
+        return formatter("HH:mm:ss", cal).format(x);
+    }
+
+    /**
+     * Formats the timestamp as Timestamp.toString() does, in the time zone
+     * of the calendar if given.
+     */
+    static String format(Timestamp x, Calendar cal)
+    {
+        if (cal == null) {
+            return x.toString();
+        }
+        StringBuilder sb = new StringBuilder(formatter("yyyy-MM-dd HH:mm:ss", cal).format(x));
+        String nanos = Integer.toString(1000000000 + x.getNanos()).substring(1);
+        int len = nanos.length();
+        while (len > 1 && nanos.charAt(len - 1) == '0') {
+            len--;
+        }
+        sb.append('.').append(nanos, 0, len);
+        return sb.toString();
+    }
+
+    private static SimpleDateFormat formatter(String pattern, Calendar cal)
+    {
+        // SimpleDateFormat is not thread-safe
+        SimpleDateFormat f = new SimpleDateFormat(pattern, Locale.US);
+        f.setTimeZone(cal.getTimeZone());
+        return f;
+    }
+
+    static class HiveLiteral
+            extends SqlLiteral
+    {
+        @Override
+        String doubleValue(double x)
+        {
+            if (Double.isNaN(x)) {
+                return "CAST('NaN' AS DOUBLE)";
+            }
+            else if (Double.isInfinite(x)) {
+                return x > 0 ? "CAST('Infinity' AS DOUBLE)" : "CAST('-Infinity' AS DOUBLE)";
+            }
+            return Double.toString(x);
+        }
+
+        @Override
+        String decimalValue(BigDecimal x)
+        {
+            if (x.scale() < 0) {
+                x = x.setScale(0);
+            }
+            int precision = Math.max(x.precision(), x.scale() + 1);
+            return String.format("CAST('%s' AS DECIMAL(%d,%d))", x.toPlainString(), precision, x.scale());
+        }
+
+        @Override
+        String stringValue(String x)
+        {
+            StringBuilder sb = new StringBuilder(x.length() + 2);
+            sb.append('\'');
+            for (int i = 0; i < x.length(); i++) {
+                char c = x.charAt(i);
+                switch (c) {
+                case '\'':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\0':
+                    sb.append("\\000");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+                }
+            }
+            sb.append('\'');
+            return sb.toString();
+        }
+
+        @Override
+        String bytesValue(byte[] x)
+        {
+            return "unhex('" + hex(x) + "')";
+        }
+
+        @Override
+        String dateValue(Date x, Calendar cal)
+        {
+            return "CAST('" + format(x, cal) + "' AS DATE)";
+        }
+
+        @Override
+        String timeValue(Time x, Calendar cal)
+        {
+            // Hive has no TIME type
+            return "'" + format(x, cal) + "'";
+        }
+
+        @Override
+        String timestampValue(Timestamp x, Calendar cal)
+        {
+            return "CAST('" + format(x, cal) + "' AS TIMESTAMP)";
+        }
+
+        @Override
+        String arrayValue(Object[] elements)
+                throws SQLException
+        {
+            return "array" + join('(', elements, ')');
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Rows of one parameter set of TDPreparedStatement#executeBatch, split from
+ * the result of the combined query.
+ */
+public class TDBatchResultSet
+        extends TDMetaDataResultSet<List<Object>>
+{
+    private int cnt = 0;
+
+    public TDBatchResultSet(List<String> columnNames, List<String> columnTypes,
+            List<List<Object>> rows)
+            throws SQLException
+    {
+        super(columnNames, columnTypes, rows);
+        setSchema(TDResultSchema.of(this.columnNames, this.columnTypes));
+    }
+
+    public int getRowCount()
+    {
+        return data.size();
+    }
+
+    public boolean next()
+            throws SQLException
+    {
+        if (cnt >= data.size()) {
+            return false;
+        }
+        row = data.get(cnt++);
+        return true;
+    }
+}
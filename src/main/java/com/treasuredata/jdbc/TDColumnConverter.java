@@ -0,0 +1,580 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.msgpack.type.ArrayValue;
+import org.msgpack.type.BooleanValue;
+import org.msgpack.type.FloatValue;
+import org.msgpack.type.IntegerValue;
+import org.msgpack.type.MapValue;
+import org.msgpack.type.NilValue;
+import org.msgpack.type.NumberValue;
+import org.msgpack.type.RawValue;
+import org.msgpack.type.Value;
+
+import java.sql.SQLException;
+
+/**
+ * Converts a column value to the type requested by a getter of
+ * TDResultSetBase. The generic conversion accepts any value. The
+ * converters for a declared column type check the expected value class
+ * first and fall back to the generic conversion.
+ */
+class TDColumnConverter
+{
+    private static final Class<?> INTVALUE_CLASS = classOf("org.msgpack.type.IntValueImpl");
+    private static final Class<?> LONGVALUE_CLASS = classOf("org.msgpack.type.LongValueImpl");
+    private static final Class<?> DOUBLEVALUE_CLASS = classOf("org.msgpack.type.DoubleValueImpl");
+    private static final Class<?> FLOATVALUE_CLASS = classOf("org.msgpack.type.FloatValueImpl");
+
+    static final TDColumnConverter GENERIC = new TDColumnConverter();
+    private static final TDColumnConverter INTEGER = new IntegerConverter();
+    private static final TDColumnConverter FLOAT = new FloatConverter();
+    private static final TDColumnConverter STRING = new StringConverter();
+    private static final TDColumnConverter BOOLEAN = new BooleanConverter();
+
+    private static Class<?> classOf(String name)
+    {
+        try {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    static TDColumnConverter forType(String type)
+    {
+        if (type == null) {
+            return GENERIC;
+        }
+        else if ("int".equalsIgnoreCase(type) || "bigint".equalsIgnoreCase(type)
+                || "long".equalsIgnoreCase(type) || "smallint".equalsIgnoreCase(type)
+                || "tinyint".equalsIgnoreCase(type)) {
+            return INTEGER;
+        }
+        else if ("double".equalsIgnoreCase(type) || "float".equalsIgnoreCase(type)) {
+            return FLOAT;
+        }
+        else if ("string".equalsIgnoreCase(type) || "varchar".equalsIgnoreCase(type)) {
+            return STRING;
+        }
+        else if ("boolean".equalsIgnoreCase(type)) {
+            return BOOLEAN;
+        }
+        return GENERIC;
+    }
+
+    static boolean isNull(Object obj)
+    {
+        return obj == null || obj instanceof NilValue;
+    }
+
+    static SQLException conversionError(int index, Object obj, String type, Throwable e)
+    {
+        // implicit type conversion failed
+        String msg = String.format(
+                "Cannot convert column %d from value of %s class to %s",
+                index, obj, type);
+        if (e != null) {
+            return new SQLException(msg, e);
+        }
+        else {
+            return new SQLException(msg);
+        }
+    }
+
+    boolean toBoolean(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns false.
+            if (isNull(obj)) {
+                return false;
+            }
+
+            if (obj instanceof BooleanValue) { // msgpack's Boolean type
+                return ((BooleanValue) obj).getBoolean();
+            }
+            else if (obj instanceof Boolean) { // java's Boolean type
+                return ((Boolean) obj).booleanValue();
+            }
+            else if (obj instanceof NumberValue) { // msgpack's Number type
+                return ((NumberValue) obj).asIntegerValue().intValue() != 0;
+            }
+            else if (obj instanceof Number) { // java's Number type
+                return ((Number) obj).intValue() != 0;
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return parseStringToBoolean(((RawValue) obj).getString());
+            }
+            else if (obj instanceof String) { // java's raw type
+                return parseStringToBoolean((String) obj);
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "boolean", t);
+        }
+        throw conversionError(index, obj, "boolean", null);
+    }
+
+    private static boolean parseStringToBoolean(String from)
+    {
+        if (from.toLowerCase().equals("false")) {
+            return false;
+        }
+        else {
+            return true;
+        }
+    }
+
+    byte toByte(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns 0.
+            if (isNull(obj)) {
+                return 0;
+            }
+
+            if (obj instanceof NumberValue) { // msgpack's Number type
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return (byte) ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return (byte) ((IntegerValue) obj).getLong();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return (byte) ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return (byte) ((FloatValue) obj).floatValue();
+                }
+            }
+            else if (obj instanceof Number) { // java's Number type
+                return ((Number) obj).byteValue();
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return Byte.parseByte(((RawValue) obj).getString());
+            }
+            else if (obj instanceof String) { // java's raw type
+                return Byte.parseByte((String) obj);
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "byte", t);
+        }
+        throw conversionError(index, obj, "byte", null);
+    }
+
+    short toShort(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns 0.
+            if (isNull(obj)) {
+                return 0;
+            }
+
+            if (obj instanceof NumberValue) { // msgpack's Number type
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return (short) ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return (short) ((IntegerValue) obj).getLong();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return (short) ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return (short) ((FloatValue) obj).floatValue();
+                }
+            }
+            else if (obj instanceof Number) { // java's Number type
+                return ((Number) obj).shortValue();
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return Short.parseShort(((RawValue) obj).getString());
+            }
+            else if (obj instanceof String) { // java's raw type
+                return Short.parseShort((String) obj);
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "byte", t);
+        }
+        throw conversionError(index, obj, "byte", null);
+    }
+
+    int toInt(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns 0.
+            if (isNull(obj)) {
+                return 0;
+            }
+
+            if (obj instanceof NumberValue) { // msgpack's Number type
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return (int) ((IntegerValue) obj).getLong();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return (int) ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return (int) ((FloatValue) obj).floatValue();
+                }
+            }
+            else if (obj instanceof Number) { // java's Number type
+                return ((Number) obj).intValue();
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return Integer.parseInt(((RawValue) obj).getString());
+            }
+            else if (obj instanceof String) { // java's raw type
+                return Integer.parseInt((String) obj);
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "integer", t);
+        }
+        throw conversionError(index, obj, "integer", null);
+    }
+
+    long toLong(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns 0.
+            if (isNull(obj)) {
+                return 0;
+            }
+
+            if (obj instanceof NumberValue) { // msgpack's Number type
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return (long) ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return ((IntegerValue) obj).getLong();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return (long) ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return (long) ((FloatValue) obj).floatValue();
+                }
+            }
+            else if (obj instanceof Number) { // java's Number type
+                return ((Number) obj).longValue();
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return Long.parseLong(((RawValue) obj).getString());
+            }
+            else if (obj instanceof String) { // java's raw type
+                return Long.parseLong((String) obj);
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "long", t);
+        }
+        throw conversionError(index, obj, "long", null);
+    }
+
+    float toFloat(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns 0.0f.
+            if (isNull(obj)) {
+                return 0.0f;
+            }
+
+            if (obj instanceof NumberValue) { // msgpack's Number type
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return (float) ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return (float) ((IntegerValue) obj).getLong();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return (float) ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return ((FloatValue) obj).floatValue();
+                }
+            }
+            else if (obj instanceof Number) { // java's Number type
+                return ((Number) obj).floatValue();
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return Float.parseFloat(((RawValue) obj).getString());
+            }
+            else if (obj instanceof String) { // java's raw type
+                return Float.parseFloat((String) obj);
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "float", t);
+        }
+        throw conversionError(index, obj, "float", null);
+    }
+
+    double toDouble(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns 0.0.
+            if (isNull(obj)) {
+                return 0.0;
+            }
+
+            if (obj instanceof NumberValue) { // msgpack's Number type
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return (double) ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return (double) ((IntegerValue) obj).getLong();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return (double) ((FloatValue) obj).floatValue();
+                }
+            }
+            else if (obj instanceof Number) { // java's Number type
+                return ((Number) obj).doubleValue();
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return Double.parseDouble(((RawValue) obj).getString());
+            }
+            else if (obj instanceof String) { // java's raw type
+                return Double.parseDouble((String) obj);
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "double", t);
+        }
+        throw conversionError(index, obj, "double", null);
+    }
+
+    String toString(int index, Object obj)
+            throws SQLException
+    {
+        try {
+            // if obj is null or NULL value (NilValue), it returns null.
+            if (isNull(obj)) {
+                return null;
+            }
+
+            if (obj instanceof MapValue) { // msgpack's map type
+                return ((MapValue) obj).toString();
+            }
+            else if (obj instanceof ArrayValue) { // msgpack's array type
+                return ((ArrayValue) obj).toString();
+            }
+            else if (obj instanceof NumberValue) { // msgpack's number type
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return "" + ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return "" + ((IntegerValue) obj).getLong();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return "" + ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return "" + ((FloatValue) obj).floatValue();
+                }
+            }
+            else if (obj instanceof Number) { // java's number type
+                Number v = (Number) obj;
+                if (v instanceof Byte) {
+                    return "" + ((Byte) v).byteValue();
+                }
+                else if (v instanceof Double) {
+                    return "" + ((Double) v).doubleValue();
+                }
+                else if (v instanceof Float) {
+                    return "" + ((Float) v).floatValue();
+                }
+                else if (v instanceof Integer) {
+                    return "" + ((Integer) v).intValue();
+                }
+                else if (v instanceof Short) {
+                    return "" + ((Short) v).shortValue();
+                }
+            }
+            else if (obj instanceof RawValue) { // msgpack's raw type
+                return ((Value) obj).asRawValue().getString();
+            }
+            else { // java's raw type
+                return (String) obj;
+            }
+        }
+        catch (Throwable t) {
+            throw conversionError(index, obj, "string", t);
+        }
+        throw conversionError(index, obj, "string", null);
+    }
+
+    /**
+     * Converter of tinyint, smallint, int and bigint columns
+     */
+    static class IntegerConverter
+            extends TDColumnConverter
+    {
+        @Override
+        int toInt(int index, Object obj)
+                throws SQLException
+        {
+            if (obj != null) {
+                Class<?> c = obj.getClass();
+                if (c == INTVALUE_CLASS) {
+                    return ((IntegerValue) obj).getInt();
+                }
+                else if (c == LONGVALUE_CLASS) {
+                    return (int) ((IntegerValue) obj).getLong();
+                }
+            }
+            return super.toInt(index, obj);
+        }
+
+        @Override
+        long toLong(int index, Object obj)
+                throws SQLException
+        {
+            if (obj != null) {
+                Class<?> c = obj.getClass();
+                if (c == LONGVALUE_CLASS) {
+                    return ((IntegerValue) obj).getLong();
+                }
+                else if (c == INTVALUE_CLASS) {
+                    return ((IntegerValue) obj).getInt();
+                }
+            }
+            return super.toLong(index, obj);
+        }
+
+        @Override
+        String toString(int index, Object obj)
+                throws SQLException
+        {
+            if (obj != null) {
+                Class<?> c = obj.getClass();
+                if (c == LONGVALUE_CLASS) {
+                    return Long.toString(((IntegerValue) obj).getLong());
+                }
+                else if (c == INTVALUE_CLASS) {
+                    return Integer.toString(((IntegerValue) obj).getInt());
+                }
+            }
+            return super.toString(index, obj);
+        }
+    }
+
+    /**
+     * Converter of float and double columns
+     */
+    static class FloatConverter
+            extends TDColumnConverter
+    {
+        @Override
+        double toDouble(int index, Object obj)
+                throws SQLException
+        {
+            if (obj != null) {
+                Class<?> c = obj.getClass();
+                if (c == DOUBLEVALUE_CLASS) {
+                    return ((FloatValue) obj).doubleValue();
+                }
+                else if (c == FLOATVALUE_CLASS) {
+                    return ((FloatValue) obj).floatValue();
+                }
+            }
+            return super.toDouble(index, obj);
+        }
+
+        @Override
+        float toFloat(int index, Object obj)
+                throws SQLException
+        {
+            if (obj != null) {
+                Class<?> c = obj.getClass();
+                if (c == FLOATVALUE_CLASS) {
+                    return ((FloatValue) obj).floatValue();
+                }
+                else if (c == DOUBLEVALUE_CLASS) {
+                    return (float) ((FloatValue) obj).doubleValue();
+                }
+            }
+            return super.toFloat(index, obj);
+        }
+    }
+
+    /**
+     * Converter of string and varchar columns
+     */
+    static class StringConverter
+            extends TDColumnConverter
+    {
+        @Override
+        String toString(int index, Object obj)
+                throws SQLException
+        {
+            if (obj instanceof RawValue) {
+                try {
+                    return ((RawValue) obj).getString();
+                }
+                catch (Throwable t) {
+                    throw conversionError(index, obj, "string", t);
+                }
+            }
+            return super.toString(index, obj);
+        }
+    }
+
+    /**
+     * Converter of boolean columns
+     */
+    static class BooleanConverter
+            extends TDColumnConverter
+    {
+        @Override
+        boolean toBoolean(int index, Object obj)
+                throws SQLException
+        {
+            if (obj instanceof BooleanValue) {
+                return ((BooleanValue) obj).getBoolean();
+            }
+            return super.toBoolean(index, obj);
+        }
+    }
+}
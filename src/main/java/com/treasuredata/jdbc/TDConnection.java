@@ -18,10 +18,16 @@
  */
 package com.treasuredata.jdbc;
 
+import com.treasure_data.client.ClientException;
 import com.treasuredata.jdbc.command.ClientAPI;
+import com.treasuredata.jdbc.command.LazyClientAPI;
+import com.treasuredata.jdbc.command.MetaDataCache;
+import com.treasuredata.jdbc.command.SchemaLoader;
+import com.treasuredata.jdbc.command.SchemaSnapshotStore;
 import com.treasuredata.jdbc.command.TDClientAPI;
 import com.treasure_data.model.Database;
 
+import java.io.File;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -30,6 +36,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -39,24 +46,40 @@ import java.sql.Statement;
 import java.sql.Struct;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
 
 public class TDConnection
         implements Connection, Constants
 {
+    private static final Logger LOG = Logger.getLogger(TDConnection.class.getName());
+
     private final Config config;
 
-    private boolean autoCommit = false;
+    // the statements of a connection run in parallel in different threads
+
+    private volatile boolean autoCommit = false;
 
-    private boolean readOnly = false;
+    private volatile boolean readOnly = false;
 
-    private ClientAPI api;
+    private final ClientAPI api;
 
-    private Database database;
+    private final Database database;
 
-    private int maxRows = 5000;
+    // default max rows of the statements
+    private final int maxRows;
 
     private SQLWarning warnings = null;
 
+    private volatile boolean closed = false;
+
+    // created on the first use, unless the metadata cache is disabled
+    private volatile MetaDataCache metaDataCache;
+
     public TDConnection()
             throws SQLException {
         this(new ConfigBuilder().createConnectionConfig());
@@ -70,11 +93,50 @@ public class TDConnection
     public TDConnection(Config config)
             throws SQLException  {
         this.config = config;
+        this.maxRows = config.maxRows;
         // create a Database object
         database = new Database(config.database);
 
+        // the thread limits are shared by all connections of the driver
+        if (config.executorMaxThreads > 0) {
+            DriverExecutor.getInstance().setMaxThreads(config.executorMaxThreads);
+        }
+        if (config.executorMaxDaemonThreads > 0) {
+            DriverExecutor.getInstance().setMaxDaemonThreads(config.executorMaxDaemonThreads);
+        }
+
         // create a ClientAPI object
-        api = new TDClientAPI(this);
+        if (config.connectionLazy) {
+            // connect on the first statement or metadata call
+            LazyClientAPI lazy = new LazyClientAPI(this);
+            if (config.connectionPreconnect) {
+                lazy.connectAsync();
+            }
+            api = lazy;
+        }
+        else {
+            api = new TDClientAPI(this);
+        }
+
+        if (config.metadataSnapshotDir.isDefined()) {
+            // answer the metadata calls from the snapshot saved by another process
+            MetaDataCache cache = getMetaDataCache();
+            if (cache != null) {
+                cache.setStore(SchemaSnapshotStore.newInstance(new File(config.metadataSnapshotDir.get()), config));
+                cache.restore(config.database, api);
+            }
+        }
+
+        if (config.metadataPreload) {
+            // BI tools ask for the tables right after connecting
+            MetaDataCache cache = getMetaDataCache();
+            if (cache != null) {
+                cache.preloadAsync(config.database, api, config.metadataCacheTtlMs);
+            }
+            else {
+                LOG.warning(Config.TD_JDBC_METADATA_PRELOAD + " needs " + Config.TD_JDBC_METADATA_CACHE_TTL);
+            }
+        }
     }
 
     public Config getConfig()
@@ -82,6 +144,19 @@ public class TDConnection
         return config;
     }
 
+    /**
+     * Reset the state that the application can change, before the pool gives
+     * the connection to another one
+     */
+    void resetState()
+    {
+        autoCommit = false;
+        readOnly = false;
+        synchronized (this) {
+            warnings = null;
+        }
+    }
+
     public ClientAPI getClientAPI()
     {
         return api;
@@ -97,19 +172,54 @@ public class TDConnection
         return maxRows;
     }
 
-    public void clearWarnings()
+    /**
+     * Returns the metadata cache shared by the connections with the same
+     * credentials, or null if it is disabled
+     */
+    public MetaDataCache getMetaDataCache()
+    {
+        if (config.metadataCacheTtlMs <= 0) {
+            return null;
+        }
+        MetaDataCache cache = metaDataCache;
+        if (cache == null) {
+            cache = MetaDataCache.getInstance(config);
+            metaDataCache = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Called when a statement of the connection changes the schema of the
+     * database. The metadata is not cached until the job of the statement
+     * finishes.
+     */
+    void schemaChanged(TDResultSetBase rs)
+    {
+        MetaDataCache cache = getMetaDataCache();
+        if (cache == null) {
+            return;
+        }
+        Future<?> job = null;
+        if (rs instanceof TDResultSet && ((TDResultSet) rs).getJob() != null) {
+            job = api.waitJobResultAsync(((TDResultSet) rs).getJob());
+        }
+        cache.invalidate(job);
+    }
+
+    public synchronized void clearWarnings()
             throws SQLException
     {
         warnings = null;
     }
 
-    public SQLWarning getWarnings()
+    public synchronized SQLWarning getWarnings()
             throws SQLException
     {
         return warnings;
     }
 
-    public void setWarning(SQLWarning w)
+    public synchronized void setWarning(SQLWarning w)
             throws SQLException
     {
         if (w == null) {
@@ -127,7 +237,10 @@ public class TDConnection
     public void close()
             throws SQLException
     {
-        // basically ignore
+        if (closed) {
+            return;
+        }
+        closed = true;
         try {
             api.close();
         }
@@ -139,7 +252,7 @@ public class TDConnection
     public boolean isClosed()
             throws SQLException
     {
-        return false;
+        return closed;
     }
 
     public void commit()
@@ -200,14 +313,28 @@ public class TDConnection
     public Statement createStatement(int resultSetType, int resultSetConcurrency)
             throws SQLException
     {
-        return createStatement();
+        return new TDStatement(this, toSupportedResultSetType(resultSetType));
     }
 
     public Statement createStatement(int resultSetType,
             int resultSetConcurrency, int resultSetHoldability)
             throws SQLException
     {
-        return createStatement();
+        return createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    /**
+     * Job results are never changed, so TYPE_SCROLL_SENSITIVE is downgraded
+     * to TYPE_SCROLL_INSENSITIVE with a warning.
+     */
+    private int toSupportedResultSetType(int resultSetType)
+            throws SQLException
+    {
+        if (resultSetType == ResultSet.TYPE_SCROLL_SENSITIVE) {
+            setWarning(new SQLWarning("TYPE_SCROLL_SENSITIVE is not supported. TYPE_SCROLL_INSENSITIVE is used instead"));
+            return ResultSet.TYPE_SCROLL_INSENSITIVE;
+        }
+        return resultSetType;
     }
 
     public Struct createStruct(String typeName, Object[] attributes)
@@ -253,7 +380,9 @@ public class TDConnection
     public DatabaseMetaData getMetaData()
             throws SQLException
     {
-        return new TDDatabaseMetaData(database, getClientAPI());
+        SchemaLoader loader = new SchemaLoader(getClientAPI(), getMetaDataCache(),
+                config.metadataCacheTtlMs, config.metadataThreads);
+        return new TDDatabaseMetaData(database, getClientAPI(), loader, config.metadataAllCatalogs);
     }
 
     public int getTransactionIsolation()
@@ -275,11 +404,56 @@ public class TDConnection
         return readOnly;
     }
 
+    /**
+     * Returns true if the connection is not closed and the API server accepts
+     * its credentials. It sends one request that lists the latest job.
+     *
+     * @param timeout seconds to wait for the response. 0 means no timeout.
+     * @see java.sql.Connection#isValid(int)
+     */
     public boolean isValid(int timeout)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException(
-                "TDConnection#isValid(int)"));
+        if (timeout < 0) {
+            throw new SQLException("timeout must be >= 0");
+        }
+        if (closed) {
+            return false;
+        }
+
+        DriverExecutor.Task<Void> check = DriverExecutor.getInstance().getSharedScope().submit(
+                "td-jdbc-connection-validation", new Callable<Void>()
+        {
+            public Void call()
+                    throws ClientException
+            {
+                api.ping();
+                return null;
+            }
+        });
+        try {
+            if (timeout == 0) {
+                check.get();
+            }
+            else {
+                check.get(timeout, TimeUnit.SECONDS);
+            }
+            return true;
+        }
+        catch (TimeoutException e) {
+            check.cancel(true);
+            LOG.warning("connection validation timed out in " + timeout + " sec");
+            return false;
+        }
+        catch (ExecutionException e) {
+            LOG.warning("connection validation failed: " + e.getCause());
+            return false;
+        }
+        catch (InterruptedException e) {
+            check.cancel(true);
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     public String nativeSQL(String sql)
@@ -341,14 +515,14 @@ public class TDConnection
             throws SQLException
     {
         // TODO required by WingArc
-        return prepareStatement(sql);
+        return new TDPreparedStatement(this, sql, toSupportedResultSetType(resultSetType));
     }
 
     public PreparedStatement prepareStatement(String sql, int resultSetType,
             int resultSetConcurrency, int resultSetHoldability)
             throws SQLException
     {
-        return prepareStatement(sql);
+        return prepareStatement(sql, resultSetType, resultSetConcurrency);
     }
 
     public void releaseSavepoint(Savepoint savepoint)
@@ -0,0 +1,446 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * The connection given to the application by a pooled connection. Closing it
+ * closes the statements created through it, resets the state of the
+ * physical connection and returns the physical connection to the pool.
+ */
+class TDConnectionHandle
+        implements Connection
+{
+    private static final Logger LOG = Logger.getLogger(TDConnectionHandle.class.getName());
+
+    private final TDPooledConnection pooled;
+
+    private volatile TDConnection conn;
+
+    // statements created through this handle, closed when it is closed
+    private final List<Statement> statements = new ArrayList<Statement>();
+
+    TDConnectionHandle(TDPooledConnection pooled, TDConnection conn)
+    {
+        this.pooled = pooled;
+        this.conn = conn;
+    }
+
+    private TDConnection getConnection()
+            throws SQLException
+    {
+        TDConnection c = conn;
+        if (c == null) {
+            throw new SQLException("Connection is closed");
+        }
+        return c;
+    }
+
+    private <T extends Statement> T track(T statement)
+    {
+        if (statement instanceof TDStatementBase) {
+            // the application never sees the physical connection
+            ((TDStatementBase) statement).setOwner(this);
+        }
+        synchronized (statements) {
+            statements.add(statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the physical connection to the pool. The handle cannot be used
+     * after that.
+     */
+    public void close()
+            throws SQLException
+    {
+        if (conn == null) {
+            return;
+        }
+        SQLException error = release();
+        if (error != null) {
+            // the physical connection may be broken
+            pooled.fireConnectionError(error);
+        }
+        else {
+            pooled.fireConnectionClosed();
+        }
+    }
+
+    /**
+     * Detach this handle from the physical connection. The statements created
+     * through this handle are closed, and the warnings, auto-commit and
+     * read-only are reset. The catalog and the client info cannot be changed
+     * on a TDConnection, so they need no reset.
+     *
+     * @return the error of closing the statements, or null
+     */
+    SQLException release()
+    {
+        TDConnection c = conn;
+        if (c == null) {
+            return null;
+        }
+        conn = null;
+
+        List<Statement> opened;
+        synchronized (statements) {
+            opened = new ArrayList<Statement>(statements);
+            statements.clear();
+        }
+        SQLException error = null;
+        for (Statement s : opened) {
+            try {
+                s.close();
+            }
+            catch (SQLException e) {
+                LOG.warning("cannot close the statement: " + e.getMessage());
+                error = e;
+            }
+        }
+        c.resetState();
+        return error;
+    }
+
+    public boolean isClosed()
+            throws SQLException
+    {
+        TDConnection c = conn;
+        return c == null || c.isClosed();
+    }
+
+    public boolean isValid(int timeout)
+            throws SQLException
+    {
+        TDConnection c = conn;
+        return c != null && c.isValid(timeout);
+    }
+
+    public boolean isWrapperFor(Class<?> iface)
+            throws SQLException
+    {
+        return iface.isInstance(this) || iface.isInstance(getConnection());
+    }
+
+    public <T> T unwrap(Class<T> iface)
+            throws SQLException
+    {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        TDConnection c = getConnection();
+        if (iface.isInstance(c)) {
+            return iface.cast(c);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    public void clearWarnings()
+            throws SQLException
+    {
+        getConnection().clearWarnings();
+    }
+
+    public SQLWarning getWarnings()
+            throws SQLException
+    {
+        return getConnection().getWarnings();
+    }
+
+    public void commit()
+            throws SQLException
+    {
+        getConnection().commit();
+    }
+
+    public Array createArrayOf(String typeName, Object[] elements)
+            throws SQLException
+    {
+        return getConnection().createArrayOf(typeName, elements);
+    }
+
+    public Blob createBlob()
+            throws SQLException
+    {
+        return getConnection().createBlob();
+    }
+
+    public Clob createClob()
+            throws SQLException
+    {
+        return getConnection().createClob();
+    }
+
+    public NClob createNClob()
+            throws SQLException
+    {
+        return getConnection().createNClob();
+    }
+
+    public SQLXML createSQLXML()
+            throws SQLException
+    {
+        return getConnection().createSQLXML();
+    }
+
+    public Struct createStruct(String typeName, Object[] attributes)
+            throws SQLException
+    {
+        return getConnection().createStruct(typeName, attributes);
+    }
+
+    public boolean getAutoCommit()
+            throws SQLException
+    {
+        return getConnection().getAutoCommit();
+    }
+
+    public String getCatalog()
+            throws SQLException
+    {
+        return getConnection().getCatalog();
+    }
+
+    public Properties getClientInfo()
+            throws SQLException
+    {
+        return getConnection().getClientInfo();
+    }
+
+    public String getClientInfo(String name)
+            throws SQLException
+    {
+        return getConnection().getClientInfo(name);
+    }
+
+    public int getHoldability()
+            throws SQLException
+    {
+        return getConnection().getHoldability();
+    }
+
+    public DatabaseMetaData getMetaData()
+            throws SQLException
+    {
+        return getConnection().getMetaData();
+    }
+
+    public int getTransactionIsolation()
+            throws SQLException
+    {
+        return getConnection().getTransactionIsolation();
+    }
+
+    public Map<String, Class<?>> getTypeMap()
+            throws SQLException
+    {
+        return getConnection().getTypeMap();
+    }
+
+    public boolean isReadOnly()
+            throws SQLException
+    {
+        return getConnection().isReadOnly();
+    }
+
+    public String nativeSQL(String sql)
+            throws SQLException
+    {
+        return getConnection().nativeSQL(sql);
+    }
+
+    public void releaseSavepoint(Savepoint savepoint)
+            throws SQLException
+    {
+        getConnection().releaseSavepoint(savepoint);
+    }
+
+    public void rollback()
+            throws SQLException
+    {
+        getConnection().rollback();
+    }
+
+    public void rollback(Savepoint savepoint)
+            throws SQLException
+    {
+        getConnection().rollback(savepoint);
+    }
+
+    public void setAutoCommit(boolean autoCommit)
+            throws SQLException
+    {
+        getConnection().setAutoCommit(autoCommit);
+    }
+
+    public void setCatalog(String catalog)
+            throws SQLException
+    {
+        getConnection().setCatalog(catalog);
+    }
+
+    public void setClientInfo(Properties properties)
+            throws SQLClientInfoException
+    {
+        TDConnection c = conn;
+        if (c == null) {
+            throw new SQLClientInfoException("Connection is closed", null);
+        }
+        c.setClientInfo(properties);
+    }
+
+    public void setClientInfo(String name, String value)
+            throws SQLClientInfoException
+    {
+        TDConnection c = conn;
+        if (c == null) {
+            throw new SQLClientInfoException("Connection is closed", null);
+        }
+        c.setClientInfo(name, value);
+    }
+
+    public void setHoldability(int holdability)
+            throws SQLException
+    {
+        getConnection().setHoldability(holdability);
+    }
+
+    public void setReadOnly(boolean readOnly)
+            throws SQLException
+    {
+        getConnection().setReadOnly(readOnly);
+    }
+
+    public Savepoint setSavepoint()
+            throws SQLException
+    {
+        return getConnection().setSavepoint();
+    }
+
+    public Savepoint setSavepoint(String name)
+            throws SQLException
+    {
+        return getConnection().setSavepoint(name);
+    }
+
+    public void setTransactionIsolation(int level)
+            throws SQLException
+    {
+        getConnection().setTransactionIsolation(level);
+    }
+
+    public void setTypeMap(Map<String, Class<?>> map)
+            throws SQLException
+    {
+        getConnection().setTypeMap(map);
+    }
+
+    public Statement createStatement()
+            throws SQLException
+    {
+        return track(getConnection().createStatement());
+    }
+
+    public Statement createStatement(int resultSetType, int resultSetConcurrency)
+            throws SQLException
+    {
+        return track(getConnection().createStatement(resultSetType, resultSetConcurrency));
+    }
+
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException
+    {
+        return track(getConnection().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    public CallableStatement prepareCall(String sql)
+            throws SQLException
+    {
+        return track(getConnection().prepareCall(sql));
+    }
+
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException
+    {
+        return track(getConnection().prepareCall(sql, resultSetType, resultSetConcurrency));
+    }
+
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException
+    {
+        return track(getConnection().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    public PreparedStatement prepareStatement(String sql)
+            throws SQLException
+    {
+        return track(getConnection().prepareStatement(sql));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+            throws SQLException
+    {
+        return track(getConnection().prepareStatement(sql, autoGeneratedKeys));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes)
+            throws SQLException
+    {
+        return track(getConnection().prepareStatement(sql, columnIndexes));
+    }
+
+    public PreparedStatement prepareStatement(String sql, String[] columnNames)
+            throws SQLException
+    {
+        return track(getConnection().prepareStatement(sql, columnNames));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException
+    {
+        return track(getConnection().prepareStatement(sql, resultSetType, resultSetConcurrency));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException
+    {
+        return track(getConnection().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+}
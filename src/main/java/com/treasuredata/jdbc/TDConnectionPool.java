@@ -0,0 +1,582 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A pool of the physical connections of one user.
+ *
+ * Idle connections are reused in LIFO order so that the rest of them stay
+ * idle and are closed after the idle timeout. The pool keeps at least the
+ * min size of connections open. A connection that has been idle longer than
+ * the validation interval is validated with Connection#isValid before it is
+ * reused.
+ */
+public class TDConnectionPool
+        implements ConnectionEventListener
+{
+    private static final Logger LOG = Logger.getLogger(TDConnectionPool.class.getName());
+
+    private static class IdleConnection
+    {
+        private final PooledConnection conn;
+        private final long idleSince;
+
+        IdleConnection(PooledConnection conn, long idleSince)
+        {
+            this.conn = conn;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private final ConnectionPoolDataSource source;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long validationIntervalMs;
+    private final int validationTimeout; // seconds
+    private final long maxWaitMs;
+
+    private final Object lock = new Object();
+
+    // the most recently returned connection first
+    private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+    private final Map<PooledConnection, Boolean> active = new IdentityHashMap<PooledConnection, Boolean>();
+    // idle, active and being opened
+    private int size = 0;
+    private int waiting = 0;
+    private boolean closed = false;
+    private boolean evictorRunning = false;
+    private boolean filling = false;
+
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong borrowedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong waitTimeoutCount = new AtomicLong();
+
+    /**
+     * @param source factory of the physical connections
+     * @param user user, or null to use the API key of the source
+     * @param password password
+     * @param minSize min number of connections kept open
+     * @param maxSize max number of connections
+     * @param idleTimeoutMs idle connections are closed after this time
+     * @param validationIntervalMs connections idle longer than this are
+     * validated before reuse
+     * @param validationTimeout seconds to wait for the validation
+     * @param maxWaitMs max time to wait for a connection when the pool is full
+     */
+    public TDConnectionPool(ConnectionPoolDataSource source, String user, String password,
+            int minSize, int maxSize, long idleTimeoutMs,
+            long validationIntervalMs, int validationTimeout, long maxWaitMs)
+    {
+        if (maxSize <= 0 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(String.format(
+                    "invalid pool size: min = %d, max = %d", minSize, maxSize));
+        }
+        this.source = source;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.validationTimeout = validationTimeout;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * Returns a connection of the pool. An idle connection is reused, or a
+     * new one is opened if the pool is not full. Otherwise it waits for a
+     * connection to be returned.
+     *
+     * @throws SQLException if the pool is closed, a connection cannot be
+     * opened or no connection is returned in the max wait time
+     */
+    public Connection getConnection()
+            throws SQLException
+    {
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        while (true) {
+            IdleConnection reused = null;
+            List<PooledConnection> expired;
+            synchronized (lock) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                expired = removeExpired(System.currentTimeMillis());
+                if (!idle.isEmpty()) {
+                    reused = idle.removeFirst();
+                    active.put(reused.conn, Boolean.TRUE);
+                }
+                else if (size < maxSize) {
+                    size++;
+                }
+                else {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        waitTimeoutCount.incrementAndGet();
+                        throw new SQLException(String.format(
+                                "Timed out waiting for a connection: max pool size = %d, max wait = %d ms",
+                                maxSize, maxWaitMs));
+                    }
+                    waiting++;
+                    try {
+                        lock.wait(wait);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException(e);
+                    }
+                    finally {
+                        waiting--;
+                    }
+                    continue;
+                }
+            }
+            destroy(expired);
+
+            if (reused == null) {
+                return open();
+            }
+
+            Connection c = checkout(reused);
+            if (c != null) {
+                return c;
+            }
+            // the connection was broken. try the next one.
+        }
+    }
+
+    /**
+     * Open a new connection. The size is already counted.
+     */
+    private Connection open()
+            throws SQLException
+    {
+        PooledConnection pc;
+        try {
+            pc = source.getPooledConnection(user, password);
+        }
+        catch (SQLException e) {
+            release();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+        createdCount.incrementAndGet();
+        pc.addConnectionEventListener(this);
+        synchronized (lock) {
+            active.put(pc, Boolean.TRUE);
+        }
+        try {
+            Connection c = pc.getConnection();
+            borrowedCount.incrementAndGet();
+            return c;
+        }
+        catch (SQLException e) {
+            remove(pc);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the handle of the idle connection, or null if it is not valid
+     */
+    private Connection checkout(IdleConnection reused)
+    {
+        PooledConnection pc = reused.conn;
+        try {
+            Connection c = pc.getConnection();
+            if (System.currentTimeMillis() - reused.idleSince > validationIntervalMs
+                    && !c.isValid(validationTimeout)) {
+                validationFailureCount.incrementAndGet();
+                LOG.info("closed an invalid connection of the pool");
+                remove(pc);
+                return null;
+            }
+            borrowedCount.incrementAndGet();
+            return c;
+        }
+        catch (SQLException e) {
+            validationFailureCount.incrementAndGet();
+            LOG.warning("closed a broken connection of the pool: " + e.getMessage());
+            remove(pc);
+            return null;
+        }
+    }
+
+    public void connectionClosed(ConnectionEvent event)
+    {
+        PooledConnection pc = (PooledConnection) event.getSource();
+        synchronized (lock) {
+            if (active.remove(pc) == null) {
+                return;
+            }
+            if (!closed) {
+                idle.addFirst(new IdleConnection(pc, System.currentTimeMillis()));
+                lock.notifyAll();
+                startEvictor();
+                return;
+            }
+            size--;
+        }
+        destroy(pc);
+    }
+
+    public void connectionErrorOccurred(ConnectionEvent event)
+    {
+        PooledConnection pc = (PooledConnection) event.getSource();
+        LOG.warning("closed a connection of the pool because of an error: " + event.getSQLException());
+        synchronized (lock) {
+            if (active.remove(pc) == null) {
+                return;
+            }
+        }
+        release();
+        destroy(pc);
+    }
+
+    /**
+     * Close an active connection that is broken
+     */
+    private void remove(PooledConnection pc)
+    {
+        synchronized (lock) {
+            active.remove(pc);
+        }
+        release();
+        destroy(pc);
+    }
+
+    /**
+     * Give back the slot of a closed connection
+     */
+    private void release()
+    {
+        synchronized (lock) {
+            size--;
+            lock.notifyAll();
+            if (size < minSize) {
+                startFill();
+            }
+        }
+    }
+
+    /**
+     * Remove the connections idle longer than the idle timeout, leaving the
+     * min size of connections. Called with the lock.
+     */
+    private List<PooledConnection> removeExpired(long now)
+    {
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        // the oldest ones are at the end
+        Iterator<IdleConnection> it = idle.descendingIterator();
+        while (it.hasNext() && size > minSize) {
+            IdleConnection c = it.next();
+            if (now - c.idleSince < idleTimeoutMs) {
+                break;
+            }
+            it.remove();
+            size--;
+            expired.add(c.conn);
+        }
+        return expired;
+    }
+
+    private void destroy(List<PooledConnection> conns)
+    {
+        for (PooledConnection pc : conns) {
+            destroy(pc);
+        }
+    }
+
+    private void destroy(PooledConnection pc)
+    {
+        pc.removeConnectionEventListener(this);
+        destroyedCount.incrementAndGet();
+        try {
+            pc.close();
+        }
+        catch (SQLException e) {
+            LOG.warning("cannot close a connection of the pool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start the task that closes the idle connections after the idle
+     * timeout. It stops when no connection can be closed. Called with the
+     * lock.
+     */
+    private void startEvictor()
+    {
+        if (evictorRunning || idleTimeoutMs <= 0 || size <= minSize) {
+            return;
+        }
+        evictorRunning = true;
+        try {
+            DriverExecutor.getInstance().getSharedScope().submitLongRunning("td-jdbc-pool-evictor", new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        evictLoop();
+                    }
+                    finally {
+                        synchronized (lock) {
+                            evictorRunning = false;
+                        }
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // all the threads are in use: the next connection given back tries again
+            LOG.info("no thread for the evictor of the pool");
+            evictorRunning = false;
+        }
+    }
+
+    private void evictLoop()
+    {
+        while (true) {
+            List<PooledConnection> expired;
+            synchronized (lock) {
+                if (closed || idle.isEmpty() || size <= minSize) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                expired = removeExpired(now);
+                if (expired.isEmpty()) {
+                    // wait for the oldest idle connection to expire
+                    long wait = idle.getLast().idleSince + idleTimeoutMs - now;
+                    try {
+                        lock.wait(Math.max(wait, 1));
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            destroy(expired);
+        }
+    }
+
+    /**
+     * Open connections in the background up to the min size. Called with
+     * the lock.
+     */
+    private void startFill()
+    {
+        if (filling || closed) {
+            return;
+        }
+        filling = true;
+        try {
+            DriverExecutor.getInstance().getSharedScope().submitLongRunning("td-jdbc-pool-fill", new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        fill();
+                    }
+                    finally {
+                        synchronized (lock) {
+                            filling = false;
+                        }
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // all the threads are in use: the next removal or warmUp() tries again
+            LOG.info("no thread to fill the pool");
+            filling = false;
+        }
+    }
+
+    private void fill()
+    {
+        while (true) {
+            synchronized (lock) {
+                if (closed || size >= minSize) {
+                    return;
+                }
+                size++;
+            }
+            PooledConnection pc;
+            try {
+                pc = source.getPooledConnection(user, password);
+            }
+            catch (Exception e) {
+                LOG.warning("cannot open a connection of the pool: " + e);
+                synchronized (lock) {
+                    size--;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            createdCount.incrementAndGet();
+            pc.addConnectionEventListener(this);
+            synchronized (lock) {
+                if (!closed) {
+                    idle.addLast(new IdleConnection(pc, System.currentTimeMillis()));
+                    lock.notifyAll();
+                    continue;
+                }
+                size--;
+            }
+            destroy(pc);
+            return;
+        }
+    }
+
+    /**
+     * Open the connections up to the min size in the background
+     */
+    public void warmUp()
+    {
+        synchronized (lock) {
+            if (size < minSize) {
+                startFill();
+            }
+        }
+    }
+
+    /**
+     * Close the idle connections. The active connections are closed when
+     * they are returned.
+     */
+    public void close()
+    {
+        List<PooledConnection> conns = new ArrayList<PooledConnection>();
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (IdleConnection c : idle) {
+                conns.add(c.conn);
+            }
+            size -= idle.size();
+            idle.clear();
+            lock.notifyAll();
+        }
+        destroy(conns);
+    }
+
+    public boolean isClosed()
+    {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    public int getMinSize()
+    {
+        return minSize;
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of the open connections, idle or in use
+     */
+    public int getSize()
+    {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public int getActiveCount()
+    {
+        synchronized (lock) {
+            return active.size();
+        }
+    }
+
+    public int getIdleCount()
+    {
+        synchronized (lock) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Returns the number of threads waiting for a connection
+     */
+    public int getWaitingCount()
+    {
+        synchronized (lock) {
+            return waiting;
+        }
+    }
+
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount()
+    {
+        return destroyedCount.get();
+    }
+
+    public long getBorrowedCount()
+    {
+        return borrowedCount.get();
+    }
+
+    public long getValidationFailureCount()
+    {
+        return validationFailureCount.get();
+    }
+
+    public long getWaitTimeoutCount()
+    {
+        return waitTimeoutCount.get();
+    }
+}
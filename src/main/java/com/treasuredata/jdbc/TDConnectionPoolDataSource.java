@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import com.treasuredata.jdbc.command.ClientRegistry;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the physical connections of a connection pool. The JDBC URL and
+ * the properties are parsed once per user, and the connections of the same
+ * user share the parsed configuration.
+ */
+public class TDConnectionPoolDataSource
+        implements ConnectionPoolDataSource
+{
+    private String url;
+
+    private Properties properties = new Properties();
+
+    private String user;
+
+    private String password;
+
+    private int loginTimeout;
+
+    private PrintWriter printer;
+
+    // digest of user + password -> parsed configuration
+    private final Map<String, Config> configs = new ConcurrentHashMap<String, Config>();
+
+    public TDConnectionPoolDataSource()
+    {
+    }
+
+    public PooledConnection getPooledConnection()
+            throws SQLException
+    {
+        return getPooledConnection(getUser(), getPassword());
+    }
+
+    public PooledConnection getPooledConnection(String user, String password)
+            throws SQLException
+    {
+        return new TDPooledConnection(new TDConnection(getConfig(user, password)));
+    }
+
+    Config getConfig(String user, String password)
+            throws SQLException
+    {
+        if (url == null) {
+            throw new SQLException("url is not set");
+        }
+        String key = ClientRegistry.digest(String.valueOf(user) + '\0' + String.valueOf(password));
+        Config config = configs.get(key);
+        if (config == null) {
+            Properties props = new Properties();
+            props.putAll(properties);
+            if (user != null) {
+                props.setProperty(Config.TD_JDBC_USER, user);
+            }
+            if (password != null) {
+                props.setProperty(Config.TD_JDBC_PASSWORD, password);
+            }
+            config = Config.newConfig(url, props);
+            configs.put(key, config);
+        }
+        return config;
+    }
+
+    public void setUrl(String url)
+    {
+        this.url = url;
+        configs.clear();
+    }
+
+    public String getUrl()
+    {
+        return url;
+    }
+
+    /**
+     * Set the connection properties, e.g. apikey, type and td.jdbc.* options
+     */
+    public void setProperties(Properties properties)
+    {
+        this.properties = new Properties();
+        this.properties.putAll(properties);
+        configs.clear();
+    }
+
+    public Properties getProperties()
+    {
+        return properties;
+    }
+
+    public void setUser(String user)
+    {
+        this.user = user;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    public void setPassword(String password)
+    {
+        this.password = password;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    public PrintWriter getLogWriter()
+            throws SQLException
+    {
+        return printer;
+    }
+
+    public void setLogWriter(PrintWriter out)
+            throws SQLException
+    {
+        printer = out;
+    }
+
+    public int getLoginTimeout()
+            throws SQLException
+    {
+        return loginTimeout;
+    }
+
+    public void setLoginTimeout(int seconds)
+            throws SQLException
+    {
+        loginTimeout = seconds;
+    }
+}
@@ -18,12 +18,25 @@
  */
 package com.treasuredata.jdbc;
 
+import com.treasuredata.jdbc.command.ClientRegistry;
+
 import javax.sql.DataSource;
 
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
+/**
+ * DataSource that pools the connections. The connections of each user are
+ * kept in a {@link TDConnectionPool}, and closing a connection returns it to
+ * the pool. The pool settings are read when the first connection of the
+ * user is requested.
+ */
 public class TDDataSource
         implements DataSource
 {
@@ -35,6 +48,23 @@ public class TDDataSource
 
     private PrintWriter printer;
 
+    private final TDConnectionPoolDataSource source = new TDConnectionPoolDataSource();
+
+    private int minPoolSize = 0;
+
+    private int maxPoolSize = 10;
+
+    private long idleTimeoutMs = 10 * 60 * 1000;
+
+    private long validationIntervalMs = 30 * 1000;
+
+    private int validationTimeout = 5; // seconds
+
+    private long maxWaitMs = 30 * 1000;
+
+    // ClientRegistry.key of the config of the user -> pool
+    private final Map<String, TDConnectionPool> pools = new HashMap<String, TDConnectionPool>();
+
     public TDDataSource()
     {
     }
@@ -48,8 +78,158 @@ public class TDDataSource
     public Connection getConnection(String user, String password)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException(
-                "TDDataSource#getConection(String, String)"));
+        return getPool(user, password).getConnection();
+    }
+
+    /**
+     * Returns the pool of the connections of the user and password of this
+     * data source
+     */
+    public TDConnectionPool getPool()
+            throws SQLException
+    {
+        return getPool(getUser(), getPassword());
+    }
+
+    /**
+     * Returns the pool of the connections of the given user
+     */
+    public TDConnectionPool getPool(String user, String password)
+            throws SQLException
+    {
+        // checks the url and the properties
+        Config config = source.getConfig(user, password);
+
+        // the password is digested in the key
+        String key = ClientRegistry.key(config);
+        synchronized (pools) {
+            TDConnectionPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new TDConnectionPool(source, user, password,
+                        minPoolSize, maxPoolSize, idleTimeoutMs,
+                        validationIntervalMs, validationTimeout, maxWaitMs);
+                pools.put(key, pool);
+                pool.warmUp();
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Close the pools. The connections in use are closed when they are
+     * returned.
+     */
+    public void close()
+    {
+        List<TDConnectionPool> closing;
+        synchronized (pools) {
+            closing = new ArrayList<TDConnectionPool>(pools.values());
+            pools.clear();
+        }
+        for (TDConnectionPool pool : closing) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Set the JDBC URL, e.g. jdbc:td://api.treasuredata.com/mydb;type=presto
+     */
+    public void setUrl(String url)
+    {
+        source.setUrl(url);
+    }
+
+    public String getUrl()
+    {
+        return source.getUrl();
+    }
+
+    /**
+     * Set the connection properties, e.g. apikey and td.jdbc.* options
+     */
+    public void setProperties(Properties properties)
+    {
+        source.setProperties(properties);
+    }
+
+    public Properties getProperties()
+    {
+        return source.getProperties();
+    }
+
+    public void setMinPoolSize(int minPoolSize)
+    {
+        this.minPoolSize = minPoolSize;
+    }
+
+    public int getMinPoolSize()
+    {
+        return minPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize)
+    {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public int getMaxPoolSize()
+    {
+        return maxPoolSize;
+    }
+
+    /**
+     * Set the time (ms) after which idle connections above the min pool size
+     * are closed
+     */
+    public void setIdleTimeout(long idleTimeoutMs)
+    {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public long getIdleTimeout()
+    {
+        return idleTimeoutMs;
+    }
+
+    /**
+     * Set the idle time (ms) after which a connection is validated before it
+     * is reused
+     */
+    public void setValidationInterval(long validationIntervalMs)
+    {
+        this.validationIntervalMs = validationIntervalMs;
+    }
+
+    public long getValidationInterval()
+    {
+        return validationIntervalMs;
+    }
+
+    /**
+     * Set the seconds to wait for the validation of a connection
+     */
+    public void setValidationTimeout(int seconds)
+    {
+        this.validationTimeout = seconds;
+    }
+
+    public int getValidationTimeout()
+    {
+        return validationTimeout;
+    }
+
+    /**
+     * Set the max time (ms) to wait for a connection when all connections
+     * of the pool are in use
+     */
+    public void setMaxWait(long maxWaitMs)
+    {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    public long getMaxWait()
+    {
+        return maxWaitMs;
     }
 
     public void setUser(String user)
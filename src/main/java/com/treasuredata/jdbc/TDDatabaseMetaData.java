@@ -20,6 +20,9 @@ package com.treasuredata.jdbc;
 
 import com.treasure_data.client.ClientException;
 import com.treasuredata.jdbc.command.ClientAPI;
+import com.treasuredata.jdbc.command.NamePattern;
+import com.treasuredata.jdbc.command.SchemaLoader;
+import com.treasuredata.jdbc.command.SchemaSnapshot;
 import com.treasuredata.jdbc.model.TDColumn;
 import com.treasuredata.jdbc.model.TDDataType;
 import com.treasuredata.jdbc.model.TDDatabase;
@@ -27,9 +30,6 @@ import com.treasuredata.jdbc.model.TDImportedKey;
 import com.treasuredata.jdbc.model.TDTable;
 import com.treasure_data.model.Database;
 import com.treasure_data.model.DatabaseSummary;
-import com.treasure_data.model.Table;
-import com.treasure_data.model.TableSummary;
-import org.json.simple.JSONValue;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -39,7 +39,6 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 public class TDDatabaseMetaData
@@ -48,16 +47,57 @@ public class TDDatabaseMetaData
 
     private ClientAPI api;
     private Database database;
+    private SchemaLoader loader;
+    // list the databases other than the one of the connection
+    private boolean allCatalogs = false;
 
     public TDDatabaseMetaData(ClientAPI api)
     {
-        this.api = api;
+        this(null, api);
     }
 
     public TDDatabaseMetaData(Database database, ClientAPI api)
+    {
+        this(database, api, new SchemaLoader(api, null, 0, 1), false);
+    }
+
+    public TDDatabaseMetaData(Database database, ClientAPI api, SchemaLoader loader, boolean allCatalogs)
     {
         this.api = api;
         this.database = database;
+        this.loader = loader;
+        this.allCatalogs = allCatalogs;
+    }
+
+    private String getDatabaseName()
+    {
+        return database == null ? null : database.getName();
+    }
+
+    /**
+     * Returns the snapshots of the databases that the catalog of a metadata
+     * call selects, in name order. Null selects all the databases, and the
+     * empty string selects the database of the connection.
+     */
+    private List<SchemaSnapshot> getSchemaSnapshots(String catalog)
+            throws SQLException
+    {
+        try {
+            if (catalog != null && (catalog.isEmpty() || catalog.equals(getDatabaseName()))) {
+                return Collections.singletonList(loader.load(getDatabaseName()));
+            }
+
+            List<String> catalogs = new ArrayList<String>();
+            for (DatabaseSummary ds : loader.loadDatabases()) {
+                if (catalog == null || catalog.equals(ds.getName())) {
+                    catalogs.add(ds.getName());
+                }
+            }
+            return loader.loadAll(catalogs);
+        }
+        catch (ClientException e) {
+            throw new SQLException(e);
+        }
     }
 
     public boolean allProceduresAreCallable()
@@ -141,20 +181,25 @@ public class TDDatabaseMetaData
     public ResultSet getCatalogs()
             throws SQLException
     {
-        DatabaseSummary ds = null;
+        ArrayList<TDDatabase> databases = new ArrayList<TDDatabase>();
         try {
-            ds = api.showDatabase();
+            if (allCatalogs) {
+                // in name order as JDBC requires
+                for (DatabaseSummary ds : loader.loadDatabases()) {
+                    databases.add(new TDDatabase(ds.getName()));
+                }
+            }
+            else {
+                DatabaseSummary ds = loader.loadDatabase(getDatabaseName());
+                if (ds != null) {
+                    databases.add(new TDDatabase(ds.getName()));
+                }
+            }
         }
         catch (ClientException e) {
             throw new SQLException(e);
         }
 
-        ArrayList<TDDatabase> databases = new ArrayList<TDDatabase>();
-        if (ds != null) {
-            TDDatabase database = new TDDatabase(ds.getName());
-            databases.add(database);
-        }
-
         List<String> names = Arrays.asList("TABLE_CAT");
         List<String> types = Arrays.asList("STRING");
 
@@ -203,142 +248,28 @@ public class TDDatabaseMetaData
                         "TDDatabaseMetaData#getColumnPrivileges(String, String, String, String)"));
     }
 
-    /**
-     * Convert a pattern containing JDBC catalog search wildcards into Java
-     * regex patterns.
-     *
-     * @param pattern input which may contain '%' or '_' wildcard characters, or
-     * these characters escaped using
-     * {@link #getSearchStringEscape()}.
-     * @return replace %/_ with regex search characters, also handle escaped
-     * characters.
-     */
-    private String convertPattern(final String pattern)
-    {
-        if (pattern == null) {
-            return ".*";
-        }
-        else {
-            StringBuilder result = new StringBuilder(pattern.length());
-
-            boolean escaped = false;
-            for (int i = 0, len = pattern.length(); i < len; i++) {
-                char c = pattern.charAt(i);
-                if (escaped) {
-                    if (c != '\\') {
-                        escaped = false;
-                    }
-                    result.append(c);
-                }
-                else {
-                    if (c == '\\') {
-                        escaped = true;
-                        continue;
-                    }
-                    else if (c == '%') {
-                        result.append(".*");
-                    }
-                    else if (c == '_') {
-                        result.append('.');
-                    }
-                    else {
-                        result.append(c);
-                    }
-                }
-            }
-
-            return result.toString();
-        }
-    }
-
-    @SuppressWarnings("unchecked")
     public ResultSet getColumns(String catalog, final String schemaPattern,
             final String tableNamePattern, final String columnNamePattern)
             throws SQLException
     {
-        if (catalog == null) {
-            catalog = "default";
-        }
-
-        String tableNamePattern1 = convertPattern(tableNamePattern);
-        String columnNamePattern1 = convertPattern(columnNamePattern);
-
-        List<TableSummary> ts = null;
-        try {
-            ts = api.showTables();
-            if (ts == null) {
-                ts = new ArrayList<TableSummary>();
-            }
-        }
-        catch (ClientException e) {
-            throw new SQLException(e);
-        }
+        NamePattern tables = NamePattern.compile(tableNamePattern);
+        NamePattern columnNames = NamePattern.compile(columnNamePattern);
 
+        // ordered by the catalog, the table name and the ordinal position as
+        // JDBC requires
         List<TDColumn> columns = new ArrayList<TDColumn>();
-        for (TableSummary t : ts) {
-            if (!t.getName().matches(tableNamePattern1)) {
-                continue;
-            }
-
-            List<List<String>> schemaFields = null;
-            try {
-                schemaFields = (List<List<String>>) JSONValue.parse(t
-                        .getSchema());
-            }
-            catch (Exception e) {
-                continue;
-            }
-
-            boolean hasTimeColumn = false;
-            int ordinal = 1;
-            for (List<String> schemaField : schemaFields) {
-                String fname = schemaField.get(0);
-                String ftype = schemaField.get(1);
-
-                if (fname.equals("time")) {
-                    hasTimeColumn = true;
-                }
-
-                if (!fname.matches(columnNamePattern1)) {
-                    continue;
-                }
-
-                TDColumn c = new TDColumn(fname, t.getName(), catalog, ftype,
-                        "comment", ordinal);
-                columns.add(c);
-                ordinal++;
-            }
-
-            if (t.getType() == Table.Type.LOG && !hasTimeColumn && "time".matches(columnNamePattern1)) {
-                TDColumn c = new TDColumn("time", t.getName(), catalog, "int", "comment", ordinal);
-                columns.add(c);
-                ordinal++;
+        final String tableCatalog;
+        if (allCatalogs) {
+            for (SchemaSnapshot snapshot : getSchemaSnapshots(catalog)) {
+                columns.addAll(snapshot.findColumns(tables, columnNames));
             }
+            tableCatalog = null;
+        }
+        else {
+            SchemaSnapshot snapshot = getSchemaSnapshots("").get(0);
+            columns.addAll(snapshot.findColumns(tables, columnNames));
+            tableCatalog = catalog == null ? "default" : catalog;
         }
-        Collections.sort(columns, new Comparator<TDColumn>()
-        {
-            /**
-             * We sort the output of getColumns to guarantee jdbc compliance.
-             * First check by table name then by ordinal position
-             */
-            public int compare(TDColumn o1, TDColumn o2)
-            {
-                int compareName = o1.getTableName()
-                        .compareTo(o2.getTableName());
-                if (compareName == 0) {
-                    if (o1.getOrdinal() > o2.getOrdinal()) {
-                        return 1;
-                    }
-                    else if (o1.getOrdinal() < o2.getOrdinal()) {
-                        return -1;
-                    }
-                    return 0;
-                }
-                else {
-                    return compareName;
-                }
-            }
-        });
 
         List<String> names = Arrays.asList("TABLE_CAT", "TABLE_SCHEM",
                 "TABLE_NAME", "COLUMN_NAME", "DATA_TYPE", "TYPE_NAME",
@@ -388,7 +319,7 @@ public class TDDatabaseMetaData
 
                     TDColumn column = data.get(cnt);
                     List<Object> a = new ArrayList<Object>(23);
-                    a.add(column.getTableCatalog()); // TABLE_CAT String =>
+                    a.add(tableCatalog != null ? tableCatalog : column.getTableCatalog()); // TABLE_CAT String =>
                     // table catalog (may be
                     // null)
                     a.add(null); // TABLE_SCHEM String => table schema (may be
@@ -913,29 +844,23 @@ public class TDDatabaseMetaData
          * finds table descriptions in the specified database.
          * if catalog is not same as the specified database, it returns null.
          * if catalog is null or catalog is empty, catalog is set to the specified database.
+         *
+         * if all the catalogs are listed, null finds table descriptions in all
+         * the databases, and another database can be specified.
          */
-        if (catalog == null || catalog.isEmpty()) {
-            catalog = database.getName();
-        }
-        else if (!catalog.equals(database.getName())) {
-            return getEmptyTables();
+        if (!allCatalogs) {
+            if (catalog == null || catalog.isEmpty()) {
+                catalog = "";
+            }
+            else if (!catalog.equals(database.getName())) {
+                return getEmptyTables();
+            }
         }
 
         /*
          * ignores schemaPattern for now. it is not used for searching table descriptions.
          */
 
-        List<TableSummary> ts = null;
-        try {
-            ts = api.showTables();
-            if (ts == null) {
-                ts = new ArrayList<TableSummary>();
-            }
-        }
-        catch (ClientException e) {
-            throw new SQLException(e);
-        }
-
         /*
          * if types is null or includes 'TABLE', it searches table descriptions in the specified database.
          * otherwise it returns null.
@@ -954,49 +879,26 @@ public class TDDatabaseMetaData
             }
         }
 
-        String tableNamePattern1 = convertPattern(tableNamePattern);
+        /*
+         * tableNamePattern - a table name pattern; must match the table
+         * name as it is stored in the database.
+         *
+         * The output is sorted by TABLE_TYPE, TABLE_CAT, TABLE_SCHEM, and
+         * TABLE_NAME as JDBC requires. In our specific case, the type and
+         * the schema are the same, so it is in catalog and name order.
+         */
+        NamePattern pattern = NamePattern.compile(tableNamePattern);
         List<TDTable> tables = new ArrayList<TDTable>();
-        for (TableSummary t : ts) {
-            /*
-             * tableNamePattern - a table name pattern; must match the table
-             * name as it is stored in the database.
-             * 
-             * The table name must match the tableNamePattern regexp to be
-             * accepted.
-             */
-            if (!t.getName().matches(tableNamePattern1)) {
-                continue;
+        for (SchemaSnapshot snapshot : getSchemaSnapshots(catalog)) {
+            for (String name : snapshot.findTables(pattern)) {
+                tables.add(new TDTable(snapshot.getCatalog(), name, "TABLE", "comment"));
             }
-            TDTable table = new TDTable(catalog, t.getName(), "TABLE", "comment");
-            tables.add(table);
         }
 
         if (tables.isEmpty()) {
             return getEmptyTables();
         }
 
-        Collections.sort(tables, new Comparator<TDTable>()
-        {
-            /**
-             * We sort the output of getTables to guarantee JDBC compliance to
-             * sort by TABLE_TYPE, TABLE_CAT, TABLE_SCHEM, and TABLE_NAME.
-             *
-             * In our specific case: Sorting by catalog (only one available) and
-             * schema (empty) is not necessary so we sort by type, then table
-             * name.
-             */
-            public int compare(TDTable o1, TDTable o2)
-            {
-                int compareType = o1.getType().compareTo(o2.getType());
-                if (compareType == 0) {
-                    return o1.getTableName().compareTo(o2.getTableName());
-                }
-                else {
-                    return compareType;
-                }
-            }
-        });
-
         List<String> nameList = Arrays.asList("TABLE_CAT", "TABLE_SCHEM",
                 "TABLE_NAME", "TABLE_TYPE", "REMARKS", "TYPE_CAT",
                 "TYPE_SCHEM", "TYPE_NAME", "SELF_REFERENCING_COL_NAME",
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A physical connection kept in a connection pool. The application uses it
+ * through the handle returned by {@link #getConnection()}, and closing the
+ * handle notifies the listeners (the pool) that the connection can be
+ * reused.
+ */
+public class TDPooledConnection
+        implements PooledConnection
+{
+    private final TDConnection conn;
+
+    private final long createdAt = System.currentTimeMillis();
+
+    private final List<ConnectionEventListener> listeners = new CopyOnWriteArrayList<ConnectionEventListener>();
+
+    private final List<StatementEventListener> statementListeners = new CopyOnWriteArrayList<StatementEventListener>();
+
+    private TDConnectionHandle handle;
+
+    public TDPooledConnection(TDConnection conn)
+    {
+        this.conn = conn;
+    }
+
+    /**
+     * Returns a new handle of the physical connection. The handle returned
+     * before is closed without notifying the listeners.
+     */
+    public synchronized Connection getConnection()
+            throws SQLException
+    {
+        if (conn.isClosed()) {
+            throw new SQLException("Pooled connection is closed");
+        }
+        if (handle != null) {
+            handle.release();
+        }
+        handle = new TDConnectionHandle(this, conn);
+        return handle;
+    }
+
+    /**
+     * Close the physical connection
+     */
+    public void close()
+            throws SQLException
+    {
+        synchronized (this) {
+            if (handle != null) {
+                handle.release();
+                handle = null;
+            }
+        }
+        conn.close();
+    }
+
+    /**
+     * Returns true if the physical connection is usable
+     *
+     * @param timeout seconds to wait for the validation
+     * @see TDConnection#isValid(int)
+     */
+    public boolean isValid(int timeout)
+            throws SQLException
+    {
+        return conn.isValid(timeout);
+    }
+
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    TDConnection getPhysicalConnection()
+    {
+        return conn;
+    }
+
+    void fireConnectionClosed()
+    {
+        synchronized (this) {
+            handle = null;
+        }
+        ConnectionEvent event = new ConnectionEvent(this);
+        for (ConnectionEventListener l : listeners) {
+            l.connectionClosed(event);
+        }
+    }
+
+    void fireConnectionError(SQLException e)
+    {
+        synchronized (this) {
+            handle = null;
+        }
+        ConnectionEvent event = new ConnectionEvent(this, e);
+        for (ConnectionEventListener l : listeners) {
+            l.connectionErrorOccurred(event);
+        }
+    }
+
+    public void addConnectionEventListener(ConnectionEventListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeConnectionEventListener(ConnectionEventListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Statement events are not fired because prepared statements are not
+     * pooled
+     */
+    public void addStatementEventListener(StatementEventListener listener)
+    {
+        statementListeners.add(listener);
+    }
+
+    public void removeStatementEventListener(StatementEventListener listener)
+    {
+        statementListeners.remove(listener);
+    }
+}
@@ -18,14 +18,19 @@
  */
 package com.treasuredata.jdbc;
 
-import com.treasuredata.jdbc.command.CommandContext;
+import com.treasure_data.client.ClientException;
 import com.treasure_data.model.Job;
-
+import com.treasuredata.jdbc.command.CommandContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.URL;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Date;
@@ -40,9 +45,16 @@ import java.sql.SQLException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 public class TDPreparedStatement
@@ -52,14 +64,34 @@ public class TDPreparedStatement
     private static Logger LOG = Logger.getLogger(
             TDPreparedStatement.class.getName());
 
+    /**
+     * Column added to the combined query of executeBatch(). It is the index
+     * of the parameter set of the row.
+     */
+    static final String BATCH_INDEX_COLUMN = "td_batch_index";
+
     private CommandContext context;
+    private final PreparedSql preparedSql;
+    private final SqlLiteral literal;
     private Map<Integer, String> preparedParameters = new HashMap<Integer, String>();
+    private final List<Map<Integer, String>> batch = new ArrayList<Map<Integer, String>>();
+    // the results of the last executeBatch() and the one returned by getResultSet()
+    private List<TDBatchResultSet> batchResults = null;
+    private int batchResultIndex = 0;
 
     public TDPreparedStatement(TDConnection conn, String sql)
             throws SQLException
     {
-        super(conn);
+        this(conn, sql, ResultSet.TYPE_FORWARD_ONLY);
+    }
+
+    public TDPreparedStatement(TDConnection conn, String sql, int resultSetType)
+            throws SQLException
+    {
+        super(conn, resultSetType);
         context = createCommandContext(sql);
+        preparedSql = PreparedSql.parse(sql);
+        literal = SqlLiteral.forType(conn.getConfig().type);
     }
 
     CommandContext getContext()
@@ -81,13 +113,13 @@ public class TDPreparedStatement
     public void addBatch()
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#clearBatch()"));
+        batch.add(new HashMap<Integer, String>(preparedParameters));
     }
 
     public void clearBatch()
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#clearBatch()"));
+        batch.clear();
     }
 
     public boolean execute()
@@ -96,72 +128,302 @@ public class TDPreparedStatement
         return executeQuery() != null;
     }
 
-    public synchronized ResultSet executeQuery()
+    public ResultSet executeQuery()
+            throws SQLException
+    {
+        batchResults = null;
+        return executeQuery(preparedSql.render(preparedParameters));
+    }
+
+    /**
+     * Runs the parameter sets added by addBatch(). The queries of up to
+     * td.jdbc.batch.size sets are combined into one job with UNION ALL and a
+     * batch index column, and the rows are split back into one result set
+     * per parameter set. getResultSet() returns the result of the first set
+     * and getMoreResults() moves to the next one. The row count of each set
+     * is returned. The rows of a combined job are buffered, and the batch
+     * fails if they are more than td.jdbc.batch.maxrows.
+     *
+     * Statements other than queries, and queries with a top-level ORDER BY,
+     * whose order a subquery would not keep, are run one by one, and
+     * Statement.SUCCESS_NO_INFO is returned for them. So are queries whose
+     * result has a td_batch_index column or two columns of the same name,
+     * which a combined query cannot select, and queries whose first combined
+     * job fails. Then the error of the query, if any, is the one of the
+     * first set.
+     *
+     * Like executeQuery(), it is not synchronized. The batch and the results
+     * belong to the statement, which is used by one thread at a time.
+     */
+    @Override
+    public int[] executeBatch()
             throws SQLException
     {
-        String sql = context.sql;
-        if (sql.contains("?")) {
-            sql = updateSql(sql, preparedParameters);
+        List<Map<Integer, String>> sets = new ArrayList<Map<Integer, String>>(batch);
+        batch.clear();
+        batchResults = null;
+
+        int[] counts = new int[sets.size()];
+        List<TDBatchResultSet> results = new ArrayList<TDBatchResultSet>(sets.size());
+        boolean combined = isCombinable(preparedSql.getSql());
+        int done = 0;
+        try {
+            while (done < sets.size()) {
+                if (combined) {
+                    int to = Math.min(done + conn.getConfig().batchSize, sets.size());
+                    List<TDBatchResultSet> chunk = executeCombined(sets.subList(done, to), done == 0);
+                    if (chunk == null) {
+                        // no set has been run yet
+                        combined = false;
+                        continue;
+                    }
+                    results.addAll(chunk);
+                    for (; done < to; done++) {
+                        counts[done] = results.get(done).getRowCount();
+                    }
+                }
+                else {
+                    executeQuery(preparedSql.render(sets.get(done)));
+                    counts[done++] = SUCCESS_NO_INFO;
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new BatchUpdateException(e.getMessage(), Arrays.copyOf(counts, done), e);
+        }
+
+        if (combined) {
+            batchResults = results;
+            batchResultIndex = 0;
+            currentResultSet = results.isEmpty() ? null : results.get(0);
         }
-        return executeQuery(sql);
+        return counts;
     }
 
-    String updateSql(final String sql, Map<Integer, String> parameters)
+    /**
+     * Returns the results of the parameter sets of the last executeBatch(),
+     * or null if the statement was not a query.
+     */
+    public List<TDBatchResultSet> getBatchResults()
     {
-        StringBuffer newSql = new StringBuffer(sql);
+        return batchResults;
+    }
 
-        int paramLoc = 1;
-        while (getCharIndexFromSqlByParamLocation(sql, '?', paramLoc) > 0) {
-            // check the user has set the needs parameters
-            if (parameters.containsKey(paramLoc)) {
-                int tt = getCharIndexFromSqlByParamLocation(newSql.toString(), '?', 1);
-                newSql.deleteCharAt(tt);
-                newSql.insert(tt, parameters.get(paramLoc));
-            }
-            paramLoc++;
+    @Override
+    public boolean getMoreResults(int current)
+            throws SQLException
+    {
+        if (batchResults == null) {
+            return super.getMoreResults(current);
         }
-
-        return newSql.toString();
+        if (batchResultIndex + 1 < batchResults.size()) {
+            currentResultSet = batchResults.get(++batchResultIndex);
+            return true;
+        }
+        batchResultIndex = batchResults.size();
+        currentResultSet = null;
+        return false;
     }
 
-    private int getCharIndexFromSqlByParamLocation(final String sql,
-            final char cchar, final int paramLoc)
+    /**
+     * Returns true if the queries of the parameter sets can be combined into
+     * one query. Hive does not accept a WITH clause in a subquery, and the
+     * order of the rows of a subquery is not kept.
+     */
+    private boolean isCombinable(String sql)
     {
-        boolean escaping = false;
-        boolean quoted = false;
-        int num = 0;
-        for (int i = 0; i < sql.length(); i++) {
-            if (escaping) {
-                escaping = false;
-                continue;
-            }
+        String s = sql.trim();
+        if (hasTopLevelOrderBy(s, conn.getConfig().type == Job.Type.HIVE)) {
+            return false;
+        }
+        if (s.toLowerCase(Locale.ENGLISH).contains(BATCH_INDEX_COLUMN)) {
+            return false;
+        }
+        if (s.regionMatches(true, 0, "select", 0, 6)) {
+            return true;
+        }
+        return conn.getConfig().type == Job.Type.PRESTO && s.regionMatches(true, 0, "with", 0, 4);
+    }
+
+    /**
+     * Returns true if the query has ORDER BY outside parentheses, quotes and
+     * comments, e.g. not in a subquery or a window
+     *
+     * @param backslashEscape true if a backslash escapes a quote in a
+     * literal, as in Hive
+     */
+    private static boolean hasTopLevelOrderBy(String sql, boolean backslashEscape)
+    {
+        int depth = 0;
+        String lastWord = null;
+        int i = 0;
+        int len = sql.length();
+        while (i < len) {
             char c = sql.charAt(i);
-            switch (c) {
-            case '\\':
-                escaping = true;
-                break;
-            case '\'':
-                // record the count of char "'"
-                quoted = !quoted;
-                break;
-            default:
-                if (c == cchar && !quoted) {
-                    num++;
-                    if (num == paramLoc) {
-                        return i;
-                    }
+            if (c == '\'' || c == '"' || c == '`') {
+                // a doubled quote is read as two literals
+                i++;
+                while (i < len && sql.charAt(i) != c) {
+                    i += backslashEscape && sql.charAt(i) == '\\' ? 2 : 1;
+                }
+                i++;
+                lastWord = null;
+            }
+            else if (sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? len : end + 1;
+            }
+            else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+            }
+            else if (Character.isLetterOrDigit(c) || c == '_') {
+                int start = i;
+                while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+                    i++;
                 }
-                break;
+                String word = sql.substring(start, i);
+                if (depth == 0 && "by".equalsIgnoreCase(word) && "order".equalsIgnoreCase(lastWord)) {
+                    return true;
+                }
+                lastWord = word;
+            }
+            else {
+                if (c == '(') {
+                    depth++;
+                }
+                else if (c == ')') {
+                    depth--;
+                }
+                if (!Character.isWhitespace(c)) {
+                    lastWord = null;
+                }
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the parameter sets in one combined query and returns the result of
+     * each set
+     *
+     * @param first true if it is the first combined query of the batch
+     * @return null if the first combined query shows that the sets cannot be
+     * combined, i.e. its job fails or the columns of the result cannot be
+     * selected by name
+     */
+    private List<TDBatchResultSet> executeCombined(List<Map<Integer, String>> sets, boolean first)
+            throws SQLException
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT * FROM (");
+        for (int i = 0; i < sets.size(); i++) {
+            if (i > 0) {
+                sb.append("\nUNION ALL\n");
+            }
+            sb.append("SELECT ").append(i).append(" AS ").append(BATCH_INDEX_COLUMN)
+                    .append(", t").append(i).append(".* FROM (")
+                    .append(stripSemicolon(preparedSql.render(sets.get(i))))
+                    .append(") t").append(i);
+        }
+        sb.append(") td_batch");
+        int limit = conn.getConfig().batchMaxRows;
+        if (maxRows <= 0) {
+            // one more row to tell that the limit is exceeded
+            sb.append(" LIMIT ").append((long) limit + 1);
+        }
+
+        CommandContext combined = createCommandContext(sb.toString());
+        // the max rows are applied to each parameter set
+        combined.maxRows = 0;
+
+        List<List<List<Object>>> rows = new ArrayList<List<List<Object>>>(sets.size());
+        for (int i = 0; i < sets.size(); i++) {
+            rows.add(new ArrayList<List<Object>>());
+        }
+        TDResultSetBase rs = null;
+        try {
+            boolean hasRow;
+            try {
+                fetchResult(combined);
+                rs = combined.resultSet;
+                // next() waits for the job within the query timeout
+                hasRow = rs.next();
+            }
+            catch (SQLException e) {
+                // e.g. Hive rejects t0.* with two columns of the same name
+                if (first && e.getCause() instanceof ClientException && !Thread.currentThread().isInterrupted()) {
+                    LOG.warning("cannot combine the parameter sets, run them one by one: " + e.getMessage());
+                    return null;
+                }
+                throw e;
+            }
+            if (rs.columnNames == null) {
+                rs.getMetaData();
+            }
+            if (first && !hasUniqueColumnNames(rs.columnNames.subList(1, rs.columnNames.size()))) {
+                LOG.warning("cannot combine the parameter sets, run them one by one: "
+                        + "the result has two columns of the same name or a column named " + BATCH_INDEX_COLUMN);
+                return null;
+            }
+            int columns = rs.columnNames.size();
+            int buffered = 0;
+            for (; hasRow; hasRow = rs.next()) {
+                int index = rs.getInt(1);
+                if (index < 0 || index >= sets.size()) {
+                    throw new SQLException("Invalid batch index: " + index);
+                }
+                List<List<Object>> set = rows.get(index);
+                if (maxRows > 0 && set.size() >= maxRows) {
+                    continue;
+                }
+                if (++buffered > limit) {
+                    throw new SQLException(String.format("The result of %d parameter sets has more than %d rows (%s). "
+                            + "Lower %s or set the max rows of the statement",
+                            sets.size(), limit, Config.TD_JDBC_BATCH_MAXROWS, Config.TD_JDBC_BATCH_SIZE));
+                }
+                List<Object> row = new ArrayList<Object>(columns - 1);
+                for (int c = 2; c <= columns; c++) {
+                    row.add(rs.getObject(c));
+                }
+                set.add(row);
+            }
+
+            List<String> names = rs.columnNames.subList(1, columns);
+            List<String> types = rs.columnTypes == null ? null : rs.columnTypes.subList(1, rs.columnTypes.size());
+            List<TDBatchResultSet> results = new ArrayList<TDBatchResultSet>(sets.size());
+            for (List<List<Object>> set : rows) {
+                results.add(new TDBatchResultSet(names, types, set));
+            }
+            return results;
+        }
+        finally {
+            if (rs != null) {
+                rs.close();
             }
         }
-        return -1;
     }
 
-    @Override
-    public int[] executeBatch()
-            throws SQLException
+    private static boolean hasUniqueColumnNames(List<String> names)
+    {
+        Set<String> seen = new HashSet<String>();
+        seen.add(BATCH_INDEX_COLUMN);
+        for (String name : names) {
+            if (!seen.add(name.toLowerCase(Locale.ENGLISH))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String stripSemicolon(String sql)
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#executeBatch()"));
+        int len = sql.length();
+        while (len > 0 && (sql.charAt(len - 1) == ';' || Character.isWhitespace(sql.charAt(len - 1)))) {
+            len--;
+        }
+        return sql.substring(0, len);
     }
 
     public int executeUpdate()
@@ -185,193 +447,187 @@ public class TDPreparedStatement
     public void setArray(int i, Array x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setArray(int, Array)"));
+        setParameter(i, x == null ? literal.nullValue() : literal.objectValue(x));
     }
 
     public void setAsciiStream(int i, InputStream in)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setAsciiStream(int, InputStream)"));
+        setAsciiStream(i, in, -1L);
     }
 
     public void setAsciiStream(int i, InputStream in, int length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setAsciiStream(int, InputStream, int)"));
+        setAsciiStream(i, in, (long) length);
     }
 
     public void setAsciiStream(int i, InputStream in, long length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setAsciiStream(int, InputStream, long)"));
+        setStringParameter(i, in == null ? null : toString(readBytes(in, length), "US-ASCII"));
     }
 
     public void setBigDecimal(int parameterIndex, BigDecimal x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBigDecimal(int, BigDecimal)"));
+        setParameter(parameterIndex, x == null ? literal.nullValue() : literal.decimalValue(x));
     }
 
     public void setBinaryStream(int i, InputStream x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBinaryStream(int, InputStream)"));
+        setBinaryStream(i, x, -1L);
     }
 
     public void setBinaryStream(int i, InputStream in, int length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBinaryStream(int, InputStream, int)"));
+        setBinaryStream(i, in, (long) length);
     }
 
     public void setBinaryStream(int i, InputStream in, long length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBinaryStream(int, InputStream, long)"));
+        setBytes(i, in == null ? null : readBytes(in, length));
     }
 
     public void setBlob(int i, Blob x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBlob(int, Blob)"));
+        setBytes(i, x == null ? null : x.getBytes(1, (int) x.length()));
     }
 
     public void setBlob(int i, InputStream inputStream)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBlob(int, InputStream)"));
+        setBinaryStream(i, inputStream, -1L);
     }
 
     public void setBlob(int i, InputStream inputStream, long length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBlob(int, InputStream, long)"));
+        setBinaryStream(i, inputStream, length);
     }
 
     public void setBoolean(int parameterIndex, boolean x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBoolean(int, boolean)"));
+        setParameter(parameterIndex, literal.booleanValue(x));
     }
 
     public void setByte(int i, byte x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setByte(int, byte)"));
+        setParameter(i, literal.longValue(x));
     }
 
     public void setBytes(int i, byte[] x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setBytes(int, byte[])"));
+        setParameter(i, x == null ? literal.nullValue() : literal.bytesValue(x));
     }
 
     public void setCharacterStream(int i, Reader reader)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setCharacterStream(int, Reader)"));
+        setCharacterStream(i, reader, -1L);
     }
 
     public void setCharacterStream(int i, Reader reader, int length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setCharacterStream(int, Reader, int)"));
+        setCharacterStream(i, reader, (long) length);
     }
 
     public void setCharacterStream(int i, Reader reader, long length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setCharacterStream(int, Reader, long)"));
+        setStringParameter(i, reader == null ? null : readString(reader, length));
     }
 
     public void setClob(int i, Clob x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setClob(int, Clob)"));
+        setStringParameter(i, x == null ? null : x.getSubString(1, (int) x.length()));
     }
 
     public void setClob(int i, Reader reader)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setClob(int, Reader)"));
+        setCharacterStream(i, reader, -1L);
     }
 
     public void setClob(int i, Reader reader, long length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setClob(int, Reader, long)"));
+        setCharacterStream(i, reader, length);
     }
 
     public void setDate(int i, Date x)
             throws SQLException
     {
-        if (conn.getConfig().type == Job.Type.PRESTO) {
-            preparedParameters.put(i, "DATE '" + x.toString() + "'");
-        }
-        else {
-            throw new SQLException(new UnsupportedOperationException(
-                    "TDPreparedStatement#setDate(int, Date) is supported for Presto query only"));
-        }
+        setDate(i, x, null);
     }
 
     public void setDate(int i, Date x, Calendar cal)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setDate(int, Date, Calender)"));
+        setParameter(i, x == null ? literal.nullValue() : literal.dateValue(x, cal));
     }
 
     public void setDouble(int i, double x)
             throws SQLException
     {
-        preparedParameters.put(i, Double.toString(x));
+        setParameter(i, literal.doubleValue(x));
     }
 
     public void setFloat(int i, float x)
             throws SQLException
     {
-        preparedParameters.put(i, Float.toString(x));
+        setParameter(i, literal.floatValue(x));
     }
 
     public void setInt(int i, int x)
             throws SQLException
     {
-        preparedParameters.put(i, Integer.toString(x));
+        setParameter(i, literal.longValue(x));
     }
 
     public void setLong(int i, long x)
             throws SQLException
     {
-        preparedParameters.put(i, Long.toString(x));
+        setParameter(i, literal.longValue(x));
     }
 
     public void setNCharacterStream(int i, Reader value)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setNCharacterStream(int, Reader)"));
+        setCharacterStream(i, value, -1L);
     }
 
     public void setNCharacterStream(int i, Reader value, long length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setNCharacterStream(int, Reader, long)"));
+        setCharacterStream(i, value, length);
     }
 
     public void setNClob(int i, NClob value)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setNClob(int, NClob)"));
+        setClob(i, value);
     }
 
     public void setNClob(int i, Reader reader)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setNClob(int, Reader)"));
+        setCharacterStream(i, reader, -1L);
     }
 
     public void setNClob(int i, Reader reader, long length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setNClob(int, Reader, long)"));
+        setCharacterStream(i, reader, length);
     }
 
     public void setNString(int i, String value)
@@ -383,31 +639,34 @@ public class TDPreparedStatement
     public void setNull(int i, int sqlType)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setNull(int, int)"));
+        setParameter(i, literal.nullValue());
     }
 
     public void setNull(int i, int sqlType, String typeName)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setNull(int, int, String)"));
+        setParameter(i, literal.nullValue());
     }
 
     public void setObject(int i, Object x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setObject(int, Object)"));
+        setParameter(i, literal.objectValue(x));
     }
 
     public void setObject(int i, Object x, int targetSqlType)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setObject(int, Object, int)"));
+        setParameter(i, literal.objectValue(x, targetSqlType));
     }
 
     public void setObject(int i, Object x, int targetSqlType, int scale)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setObject(int, Object, int, int)"));
+        if (x instanceof BigDecimal && (targetSqlType == Types.DECIMAL || targetSqlType == Types.NUMERIC)) {
+            x = ((BigDecimal) x).setScale(scale, RoundingMode.HALF_UP);
+        }
+        setObject(i, x, targetSqlType);
     }
 
     public void setRef(int i, Ref x)
@@ -425,61 +684,128 @@ public class TDPreparedStatement
     public void setSQLXML(int i, SQLXML xmlObject)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setSQLXML(int, SQLXML)"));
+        setStringParameter(i, xmlObject == null ? null : xmlObject.getString());
     }
 
     public void setShort(int i, short x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setShort(int, short)"));
+        setParameter(i, literal.longValue(x));
     }
 
     public void setString(int i, String x)
             throws SQLException
     {
-        x = x.replace("'", "\\'");
-        preparedParameters.put(i, "'" + x + "'");
+        setStringParameter(i, x);
     }
 
     public void setTime(int i, Time x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setTime(int, Time)"));
+        setTime(i, x, null);
     }
 
     public void setTime(int i, Time x, Calendar cal)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setTime(int, Time, Calendar)"));
+        setParameter(i, x == null ? literal.nullValue() : literal.timeValue(x, cal));
     }
 
     public void setTimestamp(int i, Timestamp x)
             throws SQLException
     {
-        if (conn.getConfig().type == Job.Type.PRESTO) {
-            preparedParameters.put(i, "TIMESTAMP '" + x.toString() + "'");
-        }
-        else {
-            throw new SQLException(new UnsupportedOperationException(
-                    "TDPreparedStatement#setTimestamp(int, Timestamp) is supported for Presto query only"));
-        }
+        setTimestamp(i, x, null);
     }
 
     public void setTimestamp(int i, Timestamp x, Calendar cal)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setTimestamp(int, Timestamp, Calendar)"));
+        setParameter(i, x == null ? literal.nullValue() : literal.timestampValue(x, cal));
     }
 
     public void setURL(int i, URL x)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setURL(int, URL)"));
+        setStringParameter(i, x == null ? null : x.toString());
     }
 
     public void setUnicodeStream(int i, InputStream x, int length)
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDPreparedStatement#setUnicodeStream(int, InputStream, int)"));
+        setStringParameter(i, x == null ? null : toString(readBytes(x, length), "UTF-8"));
+    }
+
+    private void setStringParameter(int i, String x)
+            throws SQLException
+    {
+        setParameter(i, x == null ? literal.nullValue() : literal.stringValue(x));
+    }
+
+    private void setParameter(int i, String value)
+            throws SQLException
+    {
+        if (i < 1 || i > preparedSql.getParameterCount()) {
+            throw new SQLException("Invalid parameter index: " + i);
+        }
+        preparedParameters.put(i, value);
+    }
+
+    /**
+     * Reads the stream up to the given length, or to the end if the length
+     * is negative.
+     */
+    private static byte[] readBytes(InputStream in, long length)
+            throws SQLException
+    {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            long remaining = length < 0 ? Long.MAX_VALUE : length;
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n == -1) {
+                    break;
+                }
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+            return out.toByteArray();
+        }
+        catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static String readString(Reader reader, long length)
+            throws SQLException
+    {
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[8192];
+            long remaining = length < 0 ? Long.MAX_VALUE : length;
+            while (remaining > 0) {
+                int n = reader.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n == -1) {
+                    break;
+                }
+                sb.append(buf, 0, n);
+                remaining -= n;
+            }
+            return sb.toString();
+        }
+        catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static String toString(byte[] bytes, String charset)
+            throws SQLException
+    {
+        try {
+            return new String(bytes, charset);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new SQLException(e);
+        }
     }
 }
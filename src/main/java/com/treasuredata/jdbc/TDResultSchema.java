@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.json.simple.JSONValue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of the result schema of a job. The column index by name, the
+ * SQL type and the value converter of each column are resolved once per
+ * schema, and schemas parsed from the same JSON string share one instance.
+ */
+public class TDResultSchema
+{
+    private static final int CACHE_MAX_ENTRIES = 1000;
+
+    private static final ConcurrentHashMap<String, TDResultSchema> CACHE = new ConcurrentHashMap<String, TDResultSchema>();
+
+    private final List<String> columnNames;
+    private final List<String> columnTypes;
+    private final Map<String, Integer> exactIndex;
+    private final Map<String, Integer> lowerCaseIndex;
+    private final int[] sqlTypes;
+    private final SQLException[] sqlTypeErrors;
+    private final TDColumnConverter[] converters;
+    private final boolean[] floats;
+
+    private TDResultSchema(List<String> columnNames, List<String> columnTypes)
+    {
+        this.columnNames = Collections.unmodifiableList(columnNames);
+        this.columnTypes = columnTypes == null ? null : Collections.unmodifiableList(columnTypes);
+
+        int size = columnNames.size();
+        exactIndex = new HashMap<String, Integer>(size * 2);
+        lowerCaseIndex = new HashMap<String, Integer>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String name = columnNames.get(i);
+            if (name == null) {
+                continue;
+            }
+            // the first column wins if the names are duplicated
+            if (!exactIndex.containsKey(name)) {
+                exactIndex.put(name, i + 1);
+            }
+            String lower = name.toLowerCase();
+            if (!lowerCaseIndex.containsKey(lower)) {
+                lowerCaseIndex.put(lower, i + 1);
+            }
+        }
+
+        int types = columnTypes == null ? 0 : columnTypes.size();
+        sqlTypes = new int[types];
+        sqlTypeErrors = new SQLException[types];
+        converters = new TDColumnConverter[types];
+        floats = new boolean[types];
+        for (int i = 0; i < types; i++) {
+            String type = columnTypes.get(i);
+            converters[i] = TDColumnConverter.forType(type);
+            floats[i] = "float".equalsIgnoreCase(type);
+            if (type == null) {
+                sqlTypeErrors[i] = new SQLException("Unrecognized column type: " + type);
+                continue;
+            }
+            try {
+                sqlTypes[i] = Utils.TDTypeToSqlType(type);
+            }
+            catch (SQLException e) {
+                // reported when the type of the column is asked
+                sqlTypeErrors[i] = e;
+            }
+        }
+    }
+
+    /**
+     * Returns the compiled schema of the given result schema of a job, e.g.
+     * [["c0","int"],["c1","string"]]. Returns null if the schema cannot be
+     * parsed.
+     */
+    public static TDResultSchema parse(String resultSchema)
+    {
+        if (resultSchema == null) {
+            return null;
+        }
+
+        TDResultSchema schema = CACHE.get(resultSchema);
+        if (schema != null) {
+            return schema;
+        }
+
+        Object parsed;
+        try {
+            parsed = JSONValue.parse(resultSchema);
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+        if (!(parsed instanceof List)) {
+            return null;
+        }
+
+        List<?> cols = (List<?>) parsed;
+        List<String> names = new ArrayList<String>(cols.size());
+        List<String> types = new ArrayList<String>(cols.size());
+        for (Object col : cols) {
+            if (!(col instanceof List) || ((List<?>) col).size() < 2) {
+                return null;
+            }
+            List<?> c = (List<?>) col;
+            names.add(c.get(0) == null ? null : c.get(0).toString());
+            types.add(c.get(1) == null ? null : c.get(1).toString());
+        }
+
+        schema = new TDResultSchema(names, types);
+        if (CACHE.size() >= CACHE_MAX_ENTRIES) {
+            CACHE.clear();
+        }
+        TDResultSchema prev = CACHE.putIfAbsent(resultSchema, schema);
+        return prev != null ? prev : schema;
+    }
+
+    /**
+     * Returns the compiled schema of the given column names and types. It is
+     * not cached.
+     *
+     * @param columnNames column names
+     * @param columnTypes column types, or null if unknown
+     */
+    public static TDResultSchema of(List<String> columnNames, List<String> columnTypes)
+    {
+        return new TDResultSchema(columnNames, columnTypes);
+    }
+
+    public List<String> getColumnNames()
+    {
+        return columnNames;
+    }
+
+    public List<String> getColumnTypes()
+    {
+        return columnTypes;
+    }
+
+    public int getColumnCount()
+    {
+        return columnNames.size();
+    }
+
+    /**
+     * Returns the index of the column, the first column is 1. The exact name
+     * is looked up first, then the name ignoring case.
+     *
+     * @return the column index, or -1 if not found
+     */
+    public int findColumn(String columnName)
+    {
+        if (columnName == null) {
+            return -1;
+        }
+        Integer index = exactIndex.get(columnName);
+        if (index == null) {
+            index = lowerCaseIndex.get(columnName.toLowerCase());
+        }
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the java.sql.Types code of the column
+     *
+     * @param column the first column is 1, the second is 2, ...
+     */
+    public int getSqlType(int column)
+            throws SQLException
+    {
+        if (columnTypes == null) {
+            throw new SQLException(
+                    "Could not determine column type name for ResultSet");
+        }
+
+        if (column < 1 || column > sqlTypes.length) {
+            throw new SQLException("Invalid column value: " + column);
+        }
+
+        SQLException e = sqlTypeErrors[column - 1];
+        if (e != null) {
+            throw new SQLException(e.getMessage(), e);
+        }
+        return sqlTypes[column - 1];
+    }
+
+    TDColumnConverter getConverter(int column)
+    {
+        if (column < 1 || column > converters.length) {
+            return TDColumnConverter.GENERIC;
+        }
+        return converters[column - 1];
+    }
+
+    /**
+     * Returns true if the column is declared as float
+     */
+    boolean isFloat(int column)
+    {
+        return column >= 1 && column <= floats.length && floats[column - 1];
+    }
+
+    static void clearCache()
+    {
+        CACHE.clear();
+    }
+}
@@ -22,22 +22,18 @@ import com.treasure_data.client.ClientException;
 import com.treasuredata.jdbc.command.ClientAPI;
 import com.treasure_data.model.Job;
 import com.treasure_data.model.JobSummary;
-import org.json.simple.JSONValue;
-import org.msgpack.type.ArrayValue;
-import org.msgpack.type.Value;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.sql.SQLWarning;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -48,7 +44,9 @@ public class TDResultSet
 {
     private static Logger LOG = Logger.getLogger(TDResultSet.class.getName());
 
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final int DEFAULT_FETCH_SIZE = 50;
+
+    private static final long PREFETCH_SHUTDOWN_TIMEOUT_MS = 1000;
 
     private ClientAPI clientApi;
 
@@ -56,16 +54,48 @@ public class TDResultSet
 
     private int rowsFetched = 0;
 
-    private int fetchSize = 50;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private int prefetchBatches = 0;
+
+    private RowPrefetcher prefetcher;
+
+    private DriverExecutor.Scope executor = DriverExecutor.getInstance().getSharedScope();
 
     private int queryTimeout = 0; // seconds
 
     private ClientAPI.ExtUnpacker fetchedRows;
 
-    private Iterator<Value> fetchedRowsItr;
+    private boolean fetchedAllRows = false;
+
+    // the last row read from the job result. Its row number is rowsFetched.
+    private ResultRow lastFetchedRow;
+
+    private boolean scrollable = false;
+
+    // rows already read, for a scrollable result set
+    private ResultRowStore rowStore;
+
+    // current row number of a scrollable result set. 0 is before the first row.
+    private int position = 0;
 
     private Job job;
 
+    // completed by the job status poller when the job is finished
+    private volatile Future<JobSummary> jobResult;
+
+    private volatile boolean jobFinished = false;
+
+    // download of the job result
+    private volatile Future<ClientAPI.ExtUnpacker> download;
+    // the download timed out, and nobody reads its result
+    private volatile boolean downloadAbandoned = false;
+
+    private volatile boolean cancelled = false;
+
+    // the download and the temp file of the job result are released
+    private boolean rowsReleased = false;
+
     public TDResultSet(ClientAPI clientApi, int maxRows, Job job)
     {
         this(clientApi, maxRows, job, 0);
@@ -93,6 +123,42 @@ public class TDResultSet
         return fetchSize;
     }
 
+    /**
+     * Decode the rows on a background thread in batches of the fetch size.
+     *
+     * @param batches max number of batches decoded ahead of next(), or 0 to
+     * decode the rows in next()
+     */
+    public void setPrefetchBatches(int batches)
+    {
+        this.prefetchBatches = batches;
+    }
+
+    /**
+     * Set the executor of the background work of this result set, usually
+     * the one of the connection
+     */
+    public void setExecutor(DriverExecutor.Scope executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Make this result set TYPE_SCROLL_INSENSITIVE. The rows read from the job
+     * result are kept in a row store so that the cursor can move back.
+     */
+    public void setScrollable(boolean scrollable)
+    {
+        this.scrollable = scrollable;
+    }
+
+    @Override
+    public int getType()
+            throws SQLException
+    {
+        return scrollable ? TYPE_SCROLL_INSENSITIVE : TYPE_FORWARD_ONLY;
+    }
+
     public void setMaxRows(int maxRows)
     {
         this.maxRows = maxRows;
@@ -103,42 +169,120 @@ public class TDResultSet
         return maxRows;
     }
 
+    public Job getJob()
+    {
+        return job;
+    }
+
     @Override
     public void close()
             throws SQLException
     {
+        if (rowStore != null) {
+            rowStore.close();
+            rowStore = null;
+        }
+        releaseRows();
+
+        // called by the application, and by the statement when it is closed or
+        // runs the next query
+        if (jobResult != null) {
+            // stop polling the status of the job
+            jobResult.cancel(true);
+        }
+    }
+
+    /**
+     * Stop downloading and decoding the job result, and delete the temp file
+     */
+    private void releaseRows()
+            throws SQLException
+    {
+        if (rowsReleased) {
+            return;
+        }
+        rowsReleased = true;
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
         if (fetchedRows != null) {
             try {
+                // a read of the prefetch thread is unblocked by this
                 fetchedRows.getUnpacker().close();
                 LOG.info("closed file based unpacker");
             }
             catch (IOException e) {
                 throw new SQLException(e);
             }
+            finally {
+                if (prefetcher != null && !prefetcher.awaitTermination(PREFETCH_SHUTDOWN_TIMEOUT_MS)) {
+                    LOG.warning("prefetch thread did not stop in " + PREFETCH_SHUTDOWN_TIMEOUT_MS + " ms");
+                }
+            }
 
             File f = fetchedRows.getFile();
-            if (f != null) {
+            if (f != null && fetchedRows.isTemporary()) {
                 // temp file is deleted
                 String fname = f.getAbsolutePath();
                 f.delete();
                 LOG.info("deleted temp file: " + fname);
             }
         }
+    }
 
-        // TODO #MN should check that this method is really called
-        if (executor != null) {
-            try {
-                executor.shutdownNow();
+    /**
+     * Kill the job, stop waiting for it and downloading or decoding its
+     * result, and delete the temp files. Methods blocked in another thread
+     * throw SQLException.
+     */
+    public void cancel()
+            throws SQLException
+    {
+        if (cancelled) {
+            return;
+        }
+        SQLException error = null;
+        try {
+            cancelJob();
+        }
+        catch (ClientException e) {
+            error = new SQLException(e);
+        }
+        close();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void cancelJob()
+            throws ClientException
+    {
+        cancelled = true;
+        try {
+            if (!jobFinished) {
+                clientApi.killJob(job);
             }
-            catch (Throwable t) {
-                throw new SQLException(t);
+        }
+        finally {
+            Future<JobSummary> waiting = jobResult;
+            if (waiting != null) {
+                waiting.cancel(true);
             }
-            finally {
-                executor = null;
+            Future<ClientAPI.ExtUnpacker> downloading = download;
+            if (downloading != null) {
+                downloading.cancel(true);
             }
         }
     }
 
+    private void checkNotCancelled()
+            throws SQLException
+    {
+        if (cancelled) {
+            throw new SQLException("Query was cancelled: job " + job.getJobID());
+        }
+    }
+
     /**
      * Moves the cursor down one row from its current position.
      *
@@ -148,99 +292,419 @@ public class TDResultSet
     public boolean next()
             throws SQLException
     {
+        if (scrollable) {
+            return absolute(position + 1);
+        }
+
         try {
-            if (fetchedRows == null) {
-                fetchedRows = fetchRows();
-                fetchedRowsItr = fetchedRows.getUnpacker().iterator();
+            // NOTE: fetchOne dosn't throw new SQLException("Method not supported").
+            return fetchNextRow();
+        }
+        catch (Exception e) {
+            throw toSQLException("Error retrieving next row", e);
+        }
+    }
+
+    /**
+     * Read the next row of the job result into the current row
+     *
+     * @return false if there are no more rows
+     */
+    private boolean fetchNextRow()
+            throws SQLException, IOException
+    {
+        if (fetchedRows == null) {
+            fetchedRows = fetchRows();
+            if (prefetchBatches > 0) {
+                int rows = fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE;
+                try {
+                    prefetcher = new RowPrefetcher(fetchedRows.getUnpacker(), getSchema(), rows, prefetchBatches, executor);
+                }
+                catch (RejectedExecutionException e) {
+                    // no thread for the decoder: decode the rows in this thread
+                    LOG.info("no thread for the row prefetch, decode the rows as they are read");
+                }
+            }
+            if (scrollable) {
+                rowStore = new ResultRowStore(getSchema());
             }
+        }
 
-            if (!fetchedRowsItr.hasNext()) {
+        if (fetchedAllRows) {
+            return false;
+        }
+
+        if (maxRows > 0 && rowsFetched >= maxRows) {
+            fetchedAllRows = true;
+            if (hasMoreRows()) {
+                addWarning(new SQLWarning(String.format(
+                        "The result of job %s was truncated to %d rows by max rows", job.getJobID(), maxRows)));
+            }
+            // the rest of the result is not read
+            releaseRows();
+            return false;
+        }
+
+        if (prefetcher != null) {
+            ResultRow prefetched = prefetcher.next();
+            if (prefetched == null) {
+                fetchedAllRows = true;
                 return false;
             }
+            row = prefetched;
+        }
+        // the cells are read into the row that is reused for all rows
+        else if (!readRow(fetchedRows.getUnpacker())) {
+            fetchedAllRows = true;
+            return false;
+        }
+        lastFetchedRow = (ResultRow) row;
+        rowsFetched++;
+        if (rowStore != null) {
+            rowStore.append(lastFetchedRow);
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(String.format("fetched row(%d): %s", rowsFetched, row));
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the job result has a row that is not read yet. The
+     * current row is not changed.
+     */
+    private boolean hasMoreRows()
+            throws SQLException, IOException
+    {
+        if (prefetcher != null) {
+            return prefetcher.next() != null;
+        }
+        try {
+            fetchedRows.getUnpacker().getNextType();
+            return true;
+        }
+        catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private void addWarning(SQLWarning w)
+    {
+        if (warningChain == null) {
+            warningChain = w;
+        }
+        else {
+            warningChain.setNextWarning(w);
+        }
+    }
 
-            ArrayValue vs = (ArrayValue) fetchedRowsItr.next();
-            row = new ArrayList<Object>(vs.size());
-            for (int i = 0; i < vs.size(); i++) {
-                row.add(i, vs.get(i));
+    private static SQLException toSQLException(String message, Exception e)
+    {
+        if (e instanceof SQLException) {
+            return (SQLException) e;
+        }
+        else {
+            return new SQLException(message, e);
+        }
+    }
+
+    @Override
+    public boolean absolute(int rowNumber)
+            throws SQLException
+    {
+        if (!scrollable) {
+            return super.absolute(rowNumber);
+        }
+        try {
+            int target = rowNumber;
+            if (target < 0) {
+                // counted from the last row
+                while (fetchNextRow()) {
+                }
+                target = Math.max(0, rowsFetched + 1 + target);
+            }
+            if (target == 0) {
+                beforeFirst();
+                return false;
             }
-            rowsFetched++;
 
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.fine(String.format("fetched row(%d): %s", rowsFetched, row));
+            while (rowsFetched < target && fetchNextRow()) {
             }
-        }
-        catch (Exception e) {
-            if (e instanceof SQLException) {
-                throw (SQLException) e;
+            if (target > rowsFetched) {
+                position = rowsFetched + 1;
+                row = null;
+                return false;
+            }
+
+            if (target == rowsFetched) {
+                row = lastFetchedRow;
             }
             else {
-                throw new SQLException("Error retrieving next row", e);
+                // seek and decode the row
+                row = rowStore.read(target);
             }
+            position = target;
+            return true;
+        }
+        catch (Exception e) {
+            throw toSQLException("Error retrieving row " + rowNumber, e);
         }
-        // NOTE: fetchOne dosn't throw new SQLException("Method not supported").
-        return true;
     }
 
     @Override
-    public ResultSetMetaData getMetaData()
+    public boolean relative(int rows)
             throws SQLException
     {
+        if (!scrollable) {
+            return super.relative(rows);
+        }
+        if (position + rows <= 0) {
+            beforeFirst();
+            return false;
+        }
+        return absolute(position + rows);
+    }
+
+    @Override
+    public boolean previous()
+            throws SQLException
+    {
+        if (!scrollable) {
+            return super.previous();
+        }
+        return relative(-1);
+    }
+
+    @Override
+    public boolean first()
+            throws SQLException
+    {
+        if (!scrollable) {
+            return super.first();
+        }
+        return absolute(1);
+    }
+
+    @Override
+    public boolean last()
+            throws SQLException
+    {
+        if (!scrollable) {
+            return super.last();
+        }
+        return absolute(-1);
+    }
+
+    @Override
+    public void beforeFirst()
+            throws SQLException
+    {
+        if (!scrollable) {
+            super.beforeFirst();
+            return;
+        }
+        position = 0;
+        row = null;
+    }
+
+    @Override
+    public void afterLast()
+            throws SQLException
+    {
+        if (!scrollable) {
+            super.afterLast();
+            return;
+        }
         try {
-            JobSummary jobSummary = clientApi.waitJobResult(job);
-            initColumnNamesAndTypes(jobSummary.getResultSchema());
-            return super.getMetaData();
+            while (fetchNextRow()) {
+            }
         }
-        catch (ClientException e) {
-            throw new SQLException(e);
+        catch (Exception e) {
+            throw toSQLException("Error retrieving next row", e);
+        }
+        position = rowsFetched + 1;
+        row = null;
+    }
+
+    @Override
+    public int getRow()
+            throws SQLException
+    {
+        if (!scrollable) {
+            return super.getRow();
+        }
+        return position <= rowsFetched ? position : 0;
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData()
+            throws SQLException
+    {
+        JobSummary jobSummary = waitJobResult(0);
+        if (jobSummary == null) {
+            throw new SQLException("job result is null");
         }
+        initColumnNamesAndTypes(jobSummary.getResultSchema());
+        return super.getMetaData();
     }
 
     private ClientAPI.ExtUnpacker fetchRows()
             throws SQLException
     {
-        JobSummary jobSummary = null;
+        // the query timeout covers both the wait and the download
+        long deadline = queryTimeout > 0 ? System.currentTimeMillis() + queryTimeout * 1000L : 0;
+        JobSummary jobSummary = waitJobResult(deadline);
+        if (jobSummary == null) {
+            throw new SQLException("job result is null");
+        }
+        initColumnNamesAndTypes(jobSummary.getResultSchema());
 
-        Callable<JobSummary> callback = new Callable<JobSummary>()
-        {
-            @Override
-            public JobSummary call()
-                    throws Exception
+        // the download runs on the executor so that cancel() can unblock this thread
+        try {
+            download = executor.submitLongRunning("td-jdbc-result-fetch", new Callable<ClientAPI.ExtUnpacker>()
             {
-                JobSummary jobSummary = clientApi.waitJobResult(job);
-                return jobSummary;
+                public ClientAPI.ExtUnpacker call()
+                        throws ClientException
+                {
+                    ClientAPI.ExtUnpacker rows = clientApi.getJobResult2(job);
+                    if (cancelled || downloadAbandoned) {
+                        // nobody reads the result
+                        discard(rows);
+                        return null;
+                    }
+                    return rows;
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            if (executor.isClosed()) {
+                throw new SQLException("connection is already closed", e);
             }
-        };
-
-        Future<JobSummary> future = executor.submit(callback);
+            // all the daemon threads are in use
+            LOG.info("no thread for the download of job " + job.getJobID() + ", download it in this thread");
+            return fetchRowsInline();
+        }
+        checkNotCancelled();
         try {
-            if (queryTimeout <= 0) {
-                jobSummary = future.get();
+            ClientAPI.ExtUnpacker rows;
+            if (deadline > 0) {
+                rows = download.get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
             }
             else {
-                jobSummary = future.get(queryTimeout, TimeUnit.SECONDS);
+                rows = download.get();
+            }
+            if (cancelled && rows != null) {
+                discard(rows);
             }
+            checkNotCancelled();
+            return rows;
+        }
+        catch (CancellationException e) {
+            checkNotCancelled();
+            throw new SQLException(e);
         }
         catch (InterruptedException e) {
-            // ignore
+            Thread.currentThread().interrupt();
+            download.cancel(true);
+            throw new SQLException("Interrupted while downloading the result of job " + job.getJobID(), e);
         }
         catch (TimeoutException e) {
-            throw new SQLException(e);
+            LOG.warning("query timeout: cancel the download of the result of job " + job.getJobID());
+            downloadAbandoned = true;
+            download.cancel(true);
+            throw new SQLException("Query timeout: the result of job " + job.getJobID()
+                    + " was not downloaded in " + queryTimeout + " seconds", e);
         }
         catch (ExecutionException e) {
+            checkNotCancelled();
             throw new SQLException(e.getCause());
         }
+    }
 
-        if (jobSummary == null) {
-            throw new SQLException("job result is null");
+    private ClientAPI.ExtUnpacker fetchRowsInline()
+            throws SQLException
+    {
+        checkNotCancelled();
+        ClientAPI.ExtUnpacker rows;
+        try {
+            rows = clientApi.getJobResult2(job);
         }
+        catch (ClientException e) {
+            checkNotCancelled();
+            throw new SQLException(e);
+        }
+        if (cancelled) {
+            discard(rows);
+        }
+        checkNotCancelled();
+        return rows;
+    }
 
+    private static void discard(ClientAPI.ExtUnpacker rows)
+    {
         try {
-            initColumnNamesAndTypes(jobSummary.getResultSchema());
-            return clientApi.getJobResult2(job);
+            rows.getUnpacker().close();
         }
-        catch (ClientException e) {
+        catch (IOException e) {
+            // ignore
+        }
+        File f = rows.getFile();
+        if (f != null && rows.isTemporary()) {
+            f.delete();
+            LOG.info("deleted temp file: " + f.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Wait for the job to finish
+     *
+     * @param deadline time in milliseconds when the wait times out, or 0 to
+     * wait without timeout
+     */
+    private JobSummary waitJobResult(long deadline)
+            throws SQLException
+    {
+        checkNotCancelled();
+        Future<JobSummary> waiting = jobResult;
+        if (waiting == null || waiting.isCancelled()) {
+            waiting = clientApi.waitJobResultAsync(job);
+            jobResult = waiting;
+        }
+
+        try {
+            JobSummary jobSummary;
+            if (deadline <= 0) {
+                jobSummary = waiting.get();
+            }
+            else {
+                jobSummary = waiting.get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            }
+            jobFinished = jobSummary != null;
+            return jobSummary;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for job " + job.getJobID(), e);
+        }
+        catch (CancellationException e) {
+            checkNotCancelled();
             throw new SQLException(e);
         }
+        catch (TimeoutException e) {
+            // the job is killed so that it does not keep running
+            LOG.warning("query timeout: kill job " + job.getJobID());
+            try {
+                cancelJob();
+            }
+            catch (ClientException ce) {
+                LOG.warning("cannot kill job " + job.getJobID() + ": " + ce.getMessage());
+            }
+            throw new SQLException(e);
+        }
+        catch (ExecutionException e) {
+            throw new SQLException(e.getCause());
+        }
     }
 
     private void initColumnNamesAndTypes(String resultSchema)
@@ -254,18 +718,12 @@ public class TDResultSet
             return;
         }
 
-        @SuppressWarnings("unchecked")
-        List<List<String>> cols = (List<List<String>>) JSONValue.parse(resultSchema);
-        if (cols == null) {
+        // the compiled schema is shared by the results of the same schema
+        TDResultSchema schema = TDResultSchema.parse(resultSchema);
+        if (schema == null) {
             LOG.warning("Illegal resultSchema: " + resultSchema);
             return;
         }
-
-        columnNames = new ArrayList<String>(cols.size());
-        columnTypes = new ArrayList<String>(cols.size());
-        for (List<String> col : cols) {
-            columnNames.add(col.get(0));
-            columnTypes.add(col.get(1));
-        }
+        setSchema(schema);
     }
 }
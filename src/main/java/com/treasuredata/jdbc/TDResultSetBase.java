@@ -18,16 +18,11 @@
  */
 package com.treasuredata.jdbc;
 
-import org.msgpack.type.ArrayValue;
-import org.msgpack.type.BooleanValue;
-import org.msgpack.type.FloatValue;
-import org.msgpack.type.IntegerValue;
-import org.msgpack.type.MapValue;
 import org.msgpack.type.NilValue;
-import org.msgpack.type.NumberValue;
-import org.msgpack.type.RawValue;
 import org.msgpack.type.Value;
+import org.msgpack.unpacker.Unpacker;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
@@ -58,11 +53,6 @@ import java.util.Map;
 public abstract class TDResultSetBase
         implements ResultSet
 {
-    private static final String INTVALUE_CLASSNAME = "org.msgpack.type.IntValueImpl";
-    private static final String LONGVALUE_CLASSNAME = "org.msgpack.type.LongValueImpl";
-    private static final String DOUBLEVALUE_CLASSNAME = "org.msgpack.type.DoubleValueImpl";
-    private static final String FLOATVALUE_CLASSNAME = "org.msgpack.type.FloatValueImpl";
-
     protected SQLWarning warningChain = null;
 
     protected boolean wasNull = false;
@@ -75,6 +65,13 @@ public abstract class TDResultSetBase
 
     protected TDStatementBase statement = null;
 
+    private TDResultSchema schema;
+
+    // columnNames that the schema is built from
+    private List<String> schemaColumnNames;
+
+    private ResultRow resultRow;
+
     public boolean absolute(int row)
             throws SQLException
     {
@@ -110,15 +107,40 @@ public abstract class TDResultSetBase
                 "TDResultSetBase#deleteRow()"));
     }
 
+    protected void setSchema(TDResultSchema schema)
+    {
+        this.schema = schema;
+        this.schemaColumnNames = schema.getColumnNames();
+        this.columnNames = schema.getColumnNames();
+        this.columnTypes = schema.getColumnTypes();
+    }
+
+    /**
+     * Returns the compiled schema of the columns. It is rebuilt if a subclass
+     * replaces the column names.
+     */
+    protected TDResultSchema getSchema()
+    {
+        if (columnNames == null) {
+            return null;
+        }
+        if (schema == null || schemaColumnNames != columnNames) {
+            schema = TDResultSchema.of(columnNames, columnTypes);
+            schemaColumnNames = columnNames;
+        }
+        return schema;
+    }
+
     public int findColumn(String columnName)
             throws SQLException
     {
-        int columnIndex = columnNames.indexOf(columnName);
+        TDResultSchema s = getSchema();
+        int columnIndex = s == null ? -1 : s.findColumn(columnName);
         if (columnIndex == -1) {
             throw new SQLException("columnIndex: -1");
         }
         else {
-            return ++columnIndex;
+            return columnIndex;
         }
     }
 
@@ -256,59 +278,21 @@ public abstract class TDResultSetBase
     private boolean getBooleanWithTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns false.
-            if (obj == null || obj instanceof NilValue) {
-                return false;
-            }
-
-            if (obj instanceof BooleanValue) { // msgpack's Boolean type
-                return ((BooleanValue) obj).getBoolean();
-            }
-            else if (obj instanceof Boolean) { // java's Boolean type
-                return ((Boolean) obj).booleanValue();
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return false;
+                case ResultRow.BOOLEAN:
+                    return r.getBoolean(i);
+                case ResultRow.INTEGER:
+                    return (int) r.getLong(i) != 0;
             }
-            else if (obj instanceof NumberValue) { // msgpack's Number type
-                return ((NumberValue) obj).asIntegerValue().intValue() != 0;
-            }
-            else if (obj instanceof Number) { // java's Number type
-                return ((Number) obj).intValue() != 0;
-            }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return parseStringToBoolean(((RawValue) obj).getString());
-            }
-            else if (obj instanceof String) { // java's raw type
-                return parseStringToBoolean((String) obj);
-            }
-        }
-        catch (Throwable t) {
-            e = t;
         }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to boolean",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
-        }
-        else {
-            throw new SQLException(msg);
-        }
-    }
-
-    private static boolean parseStringToBoolean(String from)
-    {
-        if (from.toLowerCase().equals("false")) {
-            return false;
-        }
-        else {
-            return true;
-        }
+        Object obj = getObjectForConversion(index, "boolean");
+        return converter(index).toBoolean(index, obj);
     }
 
     public byte getByte(int index)
@@ -326,59 +310,21 @@ public abstract class TDResultSetBase
     private byte getByteWithImplicitTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns 0.
-            if (obj == null || obj instanceof NilValue) {
-                return 0;
-            }
-
-            if (obj instanceof NumberValue) { // msgpack's Number type
-                NumberValue v = (NumberValue) obj;
-                if (v instanceof IntegerValue) {
-                    if (v.getClass().getName().equals(INTVALUE_CLASSNAME)) {
-                        return (byte) ((IntegerValue) v).getInt();
-                    }
-                    else if (v.getClass().getName().equals(LONGVALUE_CLASSNAME)) {
-                        return (byte) ((IntegerValue) v).getLong();
-                    }
-                }
-                else {
-                    if (v.getClass().getName().equals(DOUBLEVALUE_CLASSNAME)) {
-                        return (byte) ((FloatValue) v).doubleValue();
-                    }
-                    else if (v.getClass().getName().equals(FLOATVALUE_CLASSNAME)) {
-                        return (byte) ((FloatValue) v).floatValue();
-                    }
-                }
-            }
-            else if (obj instanceof Number) { // java's Number type
-                return ((Number) obj).byteValue();
-            }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return Byte.parseByte(((RawValue) obj).getString());
-            }
-            else if (obj instanceof String) { // java's raw type
-                return Byte.parseByte((String) obj);
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return 0;
+                case ResultRow.INTEGER:
+                    return (byte) r.getLong(i);
+                case ResultRow.DOUBLE:
+                    return (byte) r.getDouble(i);
             }
         }
-        catch (Throwable t) {
-            e = t;
-        }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to byte",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
-        }
-        else {
-            throw new SQLException(msg);
-        }
+        Object obj = getObjectForConversion(index, "byte");
+        return converter(index).toByte(index, obj);
     }
 
     public byte[] getBytes(int columnIndex)
@@ -508,59 +454,21 @@ public abstract class TDResultSetBase
     private double getDoubleWithImplicitTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns 0.0.
-            if (obj == null || obj instanceof NilValue) {
-                return 0.0;
-            }
-
-            if (obj instanceof NumberValue) { // msgpack's Number type
-                NumberValue v = (NumberValue) obj;
-                if (v instanceof IntegerValue) {
-                    if (v.getClass().getName().equals(INTVALUE_CLASSNAME)) {
-                        return (double) ((IntegerValue) v).getInt();
-                    }
-                    else if (v.getClass().getName().equals(LONGVALUE_CLASSNAME)) {
-                        return (double) ((IntegerValue) v).getLong();
-                    }
-                }
-                else {
-                    if (v.getClass().getName().equals(DOUBLEVALUE_CLASSNAME)) {
-                        return (double) ((FloatValue) v).doubleValue();
-                    }
-                    else if (v.getClass().getName().equals(FLOATVALUE_CLASSNAME)) {
-                        return (double) ((FloatValue) v).floatValue();
-                    }
-                }
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return 0.0;
+                case ResultRow.INTEGER:
+                    return (double) r.getLong(i);
+                case ResultRow.DOUBLE:
+                    return r.getDouble(i);
             }
-            else if (obj instanceof Number) { // java's Number type
-                return ((Number) obj).doubleValue();
-            }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return Double.parseDouble(((RawValue) obj).getString());
-            }
-            else if (obj instanceof String) { // java's raw type
-                return Double.parseDouble((String) obj);
-            }
-        }
-        catch (Throwable t) {
-            e = t;
         }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to double",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
-        }
-        else {
-            throw new SQLException(msg);
-        }
+        Object obj = getObjectForConversion(index, "double");
+        return converter(index).toDouble(index, obj);
     }
 
     public int getFetchDirection()
@@ -590,59 +498,21 @@ public abstract class TDResultSetBase
     private float getFloatWithImplicitTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns 0.0f.
-            if (obj == null || obj instanceof NilValue) {
-                return 0.0f;
-            }
-
-            if (obj instanceof NumberValue) { // msgpack's Number type
-                NumberValue v = (NumberValue) obj;
-                if (v instanceof IntegerValue) {
-                    if (v.getClass().getName().equals(INTVALUE_CLASSNAME)) {
-                        return (float) ((IntegerValue) v).getInt();
-                    }
-                    else if (v.getClass().getName().equals(LONGVALUE_CLASSNAME)) {
-                        return (float) ((IntegerValue) v).getLong();
-                    }
-                }
-                else {
-                    if (v.getClass().getName().equals(DOUBLEVALUE_CLASSNAME)) {
-                        return (float) ((FloatValue) v).doubleValue();
-                    }
-                    else if (v.getClass().getName().equals(FLOATVALUE_CLASSNAME)) {
-                        return (float) ((FloatValue) v).floatValue();
-                    }
-                }
-            }
-            else if (obj instanceof Number) { // java's Number type
-                return ((Number) obj).floatValue();
-            }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return Float.parseFloat(((RawValue) obj).getString());
-            }
-            else if (obj instanceof String) { // java's raw type
-                return Float.parseFloat((String) obj);
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return 0.0f;
+                case ResultRow.INTEGER:
+                    return (float) r.getLong(i);
+                case ResultRow.DOUBLE:
+                    return (float) r.getDouble(i);
             }
         }
-        catch (Throwable t) {
-            e = t;
-        }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to float",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
-        }
-        else {
-            throw new SQLException(msg);
-        }
+        Object obj = getObjectForConversion(index, "float");
+        return converter(index).toFloat(index, obj);
     }
 
     public int getHoldability()
@@ -666,59 +536,21 @@ public abstract class TDResultSetBase
     private int getIntWithImplicitTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns 0.
-            if (obj == null || obj instanceof NilValue) {
-                return 0;
-            }
-
-            if (obj instanceof NumberValue) { // msgpack's Number type
-                NumberValue v = (NumberValue) obj;
-                if (v instanceof IntegerValue) {
-                    if (v.getClass().getName().equals(INTVALUE_CLASSNAME)) {
-                        return ((IntegerValue) v).getInt();
-                    }
-                    else if (v.getClass().getName().equals(LONGVALUE_CLASSNAME)) {
-                        return (int) ((IntegerValue) v).getLong();
-                    }
-                }
-                else {
-                    if (v.getClass().getName().equals(DOUBLEVALUE_CLASSNAME)) {
-                        return (int) ((FloatValue) v).doubleValue();
-                    }
-                    else if (v.getClass().getName().equals(FLOATVALUE_CLASSNAME)) {
-                        return (int) ((FloatValue) v).floatValue();
-                    }
-                }
-            }
-            else if (obj instanceof Number) { // java's Number type
-                return ((Number) obj).intValue();
-            }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return Integer.parseInt(((RawValue) obj).getString());
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return 0;
+                case ResultRow.INTEGER:
+                    return (int) r.getLong(i);
+                case ResultRow.DOUBLE:
+                    return (int) r.getDouble(i);
             }
-            else if (obj instanceof String) { // java's raw type
-                return Integer.parseInt((String) obj);
-            }
-        }
-        catch (Throwable t) {
-            e = t;
         }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to integer",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
-        }
-        else {
-            throw new SQLException(msg);
-        }
+        Object obj = getObjectForConversion(index, "integer");
+        return converter(index).toInt(index, obj);
     }
 
     public long getLong(int index)
@@ -736,65 +568,79 @@ public abstract class TDResultSetBase
     private long getLongWithImplicitTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns 0.
-            if (obj == null || obj instanceof NilValue) {
-                return 0;
-            }
-
-            if (obj instanceof NumberValue) { // msgpack's Number type
-                NumberValue v = (NumberValue) obj;
-                if (v instanceof IntegerValue) {
-                    if (v.getClass().getName().equals(INTVALUE_CLASSNAME)) {
-                        return (long) ((IntegerValue) v).getInt();
-                    }
-                    else if (v.getClass().getName().equals(LONGVALUE_CLASSNAME)) {
-                        return (long) ((IntegerValue) v).getLong();
-                    }
-                }
-                else {
-                    if (v.getClass().getName().equals(DOUBLEVALUE_CLASSNAME)) {
-                        return (long) ((FloatValue) v).doubleValue();
-                    }
-                    else if (v.getClass().getName().equals(FLOATVALUE_CLASSNAME)) {
-                        return (long) ((FloatValue) v).floatValue();
-                    }
-                }
-            }
-            else if (obj instanceof Number) { // java's Number type
-                return ((Number) obj).longValue();
-            }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return Long.parseLong(((RawValue) obj).getString());
-            }
-            else if (obj instanceof String) { // java's raw type
-                return Long.parseLong((String) obj);
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return 0;
+                case ResultRow.INTEGER:
+                    return r.getLong(i);
+                case ResultRow.DOUBLE:
+                    return (long) r.getDouble(i);
             }
         }
-        catch (Throwable t) {
-            e = t;
+
+        Object obj = getObjectForConversion(index, "long");
+        return converter(index).toLong(index, obj);
+    }
+
+    public ResultSetMetaData getMetaData()
+            throws SQLException
+    {
+        TDResultSchema s = getSchema();
+        if (s == null) {
+            return new TDResultSetMetaData(columnNames, columnTypes);
         }
+        return new TDResultSetMetaData(s);
+    }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to long",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
+    /**
+     * Read the next row from the unpacker into the row of this result set.
+     * The row is reused for all rows.
+     *
+     * @return false if there are no more rows
+     */
+    protected boolean readRow(Unpacker unpacker)
+            throws IOException
+    {
+        if (resultRow == null) {
+            resultRow = new ResultRow();
         }
-        else {
-            throw new SQLException(msg);
+        if (!resultRow.read(unpacker, getSchema())) {
+            return false;
         }
+        row = resultRow;
+        return true;
     }
 
-    public ResultSetMetaData getMetaData()
+    /**
+     * Returns the row if the cell can be read from its typed slots
+     */
+    private ResultRow typedRow(int index)
+    {
+        if (row instanceof ResultRow && index >= 1 && index <= row.size()) {
+            wasNull = false;
+            return (ResultRow) row;
+        }
+        return null;
+    }
+
+    private TDColumnConverter converter(int index)
+    {
+        TDResultSchema s = getSchema();
+        return s == null ? TDColumnConverter.GENERIC : s.getConverter(index);
+    }
+
+    private Object getObjectForConversion(int index, String type)
             throws SQLException
     {
-        return new TDResultSetMetaData(columnNames, columnTypes);
+        try {
+            return getObject(index);
+        }
+        catch (Throwable t) {
+            throw TDColumnConverter.conversionError(index, null, type, t);
+        }
     }
 
     public Object getObject(int columnIndex)
@@ -905,59 +751,21 @@ public abstract class TDResultSetBase
     private short getShortWithImplicitTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns 0.
-            if (obj == null || obj instanceof NilValue) {
-                return 0;
-            }
-
-            if (obj instanceof NumberValue) { // msgpack's Number type
-                NumberValue v = (NumberValue) obj;
-                if (v instanceof IntegerValue) {
-                    if (v.getClass().getName().equals(INTVALUE_CLASSNAME)) {
-                        return (short) ((IntegerValue) v).getInt();
-                    }
-                    else if (v.getClass().getName().equals(LONGVALUE_CLASSNAME)) {
-                        return (short) ((IntegerValue) v).getLong();
-                    }
-                }
-                else {
-                    if (v.getClass().getName().equals(DOUBLEVALUE_CLASSNAME)) {
-                        return (short) ((FloatValue) v).doubleValue();
-                    }
-                    else if (v.getClass().getName().equals(FLOATVALUE_CLASSNAME)) {
-                        return (short) ((FloatValue) v).floatValue();
-                    }
-                }
-            }
-            else if (obj instanceof Number) { // java's Number type
-                return ((Number) obj).shortValue();
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return 0;
+                case ResultRow.INTEGER:
+                    return (short) r.getLong(i);
+                case ResultRow.DOUBLE:
+                    return (short) r.getDouble(i);
             }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return Short.parseShort(((RawValue) obj).getString());
-            }
-            else if (obj instanceof String) { // java's raw type
-                return Short.parseShort((String) obj);
-            }
-        }
-        catch (Throwable t) {
-            e = t;
         }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to byte",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
-        }
-        else {
-            throw new SQLException(msg);
-        }
+        Object obj = getObjectForConversion(index, "byte");
+        return converter(index).toShort(index, obj);
     }
 
     void setStatement(TDStatementBase stat)
@@ -990,80 +798,23 @@ public abstract class TDResultSetBase
     public String getStringWithImplicitTypeConversion(int index)
             throws SQLException
     {
-        Throwable e = null;
-        Object obj = null;
-        try {
-            obj = getObject(index);
-
-            // if obj is null or NULL value (NilValue), it returns null.
-            if (obj == null || obj instanceof NilValue) {
-                return null;
-            }
-
-            if (obj instanceof MapValue) { // msgpack's map type
-                return ((MapValue) obj).toString();
-            }
-            else if (obj instanceof ArrayValue) { // msgpack's array type
-                return ((ArrayValue) obj).toString();
-            }
-            else if (obj instanceof NumberValue) { // msgpack's number type
-                NumberValue v = (NumberValue) obj;
-                if (v instanceof IntegerValue) {
-                    if (v.getClass().getName().equals(INTVALUE_CLASSNAME)) {
-                        return "" + ((IntegerValue) v).getInt();
-                    }
-                    else if (v.getClass().getName().equals(LONGVALUE_CLASSNAME)) {
-                        return "" + ((IntegerValue) v).getLong();
-                    }
-                }
-                else {
-                    if (v.getClass().getName().equals(DOUBLEVALUE_CLASSNAME)) {
-                        return "" + ((FloatValue) v).doubleValue();
-                    }
-                    else if (v.getClass().getName().equals(FLOATVALUE_CLASSNAME)) {
-                        return "" + ((FloatValue) v).floatValue();
-                    }
-                }
+        ResultRow r = typedRow(index);
+        if (r != null) {
+            int i = index - 1;
+            switch (r.getKind(i)) {
+                case ResultRow.NIL:
+                    return null;
+                case ResultRow.INTEGER:
+                    return Long.toString(r.getLong(i));
+                case ResultRow.DOUBLE:
+                    return Double.toString(r.getDouble(i));
+                case ResultRow.RAW:
+                    return r.getString(i);
             }
-            else if (obj instanceof Number) { // java's number type
-                Number v = (Number) obj;
-                if (v instanceof Byte) {
-                    return "" + ((Byte) v).byteValue();
-                }
-                else if (v instanceof Double) {
-                    return "" + ((Double) v).doubleValue();
-                }
-                else if (v instanceof Float) {
-                    return "" + ((Float) v).floatValue();
-                }
-                else if (v instanceof Integer) {
-                    return "" + ((Integer) v).intValue();
-                }
-                else if (v instanceof Short) {
-                    return "" + ((Short) v).shortValue();
-                }
-            }
-            else if (obj instanceof RawValue) { // msgpack's raw type
-                return ((Value) obj).asRawValue().getString();
-            }
-            else { // java's raw type
-                return (String) obj;
-            }
-        }
-        catch (Throwable t) {
-            e = t;
         }
 
-        // implicit type conversion failed
-        String msg = String.format(
-                "Cannot convert column %d from value of %s class to string",
-                index, obj);
-        if (e != null) {
-            throw new SQLException(msg, e);
-        }
-        else {
-            throw new SQLException(msg);
-        }
+        Object obj = getObjectForConversion(index, "string");
+        return converter(index).toString(index, obj);
     }
 
     public Time getTime(int columnIndex)
@@ -29,12 +29,21 @@ public class TDResultSetMetaData
 {
     private final List<String> columnNames;
     private final List<String> columnTypes;
+    private final TDResultSchema schema;
 
     public TDResultSetMetaData(List<String> columnNames,
             List<String> columnTypes)
     {
         this.columnNames = columnNames;
         this.columnTypes = columnTypes;
+        this.schema = null;
+    }
+
+    public TDResultSetMetaData(TDResultSchema schema)
+    {
+        this.columnNames = schema.getColumnNames();
+        this.columnTypes = schema.getColumnTypes();
+        this.schema = schema;
     }
 
     public String getCatalogName(int column)
@@ -78,6 +87,11 @@ public class TDResultSetMetaData
     public int getColumnType(int column)
             throws SQLException
     {
+        if (schema != null) {
+            // resolved when the schema is compiled
+            return schema.getSqlType(column);
+        }
+
         if (columnTypes == null) {
             throw new SQLException(
                     "Could not determine column type name for ResultSet");
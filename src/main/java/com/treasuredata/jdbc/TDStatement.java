@@ -26,22 +26,33 @@ public class TDStatement
         extends TDStatementBase
         implements Statement, Constants
 {
-    private int fetchSize = 50;
-
     public TDStatement(TDConnection conn)
     {
         super(conn);
     }
 
+    public TDStatement(TDConnection conn, int resultSetType)
+    {
+        super(conn, resultSetType);
+    }
+
     public void addBatch(String sql)
             throws SQLException
     {
         throw new SQLException(new UnsupportedOperationException("TDStatement#addBatch()"));
     }
 
+    /**
+     * Kill the job of the current result set. A thread waiting for the job or
+     * reading its result gets an SQLException.
+     */
     public void cancel()
             throws SQLException
     {
+        TDResultSetBase rs = currentResultSet;
+        if (rs instanceof TDResultSet) {
+            ((TDResultSet) rs).cancel();
+        }
     }
 
     public void clearBatch()
@@ -82,7 +93,7 @@ public class TDStatement
         throw new SQLException(new UnsupportedOperationException("TDStatement#executeBatch()"));
     }
 
-    public synchronized ResultSet executeQuery(String sql)
+    public ResultSet executeQuery(String sql)
             throws SQLException
     {
         fetchResult(sql);
@@ -165,7 +176,7 @@ public class TDStatement
     public int getResultSetType()
             throws SQLException
     {
-        throw new SQLException(new UnsupportedOperationException("TDStatement#getResultSetType()"));
+        return resultSetType;
     }
 
     public boolean isPoolable()
@@ -189,6 +200,9 @@ public class TDStatement
     public void setFetchSize(int rows)
             throws SQLException
     {
+        if (rows < 0) {
+            throw new SQLException("rows must be >= 0");
+        }
         fetchSize = rows;
     }
 
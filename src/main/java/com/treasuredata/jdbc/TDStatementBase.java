@@ -20,8 +20,10 @@ package com.treasuredata.jdbc;
 
 import com.treasuredata.jdbc.command.CommandContext;
 import com.treasuredata.jdbc.command.CommandExecutor;
+import com.treasuredata.jdbc.command.MetaDataCache;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
@@ -36,10 +38,16 @@ public abstract class TDStatementBase
 
     protected int queryTimeout = -1; // seconds
 
-    protected TDResultSetBase currentResultSet = null;
+    // read by cancel() in another thread
+    protected volatile TDResultSetBase currentResultSet = null;
 
     protected int maxRows = 0;
 
+    // passed to the result sets of the statement
+    protected int fetchSize = 50;
+
+    protected int resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+
     /**
      * add SQLWarnings to the warningCharn if need.
      */
@@ -52,16 +60,37 @@ public abstract class TDStatementBase
 
     private boolean isEscapeProcessing;
 
+    // the connection the application created this statement with, if it is
+    // not conn, e.g. the handle of a pooled connection
+    private volatile Connection owner;
+
     protected TDStatementBase(TDConnection conn)
+    {
+        this(conn, ResultSet.TYPE_FORWARD_ONLY);
+    }
+
+    protected TDStatementBase(TDConnection conn, int resultSetType)
     {
         this.conn = conn;
+        this.resultSetType = resultSetType;
+        this.maxRows = conn.getMaxRows();
         exec = new CommandExecutor(this.conn.getClientAPI());
     }
 
     public Connection getConnection()
             throws SQLException
     {
-        return conn;
+        Connection c = owner;
+        return c != null ? c : conn;
+    }
+
+    /**
+     * Make {@link #getConnection()} return the given connection instead of
+     * the physical one
+     */
+    void setOwner(Connection owner)
+    {
+        this.owner = owner;
     }
 
     public CommandExecutor getCommandExecutor()
@@ -179,7 +208,12 @@ public abstract class TDStatementBase
     {
         try {
             exec.execute(context);
+            // the result set of the previous query is closed, as JDBC requires
+            TDResultSetBase previous = currentResultSet;
             currentResultSet = context.resultSet;
+            if (previous != null && previous != currentResultSet) {
+                previous.close();
+            }
         }
         catch (Throwable t) {
             if (t instanceof SQLException) {
@@ -189,6 +223,11 @@ public abstract class TDStatementBase
                 throw new SQLException(t);
             }
         }
+        finally {
+            if (MetaDataCache.isSchemaChange(context.sql)) {
+                conn.schemaChanged(context.resultSet);
+            }
+        }
     }
 
     protected CommandContext createCommandContext(String sql)
@@ -196,6 +235,10 @@ public abstract class TDStatementBase
         CommandContext context = new CommandContext();
         context.sql = sql;
         context.queryTimeout = queryTimeout;
+        context.resultSetType = resultSetType;
+        context.maxRows = maxRows;
+        context.fetchSize = fetchSize;
+        context.maxRowsPushdown = conn.getConfig().maxRowsPushdown;
         return context;
     }
 }
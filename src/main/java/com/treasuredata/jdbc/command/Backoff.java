@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter
+ */
+public class Backoff
+{
+    private static final Random RANDOM = new Random();
+
+    private final long initialWaitTimeMs;
+    private final long maxWaitTimeMs;
+    private final double multiplier;
+    private final double jitter;
+
+    /**
+     * @param initialWaitTimeMs wait time of the first retry
+     * @param maxWaitTimeMs upper bound of the wait time
+     * @param multiplier growth of the wait time per retry
+     * @param jitter fraction of the wait time that is randomized (0.0 - 1.0)
+     */
+    public Backoff(long initialWaitTimeMs, long maxWaitTimeMs, double multiplier, double jitter)
+    {
+        this.initialWaitTimeMs = Math.max(0, initialWaitTimeMs);
+        this.maxWaitTimeMs = Math.max(this.initialWaitTimeMs, maxWaitTimeMs);
+        this.multiplier = Math.max(1.0, multiplier);
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+    }
+
+    /**
+     * Returns the wait time before the given retry
+     *
+     * @param retryCount 0 for the first retry
+     * @return wait time in milliseconds
+     */
+    public long getWaitTimeMs(int retryCount)
+    {
+        double wait = initialWaitTimeMs * Math.pow(multiplier, retryCount);
+        wait = Math.min(wait, maxWaitTimeMs);
+        if (jitter > 0) {
+            wait = wait * (1.0 - jitter * RANDOM.nextDouble());
+        }
+        return (long) wait;
+    }
+}
@@ -29,6 +29,7 @@ import org.msgpack.unpacker.Unpacker;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.Future;
 
 public interface ClientAPI
 {
@@ -36,11 +37,18 @@ public interface ClientAPI
     {
         private File file;
         private Unpacker unpacker;
+        private boolean temporary;
 
         public ExtUnpacker(File file, Unpacker unpacker)
+        {
+            this(file, unpacker, true);
+        }
+
+        public ExtUnpacker(File file, Unpacker unpacker, boolean temporary)
         {
             this.file = file;
             this.unpacker = unpacker;
+            this.temporary = temporary;
         }
 
         public File getFile()
@@ -48,12 +56,28 @@ public interface ClientAPI
             return file;
         }
 
+        /**
+         * Returns true if the file should be deleted when the result set is
+         * closed. Files in the result cache are not temporary.
+         */
+        public boolean isTemporary()
+        {
+            return temporary;
+        }
+
         public Unpacker getUnpacker()
         {
             return unpacker;
         }
     }
 
+    /**
+     * Send the cheapest request that checks the credentials, e.g. to
+     * validate a pooled connection
+     */
+    void ping()
+            throws ClientException;
+
     // show all databases statement
     List<DatabaseSummary> showDatabases()
             throws ClientException;
@@ -66,6 +90,15 @@ public interface ClientAPI
     List<TableSummary> showTables()
             throws ClientException;
 
+    /**
+     * Returns the tables of the given database
+     *
+     * @param database database name, or null for the database of the
+     * connection
+     */
+    List<TableSummary> showTables(String database)
+            throws ClientException;
+
     // select statement
     TDResultSetBase select(String sql)
             throws ClientException;
@@ -80,6 +113,20 @@ public interface ClientAPI
     JobSummary waitJobResult(Job job)
             throws ClientException;
 
+    /**
+     * Returns the future of the summary of the finished job. The status of the
+     * job is polled in the background.
+     */
+    Future<JobSummary> waitJobResultAsync(Job job);
+
+    /**
+     * Kill the job if it is still running
+     *
+     * @return true if the kill is requested
+     */
+    boolean killJob(Job job)
+            throws ClientException;
+
     Unpacker getJobResult(Job job)
             throws ClientException;
 
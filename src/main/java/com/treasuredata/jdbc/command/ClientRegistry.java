@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.client.HttpClientException;
+import com.treasure_data.client.TreasureDataClient;
+import com.treasure_data.model.AuthenticateRequest;
+import com.treasure_data.model.Database;
+import com.treasure_data.model.DatabaseSummary;
+import com.treasure_data.model.GetJobResultRequest;
+import com.treasure_data.model.GetJobResultResult;
+import com.treasure_data.model.Job;
+import com.treasure_data.model.JobSummary;
+import com.treasure_data.model.KillJobRequest;
+import com.treasure_data.model.KillJobResult;
+import com.treasure_data.model.ListJobs;
+import com.treasure_data.model.SubmitJobRequest;
+import com.treasure_data.model.SubmitJobResult;
+import com.treasure_data.model.Table;
+import com.treasure_data.model.TableSummary;
+import com.treasuredata.jdbc.Config;
+
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Clients shared by the connections of the driver.
+ *
+ * Connections to the same API server with the same credentials use one
+ * TreasureDataClient, and so one pool of HTTP connections. If a user and a
+ * password are given, the API key is got by authenticating once, and it is
+ * kept until the credential TTL expires or a call is rejected with 401 or
+ * 403, e.g. after the key is revoked.
+ */
+public class ClientRegistry
+{
+    private static final Logger LOG = Logger.getLogger(ClientRegistry.class.getName());
+
+    private static ClientRegistry instance;
+
+    public static synchronized ClientRegistry getInstance()
+    {
+        if (instance == null) {
+            instance = new ClientRegistry(100);
+        }
+        return instance;
+    }
+
+    static class Entry
+    {
+        private final Config config;
+        private final boolean passwordLogin;
+        private SharedClient client;
+        // the time when the API key was got by the password login
+        private long authenticatedAt = 0;
+
+        Entry(Config config)
+        {
+            this.config = config;
+            this.passwordLogin = !config.apiConfig.apiKey.isDefined();
+        }
+    }
+
+    private final Map<String, Entry> clients;
+
+    ClientRegistry(final int maxEntries)
+    {
+        this.clients = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the shared client of the API server and the credentials of the
+     * configuration. The client has a valid API key.
+     */
+    public TreasureDataClient getClient(Config config)
+            throws ClientException
+    {
+        String key = key(config);
+        Entry entry;
+        synchronized (clients) {
+            entry = clients.get(key);
+            if (entry == null) {
+                entry = new Entry(config);
+                entry.client = newClient(config.toProperties(), entry);
+                clients.put(key, entry);
+            }
+        }
+        authenticate(entry);
+        return entry.client;
+    }
+
+    /**
+     * Get the API key by the password login unless it is got within the
+     * credential TTL. Other connections of the same user wait for this.
+     */
+    private static void authenticate(Entry entry)
+            throws ClientException
+    {
+        if (!entry.passwordLogin) {
+            return;
+        }
+        synchronized (entry) {
+            long now = System.currentTimeMillis();
+            if (entry.authenticatedAt > 0 && now - entry.authenticatedAt < entry.config.credentialsTtlMs) {
+                return;
+            }
+            entry.client.authenticate(new AuthenticateRequest(entry.config.user, entry.config.password));
+            entry.authenticatedAt = now;
+            LOG.info("authenticated user " + entry.config.user);
+        }
+    }
+
+    /**
+     * Make the next getClient of the configuration authenticate again, e.g.
+     * after the API key is revoked
+     */
+    public void invalidate(Config config)
+    {
+        Entry entry;
+        synchronized (clients) {
+            entry = clients.get(key(config));
+        }
+        if (entry != null) {
+            invalidate(entry);
+        }
+    }
+
+    private static void invalidate(Entry entry)
+    {
+        synchronized (entry) {
+            entry.authenticatedAt = 0;
+        }
+    }
+
+    /**
+     * Returns true if the API rejected the API key of the call
+     */
+    static boolean isAuthFailure(ClientException e)
+    {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof HttpClientException) {
+                int code = ((HttpClientException) t).getResponseCode();
+                return code == HttpURLConnection.HTTP_UNAUTHORIZED || code == HttpURLConnection.HTTP_FORBIDDEN;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A client shared by the connections of an entry. A call rejected with
+     * 401 or 403 invalidates the login, and the next call of any of the
+     * connections authenticates again.
+     */
+    static class SharedClient
+            extends TreasureDataClient
+    {
+        private final Entry entry;
+
+        SharedClient(Properties props, Entry entry)
+        {
+            super(props);
+            this.entry = entry;
+        }
+
+        private void beforeCall()
+                throws ClientException
+        {
+            if (entry.passwordLogin) {
+                ClientRegistry.authenticate(entry);
+            }
+        }
+
+        private ClientException failed(ClientException e)
+        {
+            if (isAuthFailure(e)) {
+                LOG.warning("the API key is rejected: " + e.getMessage());
+                invalidate(entry);
+            }
+            return e;
+        }
+
+        @Override
+        public List<DatabaseSummary> listDatabases()
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.listDatabases();
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public List<TableSummary> listTables(Database database)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.listTables(database);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public void deleteTable(String database, String table)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                super.deleteTable(database, table);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public Table createTable(Database database, String table)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.createTable(database, table);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public SubmitJobResult submitJob(SubmitJobRequest request)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.submitJob(request);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public JobSummary.Status showJobStatus(Job job)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.showJobStatus(job);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public JobSummary showJob(Job job)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.showJob(job);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public KillJobResult killJob(KillJobRequest request)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.killJob(request);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public ListJobs<JobSummary> listJobs(long from, long to)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.listJobs(from, to);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public GetJobResultResult getJobResult(GetJobResultRequest request)
+                throws ClientException
+        {
+            beforeCall();
+            try {
+                return super.getJobResult(request);
+            }
+            catch (ClientException e) {
+                throw failed(e);
+            }
+        }
+    }
+
+    public int getClientCount()
+    {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    SharedClient newClient(Properties props, Entry entry)
+    {
+        return new SharedClient(props, entry);
+    }
+
+    /**
+     * The API server, the proxy and the credentials of the configuration. The
+     * API key and the password are digested.
+     */
+    public static String key(Config config)
+    {
+        Map<String, String> props = new TreeMap<String, String>();
+        Properties p = config.apiConfig.toProperties();
+        for (String name : p.stringPropertyNames()) {
+            props.put(name, p.getProperty(name));
+        }
+        if (props.containsKey(Config.TD_API_KEY)) {
+            props.put(Config.TD_API_KEY, digest(props.get(Config.TD_API_KEY)));
+        }
+        props.put("user", String.valueOf(config.user));
+        props.put("password", digest(String.valueOf(config.password)));
+        return props.toString();
+    }
+
+    /**
+     * Returns the SHA-256 digest of the string in hex, for the keys that
+     * must not keep a secret
+     */
+    public static String digest(String s)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -20,6 +20,8 @@ package com.treasuredata.jdbc.command;
 
 import com.treasuredata.jdbc.TDResultSetBase;
 
+import java.sql.ResultSet;
+
 public class CommandContext
 {
 
@@ -27,6 +29,16 @@ public class CommandContext
 
     public String sql;
 
+    public int resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+
+    public int maxRows = 0; // no limit
+
+    // rows decoded in a batch by the result set. 0 means the default of the result set.
+    public int fetchSize = 0;
+
+    // add a LIMIT clause to the SQL if maxRows is set
+    public boolean maxRowsPushdown = false;
+
     public TDResultSetBase resultSet;
 
     public CommandContext()
@@ -20,21 +20,21 @@ package com.treasuredata.jdbc.command;
 
 import com.treasure_data.client.ClientException;
 import com.treasuredata.jdbc.Constants;
+import com.treasuredata.jdbc.TDResultSet;
 import com.treasuredata.jdbc.TDResultSetBase;
 import org.msgpack.MessagePack;
 import org.msgpack.packer.Packer;
-import org.msgpack.type.ArrayValue;
-import org.msgpack.type.Value;
 import org.msgpack.unpacker.Unpacker;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -44,7 +44,7 @@ public class CommandExecutor
 {
     private static final Logger LOG = Logger.getLogger(CommandExecutor.class.getName());
 
-    private ClientAPI api;
+    private final ClientAPI api;
 
     public CommandExecutor(ClientAPI api)
     {
@@ -56,7 +56,11 @@ public class CommandExecutor
         return api;
     }
 
-    public synchronized void execute(CommandContext context)
+    /**
+     * Run the statement of the context. It is thread-safe, and the statements
+     * of a connection share its ClientAPI and run in parallel.
+     */
+    public void execute(CommandContext context)
             throws SQLException
     {
         String sql = context.sql;
@@ -65,7 +69,24 @@ public class CommandExecutor
                 context.resultSet = new TDResultSetSelectOne(api);
             }
             else {
-                context.resultSet = api.select(context.sql, context.queryTimeout);
+                if (context.maxRows > 0 && context.maxRowsPushdown) {
+                    // one more row than max rows tells that the result is truncated
+                    sql = LimitRewriter.rewrite(sql, context.maxRows + 1);
+                    if (LOG.isLoggable(Level.FINE) && !sql.equals(context.sql)) {
+                        LOG.fine("rewrote the query for max rows " + context.maxRows + ": " + sql);
+                    }
+                }
+                context.resultSet = api.select(sql, context.queryTimeout);
+                if (context.resultSet instanceof TDResultSet) {
+                    TDResultSet rs = (TDResultSet) context.resultSet;
+                    rs.setMaxRows(context.maxRows);
+                    if (context.fetchSize > 0) {
+                        rs.setFetchSize(context.fetchSize);
+                    }
+                    if (context.resultSetType != ResultSet.TYPE_FORWARD_ONLY) {
+                        rs.setScrollable(true);
+                    }
+                }
             }
         }
         catch (ClientException e) {
@@ -82,7 +103,7 @@ public class CommandExecutor
 
         private Unpacker fetchedRows;
 
-        private Iterator<Value> fetchedRowsItr;
+        private boolean fetchedAllRows = false;
 
         public TDResultSetSelectOne(ClientAPI api)
         {
@@ -96,18 +117,12 @@ public class CommandExecutor
             try {
                 if (fetchedRows == null) {
                     fetchedRows = fetchRows();
-                    fetchedRowsItr = fetchedRows.iterator();
                 }
 
-                if (!fetchedRowsItr.hasNext()) {
+                if (fetchedAllRows || !readRow(fetchedRows)) {
+                    fetchedAllRows = true;
                     return false;
                 }
-
-                ArrayValue vs = (ArrayValue) fetchedRowsItr.next();
-                row = new ArrayList<Object>(vs.size());
-                for (int i = 0; i < vs.size(); i++) {
-                    row.add(i, vs.get(i));
-                }
                 rowsFetched++;
             }
             catch (Exception e) {
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+/**
+ * Wait times between the status polls of a running job.
+ *
+ * The first polls are quick and the wait time grows exponentially up to the
+ * max wait time. If the runtime of the job is predicted, the poller sleeps
+ * until near the predicted end first and then polls quickly again, so that
+ * neither short queries nor long jobs pay for a fixed interval.
+ */
+public class JobPollSchedule
+{
+    // fraction of the predicted runtime that is slept through without polls
+    static final double PREDICTION_RATIO = 0.8;
+
+    private final Backoff backoff;
+    private final long predictedRuntimeMs;
+    private final long maxPredictedWaitTimeMs;
+    private boolean predictionReached = false;
+    private int pollCount = 0;
+
+    /**
+     * @param backoff wait times of the polls
+     * @param predictedRuntimeMs predicted runtime of the job, or -1 if
+     * unknown
+     * @param maxPredictedWaitTimeMs upper bound of a wait before the
+     * predicted end. A job that fails early is noticed within this time.
+     */
+    public JobPollSchedule(Backoff backoff, long predictedRuntimeMs, long maxPredictedWaitTimeMs)
+    {
+        this.backoff = backoff;
+        this.predictedRuntimeMs = predictedRuntimeMs;
+        this.maxPredictedWaitTimeMs = Math.max(1, maxPredictedWaitTimeMs);
+    }
+
+    /**
+     * Returns the wait time before the next poll
+     *
+     * @param elapsedMs time since the job was submitted
+     * @return wait time in milliseconds
+     */
+    public long nextWaitTimeMs(long elapsedMs)
+    {
+        if (!predictionReached && predictedRuntimeMs > 0) {
+            long untilPredicted = (long) (predictedRuntimeMs * PREDICTION_RATIO) - elapsedMs;
+            if (untilPredicted > backoff.getWaitTimeMs(0)) {
+                return Math.min(untilPredicted, maxPredictedWaitTimeMs);
+            }
+            // poll quickly again around the predicted end
+            predictionReached = true;
+            pollCount = 0;
+        }
+        return backoff.getWaitTimeMs(pollCount++);
+    }
+}
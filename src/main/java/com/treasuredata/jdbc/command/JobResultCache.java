@@ -0,0 +1,513 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasuredata.jdbc.PreparedSql;
+import com.treasure_data.model.Job;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Local cache of downloaded job results (msgpack.gz files).
+ *
+ * An entry is keyed by the account, the normalized SQL, the database name
+ * and the job type. Each entry is a data file and a .meta file that keeps the job id and
+ * the result schema. Entries expire after the TTL, and the least recently used
+ * entries are evicted when the total size exceeds the max size.
+ */
+public class JobResultCache
+{
+    private static final Logger LOG = Logger.getLogger(JobResultCache.class.getName());
+
+    private static final String DATA_SUFFIX = ".msgpack.gz";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final Map<String, JobResultCache> INSTANCES = new HashMap<String, JobResultCache>();
+
+    /**
+     * Returns the cache of the given directory. Connections that use the
+     * same directory share one cache.
+     */
+    public static synchronized JobResultCache getInstance(File dir, long ttlMs, long maxSize)
+            throws IOException
+    {
+        String path = dir.getCanonicalPath();
+        JobResultCache cache = INSTANCES.get(path);
+        if (cache == null) {
+            cache = new JobResultCache(dir, ttlMs, maxSize);
+            INSTANCES.put(path, cache);
+        }
+        return cache;
+    }
+
+    public static class Entry
+    {
+        private final String key;
+        private final File file;
+        private final String jobID;
+        private final String resultSchema;
+        private final long createdAt;
+        // opened when the entry is returned, so that an eviction does not remove the data under the reader
+        private InputStream in;
+
+        Entry(String key, File file, String jobID, String resultSchema, long createdAt, InputStream in)
+        {
+            this.key = key;
+            this.file = file;
+            this.jobID = jobID;
+            this.resultSchema = resultSchema;
+            this.createdAt = createdAt;
+            this.in = in;
+        }
+
+        /**
+         * Returns the stream of the data file. The first call returns the
+         * stream opened when the entry was returned by get() or put(), which
+         * stays readable even if the entry is evicted or expires in the
+         * meantime. The caller closes the stream.
+         */
+        public synchronized InputStream openStream()
+                throws IOException
+        {
+            InputStream s = in;
+            if (s != null) {
+                in = null;
+                return s;
+            }
+            return new FileInputStream(file);
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public String getJobID()
+        {
+            return jobID;
+        }
+
+        public String getResultSchema()
+        {
+            return resultSchema;
+        }
+
+        public long getCreatedAt()
+        {
+            return createdAt;
+        }
+    }
+
+    private final File dir;
+    private final long ttlMs;
+    private final long maxSize;
+
+    // key -> size of the data file, in access order
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalSize = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    JobResultCache(File dir, long ttlMs, long maxSize)
+            throws IOException
+    {
+        this.dir = dir;
+        this.ttlMs = ttlMs;
+        this.maxSize = maxSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create the result cache directory: " + dir);
+        }
+        load();
+    }
+
+    private void load()
+    {
+        File[] metas = dir.listFiles(new FilenameFilter()
+        {
+            public boolean accept(File d, String name)
+            {
+                return name.endsWith(META_SUFFIX);
+            }
+        });
+        if (metas == null) {
+            return;
+        }
+
+        // the last modified time of the data file is updated on every hit
+        Arrays.sort(metas, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                long t1 = dataFile(keyOf(f1)).lastModified();
+                long t2 = dataFile(keyOf(f2)).lastModified();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        for (File meta : metas) {
+            String key = keyOf(meta);
+            File data = dataFile(key);
+            if (data.isFile()) {
+                index.put(key, data.length());
+                totalSize += data.length();
+            }
+            else {
+                meta.delete();
+            }
+        }
+        LOG.info(String.format("loaded the result cache: dir = %s, entries = %d, size = %d",
+                dir, index.size(), totalSize));
+        evict();
+    }
+
+    private static String keyOf(File meta)
+    {
+        String name = meta.getName();
+        return name.substring(0, name.length() - META_SUFFIX.length());
+    }
+
+    private File dataFile(String key)
+    {
+        return new File(dir, key + DATA_SUFFIX);
+    }
+
+    private File metaFile(String key)
+    {
+        return new File(dir, key + META_SUFFIX);
+    }
+
+    /**
+     * Returns true if the result of the given SQL can be cached. Only
+     * queries are cached.
+     */
+    public static boolean isCacheable(String sql)
+    {
+        // the dialect does not matter for the first keyword
+        String s = normalizeSql(sql, Job.Type.PRESTO).toLowerCase();
+        return s.startsWith("select") || s.startsWith("with");
+    }
+
+    /**
+     * Collapse white spaces outside of quoted strings and identifiers,
+     * remove the comments, and remove the trailing semicolon. The quoted
+     * texts are read with the escapes of the dialect: a backslash escapes
+     * the next character in Hive but not in Presto.
+     */
+    static String normalizeSql(String sql, Job.Type type)
+    {
+        boolean backslashEscapes = type == Job.Type.HIVE;
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean space = false;
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            int end = PreparedSql.skipQuotedOrComment(sql, i, backslashEscapes);
+            if (end >= 0 && (c == '-' || c == '/')) {
+                // a comment separates the tokens around it
+                space = true;
+                i = end;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            if (end >= 0) {
+                sb.append(sql, i, end);
+                i = end;
+            }
+            else {
+                sb.append(c);
+                i++;
+            }
+        }
+        int len = sb.length();
+        while (len > 0 && (sb.charAt(len - 1) == ';' || sb.charAt(len - 1) == ' ')) {
+            len--;
+        }
+        sb.setLength(len);
+        return sb.toString();
+    }
+
+    /**
+     * @param account the API server and the credentials of the connection,
+     * e.g. ClientRegistry.key(config). Connections of different accounts never
+     * share a result.
+     */
+    public static String key(String account, String sql, String database, Job.Type type)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(String.valueOf(account).getBytes("UTF-8"));
+            md.update((byte) 0);
+            md.update(normalizeSql(sql, type).getBytes("UTF-8"));
+            md.update((byte) 0);
+            md.update(String.valueOf(database).getBytes("UTF-8"));
+            md.update((byte) 0);
+            md.update(String.valueOf(type).getBytes("UTF-8"));
+            byte[] digest = md.digest();
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the entry of the given key, or null if it is not cached or
+     * already expired.
+     */
+    public synchronized Entry get(String key)
+    {
+        // get() moves the key to the tail of the access order
+        if (index.get(key) == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        Properties meta = new Properties();
+        try {
+            InputStream in = new FileInputStream(metaFile(key));
+            try {
+                meta.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            LOG.warning("cannot read the result cache entry " + key + ": " + e.getMessage());
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        long createdAt = Long.parseLong(meta.getProperty("createdAt", "0"));
+        File data = dataFile(key);
+        if (now - createdAt > ttlMs || !data.isFile()) {
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        InputStream in;
+        try {
+            in = new FileInputStream(data);
+        }
+        catch (IOException e) {
+            LOG.warning("cannot open the result cache entry " + key + ": " + e.getMessage());
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        data.setLastModified(now);
+        hitCount.incrementAndGet();
+        return new Entry(key, data, meta.getProperty("jobID"), meta.getProperty("resultSchema"), createdAt, in);
+    }
+
+    /**
+     * Move the downloaded result file into the cache.
+     *
+     * @param key cache key
+     * @param jobID job id of the result
+     * @param resultSchema result schema of the job
+     * @param resultFile downloaded result file. It is moved into the cache.
+     * @return the cached entry, or null if the result is larger than the cache
+     * @throws IOException
+     */
+    public synchronized Entry put(String key, String jobID, String resultSchema, File resultFile)
+            throws IOException
+    {
+        if (resultFile.length() > maxSize) {
+            LOG.info(String.format("the result of job %s is too large to cache: size = %d", jobID, resultFile.length()));
+            return null;
+        }
+        if (index.containsKey(key)) {
+            remove(key);
+        }
+
+        File data = dataFile(key);
+        if (!resultFile.renameTo(data)) {
+            copy(resultFile, data);
+            resultFile.delete();
+        }
+
+        long createdAt = System.currentTimeMillis();
+        Properties meta = new Properties();
+        meta.setProperty("jobID", jobID);
+        if (resultSchema != null) {
+            meta.setProperty("resultSchema", resultSchema);
+        }
+        meta.setProperty("createdAt", Long.toString(createdAt));
+        // opened before evict() so that the entry is readable even if it is evicted at once
+        InputStream in;
+        try {
+            writeMeta(key, meta);
+            in = new FileInputStream(data);
+        }
+        catch (IOException e) {
+            // give the file back to the caller
+            metaFile(key).delete();
+            if (!data.renameTo(resultFile)) {
+                copy(data, resultFile);
+                data.delete();
+            }
+            throw e;
+        }
+
+        index.put(key, data.length());
+        totalSize += data.length();
+        LOG.info(String.format("cached the result of job %s: key = %s, size = %d", jobID, key, data.length()));
+        evict();
+        return new Entry(key, data, jobID, resultSchema, createdAt, in);
+    }
+
+    private void writeMeta(String key, Properties meta)
+            throws IOException
+    {
+        File tmp = new File(dir, key + META_SUFFIX + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            meta.store(out, null);
+        }
+        finally {
+            out.close();
+        }
+        File metaFile = metaFile(key);
+        metaFile.delete();
+        if (!tmp.renameTo(metaFile)) {
+            tmp.delete();
+            throw new IOException("cannot write the result cache entry: " + metaFile);
+        }
+    }
+
+    private static void copy(File src, File dst)
+            throws IOException
+    {
+        InputStream in = new FileInputStream(src);
+        try {
+            OutputStream out = new FileOutputStream(dst);
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    out.write(buf, 0, len);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (totalSize > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            it.remove();
+            totalSize -= e.getValue();
+            deleteFiles(e.getKey());
+            evictionCount.incrementAndGet();
+            LOG.info("evicted the result cache entry: " + e.getKey());
+        }
+    }
+
+    private void remove(String key)
+    {
+        Long size = index.remove(key);
+        if (size != null) {
+            totalSize -= size;
+        }
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(String key)
+    {
+        metaFile(key).delete();
+        dataFile(key).delete();
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return index.size();
+    }
+
+    public synchronized long getSize()
+    {
+        return totalSize;
+    }
+}
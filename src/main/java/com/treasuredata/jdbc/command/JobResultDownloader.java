@@ -0,0 +1,481 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasuredata.jdbc.ApiConfig;
+import com.treasuredata.jdbc.Config;
+import com.treasuredata.jdbc.DriverExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a job result on several HTTP connections at once. The result is
+ * split into byte ranges, and each range is written with positional writes
+ * into one pre-sized file. A failed download can be resumed from the bytes
+ * already written with range requests.
+ *
+ * The range requests are sent with HttpURLConnection, not with td-client,
+ * and go through the proxy of the http(s).proxyHost system properties. They
+ * cannot authenticate to a proxy, so if the proxy has a user, the result is
+ * downloaded in a single stream by td-client, and a failed download starts
+ * again from the first byte.
+ */
+public class JobResultDownloader
+{
+    private static final Logger LOG = Logger.getLogger(JobResultDownloader.class.getName());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // retries of a range request answered with a temporary error
+    private static final int RANGE_RETRIES = 3;
+
+    /**
+     * Thrown when the server does not answer a range request with a partial
+     * content response.
+     */
+    public static class RangeNotSupportedException
+            extends IOException
+    {
+        public RangeNotSupportedException(String message)
+        {
+            super(message);
+        }
+    }
+
+    static class Range
+    {
+        final long start; // inclusive
+        final long end; // exclusive
+        volatile long position; // next byte to write
+
+        Range(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        long length()
+        {
+            return end - start;
+        }
+
+        boolean isComplete()
+        {
+            return position >= end;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("[%d, %d)", start, end);
+        }
+    }
+
+    /**
+     * State of a download of a job result. It keeps the progress of each
+     * range so that a failed download can be resumed from the last byte
+     * written to the file.
+     */
+    public static class Download
+    {
+        private final String jobID;
+        private final File file;
+        private long resultSize = -1;
+        private List<Range> ranges = new ArrayList<Range>();
+
+        public Download(String jobID, File file)
+        {
+            this.jobID = jobID;
+            this.file = file;
+        }
+
+        public String getJobID()
+        {
+            return jobID;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public long getResultSize()
+        {
+            return resultSize;
+        }
+
+        void plan(long resultSize, int streams)
+        {
+            this.resultSize = resultSize;
+            this.ranges = planRanges(resultSize, streams);
+        }
+
+        public boolean isStarted()
+        {
+            return resultSize >= 0;
+        }
+
+        public long getDownloadedSize()
+        {
+            long size = 0;
+            for (Range r : ranges) {
+                size += r.position - r.start;
+            }
+            return size;
+        }
+
+        List<Range> getIncompleteRanges()
+        {
+            List<Range> incomplete = new ArrayList<Range>();
+            for (Range r : ranges) {
+                if (!r.isComplete()) {
+                    incomplete.add(r);
+                }
+            }
+            return incomplete;
+        }
+    }
+
+    private final ApiConfig apiConfig;
+    private final String apiKey;
+    private final int streams;
+    private final int timeoutMs;
+    private final Backoff retryBackoff;
+    private final DriverExecutor.Scope executor;
+    // false if the range requests cannot pass the proxy
+    private final boolean rangeRequests;
+
+    public JobResultDownloader(ApiConfig apiConfig, String apiKey, int streams)
+    {
+        this(apiConfig, apiKey, streams, Config.TD_JDBC_RESULT_DOWNLOAD_TIMEOUT_DEFAULTVALUE,
+                DriverExecutor.getInstance().getSharedScope());
+    }
+
+    public JobResultDownloader(ApiConfig apiConfig, String apiKey, int streams, int timeoutMs,
+            DriverExecutor.Scope executor)
+    {
+        this(apiConfig, apiKey, streams, timeoutMs, new Backoff(1000, 10000, 2.0, 0.5), executor);
+    }
+
+    /**
+     * @param timeoutMs connect and read timeout of each range request
+     * @param retryBackoff wait times between the retries of a range request
+     * answered with a temporary error
+     * @param executor executor of the range downloads
+     */
+    public JobResultDownloader(ApiConfig apiConfig, String apiKey, int streams, int timeoutMs,
+            Backoff retryBackoff, DriverExecutor.Scope executor)
+    {
+        this.apiConfig = apiConfig;
+        this.apiKey = apiKey;
+        this.streams = Math.max(1, streams);
+        this.timeoutMs = timeoutMs;
+        this.retryBackoff = retryBackoff;
+        this.executor = executor;
+        this.rangeRequests = !apiConfig.proxy.isDefined() || apiConfig.proxy.get().user == null;
+    }
+
+    static List<Range> planRanges(long size, int streams)
+    {
+        List<Range> ranges = new ArrayList<Range>(streams);
+        long rangeSize = (size + streams - 1) / streams;
+        for (long start = 0; start < size; start += rangeSize) {
+            ranges.add(new Range(start, Math.min(size, start + rangeSize)));
+        }
+        return ranges;
+    }
+
+    /**
+     * Download the job result into the given file.
+     *
+     * @param jobID job id
+     * @param head stream of the job result from its first byte. It is used for
+     * the first range and closed by this method.
+     * @param resultSize the size of the job result
+     * @param file the file to write
+     * @throws IOException
+     */
+    public void download(String jobID, InputStream head, long resultSize, File file)
+            throws IOException
+    {
+        Download download = new Download(jobID, file);
+        start(download, head, resultSize);
+        verify(download);
+    }
+
+    /**
+     * Start the download from the first byte. The result is split into
+     * ranges if it is larger than one range.
+     *
+     * @param download download state
+     * @param head stream of the job result from its first byte. It is used for
+     * the first range and closed by this method.
+     * @param resultSize the size of the job result
+     * @throws IOException
+     */
+    public void start(Download download, InputStream head, long resultSize)
+            throws IOException
+    {
+        if (!rangeRequests) {
+            startSingleStream(download, head, resultSize);
+            return;
+        }
+        download.plan(resultSize, streams);
+        LOG.info(String.format("download the job result %s in %d ranges: size = %d",
+                download.jobID, download.ranges.size(), resultSize));
+        fetch(download, head, download.ranges);
+    }
+
+    /**
+     * Start the download from the first byte in a single stream.
+     */
+    public void startSingleStream(Download download, InputStream head, long resultSize)
+            throws IOException
+    {
+        download.plan(resultSize, 1);
+        LOG.info(String.format("download the job result %s: size = %d", download.jobID, resultSize));
+        fetch(download, head, download.ranges);
+    }
+
+    /**
+     * Resume the download. Only the bytes not yet written to the file are
+     * fetched with range requests.
+     *
+     * @param download download state
+     * @throws RangeNotSupportedException if the server ignores range requests
+     * @throws IOException
+     */
+    public void resume(Download download)
+            throws IOException
+    {
+        List<Range> ranges = download.getIncompleteRanges();
+        LOG.info(String.format("resume downloading the job result %s: %d of %d bytes are downloaded",
+                download.jobID, download.getDownloadedSize(), download.resultSize));
+        fetch(download, null, ranges);
+    }
+
+    /**
+     * Verify that the whole job result is written to the file
+     *
+     * @param download download state
+     * @throws IOException if the file is not complete
+     */
+    public void verify(Download download)
+            throws IOException
+    {
+        long fileSize = download.file.length();
+        long downloadedSize = download.getDownloadedSize();
+        if (!download.isStarted() || !download.getIncompleteRanges().isEmpty()
+                || downloadedSize != download.resultSize || fileSize != download.resultSize) {
+            throw new IOException(String.format(
+                    "Cannot read all data of the job result: downloaded %d bytes, file %d bytes, expected %d bytes",
+                    downloadedSize, fileSize, download.resultSize));
+        }
+        LOG.info("verified the size of the job result: " + fileSize);
+    }
+
+    private void fetch(final Download download, InputStream head, List<Range> ranges)
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(download.file, "rw");
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            raf.setLength(download.resultSize);
+            final FileChannel channel = raf.getChannel();
+
+            int first = head != null ? 1 : 0;
+            int count = 0;
+            for (final Range range : ranges.subList(first, ranges.size())) {
+                futures.add(executor.submit("td-jdbc-download-" + download.jobID + "-" + (++count), new Callable<Void>()
+                {
+                    public Void call()
+                            throws IOException
+                    {
+                        try {
+                            copy(openRange(download.jobID, range), channel, range);
+                        }
+                        catch (SocketTimeoutException e) {
+                            // the bytes written so far are kept, and the retry resumes the range
+                            throw new IOException(String.format(
+                                    "range %s of the job result %s timed out at %d after %d ms",
+                                    range, download.jobID, range.position, timeoutMs), e);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            IOException error = null;
+            if (head != null) {
+                // the first range is read from the stream that is already open
+                try {
+                    if (ranges.isEmpty()) {
+                        head.close();
+                    }
+                    else {
+                        copy(head, channel, ranges.get(0));
+                    }
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+            }
+
+            for (Future<Void> f : futures) {
+                try {
+                    f.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException ie = new InterruptedIOException("interrupted while downloading the job result");
+                    ie.initCause(e);
+                    throw ie;
+                }
+                catch (ExecutionException e) {
+                    // wait for the other ranges so that their progress is kept
+                    Throwable cause = e.getCause();
+                    if (error == null || cause instanceof RangeNotSupportedException) {
+                        error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+        finally {
+            // the ranges still running when an error is thrown are stopped
+            for (Future<Void> f : futures) {
+                f.cancel(true);
+            }
+            try {
+                raf.close();
+            }
+            catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void copy(InputStream in, FileChannel channel, Range range)
+            throws IOException
+    {
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (range.position < range.end) {
+                int len = in.read(buf, 0, (int) Math.min(buf.length, range.end - range.position));
+                if (len == -1) {
+                    throw new IOException(String.format(
+                            "Cannot read all data of the job result: range %s ended at %d", range, range.position));
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+                long pos = range.position;
+                while (bb.hasRemaining()) {
+                    pos += channel.write(bb, pos);
+                }
+                range.position = pos;
+            }
+        }
+        finally {
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Open the stream of the remaining bytes of the range. A temporary error
+     * (408, 429 or 5xx) is retried with a backoff.
+     *
+     * @throws RangeNotSupportedException if the server answers with the
+     * whole result, or the request cannot pass the proxy
+     * @throws IOException if the request fails, e.g. with 401 or 404
+     */
+    protected InputStream openRange(String jobID, Range range)
+            throws IOException
+    {
+        if (!rangeRequests) {
+            throw new RangeNotSupportedException(String.format(
+                    "range request for the job result %s cannot authenticate to the proxy", jobID));
+        }
+        URL url = new URL(apiConfig.scheme + apiConfig.endpoint + ":" + apiConfig.port
+                + "/v3/job/result/" + jobID + "?format=msgpack.gz");
+        int retryCount = 0;
+        while (true) {
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(timeoutMs);
+            conn.setReadTimeout(timeoutMs);
+            if (apiKey != null) {
+                conn.setRequestProperty("Authorization", "TD1 " + apiKey);
+            }
+            conn.setRequestProperty("Range", "bytes=" + range.position + "-" + (range.end - 1));
+
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                return conn.getInputStream();
+            }
+            conn.disconnect();
+            if (code == HttpURLConnection.HTTP_OK) {
+                // the server ignored the Range header
+                throw new RangeNotSupportedException(String.format(
+                        "range request for the job result %s is not supported: HTTP %d", jobID, code));
+            }
+            String message = String.format("range %s of the job result %s failed: HTTP %d", range, jobID, code);
+            if (!isTemporaryError(code) || retryCount >= RANGE_RETRIES) {
+                throw new IOException(message);
+            }
+            long wait = retryBackoff.getWaitTimeMs(retryCount++);
+            LOG.warning(message + ", retry in " + wait + " ms");
+            try {
+                Thread.sleep(wait);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException ie = new InterruptedIOException(message);
+                ie.initCause(e);
+                throw ie;
+            }
+        }
+    }
+
+    private static boolean isTemporaryError(int code)
+    {
+        return code == HttpURLConnection.HTTP_CLIENT_TIMEOUT || code == 429 || code >= 500;
+    }
+}
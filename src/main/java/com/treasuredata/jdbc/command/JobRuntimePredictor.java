@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.model.Job;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learns the typical runtime of jobs per query fingerprint and job type.
+ *
+ * The runtime is an exponentially weighted moving average of the past
+ * runtimes of the same fingerprint. The fingerprint is the normalized SQL
+ * with its string and number literals replaced by '?', so that queries that
+ * only differ in their parameters share one estimate.
+ */
+public class JobRuntimePredictor
+{
+    private final int maxEntries;
+    private final double alpha;
+
+    // fingerprint -> estimated runtime in millis, in access order
+    private final LinkedHashMap<String, Double> estimates;
+
+    /**
+     * @param maxEntries max number of fingerprints. The least recently used
+     * ones are dropped.
+     * @param alpha weight of the latest runtime (0.0 - 1.0)
+     */
+    public JobRuntimePredictor(final int maxEntries, double alpha)
+    {
+        this.maxEntries = maxEntries;
+        this.alpha = Math.min(1.0, Math.max(0.0, alpha));
+        this.estimates = new LinkedHashMap<String, Double>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Double> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the estimated runtime of the jobs of the fingerprint
+     *
+     * @return estimated runtime in milliseconds, or -1 if unknown
+     */
+    public synchronized long predict(String fingerprint)
+    {
+        Double estimate = estimates.get(fingerprint);
+        return estimate == null ? -1 : estimate.longValue();
+    }
+
+    /**
+     * Record the runtime of a finished job
+     */
+    public synchronized void record(String fingerprint, long runtimeMs)
+    {
+        if (runtimeMs < 0) {
+            return;
+        }
+        Double estimate = estimates.get(fingerprint);
+        if (estimate == null) {
+            estimates.put(fingerprint, (double) runtimeMs);
+        }
+        else {
+            estimates.put(fingerprint, alpha * runtimeMs + (1.0 - alpha) * estimate);
+        }
+    }
+
+    public synchronized int size()
+    {
+        return estimates.size();
+    }
+
+    public static String fingerprint(String sql, Job.Type type)
+    {
+        String normalized = JobResultCache.normalizeSql(sql, type);
+        StringBuilder sb = new StringBuilder(normalized.length() + 16);
+        sb.append(type).append(':');
+        int i = 0;
+        int len = normalized.length();
+        while (i < len) {
+            char c = normalized.charAt(i);
+            if (c == '\'') {
+                // string literal
+                i++;
+                while (i < len) {
+                    char q = normalized.charAt(i++);
+                    if (q == '\\') {
+                        i++;
+                    }
+                    else if (q == '\'') {
+                        break;
+                    }
+                }
+                sb.append('?');
+            }
+            else if (c == '"' || c == '`') {
+                // quoted identifier is kept
+                int end = normalized.indexOf(c, i + 1);
+                end = end < 0 ? len : end + 1;
+                sb.append(normalized, i, end);
+                i = end;
+            }
+            else if (Character.isDigit(c) && (i == 0 || !isIdentifierPart(normalized.charAt(i - 1)))) {
+                // number literal
+                while (i < len && (Character.isDigit(normalized.charAt(i)) || normalized.charAt(i) == '.')) {
+                    i++;
+                }
+                sb.append('?');
+            }
+            else {
+                sb.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIdentifierPart(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.client.TreasureDataClient;
+import com.treasure_data.model.Job;
+import com.treasure_data.model.JobSummary;
+import com.treasure_data.model.ListJobs;
+import com.treasuredata.jdbc.DriverExecutor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls the status of all running jobs of the driver.
+ *
+ * Each watched job has its own poll schedule. The jobs due at the same time
+ * are checked together: if two or more of them belong to the same account,
+ * even from different connections, the recent jobs of the account are
+ * listed with one listJobs call, and only the jobs that are not in the list
+ * are checked with showJobStatus. The future of a job is completed when the
+ * job is finished. A failed status call is retried with a backoff, and the
+ * watch fails after the max number of retries in a row.
+ *
+ * The poll loop runs on a daemon thread of its own while jobs are watched,
+ * so that it never waits for a thread of the driver executor. It hands the
+ * status calls to the worker threads, so that a slow call delays only the
+ * jobs it checks.
+ */
+public class JobStatusPoller
+{
+    private static final Logger LOG = Logger.getLogger(JobStatusPoller.class.getName());
+
+    private static final JobStatusPoller INSTANCE = new JobStatusPoller(2, 20, 200,
+            5, new Backoff(1000, 30000, 2.0, 0.5));
+
+    public static JobStatusPoller getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private final int batchThreshold;
+    private final int minListSize;
+    private final int maxListSize;
+    private final int maxRetries;
+    private final Backoff retryBackoff;
+
+    private final Object lock = new Object();
+    private final List<Watch> watches = new ArrayList<Watch>();
+    private boolean running = false;
+
+    /**
+     * @param batchThreshold min number of due jobs of a client that are
+     * checked with listJobs
+     * @param minListSize min number of recent jobs listed by listJobs
+     * @param maxListSize max number of recent jobs listed by listJobs
+     * @param maxRetries max number of failed status calls of a job in a row
+     * @param retryBackoff wait times before the retries of a status call
+     */
+    JobStatusPoller(int batchThreshold, int minListSize, int maxListSize, int maxRetries, Backoff retryBackoff)
+    {
+        this.batchThreshold = batchThreshold;
+        this.minListSize = minListSize;
+        this.maxListSize = maxListSize;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * A watched job. get() returns the final status of the job: SUCCESS,
+     * ERROR or KILLED.
+     */
+    public class Watch
+            implements Future<JobSummary.Status>
+    {
+        private final TreasureDataClient client;
+        private final String account;
+        private final Job job;
+        private final JobPollSchedule schedule;
+        private final long startedAt;
+        // guarded by the lock of the poller
+        private long nextPollAt;
+        private boolean polling = false;
+        // failed status calls in a row, used by the polling thread
+        private int failures = 0;
+
+        // guarded by this
+        private boolean done = false;
+        private boolean cancelled = false;
+        private JobSummary.Status status;
+        private Throwable error;
+        private long finishedAt;
+
+        Watch(TreasureDataClient client, String account, Job job, JobPollSchedule schedule, long startedAt)
+        {
+            this.client = client;
+            this.account = account;
+            this.job = job;
+            this.schedule = schedule;
+            this.startedAt = startedAt;
+            this.nextPollAt = System.currentTimeMillis();
+        }
+
+        public Job getJob()
+        {
+            return job;
+        }
+
+        /**
+         * Returns the time when the job was found finished
+         */
+        public synchronized long getFinishedAt()
+        {
+            return finishedAt;
+        }
+
+        private synchronized boolean complete(JobSummary.Status status, Throwable error)
+        {
+            if (done) {
+                return false;
+            }
+            this.status = status;
+            this.error = error;
+            this.finishedAt = System.currentTimeMillis();
+            this.done = true;
+            notifyAll();
+            return true;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            synchronized (this) {
+                if (done) {
+                    return false;
+                }
+                cancelled = true;
+                done = true;
+                notifyAll();
+            }
+            unwatch(this);
+            return true;
+        }
+
+        public synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone()
+        {
+            return done;
+        }
+
+        public synchronized JobSummary.Status get()
+                throws InterruptedException, ExecutionException
+        {
+            while (!done) {
+                wait();
+            }
+            return result();
+        }
+
+        public synchronized JobSummary.Status get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+            while (!done) {
+                long rest = deadline - System.currentTimeMillis();
+                if (rest <= 0) {
+                    throw new TimeoutException("job " + job.getJobID() + " is not finished in " + timeout + " " + unit);
+                }
+                wait(rest);
+            }
+            return result();
+        }
+
+        private JobSummary.Status result()
+                throws ExecutionException
+        {
+            if (cancelled) {
+                throw new CancellationException("job " + job.getJobID());
+            }
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return status;
+        }
+    }
+
+    /**
+     * Start watching a submitted job
+     *
+     * @param client client of the account that submitted the job
+     * @param account key of the account, e.g. ClientRegistry.key(config).
+     * The jobs of an account are listed together.
+     * @param job the job
+     * @param schedule wait times between the polls
+     * @param startedAt time when the job was submitted
+     */
+    public Watch watch(TreasureDataClient client, String account, Job job, JobPollSchedule schedule, long startedAt)
+    {
+        Watch w = new Watch(client, account, job, schedule, startedAt);
+        synchronized (lock) {
+            watches.add(w);
+            if (!running) {
+                running = true;
+                Thread t = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try {
+                            pollLoop();
+                        }
+                        catch (RuntimeException e) {
+                            LOG.severe("job status poller stopped: " + e);
+                            synchronized (lock) {
+                                running = false;
+                            }
+                        }
+                    }
+                }, "td-jdbc-job-status-poller");
+                t.setDaemon(true);
+                t.start();
+            }
+            lock.notifyAll();
+        }
+        return w;
+    }
+
+    private void unwatch(Watch w)
+    {
+        synchronized (lock) {
+            watches.remove(w);
+        }
+    }
+
+    /**
+     * Returns the number of the watched jobs
+     */
+    public int getWatchCount()
+    {
+        synchronized (lock) {
+            return watches.size();
+        }
+    }
+
+    private void pollLoop()
+    {
+        while (true) {
+            List<Watch> due = new ArrayList<Watch>();
+            synchronized (lock) {
+                try {
+                    if (watches.isEmpty()) {
+                        // the thread stops if no jobs are watched for a while
+                        lock.wait(60 * 1000);
+                        if (watches.isEmpty()) {
+                            running = false;
+                            return;
+                        }
+                        continue;
+                    }
+                    long now = System.currentTimeMillis();
+                    long next = Long.MAX_VALUE;
+                    for (Watch w : watches) {
+                        if (w.polling) {
+                            continue;
+                        }
+                        if (w.nextPollAt <= now) {
+                            w.polling = true;
+                            due.add(w);
+                        }
+                        else {
+                            next = Math.min(next, w.nextPollAt);
+                        }
+                    }
+                    if (due.isEmpty()) {
+                        // woken up by a new watch or a finished poll
+                        lock.wait(next == Long.MAX_VALUE ? 0 : next - now);
+                        continue;
+                    }
+                }
+                catch (InterruptedException e) {
+                    running = false;
+                    return;
+                }
+            }
+            poll(due);
+        }
+    }
+
+    /**
+     * Check the status of the due jobs on the worker threads
+     */
+    void poll(List<Watch> due)
+    {
+        // the jobs of the same account are listed together
+        Map<String, List<Watch>> byAccount = new LinkedHashMap<String, List<Watch>>();
+        for (Watch w : due) {
+            List<Watch> ws = byAccount.get(w.account);
+            if (ws == null) {
+                ws = new ArrayList<Watch>();
+                byAccount.put(w.account, ws);
+            }
+            ws.add(w);
+        }
+
+        for (final List<Watch> ws : byAccount.values()) {
+            if (ws.size() < batchThreshold) {
+                for (Watch w : ws) {
+                    check(w);
+                }
+                continue;
+            }
+            dispatch("td-jdbc-job-status-list", new Runnable()
+            {
+                public void run()
+                {
+                    Map<String, JobSummary.Status> listed;
+                    try {
+                        listed = listJobStatuses(ws.get(0).client, ws.size());
+                    }
+                    catch (RuntimeException e) {
+                        LOG.warning("cannot list jobs: " + e);
+                        listed = null;
+                    }
+                    for (Watch w : ws) {
+                        JobSummary.Status stat = listed != null ? listed.get(w.job.getJobID()) : null;
+                        if (stat != null) {
+                            w.failures = 0;
+                            update(w, stat);
+                        }
+                        else {
+                            check(w);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the status of the job with showJobStatus on a worker thread
+     */
+    private void check(final Watch w)
+    {
+        dispatch("td-jdbc-job-status", new Runnable()
+        {
+            public void run()
+            {
+                JobSummary.Status stat;
+                try {
+                    stat = w.client.showJobStatus(w.job);
+                }
+                catch (ClientException e) {
+                    if (++w.failures > maxRetries) {
+                        LOG.warning("cannot get the status of job " + w.job.getJobID() + ": " + e.getMessage());
+                        finish(w, null, e);
+                    }
+                    else {
+                        long wait = retryBackoff.getWaitTimeMs(w.failures - 1);
+                        LOG.warning("cannot get the status of job " + w.job.getJobID() + ", retry in " + wait + " ms: " + e.getMessage());
+                        reschedule(w, wait);
+                    }
+                    return;
+                }
+                catch (RuntimeException e) {
+                    LOG.warning("cannot get the status of job " + w.job.getJobID() + ": " + e);
+                    finish(w, null, e);
+                    return;
+                }
+                w.failures = 0;
+                update(w, stat);
+            }
+        });
+    }
+
+    /**
+     * Run a status call. Overridden by tests to run it in the calling thread.
+     */
+    void dispatch(String threadName, Runnable call)
+    {
+        DriverExecutor.getInstance().getSharedScope().submit(threadName, call);
+    }
+
+    private void update(Watch w, JobSummary.Status stat)
+    {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Job status: " + w.job.getJobID() + " " + stat);
+        }
+
+        if (stat == JobSummary.Status.SUCCESS
+                || stat == JobSummary.Status.ERROR
+                || stat == JobSummary.Status.KILLED) {
+            finish(w, stat, null);
+        }
+        else {
+            long now = System.currentTimeMillis();
+            reschedule(w, w.schedule.nextWaitTimeMs(now - w.startedAt));
+        }
+    }
+
+    private void reschedule(Watch w, long waitMs)
+    {
+        synchronized (lock) {
+            w.nextPollAt = System.currentTimeMillis() + waitMs;
+            w.polling = false;
+            lock.notifyAll();
+        }
+    }
+
+    private void finish(Watch w, JobSummary.Status stat, Throwable error)
+    {
+        unwatch(w);
+        w.complete(stat, error);
+    }
+
+    /**
+     * Returns the status of the recent jobs of the account, or null if they
+     * cannot be listed.
+     */
+    private Map<String, JobSummary.Status> listJobStatuses(TreasureDataClient client, int jobs)
+    {
+        int size = Math.min(maxListSize, Math.max(minListSize, jobs * 2));
+        try {
+            ListJobs<JobSummary> list = client.listJobs(0, size - 1);
+            if (list == null || list.getJobs() == null) {
+                return null;
+            }
+            Map<String, JobSummary.Status> statuses = new HashMap<String, JobSummary.Status>();
+            for (JobSummary js : list.getJobs()) {
+                if (js.getStatus() != null) {
+                    statuses.put(js.getJobID(), js.getStatus());
+                }
+            }
+            return statuses;
+        }
+        catch (ClientException e) {
+            LOG.warning("cannot list jobs: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.model.DatabaseSummary;
+import com.treasure_data.model.Job;
+import com.treasure_data.model.JobSummary;
+import com.treasure_data.model.TableSummary;
+import com.treasuredata.jdbc.DriverExecutor;
+import com.treasuredata.jdbc.TDConnection;
+import com.treasuredata.jdbc.TDResultSetBase;
+import com.treasuredata.jdbc.TDResultSetMetaData;
+import org.msgpack.unpacker.Unpacker;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * ClientAPI that connects to Treasure Data when it is used first. The client
+ * is created and the credentials are checked by the first call that needs
+ * the API, or in the background by {@link #connectAsync()}.
+ */
+public class LazyClientAPI
+        implements ClientAPI
+{
+    private static final Logger LOG = Logger.getLogger(LazyClientAPI.class.getName());
+
+    private final TDConnection conn;
+
+    // replaced if the connection fails so that the next call tries again
+    private volatile FutureTask<ClientAPI> connect;
+
+    public LazyClientAPI(TDConnection conn)
+    {
+        this.conn = conn;
+        this.connect = newConnectTask();
+    }
+
+    private FutureTask<ClientAPI> newConnectTask()
+    {
+        return new FutureTask<ClientAPI>(new Callable<ClientAPI>()
+        {
+            public ClientAPI call()
+                    throws Exception
+            {
+                return newClientAPI(conn);
+            }
+        });
+    }
+
+    protected ClientAPI newClientAPI(TDConnection conn)
+            throws Exception
+    {
+        return new TDClientAPI(conn);
+    }
+
+    /**
+     * Connect in the background so that the first call does not wait for
+     * the authentication
+     */
+    public void connectAsync()
+    {
+        DriverExecutor.getInstance().getSharedScope().submit("td-jdbc-connect", connect);
+    }
+
+    /**
+     * Returns true if the client is created
+     */
+    public boolean isConnected()
+    {
+        FutureTask<ClientAPI> task = connect;
+        if (!task.isDone() || task.isCancelled()) {
+            return false;
+        }
+        try {
+            task.get();
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the client, connecting in this thread unless it is being done
+     * in the background
+     */
+    private ClientAPI get()
+            throws ClientException
+    {
+        FutureTask<ClientAPI> task = connect;
+        // does nothing if it is already running or done
+        task.run();
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        }
+        catch (CancellationException e) {
+            throw new ClientException("Connection is closed");
+        }
+        catch (ExecutionException e) {
+            synchronized (this) {
+                if (connect == task) {
+                    connect = newConnectTask();
+                }
+            }
+            LOG.warning("cannot connect to Treasure Data: " + e.getCause());
+            if (e.getCause() instanceof ClientException) {
+                throw (ClientException) e.getCause();
+            }
+            throw new ClientException(e.getCause());
+        }
+    }
+
+    public void ping()
+            throws ClientException
+    {
+        get().ping();
+    }
+
+    public List<DatabaseSummary> showDatabases()
+            throws ClientException
+    {
+        return get().showDatabases();
+    }
+
+    public DatabaseSummary showDatabase()
+            throws ClientException
+    {
+        return get().showDatabase();
+    }
+
+    public List<TableSummary> showTables()
+            throws ClientException
+    {
+        return get().showTables();
+    }
+
+    public List<TableSummary> showTables(String database)
+            throws ClientException
+    {
+        return get().showTables(database);
+    }
+
+    public TDResultSetBase select(String sql)
+            throws ClientException
+    {
+        return get().select(sql);
+    }
+
+    public TDResultSetBase select(String sql, int queryTimeout)
+            throws ClientException
+    {
+        return get().select(sql, queryTimeout);
+    }
+
+    public TDResultSetMetaData getMetaDataWithSelect1()
+    {
+        // does not need the API
+        return TDClientAPI.getMetaDataWithSelect1(conn.getConfig().type);
+    }
+
+    public boolean flush()
+    {
+        if (!isConnected()) {
+            return false;
+        }
+        try {
+            return get().flush();
+        }
+        catch (ClientException e) {
+            return false;
+        }
+    }
+
+    public JobSummary waitJobResult(Job job)
+            throws ClientException
+    {
+        return get().waitJobResult(job);
+    }
+
+    public Future<JobSummary> waitJobResultAsync(Job job)
+    {
+        try {
+            return get().waitJobResultAsync(job);
+        }
+        catch (final ClientException e) {
+            FutureTask<JobSummary> failed = new FutureTask<JobSummary>(new Callable<JobSummary>()
+            {
+                public JobSummary call()
+                        throws ClientException
+                {
+                    throw e;
+                }
+            });
+            failed.run();
+            return failed;
+        }
+    }
+
+    public boolean killJob(Job job)
+            throws ClientException
+    {
+        return get().killJob(job);
+    }
+
+    public Unpacker getJobResult(Job job)
+            throws ClientException
+    {
+        return get().getJobResult(job);
+    }
+
+    public ExtUnpacker getJobResult2(Job job)
+            throws ClientException
+    {
+        return get().getJobResult2(job);
+    }
+
+    /**
+     * Close the client if it is created. A connection in the background is
+     * waited for.
+     */
+    public void close()
+            throws ClientException
+    {
+        FutureTask<ClientAPI> task = connect;
+        if (task.cancel(false)) {
+            // not connected yet
+            return;
+        }
+        ClientAPI api;
+        try {
+            api = task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        }
+        catch (CancellationException e) {
+            return;
+        }
+        catch (ExecutionException e) {
+            // nothing to close
+            return;
+        }
+        api.close();
+    }
+}
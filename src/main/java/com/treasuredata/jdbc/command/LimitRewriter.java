@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pushes Statement#setMaxRows down to the query engine by adding a LIMIT
+ * clause to the SQL, so that the job does not compute and store more rows
+ * than the result set returns.
+ *
+ * The SQL is rewritten only if it is a single SELECT (or WITH ... SELECT)
+ * statement whose top level ends without a LIMIT or with a LIMIT of a plain
+ * number. Anything else is returned as is.
+ */
+public class LimitRewriter
+{
+    private LimitRewriter()
+    {
+    }
+
+    private static class Token
+    {
+        private final String text;
+        private final int start;
+        private final int end;
+
+        Token(String text, int start, int end)
+        {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean isWord(String word)
+        {
+            return text.equalsIgnoreCase(word);
+        }
+    }
+
+    /**
+     * Returns the SQL that returns at most the given number of rows, or the
+     * given SQL if it cannot be safely rewritten
+     *
+     * @param sql SQL statement
+     * @param limit max number of rows. 0 means no limit.
+     */
+    public static String rewrite(String sql, int limit)
+    {
+        if (sql == null || limit <= 0) {
+            return sql;
+        }
+
+        List<Token> tokens = topLevelTokens(sql);
+        if (tokens == null || tokens.isEmpty()) {
+            return sql;
+        }
+        if (!tokens.get(0).isWord("select") && !tokens.get(0).isWord("with")) {
+            return sql;
+        }
+
+        int limitIndex = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (t.isWord("insert") || t.isWord("create") || t.isWord("fetch") || t.isWord("offset")) {
+                // not a plain query, or its rows are counted in another way
+                return sql;
+            }
+            if (t.isWord("limit")) {
+                limitIndex = i;
+            }
+        }
+
+        if (limitIndex < 0) {
+            // the semicolon and the comments after the last token are cut
+            return sql.substring(0, tokens.get(tokens.size() - 1).end) + "\nLIMIT " + limit;
+        }
+
+        // LIMIT n must be the last clause
+        if (limitIndex != tokens.size() - 2) {
+            return sql;
+        }
+        Token value = tokens.get(limitIndex + 1);
+        long current;
+        try {
+            current = Long.parseLong(value.text);
+        }
+        catch (NumberFormatException e) {
+            return sql;
+        }
+        if (current <= limit) {
+            return sql;
+        }
+        return sql.substring(0, value.start) + limit + sql.substring(value.end);
+    }
+
+    /**
+     * Split the top level of the SQL into tokens. A quoted string or
+     * identifier is one token, and the words inside of parentheses are
+     * skipped. Comments are ignored.
+     *
+     * @return the tokens, or null if the SQL has more than one statement or
+     * its quotes or parentheses are not balanced
+     */
+    static List<Token> topLevelTokens(String sql)
+    {
+        List<Token> tokens = new ArrayList<Token>();
+        int depth = 0;
+        boolean terminated = false;
+        int len = sql.length();
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            }
+            else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                while (i < len && sql.charAt(i) != '\n') {
+                    i++;
+                }
+            }
+            else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                int close = sql.indexOf("*/", i + 2);
+                if (close < 0) {
+                    return null;
+                }
+                i = close + 2;
+            }
+            else if (c == '\'' || c == '"' || c == '`') {
+                if (terminated) {
+                    return null;
+                }
+                int start = i;
+                i = skipQuoted(sql, i);
+                if (i < 0) {
+                    return null;
+                }
+                if (depth == 0) {
+                    tokens.add(new Token(sql.substring(start, i), start, i));
+                }
+            }
+            else if (terminated) {
+                // another statement after the semicolon
+                if (c != ';') {
+                    return null;
+                }
+                i++;
+            }
+            else if (c == '(') {
+                depth++;
+                i++;
+            }
+            else if (c == ')') {
+                if (--depth < 0) {
+                    return null;
+                }
+                if (depth == 0) {
+                    tokens.add(new Token(")", i, i + 1));
+                }
+                i++;
+            }
+            else if (c == ';') {
+                if (depth > 0) {
+                    return null;
+                }
+                terminated = true;
+                i++;
+            }
+            else if (Character.isLetterOrDigit(c) || c == '_') {
+                int start = i;
+                while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+                    i++;
+                }
+                if (depth == 0) {
+                    tokens.add(new Token(sql.substring(start, i), start, i));
+                }
+            }
+            else {
+                if (depth == 0) {
+                    tokens.add(new Token(String.valueOf(c), i, i + 1));
+                }
+                i++;
+            }
+        }
+        if (depth != 0) {
+            return null;
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the index after the closing quote, or -1 if it is not closed
+     */
+    private static int skipQuoted(String sql, int start)
+    {
+        char quote = sql.charAt(start);
+        int i = start + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote == '\'') {
+                i += 2;
+            }
+            else if (c == quote) {
+                // a doubled quote is an escaped quote
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                }
+                else {
+                    return i + 1;
+                }
+            }
+            else {
+                i++;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.model.DatabaseSummary;
+import com.treasuredata.jdbc.Config;
+import com.treasuredata.jdbc.DriverExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the metadata of the databases of an account: the list of the
+ * databases, and the schema snapshot of the tables of each database.
+ * Connections to the same API server with the same credentials share one
+ * cache. The caches of the {@value #MAX_INSTANCES} most recently used
+ * accounts are kept.
+ *
+ * Entries expire after the TTL given by the caller. The cache is invalidated
+ * when a statement of the driver changes the schema, e.g. CREATE TABLE, and
+ * nothing is cached until the job of the statement finishes. A load that has
+ * started before the invalidation is not cached either.
+ */
+public class MetaDataCache
+{
+    private static final Logger LOG = Logger.getLogger(MetaDataCache.class.getName());
+
+    // max number of the accounts whose caches are kept
+    static final int MAX_INSTANCES = 100;
+
+    // the least recently used cache is dropped
+    private static final Map<String, MetaDataCache> INSTANCES = new LinkedHashMap<String, MetaDataCache>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MetaDataCache> eldest)
+        {
+            return size() > MAX_INSTANCES;
+        }
+    };
+
+    /**
+     * Returns the cache of the account of the configuration
+     */
+    public static MetaDataCache getInstance(Config config)
+    {
+        return getInstance(ClientRegistry.key(config));
+    }
+
+    static synchronized MetaDataCache getInstance(String key)
+    {
+        MetaDataCache cache = INSTANCES.get(key);
+        if (cache == null) {
+            cache = new MetaDataCache();
+            INSTANCES.put(key, cache);
+        }
+        return cache;
+    }
+
+    private interface Loader<T>
+    {
+        T load()
+                throws ClientException;
+    }
+
+    private static class Loaded<T>
+    {
+        private final T value;
+        private final long loadedAt;
+
+        Loaded(T value, long loadedAt)
+        {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * A cached value. Concurrent calls wait for one load.
+     */
+    private class Slot<T>
+    {
+        private volatile Loaded<T> loaded;
+
+        /**
+         * Returns the cached value even if it is expired, or null
+         */
+        T peek()
+        {
+            Loaded<T> l = loaded;
+            return l == null ? null : l.value;
+        }
+
+        /**
+         * Set the value unless it is already loaded
+         *
+         * @return true if the value is set
+         */
+        synchronized boolean restore(T value)
+        {
+            if (loaded != null || hasPendingChanges()) {
+                return false;
+            }
+            loaded = new Loaded<T>(value, System.currentTimeMillis());
+            return true;
+        }
+
+        T get(long ttlMs, Loader<T> loader)
+                throws ClientException
+        {
+            Loaded<T> l = loaded;
+            if (isFresh(l, ttlMs)) {
+                hitCount.incrementAndGet();
+                return l.value;
+            }
+
+            synchronized (this) {
+                l = loaded;
+                if (isFresh(l, ttlMs)) {
+                    hitCount.incrementAndGet();
+                    return l.value;
+                }
+                missCount.incrementAndGet();
+                long gen = generation.get();
+                boolean cacheable = !hasPendingChanges();
+                T value = loader.load();
+                if (cacheable && gen == generation.get()) {
+                    loaded = new Loaded<T>(value, System.currentTimeMillis());
+                }
+                return value;
+            }
+        }
+    }
+
+    private volatile Slot<List<DatabaseSummary>> databases = new Slot<List<DatabaseSummary>>();
+
+    // database name -> schema snapshot
+    private final ConcurrentHashMap<String, Slot<SchemaSnapshot>> schemas = new ConcurrentHashMap<String, Slot<SchemaSnapshot>>();
+
+    // incremented by invalidate()
+    private final AtomicLong generation = new AtomicLong();
+
+    // jobs of the statements that change the schema
+    private final List<Future<?>> pendingChanges = new ArrayList<Future<?>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    // null if the snapshots are not saved
+    private volatile SchemaSnapshotStore store;
+
+    // databases whose saved snapshot is already read by this process
+    private final Set<String> restored = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Create a cache that is not shared with other connections
+     */
+    public MetaDataCache()
+    {
+    }
+
+    private static boolean isFresh(Loaded<?> loaded, long ttlMs)
+    {
+        return loaded != null && System.currentTimeMillis() - loaded.loadedAt < ttlMs;
+    }
+
+    /**
+     * Returns the databases got by ClientAPI#showDatabases(). They are
+     * loaded by the given API if they are not cached or older than the TTL.
+     */
+    public List<DatabaseSummary> getDatabases(final ClientAPI api, long ttlMs)
+            throws ClientException
+    {
+        return databases.get(ttlMs, new Loader<List<DatabaseSummary>>()
+        {
+            public List<DatabaseSummary> load()
+                    throws ClientException
+            {
+                List<DatabaseSummary> list = api.showDatabases();
+                return list == null ? new ArrayList<DatabaseSummary>() : list;
+            }
+        });
+    }
+
+    /**
+     * Returns the summary of the given database in the cached database list,
+     * or null if it is not found
+     */
+    public DatabaseSummary getDatabase(String catalog, ClientAPI api, long ttlMs)
+            throws ClientException
+    {
+        for (DatabaseSummary ds : getDatabases(api, ttlMs)) {
+            if (ds.getName().equals(catalog)) {
+                return ds;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the schema snapshot of the tables got by
+     * ClientAPI#showTables(String). It is loaded by the given API if it is not
+     * cached or older than the TTL.
+     */
+    public SchemaSnapshot getSchema(String catalog, ClientAPI api, long ttlMs)
+            throws ClientException
+    {
+        Slot<SchemaSnapshot> slot = getSchemaSlot(catalog);
+        return slot.get(ttlMs, newSchemaLoader(catalog, api, slot));
+    }
+
+    private Slot<SchemaSnapshot> getSchemaSlot(String catalog)
+    {
+        String key = String.valueOf(catalog);
+        Slot<SchemaSnapshot> slot = schemas.get(key);
+        if (slot == null) {
+            slot = new Slot<SchemaSnapshot>();
+            Slot<SchemaSnapshot> prev = schemas.putIfAbsent(key, slot);
+            if (prev != null) {
+                slot = prev;
+            }
+        }
+        return slot;
+    }
+
+    private Loader<SchemaSnapshot> newSchemaLoader(final String catalog, final ClientAPI api,
+            final Slot<SchemaSnapshot> slot)
+    {
+        return new Loader<SchemaSnapshot>()
+        {
+            public SchemaSnapshot load()
+                    throws ClientException
+            {
+                // the tables that are not updated keep their parsed columns
+                SchemaSnapshot snapshot = SchemaSnapshot.build(catalog, api.showTables(catalog), slot.peek());
+                LOG.fine(String.format("loaded the schema of database %s: tables = %d",
+                        catalog, snapshot.getTableCount()));
+                saveAsync(snapshot);
+                return snapshot;
+            }
+        };
+    }
+
+    /**
+     * Save the schema snapshots to the given store, and read them from it
+     * by {@link #restore(String, ClientAPI)}
+     */
+    public void setStore(SchemaSnapshotStore store)
+    {
+        this.store = store;
+    }
+
+    private void saveAsync(final SchemaSnapshot snapshot)
+    {
+        final SchemaSnapshotStore s = store;
+        if (s == null) {
+            return;
+        }
+        DriverExecutor.getInstance().getSharedScope().submit("td-jdbc-metadata-snapshot", new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    s.save(snapshot);
+                }
+                catch (IOException e) {
+                    LOG.warning("cannot save the schema snapshot of database " + snapshot.getCatalog() + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the saved snapshot of the database into the cache, then check it
+     * against the tables of the database in the background. The tables that
+     * are updated since the snapshot are parsed again. The saved snapshot is
+     * read once per process.
+     */
+    public void restore(String catalog, ClientAPI api)
+    {
+        SchemaSnapshotStore s = store;
+        if (s == null || !restored.add(String.valueOf(catalog))) {
+            return;
+        }
+        SchemaSnapshot snapshot = s.load(catalog);
+        final Slot<SchemaSnapshot> slot = getSchemaSlot(catalog);
+        if (snapshot == null || !slot.restore(snapshot)) {
+            return;
+        }
+
+        final Loader<SchemaSnapshot> loader = newSchemaLoader(catalog, api, slot);
+        final String name = catalog;
+        submitOrSkip("td-jdbc-metadata-revalidate", new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    // load again regardless of the TTL
+                    slot.get(0, loader);
+                }
+                catch (Exception e) {
+                    LOG.warning("failed to revalidate the schema snapshot of database " + name + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the task on a thread of its own, or skip it if all the threads of
+     * the long-running tasks are in use. The skipped work is done by the
+     * next call that needs it.
+     */
+    private static void submitOrSkip(String threadName, Runnable task)
+    {
+        try {
+            DriverExecutor.getInstance().getSharedScope().submitLongRunning(threadName, task);
+        }
+        catch (RejectedExecutionException e) {
+            LOG.info("no thread for " + threadName + ", skip it");
+        }
+    }
+
+    /**
+     * Start loading the database list and the schema snapshot of the given
+     * database in the background. The calls that come while loading wait for
+     * it instead of loading by themselves. A failure is logged, and the next
+     * call tries again.
+     */
+    public void preloadAsync(final String catalog, final ClientAPI api, final long ttlMs)
+    {
+        submitOrSkip("td-jdbc-metadata-preload", new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    getDatabases(api, ttlMs);
+                }
+                catch (Exception e) {
+                    LOG.warning("failed to preload the databases: " + e.getMessage());
+                }
+            }
+        });
+        submitOrSkip("td-jdbc-metadata-preload", new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    getSchema(catalog, api, ttlMs);
+                }
+                catch (Exception e) {
+                    LOG.warning("failed to preload the tables of database " + catalog + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the cached metadata. The next call loads it again.
+     */
+    public void invalidate()
+    {
+        invalidate(null);
+    }
+
+    /**
+     * Drop the cached metadata of all the databases, and do not cache it
+     * again until the given job finishes. The statement may change another
+     * database than the one of the connection.
+     *
+     * @param job the result of the job that changes the schema, or null if
+     * it is already finished
+     */
+    public void invalidate(Future<?> job)
+    {
+        if (job != null) {
+            synchronized (pendingChanges) {
+                pendingChanges.add(job);
+            }
+        }
+        generation.incrementAndGet();
+        databases = new Slot<List<DatabaseSummary>>();
+        schemas.clear();
+    }
+
+    private boolean hasPendingChanges()
+    {
+        synchronized (pendingChanges) {
+            Iterator<Future<?>> it = pendingChanges.iterator();
+            while (it.hasNext()) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+            return !pendingChanges.isEmpty();
+        }
+    }
+
+    /**
+     * Returns true if the statement may change the tables or the columns of
+     * a database, e.g. CREATE TABLE, DROP TABLE and ALTER TABLE
+     */
+    public static boolean isSchemaChange(String sql)
+    {
+        if (sql == null) {
+            return false;
+        }
+        String word = firstWord(sql).toLowerCase();
+        return word.equals("create") || word.equals("drop") || word.equals("alter");
+    }
+
+    /**
+     * Returns the first word of the SQL after the white spaces and the
+     * comments
+     */
+    private static String firstWord(String sql)
+    {
+        int len = sql.length();
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            }
+            else if (sql.startsWith("--", i)) {
+                int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? len : eol + 1;
+            }
+            else if (sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? len : close + 2;
+            }
+            else {
+                break;
+            }
+        }
+        int start = i;
+        while (i < len && Character.isLetter(sql.charAt(i))) {
+            i++;
+        }
+        return sql.substring(start, i);
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled form of a JDBC search pattern of the DatabaseMetaData methods,
+ * where '%' matches any string and '_' matches any character. The wildcards
+ * are escaped by '\'.
+ *
+ * A pattern without wildcards is compared as it is, and a pattern with only a
+ * trailing '%' is compared by its prefix. The other patterns are compiled into
+ * a regex once.
+ */
+public class NamePattern
+{
+    private static final int CACHE_MAX_ENTRIES = 1000;
+
+    private static final ConcurrentHashMap<String, NamePattern> CACHE = new ConcurrentHashMap<String, NamePattern>();
+
+    /**
+     * Matches any name. It is the pattern of null.
+     */
+    public static final NamePattern ALL = new NamePattern("", false, null);
+
+    // the literal characters before the first wildcard
+    private final String prefix;
+    private final boolean literal;
+    private final Pattern regex;
+
+    private NamePattern(String prefix, boolean literal, Pattern regex)
+    {
+        this.prefix = prefix;
+        this.literal = literal;
+        this.regex = regex;
+    }
+
+    /**
+     * Returns the compiled pattern. Patterns compiled from the same string
+     * share one instance.
+     *
+     * @param pattern JDBC search pattern, or null to match any name
+     */
+    public static NamePattern compile(String pattern)
+    {
+        if (pattern == null || pattern.equals("%")) {
+            return ALL;
+        }
+
+        NamePattern p = CACHE.get(pattern);
+        if (p != null) {
+            return p;
+        }
+
+        StringBuilder literalPart = new StringBuilder(pattern.length());
+        StringBuilder regex = new StringBuilder(pattern.length() + 16);
+        String prefix = null;
+        boolean prefixOnly = false;
+        boolean escaped = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (!escaped && c == '\\') {
+                escaped = true;
+                continue;
+            }
+            if (escaped || (c != '%' && c != '_')) {
+                escaped = false;
+                literalPart.append(c);
+                continue;
+            }
+
+            if (prefix == null) {
+                prefix = literalPart.toString();
+                prefixOnly = c == '%' && i == pattern.length() - 1;
+            }
+            if (literalPart.length() > 0) {
+                regex.append(Pattern.quote(literalPart.toString()));
+                literalPart.setLength(0);
+            }
+            regex.append(c == '%' ? ".*" : ".");
+        }
+
+        if (prefix == null) {
+            p = new NamePattern(literalPart.toString(), true, null);
+        }
+        else if (prefixOnly) {
+            p = new NamePattern(prefix, false, null);
+        }
+        else {
+            if (literalPart.length() > 0) {
+                regex.append(Pattern.quote(literalPart.toString()));
+            }
+            p = new NamePattern(prefix, false, Pattern.compile(regex.toString(), Pattern.DOTALL));
+        }
+
+        if (CACHE.size() >= CACHE_MAX_ENTRIES) {
+            CACHE.clear();
+        }
+        NamePattern prev = CACHE.putIfAbsent(pattern, p);
+        return prev != null ? prev : p;
+    }
+
+    /**
+     * Returns the literal characters before the first wildcard. A matching
+     * name starts with it.
+     */
+    public String getPrefix()
+    {
+        return prefix;
+    }
+
+    /**
+     * Returns true if the pattern has no wildcards
+     */
+    public boolean isLiteral()
+    {
+        return literal;
+    }
+
+    public boolean matches(String name)
+    {
+        if (name == null) {
+            return false;
+        }
+        if (literal) {
+            return prefix.equals(name);
+        }
+        if (!name.startsWith(prefix)) {
+            return false;
+        }
+        return regex == null || regex.matcher(name).matches();
+    }
+}
@@ -28,6 +28,9 @@ import com.treasure_data.model.TableSummary;
 import org.msgpack.unpacker.Unpacker;
 
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class NullClientAPI
         implements ClientAPI
@@ -36,6 +39,11 @@ public class NullClientAPI
     {
     }
 
+    public void ping()
+            throws ClientException
+    {
+    }
+
     public List<DatabaseSummary> showDatabases()
             throws ClientException
     {
@@ -54,6 +62,13 @@ public class NullClientAPI
         return null;
     }
 
+    // every database has the tables of showTables()
+    public List<TableSummary> showTables(String database)
+            throws ClientException
+    {
+        return showTables();
+    }
+
     public boolean flush()
     {
         return true;
@@ -82,6 +97,25 @@ public class NullClientAPI
         return null;
     }
 
+    public Future<JobSummary> waitJobResultAsync(Job job)
+    {
+        FutureTask<JobSummary> f = new FutureTask<JobSummary>(new Callable<JobSummary>()
+        {
+            public JobSummary call()
+            {
+                return null;
+            }
+        });
+        f.run();
+        return f;
+    }
+
+    public boolean killJob(Job job)
+            throws ClientException
+    {
+        return false;
+    }
+
     public Unpacker getJobResult(Job job)
             throws ClientException
     {
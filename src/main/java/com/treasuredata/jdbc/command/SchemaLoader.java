@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.model.DatabaseSummary;
+import com.treasuredata.jdbc.DriverExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the databases and the schema snapshots of their tables for
+ * DatabaseMetaData, through the metadata cache if it is enabled.
+ *
+ * The snapshots of many databases are loaded in parallel by a bounded number
+ * of workers on the shared executor, and returned in the order of the
+ * requested databases.
+ */
+public class SchemaLoader
+{
+    private final ClientAPI api;
+    // null if the metadata is not cached
+    private final MetaDataCache cache;
+    private final long cacheTtlMs;
+    private final int parallelism;
+
+    /**
+     * @param api the API of the connection
+     * @param cache the metadata cache, or null if it is disabled
+     * @param cacheTtlMs TTL of the cached metadata
+     * @param parallelism max number of databases that are loaded at the same
+     * time
+     */
+    public SchemaLoader(ClientAPI api, MetaDataCache cache, long cacheTtlMs, int parallelism)
+    {
+        this.api = api;
+        this.cache = cache;
+        this.cacheTtlMs = cacheTtlMs;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the databases of the account in name order
+     */
+    public List<DatabaseSummary> loadDatabases()
+            throws ClientException
+    {
+        List<DatabaseSummary> list = cache != null ? cache.getDatabases(api, cacheTtlMs) : api.showDatabases();
+        DatabaseSummary[] sorted = list == null ?
+                new DatabaseSummary[0] : list.toArray(new DatabaseSummary[list.size()]);
+        Arrays.sort(sorted, new Comparator<DatabaseSummary>()
+        {
+            public int compare(DatabaseSummary d1, DatabaseSummary d2)
+            {
+                return d1.getName().compareTo(d2.getName());
+            }
+        });
+        return Arrays.asList(sorted);
+    }
+
+    /**
+     * Returns the summary of the database of the connection
+     */
+    public DatabaseSummary loadDatabase(String catalog)
+            throws ClientException
+    {
+        return cache != null ? cache.getDatabase(catalog, api, cacheTtlMs) : api.showDatabase();
+    }
+
+    /**
+     * Returns the snapshot of the tables of the database
+     *
+     * @param catalog database name, or null for the database of the
+     * connection
+     */
+    public SchemaSnapshot load(String catalog)
+            throws ClientException
+    {
+        if (cache != null) {
+            return cache.getSchema(catalog, api, cacheTtlMs);
+        }
+        return SchemaSnapshot.build(catalog, api.showTables(catalog));
+    }
+
+    /**
+     * Returns the snapshots of the databases in the order of the given names.
+     * If a database fails, the databases that are not started yet are skipped
+     * and the first error is thrown.
+     */
+    public List<SchemaSnapshot> loadAll(final List<String> catalogs)
+            throws ClientException
+    {
+        if (catalogs.size() <= 1 || parallelism == 1) {
+            List<SchemaSnapshot> snapshots = new ArrayList<SchemaSnapshot>(catalogs.size());
+            for (String catalog : catalogs) {
+                snapshots.add(load(catalog));
+            }
+            return snapshots;
+        }
+
+        final SchemaSnapshot[] snapshots = new SchemaSnapshot[catalogs.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        Runnable worker = new Runnable()
+        {
+            public void run()
+            {
+                int i;
+                while (errors.isEmpty() && (i = next.getAndIncrement()) < snapshots.length) {
+                    try {
+                        snapshots[i] = load(catalogs.get(i));
+                    }
+                    catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            }
+        };
+
+        // the calling thread is one of the workers
+        int workers = Math.min(parallelism, snapshots.length);
+        List<DriverExecutor.Task<Void>> tasks = new ArrayList<DriverExecutor.Task<Void>>(workers - 1);
+        DriverExecutor.Scope scope = DriverExecutor.getInstance().getSharedScope();
+        for (int i = 1; i < workers; i++) {
+            tasks.add(scope.submit("td-jdbc-metadata-loader", worker));
+        }
+        worker.run();
+        // every catalog is taken, so the loaders that have not started yet
+        // are dropped instead of waited for in the queue of the workers
+        for (DriverExecutor.Task<Void> task : tasks) {
+            task.cancel(false);
+        }
+        for (DriverExecutor.Task<Void> task : tasks) {
+            task.awaitTermination(Long.MAX_VALUE);
+            if (Thread.currentThread().isInterrupted()) {
+                for (DriverExecutor.Task<Void> t : tasks) {
+                    t.cancel(true);
+                }
+                throw new ClientException(new InterruptedException());
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            Exception e = errors.get(0);
+            if (e instanceof ClientException) {
+                throw (ClientException) e;
+            }
+            throw new ClientException(e);
+        }
+        return Arrays.asList(snapshots);
+    }
+}
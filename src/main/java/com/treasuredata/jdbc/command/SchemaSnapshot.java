@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.model.Table;
+import com.treasure_data.model.TableSummary;
+import com.treasuredata.jdbc.model.TDColumn;
+import org.json.simple.JSONValue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The tables and the columns of a database at some point in time. The table
+ * names are sorted, and the schema of each table is parsed once when the
+ * snapshot is built, so that the metadata calls are answered by range lookups
+ * over the sorted names.
+ *
+ * The update time of each table is kept, so that a newer snapshot reuses the
+ * parsed columns of the tables that are not updated.
+ */
+public class SchemaSnapshot
+{
+    private final String catalog;
+    private final long createdAt;
+    // sorted by name
+    private final String[] tableNames;
+    // update time of each table, or null if unknown
+    private final String[] updatedAts;
+    // columns of each table in ordinal order
+    private final List<List<TDColumn>> columns;
+
+    private SchemaSnapshot(String catalog, long createdAt, String[] tableNames, String[] updatedAts,
+            List<List<TDColumn>> columns)
+    {
+        this.catalog = catalog;
+        this.createdAt = createdAt;
+        this.tableNames = tableNames;
+        this.updatedAts = updatedAts;
+        this.columns = columns;
+    }
+
+    /**
+     * Build the snapshot of the tables got by ClientAPI#showTables()
+     *
+     * @param catalog database name of the tables
+     * @param tables tables of the database, or null if none
+     */
+    public static SchemaSnapshot build(String catalog, List<TableSummary> tables)
+    {
+        return build(catalog, tables, null);
+    }
+
+    /**
+     * Build the snapshot of the tables. The columns of the tables whose
+     * update time is the same as in the previous snapshot are reused instead
+     * of parsing the schema again.
+     *
+     * @param catalog database name of the tables
+     * @param tables tables of the database, or null if none
+     * @param previous older snapshot of the database, or null
+     */
+    public static SchemaSnapshot build(String catalog, List<TableSummary> tables, SchemaSnapshot previous)
+    {
+        List<TableSummary> sorted = tables == null ?
+                new ArrayList<TableSummary>() : new ArrayList<TableSummary>(tables);
+        Collections.sort(sorted, new Comparator<TableSummary>()
+        {
+            public int compare(TableSummary t1, TableSummary t2)
+            {
+                return t1.getName().compareTo(t2.getName());
+            }
+        });
+
+        String[] names = new String[sorted.size()];
+        String[] updatedAts = new String[sorted.size()];
+        List<List<TDColumn>> columns = new ArrayList<List<TDColumn>>(sorted.size());
+        for (int i = 0; i < names.length; i++) {
+            TableSummary t = sorted.get(i);
+            names[i] = t.getName();
+            updatedAts[i] = t.getUpdatedAt();
+            List<TDColumn> cols = previous == null ? null : previous.unchangedColumns(t.getName(), t.getUpdatedAt());
+            columns.add(cols != null ? cols : parseColumns(catalog, t));
+        }
+        return new SchemaSnapshot(catalog, System.currentTimeMillis(), names, updatedAts, columns);
+    }
+
+    /**
+     * Returns the columns of the table if it has the given update time, or
+     * null if it is changed
+     */
+    private List<TDColumn> unchangedColumns(String tableName, String updatedAt)
+    {
+        if (updatedAt == null) {
+            return null;
+        }
+        int i = Arrays.binarySearch(tableNames, tableName);
+        if (i < 0 || !updatedAt.equals(updatedAts[i])) {
+            return null;
+        }
+        return columns.get(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<TDColumn> parseColumns(String catalog, TableSummary t)
+    {
+        List<List<String>> schemaFields;
+        try {
+            schemaFields = (List<List<String>>) JSONValue.parse(t.getSchema());
+        }
+        catch (Exception e) {
+            return Collections.emptyList();
+        }
+        if (schemaFields == null) {
+            return Collections.emptyList();
+        }
+
+        List<TDColumn> list = new ArrayList<TDColumn>(schemaFields.size() + 1);
+        boolean hasTimeColumn = false;
+        for (List<String> schemaField : schemaFields) {
+            String fname = schemaField.get(0);
+            if (fname.equals("time")) {
+                hasTimeColumn = true;
+            }
+            list.add(new TDColumn(fname, t.getName(), catalog, schemaField.get(1),
+                    "comment", list.size() + 1));
+        }
+        // log tables have the time column even if it is not in the schema
+        if (t.getType() == Table.Type.LOG && !hasTimeColumn) {
+            list.add(new TDColumn("time", t.getName(), catalog, "int", "comment", list.size() + 1));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    public String getCatalog()
+    {
+        return catalog;
+    }
+
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    public int getTableCount()
+    {
+        return tableNames.length;
+    }
+
+    /**
+     * Returns the names of the tables that match the pattern in name order
+     */
+    public List<String> findTables(NamePattern tableNamePattern)
+    {
+        List<String> found = new ArrayList<String>();
+        int[] range = range(tableNamePattern);
+        for (int i = range[0]; i < range[1]; i++) {
+            if (tableNamePattern.matches(tableNames[i])) {
+                found.add(tableNames[i]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the columns that match the patterns, ordered by the table name
+     * and the ordinal position
+     */
+    public List<TDColumn> findColumns(NamePattern tableNamePattern, NamePattern columnNamePattern)
+    {
+        List<TDColumn> found = new ArrayList<TDColumn>();
+        int[] range = range(tableNamePattern);
+        for (int i = range[0]; i < range[1]; i++) {
+            if (!tableNamePattern.matches(tableNames[i])) {
+                continue;
+            }
+            List<TDColumn> cols = columns.get(i);
+            if (columnNamePattern == NamePattern.ALL) {
+                found.addAll(cols);
+                continue;
+            }
+            for (TDColumn c : cols) {
+                if (columnNamePattern.matches(c.getColumnName())) {
+                    found.add(c);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the range [from, to) of the table names that start with the
+     * prefix of the pattern
+     */
+    private int[] range(NamePattern pattern)
+    {
+        String prefix = pattern.getPrefix();
+        if (prefix.isEmpty()) {
+            return new int[] {0, tableNames.length};
+        }
+
+        int from = Arrays.binarySearch(tableNames, prefix);
+        if (pattern.isLiteral()) {
+            return from >= 0 ? new int[] {from, from + 1} : new int[] {0, 0};
+        }
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < tableNames.length && tableNames[to].startsWith(prefix)) {
+            to++;
+        }
+        return new int[] {from, to};
+    }
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Write the snapshot with the parsed columns, so that reading it back
+     * does not parse the table schemas again
+     */
+    public void writeTo(DataOutput out)
+            throws IOException
+    {
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, catalog);
+        out.writeLong(createdAt);
+        out.writeInt(tableNames.length);
+        for (int i = 0; i < tableNames.length; i++) {
+            out.writeUTF(tableNames[i]);
+            writeString(out, updatedAts[i]);
+            List<TDColumn> cols = columns.get(i);
+            out.writeInt(cols.size());
+            for (TDColumn c : cols) {
+                out.writeUTF(c.getColumnName());
+                out.writeUTF(c.getType());
+            }
+        }
+    }
+
+    /**
+     * Read the snapshot written by {@link #writeTo(DataOutput)}
+     *
+     * @throws IOException if the data is broken or written in another format
+     */
+    public static SchemaSnapshot readFrom(DataInput in)
+            throws IOException
+    {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unknown schema snapshot format: " + version);
+        }
+        String catalog = readString(in);
+        long createdAt = in.readLong();
+        int tables = in.readInt();
+        String[] names = new String[tables];
+        String[] updatedAts = new String[tables];
+        List<List<TDColumn>> columns = new ArrayList<List<TDColumn>>(tables);
+        for (int i = 0; i < tables; i++) {
+            names[i] = in.readUTF();
+            updatedAts[i] = readString(in);
+            int n = in.readInt();
+            List<TDColumn> cols = new ArrayList<TDColumn>(n);
+            for (int j = 0; j < n; j++) {
+                String name = in.readUTF();
+                String type = in.readUTF();
+                cols.add(new TDColumn(name, names[i], catalog, type, "comment", j + 1));
+            }
+            columns.add(Collections.unmodifiableList(cols));
+        }
+        return new SchemaSnapshot(catalog, createdAt, names, updatedAts, columns);
+    }
+
+    private static void writeString(DataOutput out, String s)
+            throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInput in)
+            throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasuredata.jdbc.Config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Schema snapshots saved in a local directory, so that a new process can
+ * answer the metadata calls before it lists the tables again.
+ *
+ * There is one file for each database of an account. The file name is a
+ * digest of the API server, the credentials and the database name.
+ */
+public class SchemaSnapshotStore
+{
+    private static final Logger LOG = Logger.getLogger(SchemaSnapshotStore.class.getName());
+
+    private static final String SUFFIX = ".schema.gz";
+
+    private final File dir;
+    private final String accountKey;
+
+    /**
+     * @param dir directory of the snapshot files
+     * @param accountKey identifies the API server and the credentials
+     */
+    public SchemaSnapshotStore(File dir, String accountKey)
+    {
+        this.dir = dir;
+        this.accountKey = accountKey;
+    }
+
+    /**
+     * Returns the store of the account of the configuration
+     */
+    public static SchemaSnapshotStore newInstance(File dir, Config config)
+    {
+        return new SchemaSnapshotStore(dir, ClientRegistry.key(config));
+    }
+
+    File file(String catalog)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(accountKey.getBytes("UTF-8"));
+            md.update((byte) 0);
+            md.update(String.valueOf(catalog).getBytes("UTF-8"));
+            byte[] digest = md.digest();
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(dir, sb.toString() + SUFFIX);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the saved snapshot of the database, or null if it is not saved
+     * or cannot be read
+     */
+    public SchemaSnapshot load(String catalog)
+    {
+        File f = file(catalog);
+        if (!f.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(f))));
+            try {
+                SchemaSnapshot snapshot = SchemaSnapshot.readFrom(in);
+                LOG.fine(String.format("loaded the schema snapshot of database %s: tables = %d",
+                        catalog, snapshot.getTableCount()));
+                return snapshot;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            LOG.warning("cannot read the schema snapshot " + f + ": " + e.getMessage());
+            f.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Save the snapshot of the database. The file is replaced at once, so
+     * that other processes do not read a partial file.
+     */
+    public void save(SchemaSnapshot snapshot)
+            throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create the schema snapshot directory: " + dir);
+        }
+        File f = file(snapshot.getCatalog());
+        File tmp = File.createTempFile(f.getName(), ".tmp", dir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(tmp))));
+            try {
+                snapshot.writeTo(out);
+            }
+            finally {
+                out.close();
+            }
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                throw new IOException("cannot write the schema snapshot: " + f);
+            }
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+}
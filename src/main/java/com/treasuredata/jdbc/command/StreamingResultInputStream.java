@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasuredata.jdbc.DriverExecutor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * An InputStream that reads a job result from the HTTP stream on a background
+ * thread into a bounded buffer, so that the caller can decode rows while the
+ * download is still running.
+ */
+public class StreamingResultInputStream
+        extends InputStream
+{
+    private static final Logger LOG = Logger.getLogger(StreamingResultInputStream.class.getName());
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] EOF = new byte[0];
+
+    private final InputStream source;
+    private final long expectedSize;
+    private final BlockingQueue<byte[]> chunks;
+    private final DriverExecutor.Task<Void> reader;
+
+    private volatile boolean closed = false;
+    private volatile IOException error = null;
+
+    private byte[] current = null;
+    private int pos = 0;
+    private boolean eof = false;
+
+    /**
+     * @param source the stream of the job result
+     * @param expectedSize the size of the job result, or -1 if unknown
+     * @param bufferSize max number of bytes buffered ahead of the reader
+     */
+    public StreamingResultInputStream(InputStream source, long expectedSize, int bufferSize)
+    {
+        this(source, expectedSize, bufferSize, DriverExecutor.getInstance().getSharedScope());
+    }
+
+    /**
+     * @param source the stream of the job result
+     * @param expectedSize the size of the job result, or -1 if unknown
+     * @param bufferSize max number of bytes buffered ahead of the reader
+     * @param executor executor of the reader
+     */
+    public StreamingResultInputStream(InputStream source, long expectedSize, int bufferSize, DriverExecutor.Scope executor)
+    {
+        this.source = source;
+        this.expectedSize = expectedSize;
+        this.chunks = new ArrayBlockingQueue<byte[]>(Math.max(1, bufferSize / CHUNK_SIZE));
+        this.reader = executor.submitLongRunning("td-jdbc-result-stream", new Runnable()
+        {
+            public void run()
+            {
+                pump();
+            }
+        });
+    }
+
+    private void pump()
+    {
+        long readSize = 0;
+        try {
+            while (!closed) {
+                byte[] buf = new byte[CHUNK_SIZE];
+                int len = 0;
+                int n = 0;
+                while (len < buf.length && (n = source.read(buf, len, buf.length - len)) != -1) {
+                    len += n;
+                }
+                if (len > 0) {
+                    readSize += len;
+                    if (len < buf.length) {
+                        byte[] b = new byte[len];
+                        System.arraycopy(buf, 0, b, 0, len);
+                        buf = b;
+                    }
+                    put(buf);
+                }
+                if (n == -1) {
+                    break;
+                }
+            }
+            if (!closed && expectedSize >= 0 && readSize < expectedSize) {
+                throw new IOException("Cannot read all data of the job result: read "
+                        + readSize + " of " + expectedSize + " bytes");
+            }
+        }
+        catch (IOException e) {
+            if (!closed) {
+                LOG.warning("failed to read the job result stream: " + e.getMessage());
+                error = e;
+            }
+        }
+        catch (InterruptedException e) {
+            // closed
+        }
+        finally {
+            try {
+                source.close();
+            }
+            catch (IOException e) {
+                // ignore
+            }
+            try {
+                put(EOF);
+            }
+            catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void put(byte[] chunk)
+            throws InterruptedException
+    {
+        while (!closed) {
+            if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private boolean fill()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("stream is already closed");
+        }
+        while (!eof && (current == null || pos >= current.length)) {
+            byte[] chunk;
+            try {
+                chunk = chunks.take();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while reading the job result");
+            }
+            if (chunk == EOF) {
+                eof = true;
+                current = null;
+            }
+            else {
+                current = chunk;
+                pos = 0;
+            }
+        }
+        if (eof && error != null) {
+            throw new IOException("Cannot read all data of the job result", error);
+        }
+        return !eof;
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (!fill()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return current == null ? 0 : current.length - pos;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        chunks.clear();
+        reader.cancel(true);
+        // unblock the reader thread if it is waiting on the socket
+        try {
+            source.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -21,6 +21,7 @@ package com.treasuredata.jdbc.command;
 import com.treasure_data.client.ClientException;
 import com.treasure_data.client.TreasureDataClient;
 import com.treasuredata.jdbc.Config;
+import com.treasuredata.jdbc.DriverExecutor;
 import com.treasuredata.jdbc.TDConnection;
 import com.treasuredata.jdbc.TDResultSet;
 import com.treasuredata.jdbc.TDResultSetBase;
@@ -34,6 +35,7 @@ import com.treasure_data.model.Job;
 import com.treasure_data.model.JobResult;
 import com.treasure_data.model.JobResult2;
 import com.treasure_data.model.JobSummary;
+import com.treasure_data.model.KillJobRequest;
 import com.treasure_data.model.SubmitJobRequest;
 import com.treasure_data.model.SubmitJobResult;
 import com.treasure_data.model.TableSummary;
@@ -51,7 +53,16 @@ import java.io.OutputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
@@ -67,18 +78,93 @@ public class TDClientAPI
 
     private final Database database;
 
-    private int maxRows = 5000;
+    private final int maxRows;
+
+    private final JobResultCache resultCache;
+
+    // key of the account, used by the result cache and the job status poller
+    private final String account;
+
+    // background work of the result sets of this connection
+    private final DriverExecutor.Scope executor;
+
+    // jobs whose results will be put into the result cache
+    private final Map<String, PendingCacheEntry> pendingCacheEntries = new ConcurrentHashMap<String, PendingCacheEntry>();
+
+    // runtimes of finished jobs, shared by all connections
+    private static final JobRuntimePredictor RUNTIME_PREDICTOR = new JobRuntimePredictor(1000, 0.3);
+
+    // submitted jobs whose status is not yet known to be finished
+    private final Map<String, SubmittedJob> submittedJobs = new ConcurrentHashMap<String, SubmittedJob>();
+
+    // jobs killed by cancel or query timeout. Their results are not downloaded.
+    // A job is removed when its watch is cancelled or ends, or its download ends.
+    private final Set<String> killedJobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static class SubmittedJob
+    {
+        private final String fingerprint;
+        private final long submittedAt;
+
+        SubmittedJob(String fingerprint, long submittedAt)
+        {
+            this.fingerprint = fingerprint;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    private static class PendingCacheEntry
+    {
+        private final String key;
+        private volatile String resultSchema;
+
+        PendingCacheEntry(String key)
+        {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A job whose result is read from the result cache
+     */
+    private static class CachedJob
+            extends Job
+    {
+        private final JobResultCache.Entry entry;
+
+        CachedJob(JobResultCache.Entry entry)
+        {
+            super(entry.getJobID());
+            this.entry = entry;
+        }
+    }
 
     public TDClientAPI(TDConnection conn)
             throws SQLException
     {
-        this(conn.getConfig(), new TreasureDataClient(conn.getConfig().toProperties()), conn.getDatabase(), conn.getMaxRows());
+        this(conn.getConfig(), newClient(conn.getConfig()), conn.getDatabase(), conn.getMaxRows());
+    }
+
+    private static TreasureDataClient newClient(Config config)
+            throws SQLException
+    {
+        if (!config.clientShared) {
+            return new TreasureDataClient(config.toProperties());
+        }
+        try {
+            // the proxy settings are used by the client
+            config.apply();
+            return ClientRegistry.getInstance().getClient(config);
+        }
+        catch (ClientException e) {
+            throw new SQLException(e);
+        }
     }
 
     TDClientAPI(Config config, TreasureDataClient client, Database database)
         throws SQLException
     {
-        this(config, client, database, 5000);
+        this(config, client, database, config.maxRows);
     }
 
     TDClientAPI(Config config, TreasureDataClient client, Database database, int maxRows)
@@ -88,6 +174,7 @@ public class TDClientAPI
         this.client = client;
         this.database = database;
         this.maxRows = maxRows;
+        this.executor = DriverExecutor.getInstance().newScope("connection to " + (database != null ? database.getName() : null));
         try {
             // Enable proxy configuration
             config.apply();
@@ -96,6 +183,28 @@ public class TDClientAPI
         catch (ClientException e) {
             throw new SQLException(e);
         }
+
+        if (config.resultCacheDir.isDefined()) {
+            try {
+                this.resultCache = JobResultCache.getInstance(new File(config.resultCacheDir.get()),
+                        config.resultCacheTtlMs, config.resultCacheMaxSize);
+            }
+            catch (IOException e) {
+                throw new SQLException(e);
+            }
+        }
+        else {
+            this.resultCache = null;
+        }
+        this.account = ClientRegistry.key(config);
+    }
+
+    /**
+     * Returns the result cache, or null if it is disabled.
+     */
+    public JobResultCache getResultCache()
+    {
+        return resultCache;
     }
 
     private void checkCredentials()
@@ -109,6 +218,13 @@ public class TDClientAPI
         client.authenticate(new AuthenticateRequest(config.user, config.password));
     }
 
+    public void ping()
+            throws ClientException
+    {
+        // only the latest job of the account, instead of all the databases
+        client.listJobs(0, 0);
+    }
+
     public List<DatabaseSummary> showDatabases()
             throws ClientException
     {
@@ -133,6 +249,15 @@ public class TDClientAPI
         return client.listTables(database);
     }
 
+    public List<TableSummary> showTables(String database)
+            throws ClientException
+    {
+        if (database == null || database.equals(this.database.getName())) {
+            return showTables();
+        }
+        return client.listTables(new Database(database));
+    }
+
     public boolean drop(String table)
             throws ClientException
     {
@@ -158,24 +283,55 @@ public class TDClientAPI
     {
         TDResultSetBase rs = null;
 
+        String cacheKey = null;
+        if (resultCache != null && JobResultCache.isCacheable(sql)) {
+            cacheKey = JobResultCache.key(account, sql, database.getName(), config.type);
+            JobResultCache.Entry entry = resultCache.get(cacheKey);
+            if (entry != null) {
+                LOG.info("use the cached result of job " + entry.getJobID());
+                return newResultSet(new CachedJob(entry), queryTimeout);
+            }
+        }
+
         Job job = new Job(database, config.type, sql, null);
         SubmitJobRequest request = new SubmitJobRequest(job);
+        long submittedAt = System.currentTimeMillis();
         SubmitJobResult result = client.submitJob(request);
         job = result.getJob();
 
         if (job != null) {
-            rs = new TDResultSet(this, maxRows, job, queryTimeout);
+            submittedJobs.put(job.getJobID(),
+                    new SubmittedJob(JobRuntimePredictor.fingerprint(sql, config.type), submittedAt));
+            if (cacheKey != null) {
+                pendingCacheEntries.put(job.getJobID(), new PendingCacheEntry(cacheKey));
+            }
+            rs = newResultSet(job, queryTimeout);
+        }
+        return rs;
+    }
+
+    private TDResultSet newResultSet(Job job, int queryTimeout)
+    {
+        TDResultSet rs = new TDResultSet(this, maxRows, job, queryTimeout);
+        rs.setExecutor(executor);
+        if (config.resultPrefetch) {
+            rs.setPrefetchBatches(config.resultPrefetchBatches);
         }
         return rs;
     }
 
     public TDResultSetMetaData getMetaDataWithSelect1()
+    {
+        return getMetaDataWithSelect1(config.type);
+    }
+
+    static TDResultSetMetaData getMetaDataWithSelect1(Job.Type type)
     {
         //  handle Presto/Hive differences
         //  https://console.treasuredata.com/jobs/24746696 Hive
         //  https://console.treasuredata.com/jobs/24745829 Presto
         List<String> names, types;
-        switch(config.type) {
+        switch(type) {
             case HIVE:
                 names = Arrays.asList("_c0");
                 types = Arrays.asList("int");
@@ -186,57 +342,207 @@ public class TDClientAPI
                 break;
             default:
                 // pig, etc.
-                throw new UnsupportedOperationException("Unsupported job type: " + config.type);
+                throw new UnsupportedOperationException("Unsupported job type: " + type);
         }
         return new TDResultSetMetaData(new ArrayList<String>(names), new ArrayList<String>(types));
     }
 
     public JobSummary waitJobResult(Job job)
             throws ClientException
+    {
+        try {
+            return waitJobResultAsync(job).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException("Interrupted while waiting for job " + job.getJobID(), e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof ClientException) {
+                throw (ClientException) e.getCause();
+            }
+            throw new ClientException(e.getCause());
+        }
+    }
+
+    public Future<JobSummary> waitJobResultAsync(Job job)
     {
         String jobID = job.getJobID();
 
-        while (true) {
-            JobSummary.Status stat = client.showJobStatus(job);
+        if (job instanceof CachedJob) {
+            // the result is already there
+            return new JobResultFuture(job, null, null);
+        }
 
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.fine("Job status: " + stat);
-            }
+        SubmittedJob submitted = submittedJobs.get(jobID);
+        long startedAt = submitted != null ? submitted.submittedAt : System.currentTimeMillis();
+        JobStatusPoller.Watch watch = JobStatusPoller.getInstance().watch(client, account, job,
+                newJobPollSchedule(submitted), startedAt);
+        return new JobResultFuture(job, watch, submitted);
+    }
 
-            if (stat == JobSummary.Status.SUCCESS) {
-                LOG.fine("Job worked successfully.");
-                break;
+    /**
+     * Waits for the status of the job from the job status poller, then gets
+     * the summary of the finished job in the thread that waits.
+     */
+    private class JobResultFuture
+            implements Future<JobSummary>
+    {
+        private final Job job;
+        private final JobStatusPoller.Watch watch;
+        private final SubmittedJob submitted;
+        private JobSummary summary;
+
+        JobResultFuture(Job job, JobStatusPoller.Watch watch, SubmittedJob submitted)
+        {
+            this.job = job;
+            this.watch = watch;
+            this.submitted = submitted;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if (watch == null || !watch.cancel(mayInterruptIfRunning)) {
+                return false;
             }
-            else if (stat == JobSummary.Status.ERROR) {
-                JobSummary js = client.showJob(job);
-                String msg = String.format(
-                        "Job '%s' failed: got Job status 'error'", jobID);
-                LOG.severe(msg);
-                if (js.getDebug() != null) {
-                    msg = msg + "\n" + js.getDebug().getStderr();
-                    LOG.severe("cmdout:");
-                    LOG.severe(js.getDebug().getCmdout());
-                    LOG.severe("stderr:");
-                    LOG.severe(js.getDebug().getStderr());
-                }
-                throw new ClientException(msg);
+            submittedJobs.remove(job.getJobID());
+            // no download follows
+            killedJobs.remove(job.getJobID());
+            return true;
+        }
+
+        public boolean isCancelled()
+        {
+            return watch != null && watch.isCancelled();
+        }
+
+        public boolean isDone()
+        {
+            return watch == null || watch.isDone();
+        }
+
+        public JobSummary get()
+                throws InterruptedException, ExecutionException
+        {
+            if (watch == null) {
+                return toJobSummary(null);
             }
-            else if (stat == JobSummary.Status.KILLED) {
-                String msg = String.format(
-                        "Job '%s' failed: got Job status 'killed'", jobID);
-                LOG.severe(msg);
-                throw new ClientException(msg);
+            return toJobSummary(watch.get());
+        }
+
+        public JobSummary get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if (watch == null) {
+                return toJobSummary(null);
             }
+            return toJobSummary(watch.get(timeout, unit));
+        }
 
+        private synchronized JobSummary toJobSummary(JobSummary.Status stat)
+                throws ExecutionException
+        {
+            if (summary != null) {
+                return summary;
+            }
             try {
-                Thread.sleep(2 * 1000);
+                summary = finishJob(job, stat, watch, submitted);
+                return summary;
+            }
+            catch (ClientException e) {
+                throw new ExecutionException(e);
             }
-            catch (InterruptedException e) {
-                return null;
+        }
+    }
+
+    private JobSummary finishJob(Job job, JobSummary.Status stat, JobStatusPoller.Watch watch, SubmittedJob submitted)
+            throws ClientException
+    {
+        String jobID = job.getJobID();
+
+        if (job instanceof CachedJob) {
+            return new JobSummary(jobID, config.type, database, null, null,
+                    JobSummary.Status.SUCCESS, null, null, null,
+                    ((CachedJob) job).entry.getResultSchema());
+        }
+
+        if (stat == JobSummary.Status.SUCCESS) {
+            LOG.fine("Job worked successfully.");
+            if (submitted != null && submittedJobs.remove(jobID) != null) {
+                RUNTIME_PREDICTOR.record(submitted.fingerprint, watch.getFinishedAt() - submitted.submittedAt);
+            }
+        }
+        else if (stat == JobSummary.Status.ERROR) {
+            submittedJobs.remove(jobID);
+            killedJobs.remove(jobID);
+            JobSummary js = client.showJob(job);
+            String msg = String.format(
+                    "Job '%s' failed: got Job status 'error'", jobID);
+            LOG.severe(msg);
+            if (js.getDebug() != null) {
+                msg = msg + "\n" + js.getDebug().getStderr();
+                LOG.severe("cmdout:");
+                LOG.severe(js.getDebug().getCmdout());
+                LOG.severe("stderr:");
+                LOG.severe(js.getDebug().getStderr());
+            }
+            throw new ClientException(msg);
+        }
+        else if (stat == JobSummary.Status.KILLED) {
+            submittedJobs.remove(jobID);
+            killedJobs.remove(jobID);
+            String msg = String.format(
+                    "Job '%s' failed: got Job status 'killed'", jobID);
+            LOG.severe(msg);
+            throw new ClientException(msg);
+        }
+
+        JobSummary js = client.showJob(job);
+        PendingCacheEntry pending = pendingCacheEntries.get(jobID);
+        if (pending != null && js != null) {
+            pending.resultSchema = js.getResultSchema();
+        }
+        return js;
+    }
+
+    private JobPollSchedule newJobPollSchedule(SubmittedJob submitted)
+    {
+        Backoff backoff = new Backoff(config.jobPollWaitTimeMs, config.jobPollMaxWaitTimeMs,
+                config.jobPollMultiplier, config.jobPollJitter);
+        long predicted = -1;
+        if (config.jobPollPredict && submitted != null) {
+            predicted = RUNTIME_PREDICTOR.predict(submitted.fingerprint);
+            if (predicted > 0) {
+                LOG.fine("predicted job runtime: " + predicted + " ms");
             }
         }
+        return new JobPollSchedule(backoff, predicted, config.jobPollPredictMaxWaitTimeMs);
+    }
+
+    public boolean killJob(Job job)
+            throws ClientException
+    {
+        if (job instanceof CachedJob) {
+            return false;
+        }
+        String jobID = job.getJobID();
+        killedJobs.add(jobID);
+        submittedJobs.remove(jobID);
+        pendingCacheEntries.remove(jobID);
+        LOG.info("kill job " + jobID);
+        client.killJob(new KillJobRequest(job));
+        return true;
+    }
 
-        return client.showJob(job);
+    private void checkNotKilled(Job job, File file)
+            throws ClientException
+    {
+        if (killedJobs.contains(job.getJobID())) {
+            if (file != null && file.delete()) {
+                LOG.info("deleted temp file: " + file.getAbsolutePath());
+            }
+            throw new ClientException("Job '" + job.getJobID() + "' was cancelled");
+        }
     }
 
     public Unpacker getJobResult(Job job)
@@ -251,61 +557,139 @@ public class TDClientAPI
     public ExtUnpacker getJobResult2(Job job)
             throws ClientException
     {
-        File file = null;
+        if (job instanceof CachedJob) {
+            JobResultCache.Entry entry = ((CachedJob) job).entry;
+            try {
+                LOG.info("read the cached result: path = " + entry.getFile().getAbsolutePath());
+                return new ExtUnpacker(entry.getFile(), createUnpacker(new BufferedInputStream(
+                        entry.openStream())), false);
+            }
+            catch (IOException e) {
+                throw new ClientException(e);
+            }
+        }
+
+        try {
+            return downloadJobResult(job);
+        }
+        finally {
+            // nothing checks the kill after the download
+            killedJobs.remove(job.getJobID());
+        }
+    }
+
+    private ExtUnpacker downloadJobResult(Job job)
+            throws ClientException
+    {
+        checkNotKilled(job, null);
+
+        // the result is kept in the temp file if it will be cached
+        PendingCacheEntry pending = pendingCacheEntries.remove(job.getJobID());
+
+        if (config.resultStreaming && pending == null) {
+            try {
+                LOG.info("stream the result");
+                return streamJobResult(job);
+            }
+            catch (ClientException e) {
+                logStreamingFallback(e);
+            }
+            catch (IOException e) {
+                logStreamingFallback(e);
+            }
+            catch (RuntimeException e) {
+                logStreamingFallback(e);
+            }
+        }
+
+        File file;
+        try {
+            file = File.createTempFile("td-jdbc-", ".tmp");
+            LOG.info("created temp file: " + file.getAbsolutePath());
+        }
+        catch (IOException e) {
+            throw new ClientException(e);
+        }
+
+        // the download state is kept over re-tries to resume from the last byte
+        JobResultDownloader downloader = newJobResultDownloader();
+        JobResultDownloader.Download download = new JobResultDownloader.Download(job.getJobID(), file);
+        Backoff backoff = new Backoff(config.resultRetryWaitTimeMs, config.resultRetryMaxWaitTimeMs, 2.0, 0.5);
 
         int retryCount = 0;
         int retryCountThreshold = config.resultRetryCountThreshold;
         while (true) {
             try {
                 LOG.info("write the result to file");
-                file = writeJobResultToTempFile(job);
+                writeJobResultToFile(job, downloader, download);
                 break;
             }
             catch (Throwable t) {
                 LOG.warning("cought exception: message = " + t.getMessage());
+                // a cancelled download is not re-tried
+                checkNotKilled(job, file);
                 t.printStackTrace();
 
                 // catch ClientException, IOException
                 if (!(retryCount < retryCountThreshold)) {
+                    file.delete();
                     throw new ClientException(
                             "re-try out writing: threashold = "
                                     + retryCountThreshold);
                 }
 
+                long retryWaitTime = backoff.getWaitTimeMs(retryCount);
                 retryCount++;
                 LOG.info("re-try writing: imcremented retryCount = "
                         + retryCount);
-                long retryWaitTime = config.resultRetryWaitTimeMs;
                 try {
                     LOG.info("wait for re-try: timeout = " + retryWaitTime);
                     Thread.sleep(retryWaitTime);
                 }
                 catch (InterruptedException e) {
-                    // ignore
+                    // interrupted by cancel
+                    checkNotKilled(job, file);
                 }
             }
         }
+        checkNotKilled(job, file);
 
-        if (file == null) {
-            throw new ClientException("cannot write job result: file is null.");
+        JobResultCache.Entry entry = null;
+        if (pending != null) {
+            try {
+                entry = resultCache.put(pending.key, job.getJobID(), pending.resultSchema, file);
+            }
+            catch (IOException e) {
+                LOG.warning("cannot cache the result of job " + job.getJobID() + ": " + e.getMessage());
+            }
+        }
+        boolean temporary = entry == null;
+        if (entry != null) {
+            file = entry.getFile();
         }
 
         // return the data in the temp file
         try {
             LOG.info("read the result to file: path = "
                     + file.getAbsolutePath());
-            InputStream fin = new GZIPInputStream(new BufferedInputStream(
-                    new FileInputStream(file)));
-            return new ExtUnpacker(file,
-                    new MessagePack().createUnpacker(new BufferedInputStream(
-                            fin)));
+            InputStream in = entry != null ? entry.openStream() : new FileInputStream(file);
+            return new ExtUnpacker(file, createUnpacker(new BufferedInputStream(in)), temporary);
         }
         catch (IOException e) {
+            if (temporary) {
+                file.delete();
+            }
             throw new ClientException(e);
         }
     }
 
-    private File writeJobResultToTempFile(Job job)
+    private static void logStreamingFallback(Exception e)
+    {
+        // fall back to the temp file, which supports re-try
+        LOG.warning("cannot stream the result, fall back to temp file: message = " + e.getMessage());
+    }
+
+    private ExtUnpacker streamJobResult(Job job)
             throws ClientException,
             IOException
     {
@@ -313,19 +697,100 @@ public class TDClientAPI
                 job));
         GetJobResultResult result = client.getJobResult(request);
 
-        // download data of job result and write it to temp file
-        long readSize = 0;
         long resultSize = result.getJobResult().getResultSize();
         LOG.info("check the size of the job result: size = " + resultSize);
-        InputStream rin = new BufferedInputStream(
-                ((JobResult2) result.getJobResult()).getResultInputStream());
-        File file = null;
+        InputStream rin = ((JobResult2) result.getJobResult()).getResultInputStream();
+        InputStream in;
+        try {
+            in = new StreamingResultInputStream(rin, resultSize, config.resultStreamingBufferSize, executor);
+        }
+        catch (RejectedExecutionException e) {
+            // no thread to read ahead: the unpacker reads the stream directly
+            LOG.info("no thread for the result stream of job " + job.getJobID() + ", read it without the buffer");
+            in = rin;
+        }
+        try {
+            // no temp file for the streamed result
+            return new ExtUnpacker(null, createUnpacker(in));
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static Unpacker createUnpacker(InputStream compressed)
+            throws IOException
+    {
+        InputStream fin = new GZIPInputStream(compressed);
+        return new MessagePack().createUnpacker(new BufferedInputStream(fin));
+    }
+
+    private void writeJobResultToFile(Job job, JobResultDownloader downloader,
+            JobResultDownloader.Download download)
+            throws ClientException,
+            IOException
+    {
+        if (download.isStarted()) {
+            try {
+                downloader.resume(download);
+                downloader.verify(download);
+                return;
+            }
+            catch (JobResultDownloader.RangeNotSupportedException e) {
+                LOG.warning(e.getMessage() + ": download the job result from the first byte");
+            }
+        }
+
+        GetJobResultRequest request = new GetJobResultRequest(new JobResult2(
+                job));
+        GetJobResultResult result = client.getJobResult(request);
+
+        long resultSize = result.getJobResult().getResultSize();
+        LOG.info("check the size of the job result: size = " + resultSize);
+        InputStream rin = ((JobResult2) result.getJobResult()).getResultInputStream();
+
+        if (resultSize < 0) {
+            // the size is unknown, so the download cannot be resumed
+            copyToFile(rin, resultSize, download.getFile());
+            return;
+        }
+
+        if (config.resultDownloadStreams > 1 && resultSize >= config.resultDownloadThreshold) {
+            try {
+                downloader.start(download, rin, resultSize);
+                downloader.verify(download);
+                return;
+            }
+            catch (JobResultDownloader.RangeNotSupportedException e) {
+                // download it again in a single stream
+                LOG.warning(e.getMessage());
+                result = client.getJobResult(request);
+                rin = ((JobResult2) result.getJobResult()).getResultInputStream();
+            }
+        }
+        downloader.startSingleStream(download, rin, resultSize);
+        downloader.verify(download);
+    }
+
+    JobResultDownloader newJobResultDownloader()
+    {
+        return new JobResultDownloader(config.apiConfig,
+                client.getTreasureDataCredentials().getAPIKey(), config.resultDownloadStreams,
+                config.resultDownloadTimeoutMs,
+                new Backoff(config.resultRetryWaitTimeMs, config.resultRetryMaxWaitTimeMs, 2.0, 0.5), executor);
+    }
+
+    private void copyToFile(InputStream resultInputStream, long resultSize, File file)
+            throws IOException
+    {
+        // download data of job result and write it to the file
+        long readSize = 0;
+        InputStream rin = new BufferedInputStream(resultInputStream);
         OutputStream fout = null;
         try {
-            file = File.createTempFile("td-jdbc-", ".tmp");
-            LOG.info("created temp file: " + file.getAbsolutePath());
             fout = new BufferedOutputStream(new FileOutputStream(file));
-            byte[] buf = new byte[1024];
+            byte[] buf = new byte[64 * 1024];
             int len;
             while ((len = rin.read(buf)) != -1) {
                 readSize += len;
@@ -339,7 +804,6 @@ public class TDClientAPI
             }
 
             LOG.info("finished writing file");
-            return file;
         }
         finally {
             if (fout != null) {
@@ -366,8 +830,18 @@ public class TDClientAPI
         return true;
     }
 
+    /**
+     * Returns the executor of the background work of this connection
+     */
+    public DriverExecutor.Scope getExecutor()
+    {
+        return executor;
+    }
+
     public void close()
             throws ClientException
     {
+        // running downloads and prefetches of the result sets are stopped
+        executor.close();
     }
 }
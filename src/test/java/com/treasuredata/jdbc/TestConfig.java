@@ -21,6 +21,7 @@ package com.treasuredata.jdbc;
 import org.junit.Test;
 
 import java.sql.SQLException;
+import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -179,4 +180,356 @@ public class TestConfig
             assertEquals(null, config.password);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testResultStreaming()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        {
+            Config config = Config.parseJdbcURL(url);
+            assertEquals(false, config.resultStreaming);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_RESULT_STREAMING, "true");
+            props.setProperty(Config.TD_JDBC_RESULT_STREAMING_BUFFERSIZE, "1048576");
+            Config config = Config.newConfig(url, props);
+            assertEquals(true, config.resultStreaming);
+            assertEquals(1048576, config.resultStreamingBufferSize);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_RESULT_STREAMING_BUFFERSIZE, "0");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // invalid buffer size
+            }
+        }
+    }
+
+    @Test
+    public void testResultPrefetch()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        {
+            Config config = Config.parseJdbcURL(url);
+            assertEquals(false, config.resultPrefetch);
+            assertEquals(2, config.resultPrefetchBatches);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_RESULT_PREFETCH, "true");
+            props.setProperty(Config.TD_JDBC_RESULT_PREFETCH_BATCHES, "4");
+            Config config = Config.newConfig(url, props);
+            assertEquals(true, config.resultPrefetch);
+            assertEquals(4, config.resultPrefetchBatches);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_RESULT_PREFETCH_BATCHES, "x");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // invalid number of batches
+            }
+        }
+    }
+
+    @Test
+    public void testMaxRows()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        {
+            Config config = Config.parseJdbcURL(url);
+            assertEquals(0, config.maxRows);
+            assertEquals(true, config.maxRowsPushdown);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_MAXROWS, "1000");
+            props.setProperty(Config.TD_JDBC_MAXROWS_PUSHDOWN, "false");
+            Config config = Config.newConfig(url, props);
+            assertEquals(1000, config.maxRows);
+            assertEquals(false, config.maxRowsPushdown);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_MAXROWS, "-1");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // max rows must be >= 0
+            }
+        }
+    }
+
+    @Test
+    public void testSharedClient()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        {
+            Config config = Config.parseJdbcURL(url);
+            assertEquals(true, config.clientShared);
+            assertEquals(3600000, config.credentialsTtlMs);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_CLIENT_SHARED, "false");
+            props.setProperty(Config.TD_JDBC_CREDENTIALS_TTL, "60000");
+            Config config = Config.newConfig(url, props);
+            assertEquals(false, config.clientShared);
+            assertEquals(60000, config.credentialsTtlMs);
+        }
+    }
+
+    @Test
+    public void testLazyConnection()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        {
+            Config config = Config.parseJdbcURL(url);
+            assertEquals(false, config.connectionLazy);
+            assertEquals(false, config.connectionPreconnect);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_CONNECTION_LAZY, "true");
+            props.setProperty(Config.TD_JDBC_CONNECTION_PRECONNECT, "true");
+            Config config = Config.newConfig(url, props);
+            assertEquals(true, config.connectionLazy);
+            assertEquals(true, config.connectionPreconnect);
+        }
+    }
+
+    @Test
+    public void testMetadataCache()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        {
+            Config config = Config.parseJdbcURL(url);
+            // disabled unless it is set
+            assertEquals(0, config.metadataCacheTtlMs);
+            assertEquals(false, config.metadataPreload);
+            assertEquals(false, config.metadataAllCatalogs);
+            assertEquals(8, config.metadataThreads);
+            assertEquals(false, config.metadataSnapshotDir.isDefined());
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_METADATA_CACHE_TTL, "60000");
+            props.setProperty(Config.TD_JDBC_METADATA_PRELOAD, "true");
+            props.setProperty(Config.TD_JDBC_METADATA_ALLCATALOGS, "true");
+            props.setProperty(Config.TD_JDBC_METADATA_THREADS, "16");
+            props.setProperty(Config.TD_JDBC_METADATA_SNAPSHOT_DIR, "/tmp/td-jdbc-schema");
+            Config config = Config.newConfig(url, props);
+            assertEquals(60000, config.metadataCacheTtlMs);
+            assertEquals(true, config.metadataPreload);
+            assertEquals(true, config.metadataAllCatalogs);
+            assertEquals(16, config.metadataThreads);
+            assertEquals("/tmp/td-jdbc-schema", config.metadataSnapshotDir.get());
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_METADATA_THREADS, "0");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // at least one thread
+            }
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_METADATA_CACHE_TTL, "-1");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // the TTL must be >= 0
+            }
+        }
+    }
+
+    @Test
+    public void testResultDownloadTimeout()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        assertEquals(60000, Config.parseJdbcURL(url).resultDownloadTimeoutMs);
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_RESULT_DOWNLOAD_TIMEOUT, "5000");
+            assertEquals(5000, Config.newConfig(url, props).resultDownloadTimeoutMs);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_RESULT_DOWNLOAD_TIMEOUT, "0");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // a download must time out
+            }
+        }
+    }
+
+    @Test
+    public void testBatchSize()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        assertEquals(500, Config.parseJdbcURL(url).batchSize);
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_BATCH_SIZE, "100");
+            assertEquals(100, Config.newConfig(url, props).batchSize);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_BATCH_SIZE, "0");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // at least one parameter set
+            }
+        }
+    }
+
+    @Test
+    public void testBatchMaxRows()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        assertEquals(100000, Config.parseJdbcURL(url).batchMaxRows);
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_BATCH_MAXROWS, "10");
+            assertEquals(10, Config.newConfig(url, props).batchMaxRows);
+        }
+        for (String v : new String[] {"0", "many"}) {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_BATCH_MAXROWS, v);
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // invalid
+            }
+        }
+    }
+
+    @Test
+    public void testExecutorMaxThreads()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        Config config = Config.parseJdbcURL(url);
+        // keep the limits of the driver
+        assertEquals(0, config.executorMaxThreads);
+        assertEquals(0, config.executorMaxDaemonThreads);
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_EXECUTOR_MAXTHREADS, "16");
+            props.setProperty(Config.TD_JDBC_EXECUTOR_MAXDAEMONTHREADS, "8");
+            config = Config.newConfig(url, props);
+            assertEquals(16, config.executorMaxThreads);
+            assertEquals(8, config.executorMaxDaemonThreads);
+        }
+        for (String key : new String[] {Config.TD_JDBC_EXECUTOR_MAXTHREADS, Config.TD_JDBC_EXECUTOR_MAXDAEMONTHREADS}) {
+            for (String v : new String[] {"0", "many"}) {
+                Properties props = new Properties();
+                props.setProperty("apikey", "xxxx");
+                props.setProperty(key, v);
+                try {
+                    Config.newConfig(url, props);
+                    fail();
+                }
+                catch (SQLException e) {
+                    // invalid
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testJobPoll()
+            throws Exception
+    {
+        final String url = "jdbc:td://host01:9999/db01";
+        {
+            Config config = Config.parseJdbcURL(url);
+            assertEquals(100, config.jobPollWaitTimeMs);
+            assertEquals(10000, config.jobPollMaxWaitTimeMs);
+            assertEquals(1.5, config.jobPollMultiplier, 0.0);
+            assertEquals(0.2, config.jobPollJitter, 0.0);
+            assertEquals(false, config.jobPollPredict);
+            assertEquals(60000, config.jobPollPredictMaxWaitTimeMs);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_JOB_POLL_WAITTIME, "50");
+            props.setProperty(Config.TD_JDBC_JOB_POLL_MAXWAITTIME, "3000");
+            props.setProperty(Config.TD_JDBC_JOB_POLL_MULTIPLIER, "2.0");
+            props.setProperty(Config.TD_JDBC_JOB_POLL_JITTER, "0");
+            props.setProperty(Config.TD_JDBC_JOB_POLL_PREDICT, "true");
+            props.setProperty(Config.TD_JDBC_JOB_POLL_PREDICT_MAXWAITTIME, "30000");
+            Config config = Config.newConfig(url, props);
+            assertEquals(50, config.jobPollWaitTimeMs);
+            assertEquals(3000, config.jobPollMaxWaitTimeMs);
+            assertEquals(2.0, config.jobPollMultiplier, 0.0);
+            assertEquals(0.0, config.jobPollJitter, 0.0);
+            assertEquals(true, config.jobPollPredict);
+            assertEquals(30000, config.jobPollPredictMaxWaitTimeMs);
+        }
+        {
+            Properties props = new Properties();
+            props.setProperty("apikey", "xxxx");
+            props.setProperty(Config.TD_JDBC_JOB_POLL_JITTER, "1.5");
+            try {
+                Config.newConfig(url, props);
+                fail();
+            }
+            catch (SQLException e) {
+                // jitter must be in 0.0 - 1.0
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestDriverExecutor
+{
+    @Test
+    public void testSubmit()
+            throws Exception
+    {
+        DriverExecutor executor = new DriverExecutor(2);
+        DriverExecutor.Scope scope = executor.newScope("test");
+        DriverExecutor.Task<String> task = scope.submit("td-jdbc-test", new Callable<String>()
+        {
+            public String call()
+            {
+                return Thread.currentThread().getName();
+            }
+        });
+        assertEquals("td-jdbc-test", task.get(5, TimeUnit.SECONDS));
+        assertTrue(task.awaitTermination(5000));
+        assertEquals(0, scope.getPendingCount());
+        assertEquals(1, scope.getSubmittedCount());
+    }
+
+    @Test
+    public void testBoundedThreads()
+            throws Exception
+    {
+        DriverExecutor executor = new DriverExecutor(1);
+        DriverExecutor.Scope scope = executor.newScope("test");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        DriverExecutor.Task<Void> running = scope.submit("td-jdbc-test", new Runnable()
+        {
+            public void run()
+            {
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    // cancelled
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        DriverExecutor.Task<Void> queued = scope.submit("td-jdbc-test", new Runnable()
+        {
+            public void run()
+            {
+            }
+        });
+        assertEquals(1, executor.getActiveCount());
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(2, scope.getPendingCount());
+
+        release.countDown();
+        queued.get(5, TimeUnit.SECONDS);
+        assertTrue(running.isDone());
+        // get() may return before the task leaves the scope
+        assertTrue(queued.awaitTermination(5000));
+        assertEquals(0, scope.getPendingCount());
+    }
+
+    @Test
+    public void testLongRunningWithBusyWorkers()
+            throws Exception
+    {
+        DriverExecutor executor = new DriverExecutor(1);
+        DriverExecutor.Scope scope = executor.newScope("test");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        Runnable blocker = new Runnable()
+        {
+            public void run()
+            {
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    // cancelled
+                }
+            }
+        };
+        scope.submit("td-jdbc-test", blocker);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // the long-running tasks do not wait for the busy worker
+        final CountDownLatch loops = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            scope.submitLongRunning("td-jdbc-test-loop", new Runnable()
+            {
+                public void run()
+                {
+                    loops.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        // cancelled
+                    }
+                }
+            });
+        }
+        assertTrue(loops.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getActiveCount());
+        assertEquals(2, executor.getLongRunningCount());
+        assertEquals(3, scope.getPendingCount());
+
+        scope.close();
+        assertEquals(0, scope.getPendingCount());
+    }
+
+    @Test
+    public void testLongRunningLimit()
+            throws Exception
+    {
+        DriverExecutor executor = new DriverExecutor(1, 2);
+        DriverExecutor.Scope scope = executor.newScope("test");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch loops = new CountDownLatch(2);
+        Runnable loop = new Runnable()
+        {
+            public void run()
+            {
+                loops.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    // cancelled
+                }
+            }
+        };
+        scope.submitLongRunning("td-jdbc-test-loop", loop);
+        scope.submitLongRunning("td-jdbc-test-loop", loop);
+        assertTrue(loops.await(5, TimeUnit.SECONDS));
+        assertEquals(2, executor.getLongRunningCount());
+
+        // no queue: the caller does the work by itself
+        try {
+            scope.submitLongRunning("td-jdbc-test-loop", loop);
+            fail();
+        }
+        catch (RejectedExecutionException e) {
+            // all in use
+        }
+        assertEquals(2, scope.getPendingCount());
+
+        // a higher limit takes effect at once
+        executor.setMaxDaemonThreads(3);
+        assertEquals(3, executor.getMaxDaemonThreads());
+        DriverExecutor.Task<Void> third = scope.submitLongRunning("td-jdbc-test-loop", loop);
+        release.countDown();
+        assertTrue(third.awaitTermination(5000));
+        scope.close();
+    }
+
+    @Test
+    public void testSetMaxThreads()
+    {
+        DriverExecutor executor = new DriverExecutor(2);
+        executor.setMaxThreads(4);
+        assertEquals(4, executor.getMaxThreads());
+        executor.setMaxThreads(1);
+        assertEquals(1, executor.getMaxThreads());
+        try {
+            executor.setMaxThreads(0);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // invalid
+        }
+    }
+
+    @Test
+    public void testClose()
+            throws Exception
+    {
+        DriverExecutor executor = new DriverExecutor(1);
+        DriverExecutor.Scope scope = executor.newScope("test");
+        final CountDownLatch started = new CountDownLatch(1);
+        DriverExecutor.Task<Void> running = scope.submit("td-jdbc-test", new Runnable()
+        {
+            public void run()
+            {
+                started.countDown();
+                try {
+                    Thread.sleep(60 * 1000);
+                }
+                catch (InterruptedException e) {
+                    // cancelled
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        DriverExecutor.Task<Void> queued = scope.submit("td-jdbc-test", new Runnable()
+        {
+            public void run()
+            {
+            }
+        });
+
+        // the tasks of the other scopes are not affected
+        DriverExecutor.Scope other = executor.newScope("other");
+
+        scope.close();
+        assertTrue(running.isCancelled());
+        assertTrue(queued.isCancelled());
+        assertTrue(running.awaitTermination(5000));
+        assertTrue(queued.awaitTermination(0));
+        assertEquals(0, scope.getPendingCount());
+        try {
+            scope.submit("td-jdbc-test", new Runnable()
+            {
+                public void run()
+                {
+                }
+            });
+            fail();
+        }
+        catch (RejectedExecutionException e) {
+            // closed
+        }
+
+        DriverExecutor.Task<String> task = other.submit("td-jdbc-test", new Callable<String>()
+        {
+            public String call()
+            {
+                return "ok";
+            }
+        });
+        assertEquals("ok", task.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestPreparedSql
+{
+    private static Map<Integer, String> params(String... values)
+    {
+        Map<Integer, String> params = new HashMap<Integer, String>();
+        for (int i = 0; i < values.length; i++) {
+            params.put(i + 1, values[i]);
+        }
+        return params;
+    }
+
+    @Test
+    public void testRender()
+    {
+        PreparedSql sql = PreparedSql.parse("SELECT ?, ? FROM table WHERE c = ?");
+        assertEquals(3, sql.getParameterCount());
+        assertEquals("SELECT 'foo', 'bar' FROM table WHERE c = 10",
+                sql.render(params("'foo'", "'bar'", "10")));
+        // the values are not scanned for parameters
+        assertEquals("SELECT '?', 'bar' FROM table WHERE c = 10",
+                sql.render(params("'?'", "'bar'", "10")));
+    }
+
+    @Test
+    public void testMissingParameter()
+    {
+        PreparedSql sql = PreparedSql.parse("SELECT ?, ?");
+        assertEquals("SELECT ?, 'bar'", sql.render(params(null, "'bar'")));
+    }
+
+    @Test
+    public void testNoParameter()
+    {
+        String s = "SELECT 1";
+        PreparedSql sql = PreparedSql.parse(s);
+        assertEquals(0, sql.getParameterCount());
+        assertSame(s, sql.render(params()));
+    }
+
+    @Test
+    public void testQuotedAndComments()
+    {
+        PreparedSql sql = PreparedSql.parse(
+                "SELECT '?', 'it''s ?', 'a\\'?', \"?\", `?`, ? -- ?\n"
+                        + "FROM t /* ? */ WHERE c = ?");
+        assertEquals(2, sql.getParameterCount());
+        assertEquals("SELECT '?', 'it''s ?', 'a\\'?', \"?\", `?`, 1 -- ?\n"
+                        + "FROM t /* ? */ WHERE c = 2",
+                sql.render(params("1", "2")));
+    }
+
+    @Test
+    public void testEscapedMarker()
+    {
+        PreparedSql sql = PreparedSql.parse("SELECT \\? , ?");
+        assertEquals(1, sql.getParameterCount());
+        assertEquals("SELECT \\? , 1", sql.render(params("1")));
+    }
+
+    @Test
+    public void testUnterminated()
+    {
+        assertEquals(1, PreparedSql.parse("SELECT ? FROM t WHERE c = 'abc?").getParameterCount());
+        assertEquals(1, PreparedSql.parse("SELECT ? FROM t /* ?").getParameterCount());
+        assertEquals(1, PreparedSql.parse("SELECT ? -- ?").getParameterCount());
+    }
+
+    @Test
+    public void testManyParameters()
+    {
+        StringBuilder sb = new StringBuilder("SELECT * FROM t WHERE c IN (?");
+        StringBuilder expected = new StringBuilder("SELECT * FROM t WHERE c IN (0");
+        Map<Integer, String> params = new HashMap<Integer, String>();
+        params.put(1, "0");
+        for (int i = 1; i < 500; i++) {
+            sb.append(", ?");
+            expected.append(", ").append(i);
+            params.put(i + 1, Integer.toString(i));
+        }
+        sb.append(")");
+        expected.append(")");
+        PreparedSql sql = PreparedSql.parse(sb.toString());
+        assertEquals(500, sql.getParameterCount());
+        assertEquals(expected.toString(), sql.render(params));
+    }
+
+    @Test
+    public void testCache()
+    {
+        PreparedSql.clearCache();
+        PreparedSql sql = PreparedSql.parse("SELECT ?");
+        assertSame(sql, PreparedSql.parse("SELECT ?"));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import com.treasure_data.model.Job;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestSqlLiteral
+{
+    private static final SqlLiteral PRESTO = SqlLiteral.PRESTO;
+    private static final SqlLiteral HIVE = SqlLiteral.HIVE;
+
+    @Test
+    public void testForType()
+    {
+        assertSame(PRESTO, SqlLiteral.forType(Job.Type.PRESTO));
+        assertSame(HIVE, SqlLiteral.forType(Job.Type.HIVE));
+    }
+
+    @Test
+    public void testString()
+    {
+        assertEquals("'it''s'", PRESTO.stringValue("it's"));
+        assertEquals("'a\\b'", PRESTO.stringValue("a\\b"));
+        assertEquals("'it\\'s'", HIVE.stringValue("it's"));
+        assertEquals("'a\\\\b'", HIVE.stringValue("a\\b"));
+        assertEquals("'a\\nb\\000'", HIVE.stringValue("a\nb\0"));
+    }
+
+    @Test
+    public void testNumbers()
+    {
+        assertEquals("-10", PRESTO.longValue(-10));
+        assertEquals("1.5", PRESTO.doubleValue(1.5));
+        assertEquals("1.0E20", HIVE.doubleValue(1e20));
+        assertEquals("0.25", PRESTO.floatValue(0.25f));
+        assertEquals("nan()", PRESTO.doubleValue(Double.NaN));
+        assertEquals("-infinity()", PRESTO.floatValue(Float.NEGATIVE_INFINITY));
+        assertEquals("CAST('NaN' AS DOUBLE)", HIVE.doubleValue(Double.NaN));
+        assertEquals("CAST('Infinity' AS DOUBLE)", HIVE.floatValue(Float.POSITIVE_INFINITY));
+
+        assertEquals("DECIMAL '123.450'", PRESTO.decimalValue(new BigDecimal("123.450")));
+        assertEquals("DECIMAL '1000'", PRESTO.decimalValue(new BigDecimal("1E+3")));
+        assertEquals("CAST('123.450' AS DECIMAL(6,3))", HIVE.decimalValue(new BigDecimal("123.450")));
+        assertEquals("CAST('0.01' AS DECIMAL(3,2))", HIVE.decimalValue(new BigDecimal("0.01")));
+        assertEquals("CAST('1000' AS DECIMAL(4,0))", HIVE.decimalValue(new BigDecimal("1E+3")));
+    }
+
+    @Test
+    public void testBytes()
+    {
+        byte[] bytes = new byte[] {0x00, 0x1f, (byte) 0xab};
+        assertEquals("X'001FAB'", PRESTO.bytesValue(bytes));
+        assertEquals("unhex('001FAB')", HIVE.bytesValue(bytes));
+    }
+
+    @Test
+    public void testDateTime()
+    {
+        Date date = Date.valueOf("2014-03-31");
+        Time time = Time.valueOf("12:34:56");
+        Timestamp ts = Timestamp.valueOf("2014-03-31 12:34:56.789");
+        assertEquals("DATE '2014-03-31'", PRESTO.dateValue(date, null));
+        assertEquals("TIME '12:34:56'", PRESTO.timeValue(time, null));
+        assertEquals("TIMESTAMP '2014-03-31 12:34:56.789'", PRESTO.timestampValue(ts, null));
+        assertEquals("CAST('2014-03-31' AS DATE)", HIVE.dateValue(date, null));
+        assertEquals("'12:34:56'", HIVE.timeValue(time, null));
+        assertEquals("CAST('2014-03-31 12:34:56.789' AS TIMESTAMP)", HIVE.timestampValue(ts, null));
+    }
+
+    @Test
+    public void testCalendar()
+    {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        Calendar tokyo = Calendar.getInstance(TimeZone.getTimeZone("Asia/Tokyo"));
+        Timestamp ts = new Timestamp(0);
+        ts.setNanos(120000000);
+        assertEquals("TIMESTAMP '1970-01-01 00:00:00.12'", PRESTO.timestampValue(ts, utc));
+        assertEquals("TIMESTAMP '1970-01-01 09:00:00.12'", PRESTO.timestampValue(ts, tokyo));
+        ts.setNanos(0);
+        assertEquals("TIMESTAMP '1970-01-01 00:00:00.0'", PRESTO.timestampValue(ts, utc));
+        assertEquals("DATE '1970-01-01'", PRESTO.dateValue(new Date(0), utc));
+        assertEquals("TIME '09:00:00'", PRESTO.timeValue(new Time(0), tokyo));
+    }
+
+    @Test
+    public void testObject()
+            throws Exception
+    {
+        assertEquals("NULL", PRESTO.objectValue(null));
+        assertEquals("'x'", PRESTO.objectValue('x'));
+        assertEquals("true", PRESTO.objectValue(Boolean.TRUE));
+        assertEquals("10", PRESTO.objectValue((short) 10));
+        assertEquals("DECIMAL '1.5'", PRESTO.objectValue(new BigDecimal("1.5")));
+        assertEquals("ARRAY[1, 'a', NULL]", PRESTO.objectValue(new Object[] {1, "a", null}));
+        assertEquals("array(1, 2)", HIVE.objectValue(new Object[] {1, 2}));
+        try {
+            PRESTO.objectValue(new Object());
+            fail();
+        }
+        catch (SQLException e) {
+            // unsupported class
+        }
+    }
+
+    @Test
+    public void testObjectWithType()
+            throws Exception
+    {
+        assertEquals("'10'", PRESTO.objectValue(10, Types.VARCHAR));
+        assertEquals("10", PRESTO.objectValue("10", Types.INTEGER));
+        assertEquals("true", PRESTO.objectValue(1, Types.BOOLEAN));
+        assertEquals("1.5", PRESTO.objectValue("1.5", Types.DOUBLE));
+        assertEquals("DECIMAL '1.50'", PRESTO.objectValue("1.50", Types.DECIMAL));
+        assertEquals("DATE '2014-03-31'", PRESTO.objectValue("2014-03-31", Types.DATE));
+        assertEquals("NULL", PRESTO.objectValue(null, Types.INTEGER));
+        try {
+            PRESTO.objectValue("abc", Types.INTEGER);
+            fail();
+        }
+        catch (SQLException e) {
+            // not a number
+        }
+    }
+}
@@ -18,10 +18,21 @@
  */
 package com.treasuredata.jdbc;
 
+import com.treasure_data.client.ClientException;
+import com.treasuredata.jdbc.command.ClientAPI;
+import com.treasuredata.jdbc.command.NullClientAPI;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
 
 public class TestTDConnection
 {
@@ -46,4 +57,68 @@ public class TestTDConnection
         ps.getCommandExecutor().getAPI().flush();
         System.out.println("fin");
     }
+
+    @Test
+    public void testConcurrentStatements()
+            throws Exception
+    {
+        // every query waits until the queries of both statements are running
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final ClientAPI api = new NullClientAPI()
+        {
+            @Override
+            public TDResultSetBase select(String sql, int queryTimeout)
+                    throws ClientException
+            {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                }
+                catch (Exception e) {
+                    throw new ClientException("the statements did not run in parallel: " + e);
+                }
+                return null;
+            }
+        };
+        Properties props = new Properties();
+        props.setProperty("apikey", "xxxx");
+        props.setProperty(Config.TD_JDBC_CONNECTION_LAZY, "true");
+        TDConnection conn = new TDConnection(Config.newConfig("jdbc:td://api.treasuredata.com/db01;type=presto", props))
+        {
+            @Override
+            public ClientAPI getClientAPI()
+            {
+                return api;
+            }
+        };
+        final Statement stat = conn.createStatement();
+        final PreparedStatement ps = conn.prepareStatement("SELECT v FROM t WHERE k = ?");
+        ps.setInt(1, 1);
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread t = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    stat.executeQuery("SELECT * FROM t");
+                }
+                catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }
+        });
+        t.start();
+        try {
+            ps.executeQuery();
+        }
+        catch (Throwable e) {
+            synchronized (errors) {
+                errors.add(e);
+            }
+        }
+        t.join();
+        assertEquals(errors.toString(), 0, errors.size());
+    }
 }
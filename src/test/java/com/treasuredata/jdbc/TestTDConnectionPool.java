@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.junit.Test;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestTDConnectionPool
+{
+    private static class MockPooledConnection
+            implements PooledConnection
+    {
+        private final List<ConnectionEventListener> listeners = new ArrayList<ConnectionEventListener>();
+        private final Connection handle = mock(Connection.class);
+        private boolean closed = false;
+
+        MockPooledConnection(boolean valid)
+                throws SQLException
+        {
+            when(handle.isValid(5)).thenReturn(valid);
+        }
+
+        public Connection getConnection()
+        {
+            return handle;
+        }
+
+        // what the handle does when it is closed
+        void returnToPool()
+        {
+            for (ConnectionEventListener l : new ArrayList<ConnectionEventListener>(listeners)) {
+                l.connectionClosed(new ConnectionEvent(this));
+            }
+        }
+
+        public void close()
+        {
+            closed = true;
+        }
+
+        public void addConnectionEventListener(ConnectionEventListener listener)
+        {
+            listeners.add(listener);
+        }
+
+        public void removeConnectionEventListener(ConnectionEventListener listener)
+        {
+            listeners.remove(listener);
+        }
+
+        public void addStatementEventListener(StatementEventListener listener)
+        {
+        }
+
+        public void removeStatementEventListener(StatementEventListener listener)
+        {
+        }
+    }
+
+    private static class MockSource
+            implements ConnectionPoolDataSource
+    {
+        private final List<MockPooledConnection> opened = new ArrayList<MockPooledConnection>();
+        private boolean valid = true;
+
+        public synchronized PooledConnection getPooledConnection()
+                throws SQLException
+        {
+            MockPooledConnection c = new MockPooledConnection(valid);
+            opened.add(c);
+            return c;
+        }
+
+        public PooledConnection getPooledConnection(String user, String password)
+                throws SQLException
+        {
+            return getPooledConnection();
+        }
+
+        public PrintWriter getLogWriter()
+        {
+            return null;
+        }
+
+        public void setLogWriter(PrintWriter out)
+        {
+        }
+
+        public void setLoginTimeout(int seconds)
+        {
+        }
+
+        public int getLoginTimeout()
+        {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testReuse()
+            throws Exception
+    {
+        MockSource source = new MockSource();
+        TDConnectionPool pool = new TDConnectionPool(source, null, null, 0, 2, 60000, 30000, 5, 100);
+
+        Connection c1 = pool.getConnection();
+        Connection c2 = pool.getConnection();
+        assertNotSame(c1, c2);
+        assertEquals(2, pool.getSize());
+        assertEquals(2, pool.getActiveCount());
+
+        try {
+            // the pool is full
+            pool.getConnection();
+            fail();
+        }
+        catch (SQLException e) {
+            assertEquals(1, pool.getWaitTimeoutCount());
+        }
+
+        source.opened.get(0).returnToPool();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getActiveCount());
+
+        // the returned connection is reused
+        assertSame(c1, pool.getConnection());
+        assertEquals(2, source.opened.size());
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(3, pool.getBorrowedCount());
+        pool.close();
+    }
+
+    @Test
+    public void testWaitForReturn()
+            throws Exception
+    {
+        final MockSource source = new MockSource();
+        TDConnectionPool pool = new TDConnectionPool(source, null, null, 0, 1, 60000, 30000, 5, 10000);
+        Connection c1 = pool.getConnection();
+
+        Thread t = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException e) {
+                    // ignore
+                }
+                source.opened.get(0).returnToPool();
+            }
+        });
+        t.start();
+        assertSame(c1, pool.getConnection());
+        t.join();
+        pool.close();
+    }
+
+    @Test
+    public void testValidation()
+            throws Exception
+    {
+        MockSource source = new MockSource();
+        // validate every reused connection
+        TDConnectionPool pool = new TDConnectionPool(source, null, null, 0, 2, 60000, -1, 5, 100);
+        pool.getConnection();
+        MockPooledConnection first = source.opened.get(0);
+        when(first.handle.isValid(5)).thenReturn(false);
+        first.returnToPool();
+
+        // the invalid connection is closed and a new one is opened
+        Connection c = pool.getConnection();
+        assertSame(source.opened.get(1).handle, c);
+        assertTrue(first.closed);
+        assertEquals(1, pool.getValidationFailureCount());
+        assertEquals(1, pool.getSize());
+        pool.close();
+    }
+
+    @Test
+    public void testIdleEviction()
+            throws Exception
+    {
+        MockSource source = new MockSource();
+        TDConnectionPool pool = new TDConnectionPool(source, null, null, 1, 3, 100, 30000, 5, 100);
+        pool.getConnection();
+        pool.getConnection();
+        pool.getConnection();
+        for (MockPooledConnection c : source.opened) {
+            c.returnToPool();
+        }
+        assertEquals(3, pool.getIdleCount());
+
+        // the idle connections are closed down to the min size
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((pool.getSize() > 1 || pool.getDestroyedCount() < 2) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, pool.getDestroyedCount());
+        pool.close();
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void testMinSize()
+            throws Exception
+    {
+        MockSource source = new MockSource();
+        TDConnectionPool pool = new TDConnectionPool(source, null, null, 2, 4, 60000, 30000, 5, 100);
+        pool.warmUp();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdleCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, pool.getSize());
+        pool.close();
+    }
+
+    @Test
+    public void testClose()
+            throws Exception
+    {
+        MockSource source = new MockSource();
+        TDConnectionPool pool = new TDConnectionPool(source, null, null, 0, 2, 60000, 30000, 5, 100);
+        pool.getConnection();
+        pool.close();
+        try {
+            pool.getConnection();
+            fail();
+        }
+        catch (SQLException e) {
+            // closed
+        }
+        // a connection returned after close is closed
+        source.opened.get(0).returnToPool();
+        assertTrue(source.opened.get(0).closed);
+        assertEquals(0, pool.getSize());
+    }
+}
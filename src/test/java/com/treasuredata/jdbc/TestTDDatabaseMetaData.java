@@ -19,7 +19,9 @@
 package com.treasuredata.jdbc;
 
 import com.treasure_data.client.ClientException;
+import com.treasuredata.jdbc.command.MetaDataCache;
 import com.treasuredata.jdbc.command.NullClientAPI;
+import com.treasuredata.jdbc.command.SchemaLoader;
 import com.treasure_data.model.Database;
 import com.treasure_data.model.DatabaseSummary;
 import com.treasure_data.model.Table;
@@ -30,6 +32,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -243,4 +246,110 @@ public class TestTDDatabaseMetaData
             }
         }
     }
+
+    @Test
+    public void getTablesWithCache()
+            throws Exception
+    {
+        final AtomicInteger showTablesCount = new AtomicInteger();
+        NullClientAPI api = new NullClientAPI()
+        {
+            @Override
+            public List<TableSummary> showTables()
+                    throws ClientException
+            {
+                showTablesCount.incrementAndGet();
+                List<TableSummary> list = new ArrayList<TableSummary>();
+                list.add(new TableSummary(new Database("mugadb"), "tbl01", 12344, "[]",
+                        "2012-02-20T18:31:48Z", "2012-02-20T18:31:48Z"));
+                list.add(new TableSummary(new Database("mugadb"), "abc01", 12344, "[]",
+                        "2012-02-20T18:31:48Z", "2012-02-20T18:31:48Z"));
+                return list;
+            }
+        };
+
+        SchemaLoader loader = new SchemaLoader(api, new MetaDataCache(), 60000, 1);
+        TDDatabaseMetaData metadata = new TDDatabaseMetaData(new Database("mugadb"), api, loader, false);
+        ResultSet rs = metadata.getTables(null, null, "tbl%", null);
+        assertTrue(rs.next());
+        assertEquals("tbl01", rs.getString("TABLE_NAME"));
+        assertFalse(rs.next());
+
+        rs = metadata.getColumns(null, null, "abc01", "%");
+        assertTrue(rs.next());
+        assertEquals("abc01", rs.getString("TABLE_NAME"));
+        assertEquals("time", rs.getString("COLUMN_NAME"));
+        assertEquals(1, rs.getInt("ORDINAL_POSITION"));
+        assertFalse(rs.next());
+
+        assertEquals(1, showTablesCount.get());
+    }
+
+    @Test
+    public void getTablesAllCatalogs()
+            throws Exception
+    {
+        NullClientAPI api = new NullClientAPI()
+        {
+            @Override
+            public List<DatabaseSummary> showDatabases()
+                    throws ClientException
+            {
+                List<DatabaseSummary> list = new ArrayList<DatabaseSummary>();
+                list.add(new DatabaseSummary("db02", 1, "", ""));
+                list.add(new DatabaseSummary("db01", 1, "", ""));
+                list.add(new DatabaseSummary("db03", 1, "", ""));
+                return list;
+            }
+
+            @Override
+            public List<TableSummary> showTables(String database)
+                    throws ClientException
+            {
+                List<TableSummary> list = new ArrayList<TableSummary>();
+                list.add(new TableSummary(new Database(database), "tbl02", 1,
+                        "[[\"f01\",\"string\"]]", "", ""));
+                list.add(new TableSummary(new Database(database), "tbl01", 1, "[]", "", ""));
+                return list;
+            }
+        };
+
+        SchemaLoader loader = new SchemaLoader(api, null, 0, 4);
+        TDDatabaseMetaData metadata = new TDDatabaseMetaData(new Database("db01"), api, loader, true);
+
+        ResultSet rs = metadata.getCatalogs();
+        for (String db : new String[] {"db01", "db02", "db03"}) {
+            assertTrue(rs.next());
+            assertEquals(db, rs.getString("TABLE_CAT"));
+        }
+        assertFalse(rs.next());
+
+        // in catalog and table name order
+        rs = metadata.getTables(null, null, "%", null);
+        for (String db : new String[] {"db01", "db02", "db03"}) {
+            for (String table : new String[] {"tbl01", "tbl02"}) {
+                assertTrue(rs.next());
+                assertEquals(db, rs.getString("TABLE_CAT"));
+                assertEquals(table, rs.getString("TABLE_NAME"));
+            }
+        }
+        assertFalse(rs.next());
+
+        rs = metadata.getTables("db03", null, "tbl02", null);
+        assertTrue(rs.next());
+        assertEquals("db03", rs.getString("TABLE_CAT"));
+        assertEquals("tbl02", rs.getString("TABLE_NAME"));
+        assertFalse(rs.next());
+
+        assertFalse(metadata.getTables("db04", null, null, null).next());
+
+        rs = metadata.getColumns(null, null, "tbl02", "f%");
+        for (String db : new String[] {"db01", "db02", "db03"}) {
+            assertTrue(rs.next());
+            assertEquals(db, rs.getString("TABLE_CAT"));
+            assertEquals("tbl02", rs.getString("TABLE_NAME"));
+            assertEquals("f01", rs.getString("COLUMN_NAME"));
+        }
+        assertFalse(rs.next());
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestTDPooledConnection
+{
+    private static TDPooledConnection newPooledConnection()
+            throws SQLException
+    {
+        Properties props = new Properties();
+        props.setProperty("apikey", "xxxx");
+        // no request is sent
+        props.setProperty(Config.TD_JDBC_CONNECTION_LAZY, "true");
+        return new TDPooledConnection(new TDConnection(Config.newConfig("jdbc:td://api.treasuredata.com/db01;type=presto", props)));
+    }
+
+    @Test
+    public void testStatementConnection()
+            throws Exception
+    {
+        TDPooledConnection pooled = newPooledConnection();
+        Connection handle = pooled.getConnection();
+        Statement stmt = handle.createStatement();
+        PreparedStatement ps = handle.prepareStatement("SELECT ?");
+        // the application never gets the physical connection
+        assertSame(handle, stmt.getConnection());
+        assertSame(handle, ps.getConnection());
+
+        handle.close();
+        pooled.close();
+    }
+
+    @Test
+    public void testResetOnRelease()
+            throws Exception
+    {
+        TDPooledConnection pooled = newPooledConnection();
+        Connection first = pooled.getConnection();
+        first.setAutoCommit(true);
+        first.setReadOnly(true);
+        first.close();
+
+        Connection second = pooled.getConnection();
+        assertNotSame(first, second);
+        assertFalse(second.getAutoCommit());
+        assertFalse(second.isReadOnly());
+        try {
+            first.createStatement();
+            fail();
+        }
+        catch (SQLException e) {
+            // closed
+        }
+        second.close();
+        pooled.close();
+    }
+}
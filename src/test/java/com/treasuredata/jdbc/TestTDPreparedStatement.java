@@ -19,27 +19,40 @@
 package com.treasuredata.jdbc;
 
 import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+
+import com.treasure_data.client.ClientException;
+import com.treasuredata.jdbc.command.CommandContext;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 public class TestTDPreparedStatement
 {
 
-    private TDPreparedStatement createPreparedStatement(String query)
-            throws Exception
-    {
-        TDConnection conn = (TDConnection) TestProductionEnv.newPrestoConnection("default");
-        return new TDPreparedStatement(conn, query);
-    }
-
     private void assertReplacedQuery(String prepared, Map<Integer, String> params,
             String expected)
             throws Exception
     {
-        TDPreparedStatement stat = createPreparedStatement(prepared);
-        assertEquals(stat.updateSql(prepared, params), expected);
+        assertEquals(PreparedSql.parse(prepared).render(params), expected);
     }
 
     @Test
@@ -64,4 +77,365 @@ public class TestTDPreparedStatement
         params.put(2, "'\\%bar'");
         assertReplacedQuery(actual, params, "select * from www_access where path like '\\%foo' or host = '\\%bar'");
     }
+
+    private static TDPreparedStatement newLazyStatement(String type, String sql)
+            throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("apikey", "xxxx");
+        props.setProperty(Config.TD_JDBC_CONNECTION_LAZY, "true");
+        // no request is sent to the API server
+        TDConnection conn = new TDConnection(Config.newConfig("jdbc:td://api.treasuredata.com/db01;type=" + type, props));
+        return new TDPreparedStatement(conn, sql);
+    }
+
+    /**
+     * Records the SQL of the jobs instead of running them. The result of a
+     * combined query has two rows for each parameter set.
+     */
+    private static class BatchStatement
+            extends TDPreparedStatement
+    {
+        private final List<String> jobs = new ArrayList<String>();
+        private int failAt = -1;
+        private int jobErrorAt = -1;
+        private String[] columns = {"v"};
+
+        BatchStatement(TDConnection conn, String sql)
+                throws SQLException
+        {
+            super(conn, sql);
+        }
+
+        @Override
+        protected void fetchResult(CommandContext context)
+                throws SQLException
+        {
+            if (jobs.size() == failAt) {
+                throw new SQLException("job failed");
+            }
+            if (jobs.size() == jobErrorAt) {
+                jobs.add(context.sql);
+                throw new SQLException(new ClientException("Job '1' failed: got Job status 'error'"));
+            }
+            jobs.add(context.sql);
+            List<List<Object>> rows = new ArrayList<List<Object>>();
+            int sets = context.sql.split("UNION ALL").length;
+            for (int r = 0; r < 2; r++) {
+                // the rows of the sets are mixed
+                for (int i = sets - 1; i >= 0; i--) {
+                    List<Object> row = new ArrayList<Object>();
+                    row.add(i);
+                    for (int c = 0; c < columns.length; c++) {
+                        row.add("v" + i + "-" + r);
+                    }
+                    rows.add(row);
+                }
+            }
+            List<String> names = new ArrayList<String>();
+            List<String> types = new ArrayList<String>();
+            names.add(BATCH_INDEX_COLUMN);
+            types.add("int");
+            for (String column : columns) {
+                names.add(column);
+                types.add("string");
+            }
+            context.resultSet = new TDBatchResultSet(names, types, rows);
+            currentResultSet = context.resultSet;
+        }
+    }
+
+    private static BatchStatement newBatchStatement(String type, String sql, int batchSize)
+            throws Exception
+    {
+        return newBatchStatement(type, sql, batchSize, Config.TD_JDBC_BATCH_MAXROWS_DEFAULTVALUE);
+    }
+
+    private static BatchStatement newBatchStatement(String type, String sql, int batchSize, int batchMaxRows)
+            throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("apikey", "xxxx");
+        props.setProperty(Config.TD_JDBC_CONNECTION_LAZY, "true");
+        props.setProperty(Config.TD_JDBC_BATCH_SIZE, Integer.toString(batchSize));
+        props.setProperty(Config.TD_JDBC_BATCH_MAXROWS, Integer.toString(batchMaxRows));
+        TDConnection conn = new TDConnection(Config.newConfig("jdbc:td://api.treasuredata.com/db01;type=" + type, props));
+        return new BatchStatement(conn, sql);
+    }
+
+    private static String render(TDPreparedStatement stat)
+    {
+        return PreparedSql.parse(stat.getContext().sql).render(stat.getParams());
+    }
+
+    @Test
+    public void setParametersForPresto()
+            throws Exception
+    {
+        TDPreparedStatement stat = newLazyStatement("presto", "SELECT ?, ?, ?, ?, ?, ?, ?, ?");
+        stat.setString(1, "it's");
+        stat.setBigDecimal(2, new BigDecimal("1.50"));
+        stat.setBoolean(3, true);
+        stat.setBytes(4, new byte[] {1, 2});
+        stat.setDate(5, Date.valueOf("2014-03-31"));
+        stat.setTimestamp(6, Timestamp.valueOf("2014-03-31 01:02:03.5"));
+        stat.setNull(7, Types.VARCHAR);
+        stat.setCharacterStream(8, new StringReader("abc"), 2);
+        assertEquals("SELECT 'it''s', DECIMAL '1.50', true, X'0102', DATE '2014-03-31', "
+                + "TIMESTAMP '2014-03-31 01:02:03.5', NULL, 'ab'", render(stat));
+    }
+
+    @Test
+    public void setParametersForHive()
+            throws Exception
+    {
+        TDPreparedStatement stat = newLazyStatement("hive", "SELECT ?, ?, ?, ?, ?");
+        stat.setString(1, "it's");
+        stat.setObject(2, new BigDecimal("1.555"), Types.DECIMAL, 2);
+        stat.setBinaryStream(3, new ByteArrayInputStream(new byte[] {(byte) 0xff}));
+        stat.setDate(4, Date.valueOf("2014-03-31"));
+        stat.setObject(5, null);
+        assertEquals("SELECT 'it\\'s', CAST('1.56' AS DECIMAL(3,2)), unhex('FF'), "
+                + "CAST('2014-03-31' AS DATE), NULL", render(stat));
+    }
+
+    @Test
+    public void setInvalidParameterIndex()
+            throws Exception
+    {
+        TDPreparedStatement stat = newLazyStatement("presto", "SELECT ?");
+        for (int i : new int[] {0, 2}) {
+            try {
+                stat.setInt(i, 1);
+                fail();
+            }
+            catch (SQLException e) {
+                // out of range
+            }
+        }
+    }
+
+    @Test
+    public void executeBatch()
+            throws Exception
+    {
+        BatchStatement stat = newBatchStatement("presto", "SELECT v FROM t WHERE k = ?;", 2);
+        for (int i = 0; i < 3; i++) {
+            stat.setInt(1, i);
+            stat.addBatch();
+        }
+        int[] counts = stat.executeBatch();
+        assertEquals("[2, 2, 2]", Arrays.toString(counts));
+        assertEquals(Arrays.asList(
+                "SELECT * FROM (SELECT 0 AS td_batch_index, t0.* FROM (SELECT v FROM t WHERE k = 0) t0\n"
+                        + "UNION ALL\n"
+                        + "SELECT 1 AS td_batch_index, t1.* FROM (SELECT v FROM t WHERE k = 1) t1) td_batch LIMIT 100001",
+                "SELECT * FROM (SELECT 0 AS td_batch_index, t0.* FROM (SELECT v FROM t WHERE k = 2) t0) td_batch LIMIT 100001"),
+                stat.jobs);
+
+        ResultSet rs = stat.getResultSet();
+        assertEquals(1, rs.getMetaData().getColumnCount());
+        assertEquals("v", rs.getMetaData().getColumnName(1));
+        assertTrue(rs.next());
+        assertEquals("v0-0", rs.getString("v"));
+        assertTrue(rs.next());
+        assertEquals("v0-1", rs.getString(1));
+        assertFalse(rs.next());
+
+        assertTrue(stat.getMoreResults());
+        rs = stat.getResultSet();
+        assertTrue(rs.next());
+        assertEquals("v1-0", rs.getString(1));
+
+        // the second job
+        assertTrue(stat.getMoreResults());
+        rs = stat.getResultSet();
+        assertTrue(rs.next());
+        assertEquals("v0-0", rs.getString(1));
+
+        assertFalse(stat.getMoreResults());
+        assertEquals(3, stat.getBatchResults().size());
+
+        // the batch is cleared
+        assertEquals(0, stat.executeBatch().length);
+    }
+
+    @Test
+    public void executeBatchWithMaxRows()
+            throws Exception
+    {
+        BatchStatement stat = newBatchStatement("hive", "SELECT v FROM t WHERE k = ?", 10);
+        stat.setMaxRows(1);
+        for (int i = 0; i < 2; i++) {
+            stat.setString(1, "k" + i);
+            stat.addBatch();
+        }
+        assertEquals("[1, 1]", Arrays.toString(stat.executeBatch()));
+        assertEquals(1, stat.jobs.size());
+        // the max rows are applied to each set, not to the job
+        assertFalse(stat.jobs.get(0).contains("LIMIT"));
+    }
+
+    @Test
+    public void executeBatchWithTooManyRows()
+            throws Exception
+    {
+        BatchStatement stat = newBatchStatement("presto", "SELECT v FROM t WHERE k = ?", 10, 3);
+        for (int i = 0; i < 2; i++) {
+            stat.setInt(1, i);
+            stat.addBatch();
+        }
+        try {
+            stat.executeBatch();
+            fail();
+        }
+        catch (BatchUpdateException e) {
+            assertEquals(0, e.getUpdateCounts().length);
+        }
+        assertTrue(stat.jobs.get(0).endsWith(" LIMIT 4"));
+    }
+
+    @Test
+    public void executeBatchWithOrderBy()
+            throws Exception
+    {
+        // the order of a subquery is not kept
+        BatchStatement stat = newBatchStatement("presto", "SELECT v FROM t WHERE k = ? ORDER BY v", 10);
+        for (int i = 0; i < 2; i++) {
+            stat.setInt(1, i);
+            stat.addBatch();
+        }
+        assertEquals(Arrays.toString(new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}),
+                Arrays.toString(stat.executeBatch()));
+        assertEquals(Arrays.asList("SELECT v FROM t WHERE k = 0 ORDER BY v", "SELECT v FROM t WHERE k = 1 ORDER BY v"),
+                stat.jobs);
+
+        // ORDER BY in a window, a subquery or a literal is combined
+        String[] combinable = {
+                "SELECT v, row_number() OVER (ORDER BY v) FROM t WHERE k = ?",
+                "SELECT v FROM (SELECT v FROM t ORDER BY v LIMIT 10) WHERE k = ?",
+                "SELECT v FROM t WHERE k = ? AND s = 'order by' -- order by v",
+        };
+        for (String sql : combinable) {
+            stat = newBatchStatement("presto", sql, 10);
+            stat.setInt(1, 0);
+            stat.addBatch();
+            assertEquals(sql, "[2]", Arrays.toString(stat.executeBatch()));
+        }
+    }
+
+    @Test
+    public void executeBatchOneByOne()
+            throws Exception
+    {
+        // Hive does not accept WITH in a subquery
+        BatchStatement stat = newBatchStatement("hive", "WITH a AS (SELECT ? AS k) SELECT k FROM a", 10);
+        stat.setInt(1, 1);
+        stat.addBatch();
+        stat.setInt(1, 2);
+        stat.addBatch();
+        stat.clearBatch();
+        stat.setInt(1, 3);
+        stat.addBatch();
+        stat.setInt(1, 4);
+        stat.addBatch();
+        int[] counts = stat.executeBatch();
+        assertEquals(Arrays.toString(new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}),
+                Arrays.toString(counts));
+        assertEquals(Arrays.asList("WITH a AS (SELECT 3 AS k) SELECT k FROM a", "WITH a AS (SELECT 4 AS k) SELECT k FROM a"),
+                stat.jobs);
+        assertEquals(null, stat.getBatchResults());
+    }
+
+    @Test
+    public void executeBatchFailure()
+            throws Exception
+    {
+        BatchStatement stat = newBatchStatement("presto", "SELECT v FROM t WHERE k = ?", 2);
+        stat.failAt = 1;
+        for (int i = 0; i < 5; i++) {
+            stat.setInt(1, i);
+            stat.addBatch();
+        }
+        try {
+            stat.executeBatch();
+            fail();
+        }
+        catch (BatchUpdateException e) {
+            // the first job succeeded
+            assertEquals("[2, 2]", Arrays.toString(e.getUpdateCounts()));
+        }
+    }
+
+    @Test
+    public void executeBatchWithBatchIndexColumn()
+            throws Exception
+    {
+        BatchStatement stat = newBatchStatement("presto", "SELECT k AS TD_BATCH_INDEX FROM t WHERE k = ?", 10);
+        stat.setInt(1, 0);
+        stat.addBatch();
+        assertEquals(Arrays.toString(new int[] {Statement.SUCCESS_NO_INFO}), Arrays.toString(stat.executeBatch()));
+        assertEquals(Arrays.asList("SELECT k AS TD_BATCH_INDEX FROM t WHERE k = 0"), stat.jobs);
+
+        // the columns of the result are known only when the job has run
+        String[][] columns = {{"v", TDPreparedStatement.BATCH_INDEX_COLUMN}, {"v", "V"}};
+        for (String[] c : columns) {
+            stat = newBatchStatement("presto", "SELECT * FROM t WHERE k = ?", 10);
+            stat.columns = c;
+            for (int i = 0; i < 2; i++) {
+                stat.setInt(1, i);
+                stat.addBatch();
+            }
+            assertEquals(Arrays.toString(new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}),
+                    Arrays.toString(stat.executeBatch()));
+            assertEquals(3, stat.jobs.size());
+            assertEquals(Arrays.asList("SELECT * FROM t WHERE k = 0", "SELECT * FROM t WHERE k = 1"),
+                    stat.jobs.subList(1, 3));
+            assertEquals(null, stat.getBatchResults());
+        }
+    }
+
+    @Test
+    public void executeBatchJobError()
+            throws Exception
+    {
+        // e.g. Hive rejects the combined query
+        BatchStatement stat = newBatchStatement("hive", "SELECT v FROM t WHERE k = ?", 10);
+        stat.jobErrorAt = 0;
+        for (int i = 0; i < 2; i++) {
+            stat.setInt(1, i);
+            stat.addBatch();
+        }
+        assertEquals(Arrays.toString(new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}),
+                Arrays.toString(stat.executeBatch()));
+        assertEquals(Arrays.asList("SELECT v FROM t WHERE k = 0", "SELECT v FROM t WHERE k = 1"),
+                stat.jobs.subList(1, 3));
+
+        // a failed job of a later combined query fails the batch
+        stat = newBatchStatement("hive", "SELECT v FROM t WHERE k = ?", 1);
+        stat.jobErrorAt = 1;
+        for (int i = 0; i < 2; i++) {
+            stat.setInt(1, i);
+            stat.addBatch();
+        }
+        try {
+            stat.executeBatch();
+            fail();
+        }
+        catch (BatchUpdateException e) {
+            assertEquals("[2]", Arrays.toString(e.getUpdateCounts()));
+        }
+    }
+
+    @Test
+    public void setFetchSize()
+            throws Exception
+    {
+        TDPreparedStatement stat = newLazyStatement("presto", "SELECT ?");
+        assertEquals(50, stat.createCommandContext("SELECT 1").fetchSize);
+        stat.setFetchSize(1000);
+        assertEquals(1000, stat.getFetchSize());
+        // passed to the result set by CommandExecutor
+        assertEquals(1000, stat.createCommandContext("SELECT 1").fetchSize);
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTDResultSchema
+{
+    @Test
+    public void testParse()
+            throws Exception
+    {
+        String json = "[[\"c0\",\"int\"],[\"c1\",\"string\"],[\"c2\",\"double\"]]";
+        TDResultSchema schema = TDResultSchema.parse(json);
+        assertEquals(Arrays.asList("c0", "c1", "c2"), schema.getColumnNames());
+        assertEquals(Arrays.asList("int", "string", "double"), schema.getColumnTypes());
+        assertEquals(Types.INTEGER, schema.getSqlType(1));
+        assertEquals(Types.VARCHAR, schema.getSqlType(2));
+        assertEquals(Types.DOUBLE, schema.getSqlType(3));
+
+        // compiled once per schema
+        assertSame(schema, TDResultSchema.parse(new String(json)));
+
+        assertNull(TDResultSchema.parse(null));
+        assertNull(TDResultSchema.parse("{"));
+    }
+
+    @Test
+    public void testFindColumn()
+    {
+        TDResultSchema schema = TDResultSchema.of(
+                Arrays.asList("id", "Name", "name", "ID"),
+                Arrays.asList("int", "string", "string", "int"));
+        assertEquals(1, schema.findColumn("id"));
+        assertEquals(4, schema.findColumn("ID"));
+        assertEquals(2, schema.findColumn("Name"));
+        assertEquals(3, schema.findColumn("name"));
+        assertEquals(2, schema.findColumn("NAME"));
+        assertEquals(1, schema.findColumn("Id"));
+        assertEquals(-1, schema.findColumn("age"));
+        assertEquals(-1, schema.findColumn(null));
+    }
+
+    @Test
+    public void testSqlType()
+            throws Exception
+    {
+        TDResultSchema schema = TDResultSchema.of(
+                Arrays.asList("c0", "c1"), Arrays.asList("bigint", "unknown"));
+        assertEquals(Types.BIGINT, schema.getSqlType(1));
+        try {
+            schema.getSqlType(2);
+            fail();
+        }
+        catch (SQLException e) {
+            assertTrue(e.getMessage().startsWith("Unrecognized column type"));
+        }
+        try {
+            schema.getSqlType(3);
+            fail();
+        }
+        catch (SQLException e) {
+            assertEquals("Invalid column value: 3", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConverter()
+            throws Exception
+    {
+        TDResultSchema schema = TDResultSchema.of(
+                Arrays.asList("c0", "c1", "c2"), Arrays.asList("int", "double", "string"));
+        assertEquals(10, schema.getConverter(1).toInt(1, "10"));
+        assertEquals(1.5, schema.getConverter(2).toDouble(2, 1.5), 0.0);
+        assertEquals("5", schema.getConverter(3).toString(3, 5));
+        assertSame(TDColumnConverter.GENERIC, schema.getConverter(4));
+        try {
+            schema.getConverter(1).toLong(1, new Object());
+            fail();
+        }
+        catch (SQLException e) {
+            assertTrue(e.getMessage().startsWith("Cannot convert column 1"));
+        }
+    }
+}
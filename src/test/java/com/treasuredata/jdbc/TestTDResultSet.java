@@ -32,16 +32,24 @@ import org.msgpack.packer.BufferPacker;
 import org.msgpack.type.ValueFactory;
 import org.msgpack.unpacker.Unpacker;
 
+import java.math.BigInteger;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -51,6 +59,11 @@ public class TestTDResultSet
     public static class MockClientAPI
             implements ClientAPI
     {
+        public void ping()
+                throws ClientException
+        {
+        }
+
         public List<DatabaseSummary> showDatabases()
                 throws ClientException
         {
@@ -69,6 +82,12 @@ public class TestTDResultSet
             return null;
         }
 
+        public List<TableSummary> showTables(String database)
+                throws ClientException
+        {
+            return null;
+        }
+
         public boolean drop(String tableName)
                 throws ClientException
         {
@@ -115,6 +134,28 @@ public class TestTDResultSet
             return null;
         }
 
+        public Future<JobSummary> waitJobResultAsync(final Job job)
+        {
+            FutureTask<JobSummary> f = new FutureTask<JobSummary>(new Callable<JobSummary>()
+            {
+                public JobSummary call()
+                        throws Exception
+                {
+                    return waitJobResult(job);
+                }
+            });
+            Thread t = new Thread(f);
+            t.setDaemon(true);
+            t.start();
+            return f;
+        }
+
+        public boolean killJob(Job job)
+                throws ClientException
+        {
+            return false;
+        }
+
         public Unpacker getJobResult(Job job)
                 throws ClientException
         {
@@ -534,6 +575,520 @@ public class TestTDResultSet
         assertFalse(rs.next());
     }
 
+    @Test
+    public void testNext04()
+            throws Exception
+    {
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                String resultSchema = "[[\"c0\",\"bigint\"],[\"c1\",\"double\"],[\"c2\",\"float\"],"
+                        + "[\"c3\",\"boolean\"],[\"c4\",\"string\"],[\"c5\",\"array<int>\"]]";
+                return new JobSummary("12345", JobSummary.Type.HIVE,
+                        new Database("mugadb"), "url", "rtbl", Status.SUCCESS,
+                        "startAt", "endAt", "query", resultSchema);
+            }
+
+            public Unpacker getJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    MessagePack msgpack = new MessagePack();
+                    BufferPacker packer = msgpack.createBufferPacker();
+                    packer.writeArrayBegin(6);
+                    packer.write(Long.MAX_VALUE);
+                    packer.write(1.5);
+                    packer.write(1.1f);
+                    packer.write(true);
+                    packer.write("muga");
+                    packer.writeArrayBegin(2);
+                    packer.write(1);
+                    packer.write(2);
+                    packer.writeArrayEnd();
+                    packer.writeArrayEnd();
+                    packer.writeArrayBegin(6);
+                    for (int i = 0; i < 6; i++) {
+                        packer.writeNil();
+                    }
+                    packer.writeArrayEnd();
+                    byte[] bytes = packer.toByteArray();
+                    return msgpack.createBufferUnpacker(bytes);
+                }
+                catch (java.io.IOException e) {
+                    throw new ClientException("mock");
+                }
+            }
+        };
+
+        Job job = new Job("12345");
+        ResultSet rs = new TDResultSet(clientApi, 100, job);
+        assertTrue(rs.next());
+        assertEquals(Long.MAX_VALUE, rs.getLong(1));
+        assertEquals(String.valueOf(Long.MAX_VALUE), rs.getString("c0"));
+        assertEquals(ValueFactory.createIntegerValue(Long.MAX_VALUE), rs.getObject(1));
+        assertEquals(1.5, rs.getDouble(2), 0.0);
+        assertEquals(1, rs.getInt(2));
+        assertEquals("1.5", rs.getString(2));
+        assertEquals(ValueFactory.createFloatValue(1.5), rs.getObject(2));
+        assertEquals(1.1f, rs.getFloat(3), 0.0f);
+        assertEquals("1.1", rs.getString(3));
+        assertTrue(rs.getBoolean(4));
+        assertEquals("muga", rs.getString(5));
+        assertEquals(ValueFactory.createRawValue("muga"), rs.getObject(5));
+        assertEquals("[1,2]", rs.getString(6));
+
+        assertTrue(rs.next());
+        assertEquals(0, rs.getLong(1));
+        assertEquals(0.0, rs.getDouble(2), 0.0);
+        assertFalse(rs.getBoolean(4));
+        assertEquals(null, rs.getString(5));
+        assertFalse(rs.wasNull());
+        assertFalse(rs.next());
+        assertFalse(rs.next());
+    }
+
+    @Test
+    public void testNextWithPrefetch()
+            throws Exception
+    {
+        final int count = 1000;
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                String resultSchema = "[[\"p1\",\"int\"],[\"p2\",\"string\"]]";
+                return new JobSummary("12345", JobSummary.Type.HIVE,
+                        new Database("mugadb"), "url", "rtbl", Status.SUCCESS,
+                        "startAt", "endAt", "query", resultSchema);
+            }
+
+            public Unpacker getJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    MessagePack msgpack = new MessagePack();
+                    BufferPacker packer = msgpack.createBufferPacker();
+                    for (int i = 0; i < count; i++) {
+                        List<Object> ret = new ArrayList<Object>();
+                        ret.add(i);
+                        ret.add("p2:" + i);
+                        packer.write(ret);
+                    }
+                    byte[] bytes = packer.toByteArray();
+                    return msgpack.createBufferUnpacker(bytes);
+                }
+                catch (java.io.IOException e) {
+                    throw new ClientException("mock");
+                }
+            }
+        };
+
+        { // read all rows
+            TDResultSet rs = new TDResultSet(clientApi, 100, new Job("12345"));
+            rs.setFetchSize(7);
+            rs.setPrefetchBatches(2);
+            for (int i = 0; i < count; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                assertEquals("p2:" + i, rs.getString(2));
+            }
+            assertFalse(rs.next());
+            rs.close();
+        }
+        { // close partway
+            TDResultSet rs = new TDResultSet(clientApi, 100, new Job("12345"));
+            rs.setFetchSize(7);
+            rs.setPrefetchBatches(2);
+            for (int i = 0; i < 10; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+            }
+            rs.close();
+            try {
+                rs.next();
+                fail();
+            }
+            catch (SQLException e) {
+                // closed
+            }
+        }
+    }
+
+    @Test
+    public void testMaxRows()
+            throws Exception
+    {
+        final int count = 10;
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                String resultSchema = "[[\"p1\",\"int\"]]";
+                return new JobSummary("12345", JobSummary.Type.HIVE,
+                        new Database("mugadb"), "url", "rtbl", Status.SUCCESS,
+                        "startAt", "endAt", "query", resultSchema);
+            }
+
+            public Unpacker getJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    MessagePack msgpack = new MessagePack();
+                    BufferPacker packer = msgpack.createBufferPacker();
+                    for (int i = 0; i < count; i++) {
+                        List<Object> ret = new ArrayList<Object>();
+                        ret.add(i);
+                        packer.write(ret);
+                    }
+                    byte[] bytes = packer.toByteArray();
+                    return msgpack.createBufferUnpacker(bytes);
+                }
+                catch (java.io.IOException e) {
+                    throw new ClientException("mock");
+                }
+            }
+        };
+
+        { // truncated
+            TDResultSet rs = new TDResultSet(clientApi, 3, new Job("12345"));
+            for (int i = 0; i < 3; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+            }
+            assertNull(rs.getWarnings());
+            assertFalse(rs.next());
+            assertFalse(rs.next());
+            assertNotNull(rs.getWarnings());
+            assertNull(rs.getWarnings().getNextWarning());
+            rs.close();
+        }
+        { // the result has exactly max rows
+            TDResultSet rs = new TDResultSet(clientApi, count, new Job("12345"));
+            for (int i = 0; i < count; i++) {
+                assertTrue(rs.next());
+            }
+            assertFalse(rs.next());
+            assertNull(rs.getWarnings());
+            rs.close();
+        }
+        { // no limit
+            TDResultSet rs = new TDResultSet(clientApi, 0, new Job("12345"));
+            int rows = 0;
+            while (rs.next()) {
+                rows++;
+            }
+            assertEquals(count, rows);
+            assertNull(rs.getWarnings());
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testScrollable()
+            throws Exception
+    {
+        final int count = 100;
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                String resultSchema = "[[\"p1\",\"int\"],[\"p2\",\"string\"],[\"p3\",\"double\"]]";
+                return new JobSummary("12345", JobSummary.Type.HIVE,
+                        new Database("mugadb"), "url", "rtbl", Status.SUCCESS,
+                        "startAt", "endAt", "query", resultSchema);
+            }
+
+            public Unpacker getJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    MessagePack msgpack = new MessagePack();
+                    BufferPacker packer = msgpack.createBufferPacker();
+                    for (int i = 0; i < count; i++) {
+                        List<Object> ret = new ArrayList<Object>();
+                        ret.add(i);
+                        ret.add(i % 10 == 0 ? null : "p2:" + i);
+                        ret.add(i * 0.5);
+                        packer.write(ret);
+                    }
+                    byte[] bytes = packer.toByteArray();
+                    return msgpack.createBufferUnpacker(bytes);
+                }
+                catch (java.io.IOException e) {
+                    throw new ClientException("mock");
+                }
+            }
+        };
+
+        TDResultSet rs = new TDResultSet(clientApi, 0, new Job("12345"));
+        rs.setScrollable(true);
+        assertEquals(ResultSet.TYPE_SCROLL_INSENSITIVE, rs.getType());
+        assertEquals(0, rs.getRow());
+
+        assertTrue(rs.next());
+        assertEquals(1, rs.getRow());
+        assertEquals(0, rs.getInt(1));
+
+        assertTrue(rs.absolute(50));
+        assertEquals(50, rs.getRow());
+        assertEquals(49, rs.getInt(1));
+        assertEquals("p2:49", rs.getString(2));
+
+        // rows before the last fetched row are read from the row store
+        assertTrue(rs.absolute(11));
+        assertEquals(10, rs.getInt(1));
+        assertNull(rs.getString(2));
+        assertTrue(rs.wasNull());
+        assertTrue(rs.previous());
+        assertEquals(9, rs.getInt(1));
+        assertEquals("p2:9", rs.getString(2));
+        assertEquals(4.5, rs.getDouble(3), 0.0);
+        assertTrue(rs.relative(5));
+        assertEquals(14, rs.getInt(1));
+
+        assertTrue(rs.first());
+        assertEquals(0, rs.getInt(1));
+        assertFalse(rs.previous());
+        assertEquals(0, rs.getRow());
+
+        assertTrue(rs.last());
+        assertEquals(count, rs.getRow());
+        assertEquals(count - 1, rs.getInt(1));
+        assertFalse(rs.next());
+        assertEquals(0, rs.getRow());
+        assertTrue(rs.absolute(-2));
+        assertEquals(count - 2, rs.getInt(1));
+
+        rs.afterLast();
+        assertTrue(rs.previous());
+        assertEquals(count - 1, rs.getInt(1));
+        rs.beforeFirst();
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        assertFalse(rs.absolute(count + 1));
+        rs.close();
+    }
+
+    @Test
+    public void testCancel()
+            throws Exception
+    {
+        final List<Job> killed = new ArrayList<Job>();
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    Thread.sleep(60 * 1000);
+                }
+                catch (InterruptedException e) {
+                    // cancelled
+                }
+                return null;
+            }
+
+            public boolean killJob(Job job)
+            {
+                killed.add(job);
+                return true;
+            }
+        };
+
+        final TDResultSet rs = new TDResultSet(clientApi, 50, new Job("12345"));
+        Thread canceller = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    Thread.sleep(200);
+                    rs.cancel();
+                }
+                catch (Exception e) {
+                    // ignore
+                }
+            }
+        });
+        canceller.start();
+
+        long start = System.currentTimeMillis();
+        try {
+            rs.next();
+            fail();
+        }
+        catch (SQLException e) {
+            // cancelled
+        }
+        canceller.join();
+        assertTrue(System.currentTimeMillis() - start < 10 * 1000);
+        assertEquals(1, killed.size());
+        assertEquals("12345", killed.get(0).getJobID());
+    }
+
+    @Test
+    public void testTimeoutKillsJob()
+            throws Exception
+    {
+        final List<Job> killed = new ArrayList<Job>();
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    Thread.sleep(60 * 1000);
+                }
+                catch (InterruptedException e) {
+                    // cancelled
+                }
+                return null;
+            }
+
+            public boolean killJob(Job job)
+            {
+                killed.add(job);
+                return true;
+            }
+        };
+
+        TDResultSet rs = new TDResultSet(clientApi, 50, new Job("12345"), 1);
+        try {
+            rs.next();
+            fail();
+        }
+        catch (SQLException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(1, killed.size());
+        rs.close();
+    }
+
+    @Test
+    public void testTimeoutCancelsDownload()
+            throws Exception
+    {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                return new JobSummary("12345", JobSummary.Type.HIVE,
+                        new Database("mugadb"), "url", "rtbl", Status.SUCCESS,
+                        "startAt", "endAt", "query", "[[\"p1\",\"int\"]]");
+            }
+
+            public ExtUnpacker getJobResult2(Job job)
+                    throws ClientException
+            {
+                try {
+                    Thread.sleep(60 * 1000);
+                }
+                catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        };
+
+        TDResultSet rs = new TDResultSet(clientApi, 50, new Job("12345"), 1);
+        long start = System.currentTimeMillis();
+        try {
+            rs.next();
+            fail();
+        }
+        catch (SQLException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 10 * 1000);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        rs.close();
+    }
+
+    @Test
+    public void testInterruptedWait()
+            throws Exception
+    {
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    Thread.sleep(60 * 1000);
+                }
+                catch (InterruptedException e) {
+                    // cancelled
+                }
+                return null;
+            }
+        };
+
+        TDResultSet rs = new TDResultSet(clientApi, 50, new Job("12345"));
+        Thread.currentThread().interrupt();
+        try {
+            rs.getMetaData();
+            fail();
+        }
+        catch (SQLException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        // the interrupt is kept for the caller
+        assertTrue(Thread.interrupted());
+        rs.close();
+    }
+
+    @Test
+    public void testNext05()
+            throws Exception
+    {
+        final BigInteger uint64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        ClientAPI clientApi = new MockClientAPI()
+        {
+            public JobSummary waitJobResult(Job job)
+                    throws ClientException
+            {
+                String resultSchema = "[[\"c0\",\"bigint\"],[\"c1\",\"string\"],[\"c2\",\"bigint\"]]";
+                return new JobSummary("12345", JobSummary.Type.HIVE,
+                        new Database("mugadb"), "url", "rtbl", Status.SUCCESS,
+                        "startAt", "endAt", "query", resultSchema);
+            }
+
+            public Unpacker getJobResult(Job job)
+                    throws ClientException
+            {
+                try {
+                    MessagePack msgpack = new MessagePack();
+                    BufferPacker packer = msgpack.createBufferPacker();
+                    packer.writeArrayBegin(3);
+                    packer.write(uint64);
+                    packer.write(new byte[] {'a', (byte) 0xff, 'b'});
+                    packer.write(1);
+                    packer.writeArrayEnd();
+                    byte[] bytes = packer.toByteArray();
+                    return msgpack.createBufferUnpacker(bytes);
+                }
+                catch (java.io.IOException e) {
+                    throw new ClientException("mock");
+                }
+            }
+        };
+
+        Job job = new Job("12345");
+        ResultSet rs = new TDResultSet(clientApi, 100, job);
+        assertTrue(rs.next());
+        assertEquals(uint64.toString(), rs.getString(1));
+        assertEquals(ValueFactory.createIntegerValue(uint64), rs.getObject(1));
+        assertEquals("a\ufffdb", rs.getString(2));
+        assertEquals(1, rs.getLong(3));
+        assertFalse(rs.next());
+    }
+
     @Test
     public void testGetMetaData01()
             throws Exception
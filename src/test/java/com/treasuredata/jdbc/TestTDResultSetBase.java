@@ -37,6 +37,9 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -49,6 +52,11 @@ public class TestTDResultSetBase
     public static class MockClientAPI
             implements ClientAPI
     {
+        public void ping()
+                throws ClientException
+        {
+        }
+
         public List<DatabaseSummary> showDatabases()
                 throws ClientException
         {
@@ -67,6 +75,12 @@ public class TestTDResultSetBase
             return null;
         }
 
+        public List<TableSummary> showTables(String database)
+                throws ClientException
+        {
+            return null;
+        }
+
         public boolean drop(String tableName)
                 throws ClientException
         {
@@ -113,6 +127,28 @@ public class TestTDResultSetBase
             return null;
         }
 
+        public Future<JobSummary> waitJobResultAsync(final Job job)
+        {
+            FutureTask<JobSummary> f = new FutureTask<JobSummary>(new Callable<JobSummary>()
+            {
+                public JobSummary call()
+                        throws Exception
+                {
+                    return waitJobResult(job);
+                }
+            });
+            Thread t = new Thread(f);
+            t.setDaemon(true);
+            t.start();
+            return f;
+        }
+
+        public boolean killJob(Job job)
+                throws ClientException
+        {
+            return false;
+        }
+
         public Unpacker getJobResult(Job job)
                 throws ClientException
         {
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBackoff
+{
+    @Test
+    public void testWaitTime()
+    {
+        Backoff backoff = new Backoff(1000, 5000, 2.0, 0.0);
+        assertEquals(1000, backoff.getWaitTimeMs(0));
+        assertEquals(2000, backoff.getWaitTimeMs(1));
+        assertEquals(4000, backoff.getWaitTimeMs(2));
+        assertEquals(5000, backoff.getWaitTimeMs(3));
+        assertEquals(5000, backoff.getWaitTimeMs(100));
+    }
+
+    @Test
+    public void testJitter()
+    {
+        Backoff backoff = new Backoff(1000, 5000, 2.0, 0.5);
+        for (int i = 0; i < 100; i++) {
+            long wait = backoff.getWaitTimeMs(1);
+            assertTrue(wait >= 1000 && wait <= 2000);
+        }
+    }
+}
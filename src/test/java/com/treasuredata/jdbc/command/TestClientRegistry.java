@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.client.HttpClientException;
+import com.treasure_data.client.TreasureDataClient;
+import com.treasure_data.model.AuthenticateRequest;
+import com.treasure_data.model.AuthenticateResult;
+import com.treasuredata.jdbc.Config;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestClientRegistry
+{
+    private static class MockRegistry
+            extends ClientRegistry
+    {
+        private final List<TreasureDataClient> created = new ArrayList<TreasureDataClient>();
+        private int authCount = 0;
+
+        MockRegistry()
+        {
+            super(100);
+        }
+
+        @Override
+        SharedClient newClient(Properties props, Entry entry)
+        {
+            SharedClient client = new SharedClient(props, entry)
+            {
+                @Override
+                public AuthenticateResult authenticate(AuthenticateRequest request)
+                {
+                    authCount++;
+                    return null;
+                }
+            };
+            created.add(client);
+            return client;
+        }
+    }
+
+    private static Config newConfig(String user, String password, long ttl)
+            throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        props.setProperty(Config.TD_JDBC_CREDENTIALS_TTL, Long.toString(ttl));
+        return Config.newConfig("jdbc:td://api.treasuredata.com/db01", props);
+    }
+
+    @Test
+    public void testSharedClient()
+            throws Exception
+    {
+        MockRegistry registry = new MockRegistry();
+        Config config = newConfig("user01", "pass01", 60000);
+
+        TreasureDataClient c1 = registry.getClient(config);
+        TreasureDataClient c2 = registry.getClient(newConfig("user01", "pass01", 60000));
+        assertSame(c1, c2);
+        // authenticated once
+        assertEquals(1, registry.authCount);
+
+        // other credentials use another client
+        assertNotSame(c1, registry.getClient(newConfig("user01", "pass02", 60000)));
+        assertNotSame(c1, registry.getClient(newConfig("user02", "pass01", 60000)));
+        assertEquals(3, registry.getClientCount());
+        assertEquals(3, registry.authCount);
+    }
+
+    @Test
+    public void testCredentialsTtl()
+            throws Exception
+    {
+        MockRegistry registry = new MockRegistry();
+        Config config = newConfig("user01", "pass01", 0);
+        registry.getClient(config);
+        registry.getClient(config);
+        // expired immediately
+        assertEquals(2, registry.authCount);
+
+        config = newConfig("user02", "pass01", 60000);
+        registry.getClient(config);
+        registry.invalidate(config);
+        registry.getClient(config);
+        assertEquals(4, registry.authCount);
+    }
+
+    @Test
+    public void testAuthFailure()
+            throws Exception
+    {
+        MockRegistry registry = new MockRegistry();
+        Config config = newConfig("user01", "pass01", 60000);
+        TreasureDataClient client = registry.getClient(config);
+        client.listDatabases();
+        assertEquals(1, registry.authCount);
+
+        // a rejected API key makes the next call of the shared client log in again
+        registry.invalidate(config);
+        client.listDatabases();
+        assertEquals(2, registry.authCount);
+        client.listDatabases();
+        assertEquals(2, registry.authCount);
+
+        assertTrue(ClientRegistry.isAuthFailure(new HttpClientException("List databases failed", "Unauthorized", 401)));
+        assertTrue(ClientRegistry.isAuthFailure(new ClientException(new HttpClientException("Show job failed", "Forbidden", 403))));
+        assertFalse(ClientRegistry.isAuthFailure(new HttpClientException("List databases failed", "Internal Server Error", 500)));
+        assertFalse(ClientRegistry.isAuthFailure(new ClientException("timeout")));
+    }
+
+    @Test
+    public void testApiKey()
+            throws Exception
+    {
+        MockRegistry registry = new MockRegistry();
+        Properties props = new Properties();
+        props.setProperty("apikey", "xxxx");
+        Config config = Config.newConfig("jdbc:td://api.treasuredata.com/db01", props);
+        assertSame(registry.getClient(config), registry.getClient(config));
+        assertEquals(0, registry.authCount);
+    }
+}
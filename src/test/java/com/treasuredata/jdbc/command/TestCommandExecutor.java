@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.model.Job;
+import com.treasuredata.jdbc.TDResultSet;
+import com.treasuredata.jdbc.TDResultSetBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestCommandExecutor
+{
+    @Test
+    public void testConcurrentExecute()
+            throws Exception
+    {
+        final int threads = 4;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        // every query waits until all the queries are running
+        final CommandExecutor executor = new CommandExecutor(new NullClientAPI()
+        {
+            @Override
+            public TDResultSetBase select(String sql, int queryTimeout)
+                    throws ClientException
+            {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new ClientException(e);
+                }
+                catch (BrokenBarrierException e) {
+                    throw new ClientException(e);
+                }
+                catch (TimeoutException e) {
+                    throw new ClientException("the queries did not run in parallel");
+                }
+                return null;
+            }
+        });
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> ts = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final CommandContext context = new CommandContext();
+            context.sql = "select * from t" + i;
+            Thread t = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        executor.execute(context);
+                        assertNull(context.resultSet);
+                    }
+                    catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            ts.add(t);
+            t.start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+    }
+
+    @Test
+    public void testFetchSize()
+            throws Exception
+    {
+        CommandExecutor executor = new CommandExecutor(new NullClientAPI()
+        {
+            @Override
+            public TDResultSetBase select(String sql, int queryTimeout)
+                    throws ClientException
+            {
+                return new TDResultSet(this, 0, new Job("12345"), queryTimeout);
+            }
+        });
+
+        CommandContext context = new CommandContext();
+        context.sql = "select * from t";
+        context.fetchSize = 500;
+        executor.execute(context);
+        assertEquals(500, context.resultSet.getFetchSize());
+
+        // the default of the result set
+        context.fetchSize = 0;
+        executor.execute(context);
+        assertEquals(50, context.resultSet.getFetchSize());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.model.Job;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestJobPollSchedule
+{
+    @Test
+    public void testBackoff()
+    {
+        JobPollSchedule schedule = new JobPollSchedule(new Backoff(100, 1000, 2.0, 0.0), -1, 60000);
+        assertEquals(100, schedule.nextWaitTimeMs(0));
+        assertEquals(200, schedule.nextWaitTimeMs(100));
+        assertEquals(400, schedule.nextWaitTimeMs(300));
+        assertEquals(800, schedule.nextWaitTimeMs(700));
+        assertEquals(1000, schedule.nextWaitTimeMs(1500));
+        assertEquals(1000, schedule.nextWaitTimeMs(2500));
+    }
+
+    @Test
+    public void testPredictedRuntime()
+    {
+        // sleeps until 80% of the predicted runtime, then polls quickly again
+        JobPollSchedule schedule = new JobPollSchedule(new Backoff(100, 1000, 2.0, 0.0), 10000, 60000);
+        assertEquals(7950, schedule.nextWaitTimeMs(50));
+        assertEquals(100, schedule.nextWaitTimeMs(8000));
+        assertEquals(200, schedule.nextWaitTimeMs(8100));
+
+        // long waits are bounded
+        schedule = new JobPollSchedule(new Backoff(100, 1000, 2.0, 0.0), 100000, 30000);
+        assertEquals(30000, schedule.nextWaitTimeMs(0));
+        assertEquals(30000, schedule.nextWaitTimeMs(30000));
+        assertEquals(20000, schedule.nextWaitTimeMs(60000));
+        assertEquals(100, schedule.nextWaitTimeMs(80000));
+
+        // the job takes longer than predicted
+        schedule = new JobPollSchedule(new Backoff(100, 1000, 2.0, 0.0), 1000, 60000);
+        assertEquals(100, schedule.nextWaitTimeMs(5000));
+    }
+
+    @Test
+    public void testRuntimePredictor()
+    {
+        JobRuntimePredictor predictor = new JobRuntimePredictor(2, 0.5);
+        assertEquals(-1, predictor.predict("q1"));
+        predictor.record("q1", 1000);
+        assertEquals(1000, predictor.predict("q1"));
+        predictor.record("q1", 3000);
+        assertEquals(2000, predictor.predict("q1"));
+
+        predictor.record("q2", 100);
+        predictor.record("q3", 100);
+        assertEquals(2, predictor.size());
+        assertEquals(-1, predictor.predict("q1"));
+    }
+
+    @Test
+    public void testFingerprint()
+    {
+        assertEquals(JobRuntimePredictor.fingerprint("select * from t where id = 1 and s = 'a'", Job.Type.PRESTO),
+                JobRuntimePredictor.fingerprint("SELECT *\nFROM t WHERE id = 12.5 AND s = 'it\\'s';", Job.Type.PRESTO));
+        assertTrue(JobRuntimePredictor.fingerprint("select c1 from t2 where x = 3", Job.Type.PRESTO)
+                .endsWith(":select c1 from t2 where x = ?"));
+        assertFalse(JobRuntimePredictor.fingerprint("select 1", Job.Type.PRESTO).equals(
+                JobRuntimePredictor.fingerprint("select 1", Job.Type.HIVE)));
+        assertFalse(JobRuntimePredictor.fingerprint("select * from \"T1\"", Job.Type.PRESTO).equals(
+                JobRuntimePredictor.fingerprint("select * from \"T2\"", Job.Type.PRESTO)));
+    }
+}
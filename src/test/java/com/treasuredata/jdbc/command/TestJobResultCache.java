@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.model.Job;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestJobResultCache
+{
+    private File dir;
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        dir = File.createTempFile("td-jdbc-cache-", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static File newResultFile(int size)
+            throws IOException
+    {
+        File f = File.createTempFile("td-jdbc-", ".tmp");
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(new byte[size]);
+        }
+        finally {
+            out.close();
+        }
+        return f;
+    }
+
+    @Test
+    public void testNormalizeSql()
+    {
+        assertEquals("select * from t where s = 'a  b'",
+                JobResultCache.normalizeSql("  select *\n  from t\twhere s = 'a  b' ;", Job.Type.PRESTO));
+        assertEquals("select 'it\\'s  x'", JobResultCache.normalizeSql("select   'it\\'s  x'", Job.Type.HIVE));
+        assertEquals(JobResultCache.key("a1", "select 1 from t", "db", Job.Type.PRESTO),
+                JobResultCache.key("a1", "select  1\nfrom t;", "db", Job.Type.PRESTO));
+        assertFalse(JobResultCache.key("a1", "select 1 from t", "db", Job.Type.PRESTO).equals(
+                JobResultCache.key("a1", "select 1 from t", "db", Job.Type.HIVE)));
+        assertFalse(JobResultCache.key("a1", "select 1 from t", "db", Job.Type.PRESTO).equals(
+                JobResultCache.key("a1", "select 1 from t", "db2", Job.Type.PRESTO)));
+        // another account
+        assertFalse(JobResultCache.key("a1", "select 1 from t", "db", Job.Type.PRESTO).equals(
+                JobResultCache.key("a2", "select 1 from t", "db", Job.Type.PRESTO)));
+    }
+
+    @Test
+    public void testNormalizeSqlComments()
+    {
+        assertEquals("select a , b from t",
+                JobResultCache.normalizeSql("select a -- x\n, b /* y */ from t", Job.Type.PRESTO));
+        // the rest of the line is commented out
+        assertEquals("select a", JobResultCache.normalizeSql("select a -- x , b", Job.Type.PRESTO));
+        assertFalse(JobResultCache.key("a1", "select a -- x\n, b", "db", Job.Type.PRESTO).equals(
+                JobResultCache.key("a1", "select a -- x , b", "db", Job.Type.PRESTO)));
+        // not in a quoted text
+        assertEquals("select '--  x'", JobResultCache.normalizeSql("select  '--  x'", Job.Type.PRESTO));
+        assertTrue(JobResultCache.isCacheable("-- report\nselect 1"));
+    }
+
+    @Test
+    public void testNormalizeSqlEscapes()
+    {
+        // a backslash does not escape the quote in Presto, so the string ends there
+        assertEquals("select 'a\\' , 'b'", JobResultCache.normalizeSql("select 'a\\'  ,  'b'", Job.Type.PRESTO));
+        // but it does in Hive
+        assertEquals("select 'a\\'  ,  'b'", JobResultCache.normalizeSql("select 'a\\'  ,  'b'", Job.Type.HIVE));
+        assertEquals("select 'it''s  x'", JobResultCache.normalizeSql("select  'it''s  x'", Job.Type.PRESTO));
+    }
+
+    @Test
+    public void testIsCacheable()
+    {
+        assertTrue(JobResultCache.isCacheable(" SELECT * FROM t"));
+        assertTrue(JobResultCache.isCacheable("with a as (select 1) select * from a"));
+        assertFalse(JobResultCache.isCacheable("insert into t select * from s"));
+    }
+
+    @Test
+    public void testPutAndGet()
+            throws Exception
+    {
+        JobResultCache cache = new JobResultCache(dir, 60 * 1000, 1024);
+        assertNull(cache.get("k1"));
+        assertEquals(1, cache.getMissCount());
+
+        File f = newResultFile(100);
+        JobResultCache.Entry put = cache.put("k1", "12345", "[[\"c0\",\"int\"]]", f);
+        assertFalse(f.exists());
+        assertTrue(put.getFile().exists());
+
+        JobResultCache.Entry e = cache.get("k1");
+        assertNotNull(e);
+        assertEquals("12345", e.getJobID());
+        assertEquals("[[\"c0\",\"int\"]]", e.getResultSchema());
+        assertEquals(100, e.getFile().length());
+        assertEquals(1, cache.getHitCount());
+
+        // entries are loaded from the directory
+        JobResultCache reloaded = new JobResultCache(dir, 60 * 1000, 1024);
+        assertEquals(1, reloaded.getEntryCount());
+        assertEquals(100, reloaded.getSize());
+        assertNotNull(reloaded.get("k1"));
+    }
+
+    @Test
+    public void testExpire()
+            throws Exception
+    {
+        JobResultCache cache = new JobResultCache(dir, -1, 1024);
+        cache.put("k1", "12345", null, newResultFile(100));
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testEvict()
+            throws Exception
+    {
+        JobResultCache cache = new JobResultCache(dir, 60 * 1000, 250);
+        cache.put("k1", "1", null, newResultFile(100));
+        cache.put("k2", "2", null, newResultFile(100));
+        // k1 is used recently
+        assertNotNull(cache.get("k1"));
+        cache.put("k3", "3", null, newResultFile(100));
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(200, cache.getSize());
+        assertNotNull(cache.get("k1"));
+        assertNull(cache.get("k2"));
+        assertNotNull(cache.get("k3"));
+
+        // too large to cache
+        File large = newResultFile(300);
+        assertNull(cache.put("k4", "4", null, large));
+        assertTrue(large.exists());
+        large.delete();
+    }
+
+    private static int readAll(InputStream in)
+            throws IOException
+    {
+        try {
+            int size = 0;
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                size += len;
+            }
+            return size;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testReadEvictedEntry()
+            throws Exception
+    {
+        JobResultCache cache = new JobResultCache(dir, 60 * 1000, 150);
+        cache.put("k1", "1", null, newResultFile(100));
+        JobResultCache.Entry hit = cache.get("k1");
+        assertNotNull(hit);
+
+        // k1 is evicted before the hit is read
+        JobResultCache.Entry put = cache.put("k2", "2", null, newResultFile(100));
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(hit.getFile().exists());
+        assertEquals(100, readAll(hit.openStream()));
+
+        // too large for the cache with k2, but readable once put
+        JobResultCache.Entry large = cache.put("k3", "3", null, newResultFile(150));
+        assertFalse(put.getFile().exists());
+        assertEquals(100, readAll(put.openStream()));
+        assertEquals(150, readAll(large.openStream()));
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.treasuredata.jdbc.ApiConfig;
+import com.treasuredata.jdbc.DriverExecutor;
+import com.treasuredata.jdbc.ProxyConfig;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestJobResultDownloader
+{
+    private static byte[] newData(int size)
+    {
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readFile(File file)
+            throws IOException
+    {
+        byte[] b = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(b);
+        }
+        finally {
+            in.close();
+        }
+        return b;
+    }
+
+    private static class ArrayDownloader
+            extends JobResultDownloader
+    {
+        private final byte[] data;
+        private final boolean rangeSupported;
+
+        ArrayDownloader(byte[] data, int streams, boolean rangeSupported)
+        {
+            super(new ApiConfig.ApiConfigBuilder().createApiConfig(), "xxxx", streams);
+            this.data = data;
+            this.rangeSupported = rangeSupported;
+        }
+
+        @Override
+        protected InputStream openRange(String jobID, Range range)
+                throws IOException
+        {
+            if (!rangeSupported) {
+                throw new RangeNotSupportedException("HTTP 200");
+            }
+            return new ByteArrayInputStream(data, (int) range.position, (int) (range.end - range.position));
+        }
+    }
+
+    @Test
+    public void testPlanRanges()
+    {
+        List<JobResultDownloader.Range> ranges = JobResultDownloader.planRanges(10, 3);
+        assertEquals(3, ranges.size());
+        assertEquals(0, ranges.get(0).start);
+        assertEquals(4, ranges.get(0).end);
+        assertEquals(4, ranges.get(1).start);
+        assertEquals(8, ranges.get(1).end);
+        assertEquals(8, ranges.get(2).start);
+        assertEquals(10, ranges.get(2).end);
+
+        assertEquals(2, JobResultDownloader.planRanges(2, 4).size());
+        assertEquals(0, JobResultDownloader.planRanges(0, 4).size());
+    }
+
+    @Test
+    public void testDownload()
+            throws Exception
+    {
+        byte[] data = newData(1000003);
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            new ArrayDownloader(data, 4, true).download("12345", new ByteArrayInputStream(data), data.length, file);
+            assertTrue(Arrays.equals(data, readFile(file)));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTruncatedHead()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            new ArrayDownloader(data, 2, true).download("12345",
+                    new ByteArrayInputStream(data, 0, 100), data.length, file);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Cannot read all data"));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRangeNotSupported()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            new ArrayDownloader(data, 2, false).download("12345", new ByteArrayInputStream(data), data.length, file);
+            fail();
+        }
+        catch (JobResultDownloader.RangeNotSupportedException e) {
+            // fall back to a single stream
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testResume()
+            throws Exception
+    {
+        final byte[] data = newData(100000);
+        final List<Long> requested = new ArrayList<Long>();
+        JobResultDownloader downloader = new ArrayDownloader(data, 2, true)
+        {
+            @Override
+            protected InputStream openRange(String jobID, Range range)
+                    throws IOException
+            {
+                requested.add(range.position);
+                return super.openRange(jobID, range);
+            }
+        };
+
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            JobResultDownloader.Download download = new JobResultDownloader.Download("12345", file);
+            // the connection is reset in the middle of the first range
+            InputStream head = new ByteArrayInputStream(data, 0, 30000);
+            try {
+                downloader.start(download, head, data.length);
+                fail();
+            }
+            catch (IOException e) {
+                // failed
+            }
+            assertEquals(80000, download.getDownloadedSize());
+            try {
+                downloader.verify(download);
+                fail();
+            }
+            catch (IOException e) {
+                // not completed
+            }
+
+            requested.clear();
+            downloader.resume(download);
+            downloader.verify(download);
+            assertEquals(Arrays.asList(30000L), requested);
+            assertTrue(Arrays.equals(data, readFile(file)));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRangeTimeout()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        // accepts connections but never answers
+        ServerSocket server = new ServerSocket(0);
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            ApiConfig apiConfig = new ApiConfig.ApiConfigBuilder()
+                    .setEndpoint("localhost").setPort(server.getLocalPort()).createApiConfig();
+            JobResultDownloader downloader = new JobResultDownloader(apiConfig, "xxxx", 2, 200,
+                    DriverExecutor.getInstance().getSharedScope());
+            JobResultDownloader.Download download = new JobResultDownloader.Download("12345", file);
+            long start = System.currentTimeMillis();
+            try {
+                downloader.start(download, new ByteArrayInputStream(data), data.length);
+                fail();
+            }
+            catch (JobResultDownloader.RangeNotSupportedException e) {
+                fail();
+            }
+            catch (IOException e) {
+                // retried by resuming the range
+                assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+            }
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            // the first range is kept
+            assertEquals(500, download.getDownloadedSize());
+            assertFalse(download.getIncompleteRanges().isEmpty());
+        }
+        finally {
+            server.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Answers the range requests with the given status codes in order, and
+     * with the requested bytes after them
+     */
+    private static class RangeServer
+            implements HttpHandler
+    {
+        private final byte[] data;
+        private final LinkedList<Integer> codes;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final HttpServer server;
+
+        RangeServer(byte[] data, Integer... codes)
+                throws IOException
+        {
+            this.data = data;
+            this.codes = new LinkedList<Integer>(Arrays.asList(codes));
+            this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", this);
+            server.start();
+        }
+
+        public void handle(HttpExchange exchange)
+                throws IOException
+        {
+            requests.incrementAndGet();
+            Integer code;
+            synchronized (codes) {
+                code = codes.poll();
+            }
+            if (code != null) {
+                exchange.sendResponseHeaders(code, -1);
+                exchange.close();
+                return;
+            }
+            // bytes=start-end
+            String[] range = exchange.getRequestHeaders().getFirst("Range").substring(6).split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Integer.parseInt(range[1]) + 1;
+            exchange.sendResponseHeaders(206, end - start);
+            OutputStream out = exchange.getResponseBody();
+            out.write(data, start, end - start);
+            out.close();
+        }
+
+        JobResultDownloader newDownloader(ProxyConfig proxy)
+        {
+            ApiConfig.ApiConfigBuilder apiConfig = new ApiConfig.ApiConfigBuilder()
+                    .setEndpoint("localhost").setPort(server.getAddress().getPort());
+            if (proxy != null) {
+                apiConfig.setProxyConfig(proxy);
+            }
+            return new JobResultDownloader(apiConfig.createApiConfig(), "xxxx", 2, 5000,
+                    new Backoff(10, 10, 1.0, 0.0), DriverExecutor.getInstance().getSharedScope());
+        }
+
+        void stop()
+        {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRangeRetry()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        RangeServer server = new RangeServer(data, 503, 429);
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            server.newDownloader(null).download("12345", new ByteArrayInputStream(data), data.length, file);
+            assertTrue(Arrays.equals(data, readFile(file)));
+            assertEquals(3, server.requests.get());
+        }
+        finally {
+            server.stop();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRangeError()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        for (int code : new int[] {401, 404}) {
+            RangeServer server = new RangeServer(data, code);
+            File file = File.createTempFile("td-jdbc-test-", ".tmp");
+            try {
+                server.newDownloader(null).download("12345", new ByteArrayInputStream(data), data.length, file);
+                fail();
+            }
+            catch (JobResultDownloader.RangeNotSupportedException e) {
+                fail();
+            }
+            catch (IOException e) {
+                // not retried
+                assertTrue(e.getMessage(), e.getMessage().contains("HTTP " + code));
+                assertEquals(1, server.requests.get());
+            }
+            finally {
+                server.stop();
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testRangeIgnored()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        RangeServer server = new RangeServer(data, 200);
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            server.newDownloader(null).download("12345", new ByteArrayInputStream(data), data.length, file);
+            fail();
+        }
+        catch (JobResultDownloader.RangeNotSupportedException e) {
+            // fall back to a single stream
+        }
+        finally {
+            server.stop();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testProxyWithUser()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        RangeServer server = new RangeServer(data);
+        File file = File.createTempFile("td-jdbc-test-", ".tmp");
+        try {
+            ProxyConfig proxy = new ProxyConfig.ProxyConfigBuilder()
+                    .setHost("localhost").setPort(8080).setUser("user").setPassword("pass").createProxyConfig();
+            // the whole result is read from the head stream
+            server.newDownloader(proxy).download("12345", new ByteArrayInputStream(data), data.length, file);
+            assertTrue(Arrays.equals(data, readFile(file)));
+            assertEquals(0, server.requests.get());
+        }
+        finally {
+            server.stop();
+            file.delete();
+        }
+    }
+}
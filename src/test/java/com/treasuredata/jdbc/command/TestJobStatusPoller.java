@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.client.TreasureDataClient;
+import com.treasure_data.model.Job;
+import com.treasure_data.model.JobSummary;
+import com.treasure_data.model.ListJobs;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestJobStatusPoller
+{
+    private static JobSummary newJobSummary(String jobID, JobSummary.Status status)
+    {
+        JobSummary js = mock(JobSummary.class);
+        when(js.getJobID()).thenReturn(jobID);
+        when(js.getStatus()).thenReturn(status);
+        return js;
+    }
+
+    private static class MockClient
+            extends TreasureDataClient
+    {
+        private final List<JobSummary> recentJobs = new ArrayList<JobSummary>();
+        private int listJobsCount = 0;
+        private final List<String> showJobStatusCalls = new ArrayList<String>();
+        private JobSummary.Status status = JobSummary.Status.RUNNING;
+
+        MockClient()
+        {
+            super(new Properties());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ListJobs<JobSummary> listJobs(long from, long to)
+                throws ClientException
+        {
+            listJobsCount++;
+            ListJobs<JobSummary> list = mock(ListJobs.class);
+            when(list.getJobs()).thenReturn(recentJobs);
+            return list;
+        }
+
+        @Override
+        public JobSummary.Status showJobStatus(Job job)
+                throws ClientException
+        {
+            showJobStatusCalls.add(job.getJobID());
+            return status;
+        }
+    }
+
+    private static JobPollSchedule newSchedule()
+    {
+        return new JobPollSchedule(new Backoff(10, 10, 1.0, 0.0), -1, 10);
+    }
+
+    private static JobStatusPoller newPoller()
+    {
+        return new JobStatusPoller(2, 20, 200, 2, new Backoff(10, 10, 1.0, 0.0));
+    }
+
+    /**
+     * Makes the status calls in the thread of poll()
+     */
+    private static JobStatusPoller newInlinePoller()
+    {
+        return new JobStatusPoller(2, 20, 200, 2, new Backoff(10, 10, 1.0, 0.0))
+        {
+            @Override
+            void dispatch(String threadName, Runnable call)
+            {
+                call.run();
+            }
+        };
+    }
+
+    @Test
+    public void testBatch()
+            throws Exception
+    {
+        MockClient client = new MockClient();
+        client.recentJobs.add(newJobSummary("1", JobSummary.Status.SUCCESS));
+        client.recentJobs.add(newJobSummary("2", JobSummary.Status.RUNNING));
+        client.recentJobs.add(newJobSummary("99", JobSummary.Status.SUCCESS));
+
+        JobStatusPoller poller = newInlinePoller();
+        long now = System.currentTimeMillis();
+        JobStatusPoller.Watch w1 = poller.new Watch(client, "a1", new Job("1"), newSchedule(), now);
+        JobStatusPoller.Watch w2 = poller.new Watch(client, "a1", new Job("2"), newSchedule(), now);
+        JobStatusPoller.Watch w3 = poller.new Watch(client, "a1", new Job("3"), newSchedule(), now);
+        poller.poll(Arrays.asList(w1, w2, w3));
+
+        // job 3 is not in the list of recent jobs
+        assertEquals(1, client.listJobsCount);
+        assertEquals(Arrays.asList("3"), client.showJobStatusCalls);
+        assertTrue(w1.isDone());
+        assertEquals(JobSummary.Status.SUCCESS, w1.get());
+        assertFalse(w2.isDone());
+        assertFalse(w3.isDone());
+
+        // a single job is checked by showJobStatus
+        client.status = JobSummary.Status.KILLED;
+        poller.poll(Arrays.asList(w3));
+        assertEquals(1, client.listJobsCount);
+        assertEquals(JobSummary.Status.KILLED, w3.get());
+    }
+
+    @Test
+    public void testBatchAcrossConnections()
+            throws Exception
+    {
+        // the connections of an account with clients of their own
+        MockClient c1 = new MockClient();
+        MockClient c2 = new MockClient();
+        c1.recentJobs.add(newJobSummary("1", JobSummary.Status.SUCCESS));
+        c1.recentJobs.add(newJobSummary("2", JobSummary.Status.SUCCESS));
+        MockClient other = new MockClient();
+
+        JobStatusPoller poller = newInlinePoller();
+        long now = System.currentTimeMillis();
+        JobStatusPoller.Watch w1 = poller.new Watch(c1, "a1", new Job("1"), newSchedule(), now);
+        JobStatusPoller.Watch w2 = poller.new Watch(c2, "a1", new Job("2"), newSchedule(), now);
+        JobStatusPoller.Watch w3 = poller.new Watch(other, "a2", new Job("3"), newSchedule(), now);
+        poller.poll(Arrays.asList(w1, w2, w3));
+
+        assertEquals(1, c1.listJobsCount + c2.listJobsCount);
+        assertEquals(0, c1.showJobStatusCalls.size() + c2.showJobStatusCalls.size());
+        assertEquals(JobSummary.Status.SUCCESS, w1.get());
+        assertEquals(JobSummary.Status.SUCCESS, w2.get());
+        // a single job of another account
+        assertEquals(0, other.listJobsCount);
+        assertEquals(Arrays.asList("3"), other.showJobStatusCalls);
+    }
+
+    @Test
+    public void testRetry()
+            throws Exception
+    {
+        final List<String> calls = new ArrayList<String>();
+        TreasureDataClient flaky = new TreasureDataClient(new Properties())
+        {
+            @Override
+            public JobSummary.Status showJobStatus(Job job)
+                    throws ClientException
+            {
+                synchronized (calls) {
+                    calls.add(job.getJobID());
+                    if (calls.size() <= 2) {
+                        throw new ClientException("temporary failure");
+                    }
+                }
+                return JobSummary.Status.SUCCESS;
+            }
+        };
+        JobStatusPoller poller = newPoller();
+        JobStatusPoller.Watch w = poller.watch(flaky, "a1", new Job("1"), newSchedule(), System.currentTimeMillis());
+        assertEquals(JobSummary.Status.SUCCESS, w.get(5, TimeUnit.SECONDS));
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    public void testSlowStatusCall()
+            throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        TreasureDataClient client = new TreasureDataClient(new Properties())
+        {
+            @Override
+            public JobSummary.Status showJobStatus(Job job)
+                    throws ClientException
+            {
+                if (job.getJobID().equals("slow")) {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new ClientException(e);
+                    }
+                }
+                return JobSummary.Status.SUCCESS;
+            }
+        };
+        JobStatusPoller poller = newPoller();
+        long now = System.currentTimeMillis();
+        JobStatusPoller.Watch slow = poller.watch(client, "a1", new Job("slow"), newSchedule(), now);
+        // the call for the slow job does not delay the other jobs
+        JobStatusPoller.Watch fast = poller.watch(client, "a2", new Job("fast"), newSchedule(), now);
+        assertEquals(JobSummary.Status.SUCCESS, fast.get(5, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+        release.countDown();
+        assertEquals(JobSummary.Status.SUCCESS, slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWatch()
+            throws Exception
+    {
+        MockClient client = new MockClient();
+        JobStatusPoller poller = newPoller();
+        JobStatusPoller.Watch w = poller.watch(client, "a1", new Job("1"), newSchedule(), System.currentTimeMillis());
+        try {
+            w.get(50, TimeUnit.MILLISECONDS);
+            fail();
+        }
+        catch (TimeoutException e) {
+            // still running
+        }
+        assertEquals(1, poller.getWatchCount());
+
+        client.status = JobSummary.Status.SUCCESS;
+        assertEquals(JobSummary.Status.SUCCESS, w.get(5, TimeUnit.SECONDS));
+        assertEquals(0, poller.getWatchCount());
+        assertTrue(w.getFinishedAt() > 0);
+    }
+
+    @Test
+    public void testCancelAndError()
+            throws Exception
+    {
+        MockClient client = new MockClient();
+        JobStatusPoller poller = newPoller();
+        JobStatusPoller.Watch w = poller.watch(client, "a1", new Job("1"), newSchedule(), System.currentTimeMillis());
+        assertTrue(w.cancel(true));
+        assertTrue(w.isCancelled());
+        assertEquals(0, poller.getWatchCount());
+
+        TreasureDataClient failing = new TreasureDataClient(new Properties())
+        {
+            @Override
+            public JobSummary.Status showJobStatus(Job job)
+                    throws ClientException
+            {
+                throw new ClientException("mock");
+            }
+        };
+        w = poller.watch(failing, "a1", new Job("2"), newSchedule(), System.currentTimeMillis());
+        try {
+            w.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            // after the retries
+            assertTrue(e.getCause() instanceof ClientException);
+        }
+    }
+}
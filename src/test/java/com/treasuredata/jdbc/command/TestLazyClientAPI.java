@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasuredata.jdbc.Config;
+import com.treasuredata.jdbc.TDConnection;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLazyClientAPI
+{
+    private static TDConnection newLazyConnection()
+            throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("apikey", "xxxx");
+        props.setProperty(Config.TD_JDBC_CONNECTION_LAZY, "true");
+        // no request is sent to the API server
+        return new TDConnection(Config.newConfig("jdbc:td://api.treasuredata.com/db01", props));
+    }
+
+    private static class CountingLazyClientAPI
+            extends LazyClientAPI
+    {
+        private final AtomicInteger connectCount = new AtomicInteger();
+        private volatile boolean fail = false;
+
+        CountingLazyClientAPI(TDConnection conn)
+        {
+            super(conn);
+        }
+
+        @Override
+        protected ClientAPI newClientAPI(TDConnection conn)
+                throws Exception
+        {
+            connectCount.incrementAndGet();
+            if (fail) {
+                throw new ClientException("authentication failed");
+            }
+            return new NullClientAPI();
+        }
+    }
+
+    @Test
+    public void testConnectOnFirstUse()
+            throws Exception
+    {
+        TDConnection conn = newLazyConnection();
+        assertTrue(conn.getClientAPI() instanceof LazyClientAPI);
+
+        CountingLazyClientAPI api = new CountingLazyClientAPI(conn);
+        assertFalse(api.isConnected());
+        assertEquals(0, api.connectCount.get());
+
+        api.showDatabases();
+        api.showTables();
+        assertTrue(api.isConnected());
+        assertEquals(1, api.connectCount.get());
+        api.close();
+    }
+
+    @Test
+    public void testConnectAsync()
+            throws Exception
+    {
+        CountingLazyClientAPI api = new CountingLazyClientAPI(newLazyConnection());
+        api.connectAsync();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!api.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(api.isConnected());
+        api.showDatabases();
+        assertEquals(1, api.connectCount.get());
+    }
+
+    @Test
+    public void testRetryAfterFailure()
+            throws Exception
+    {
+        CountingLazyClientAPI api = new CountingLazyClientAPI(newLazyConnection());
+        api.fail = true;
+        try {
+            api.showDatabases();
+            fail();
+        }
+        catch (ClientException e) {
+            // failed
+        }
+        assertFalse(api.isConnected());
+
+        api.fail = false;
+        api.showDatabases();
+        assertTrue(api.isConnected());
+        assertEquals(2, api.connectCount.get());
+    }
+
+    @Test
+    public void testCloseBeforeConnect()
+            throws Exception
+    {
+        CountingLazyClientAPI api = new CountingLazyClientAPI(newLazyConnection());
+        api.close();
+        try {
+            api.showDatabases();
+            fail();
+        }
+        catch (ClientException e) {
+            // closed
+        }
+        assertEquals(0, api.connectCount.get());
+    }
+}
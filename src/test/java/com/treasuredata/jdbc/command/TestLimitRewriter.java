@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLimitRewriter
+{
+    private static void assertRewritten(String sql, int limit, String expected)
+    {
+        assertEquals(expected, LimitRewriter.rewrite(sql, limit));
+    }
+
+    private static void assertNotRewritten(String sql, int limit)
+    {
+        assertEquals(sql, LimitRewriter.rewrite(sql, limit));
+    }
+
+    @Test
+    public void testAppendLimit()
+    {
+        assertRewritten("select * from t", 10, "select * from t\nLIMIT 10");
+        assertRewritten("SELECT a FROM t WHERE b = 'x;y' ;  ", 10, "SELECT a FROM t WHERE b = 'x;y'\nLIMIT 10");
+        assertRewritten("select * from t -- comment", 10, "select * from t\nLIMIT 10");
+        assertRewritten("with q as (select * from t limit 100) select * from q", 10,
+                "with q as (select * from t limit 100) select * from q\nLIMIT 10");
+        assertRewritten("select a from t1 union all select a from t2", 10,
+                "select a from t1 union all select a from t2\nLIMIT 10");
+        assertRewritten("select * from (select * from t)", 10, "select * from (select * from t)\nLIMIT 10");
+        assertRewritten("select 'limit 5'", 10, "select 'limit 5'\nLIMIT 10");
+    }
+
+    @Test
+    public void testReplaceLimit()
+    {
+        assertRewritten("select * from t limit 100", 10, "select * from t limit 10");
+        assertRewritten("select * from t LIMIT 100;", 10, "select * from t LIMIT 10;");
+        // a smaller limit is kept
+        assertNotRewritten("select * from t limit 5", 10);
+        assertNotRewritten("select * from t limit 10", 10);
+    }
+
+    @Test
+    public void testNotRewritten()
+    {
+        assertNotRewritten("select * from t", 0);
+        assertNotRewritten("insert into t select * from s", 10);
+        assertNotRewritten("with q as (select 1) insert into t select * from q", 10);
+        assertNotRewritten("create table t as select * from s", 10);
+        assertNotRewritten("show tables", 10);
+        assertNotRewritten("select * from t limit 5, 100", 10);
+        assertNotRewritten("select * from t offset 5", 10);
+        assertNotRewritten("select * from t fetch first 100 rows only", 10);
+        assertNotRewritten("select 1; select 2", 10);
+        assertNotRewritten("select * from t where a = 'x", 10);
+        assertNotRewritten("select * from (t", 10);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.model.Database;
+import com.treasure_data.model.DatabaseSummary;
+import com.treasure_data.model.Table;
+import com.treasure_data.model.TableSummary;
+import com.treasuredata.jdbc.model.TDColumn;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestMetaDataCache
+{
+    private static class CountingClientAPI
+            extends NullClientAPI
+    {
+        private final AtomicInteger showTablesCount = new AtomicInteger();
+
+        @Override
+        public List<TableSummary> showTables()
+                throws ClientException
+        {
+            showTablesCount.incrementAndGet();
+            List<TableSummary> list = new ArrayList<TableSummary>();
+            Database db = new Database("db01");
+            list.add(new TableSummary(db, "tbl02", 0, "[]", "", ""));
+            list.add(new TableSummary(db, "tbl01", 0,
+                    "[[\"f01\",\"string\"],[\"f02\",\"int\"]]", "", ""));
+            list.add(new TableSummary(db, "item01", Table.Type.ITEM, 0,
+                    "[[\"f01\",\"string\"]]", "", ""));
+            list.add(new TableSummary(db, "tbl10", 0, "[[\"time\",\"int\"]]", "", ""));
+            return list;
+        }
+    }
+
+    @Test
+    public void testSnapshot()
+            throws Exception
+    {
+        SchemaSnapshot s = SchemaSnapshot.build("db01", new CountingClientAPI().showTables());
+        assertEquals(4, s.getTableCount());
+        assertEquals(Arrays.asList("item01", "tbl01", "tbl02", "tbl10"), s.findTables(NamePattern.ALL));
+        assertEquals(Arrays.asList("tbl01", "tbl02"), s.findTables(NamePattern.compile("tbl0%")));
+        assertEquals(Arrays.asList("tbl02"), s.findTables(NamePattern.compile("tbl02")));
+        assertEquals(Arrays.asList("tbl10"), s.findTables(NamePattern.compile("tbl_0")));
+        assertTrue(s.findTables(NamePattern.compile("tbl03")).isEmpty());
+        assertTrue(s.findTables(NamePattern.compile("x%")).isEmpty());
+
+        List<TDColumn> columns = s.findColumns(NamePattern.compile("tbl%"), NamePattern.ALL);
+        assertEquals(5, columns.size());
+        assertColumn("tbl01", "f01", 1, columns.get(0));
+        assertColumn("tbl01", "f02", 2, columns.get(1));
+        // the time column is added to log tables
+        assertColumn("tbl01", "time", 3, columns.get(2));
+        assertColumn("tbl02", "time", 1, columns.get(3));
+        assertColumn("tbl10", "time", 1, columns.get(4));
+
+        columns = s.findColumns(NamePattern.ALL, NamePattern.compile("f0_"));
+        assertEquals(3, columns.size());
+        assertColumn("item01", "f01", 1, columns.get(0));
+        assertColumn("tbl01", "f01", 1, columns.get(1));
+        assertColumn("tbl01", "f02", 2, columns.get(2));
+    }
+
+    private static void assertColumn(String table, String column, int ordinal, TDColumn c)
+    {
+        assertEquals(table, c.getTableName());
+        assertEquals(column, c.getColumnName());
+        assertEquals(ordinal, c.getOrdinal());
+    }
+
+    @Test
+    public void testTtl()
+            throws Exception
+    {
+        MetaDataCache cache = new MetaDataCache();
+        CountingClientAPI api = new CountingClientAPI();
+
+        SchemaSnapshot s1 = cache.getSchema("db01", api, 60000);
+        SchemaSnapshot s2 = cache.getSchema("db01", api, 60000);
+        assertSame(s1, s2);
+        assertEquals(1, api.showTablesCount.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // expired
+        Thread.sleep(5);
+        assertNotSame(s1, cache.getSchema("db01", api, 1));
+        assertEquals(2, api.showTablesCount.get());
+    }
+
+    @Test
+    public void testInvalidate()
+            throws Exception
+    {
+        MetaDataCache cache = new MetaDataCache();
+        CountingClientAPI api = new CountingClientAPI();
+
+        cache.getSchema("db01", api, 60000);
+        cache.invalidate();
+        cache.getSchema("db01", api, 60000);
+        assertEquals(2, api.showTablesCount.get());
+
+        // not cached until the job that changes the schema finishes
+        FutureTask<Object> job = new FutureTask<Object>(new Runnable()
+        {
+            public void run()
+            {
+            }
+        }, null);
+        cache.invalidate(job);
+        cache.getSchema("db01", api, 60000);
+        cache.getSchema("db01", api, 60000);
+        assertEquals(4, api.showTablesCount.get());
+
+        job.run();
+        cache.getSchema("db01", api, 60000);
+        cache.getSchema("db01", api, 60000);
+        assertEquals(5, api.showTablesCount.get());
+    }
+
+    @Test
+    public void testPreload()
+            throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger showDatabaseCount = new AtomicInteger();
+        CountingClientAPI api = new CountingClientAPI()
+        {
+            @Override
+            public List<TableSummary> showTables()
+                    throws ClientException
+            {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new ClientException(e);
+                }
+                return super.showTables();
+            }
+
+            @Override
+            public List<DatabaseSummary> showDatabases()
+                    throws ClientException
+            {
+                showDatabaseCount.incrementAndGet();
+                return Arrays.asList(new DatabaseSummary("db01", 0, "", ""));
+            }
+        };
+
+        MetaDataCache cache = new MetaDataCache();
+        cache.preloadAsync("db01", api, 60000);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        release.countDown();
+
+        // waits for the preload instead of loading again
+        assertEquals(4, cache.getSchema("db01", api, 60000).getTableCount());
+        assertEquals("db01", cache.getDatabase("db01", api, 60000).getName());
+        assertEquals(1, api.showTablesCount.get());
+        assertEquals(1, showDatabaseCount.get());
+    }
+
+    @Test
+    public void testSharedInstance()
+    {
+        MetaDataCache c1 = MetaDataCache.getInstance("key01");
+        assertSame(c1, MetaDataCache.getInstance("key01"));
+        assertNotSame(c1, MetaDataCache.getInstance("key02"));
+    }
+
+    @Test
+    public void testInstanceLimit()
+    {
+        MetaDataCache c1 = MetaDataCache.getInstance("lru00");
+        MetaDataCache c2 = MetaDataCache.getInstance("lru01");
+        for (int i = 2; i <= MetaDataCache.MAX_INSTANCES; i++) {
+            // the first one stays as the most recently used
+            assertSame(c1, MetaDataCache.getInstance("lru00"));
+            MetaDataCache.getInstance("lru" + i);
+        }
+        assertSame(c1, MetaDataCache.getInstance("lru00"));
+        // the least recently used one is dropped
+        assertNotSame(c2, MetaDataCache.getInstance("lru01"));
+    }
+
+    @Test
+    public void testIsSchemaChange()
+    {
+        assertTrue(MetaDataCache.isSchemaChange("create table t1 (c1 int)"));
+        assertTrue(MetaDataCache.isSchemaChange("  DROP TABLE t1"));
+        assertTrue(MetaDataCache.isSchemaChange("-- comment\n/* comment */ alter table t1 add columns (c2 int)"));
+        assertTrue(MetaDataCache.isSchemaChange("CREATE TABLE t2 AS SELECT * FROM t1"));
+        assertFalse(MetaDataCache.isSchemaChange("select * from created"));
+        assertFalse(MetaDataCache.isSchemaChange("createx"));
+        assertFalse(MetaDataCache.isSchemaChange("insert into t1 select 1"));
+        assertFalse(MetaDataCache.isSchemaChange(null));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestNamePattern
+{
+    @Test
+    public void testAll()
+    {
+        assertSame(NamePattern.ALL, NamePattern.compile(null));
+        assertSame(NamePattern.ALL, NamePattern.compile("%"));
+        assertTrue(NamePattern.ALL.matches(""));
+        assertTrue(NamePattern.ALL.matches("tbl01"));
+        assertFalse(NamePattern.ALL.matches(null));
+    }
+
+    @Test
+    public void testLiteral()
+    {
+        NamePattern p = NamePattern.compile("tbl.01");
+        assertTrue(p.isLiteral());
+        assertEquals("tbl.01", p.getPrefix());
+        assertTrue(p.matches("tbl.01"));
+        // '.' is not a regex
+        assertFalse(p.matches("tblx01"));
+        assertFalse(p.matches("tbl.012"));
+    }
+
+    @Test
+    public void testPrefix()
+    {
+        NamePattern p = NamePattern.compile("tbl%");
+        assertFalse(p.isLiteral());
+        assertEquals("tbl", p.getPrefix());
+        assertTrue(p.matches("tbl"));
+        assertTrue(p.matches("tbl01"));
+        assertFalse(p.matches("xtbl01"));
+    }
+
+    @Test
+    public void testWildcards()
+    {
+        NamePattern p = NamePattern.compile("tbl_0%x");
+        assertEquals("tbl", p.getPrefix());
+        assertTrue(p.matches("tbl10x"));
+        assertTrue(p.matches("tbl10abcx"));
+        assertFalse(p.matches("tbl010x"));
+        assertFalse(p.matches("tbl10xy"));
+
+        p = NamePattern.compile("%(a+)%");
+        assertEquals("", p.getPrefix());
+        assertTrue(p.matches("x(a+)y"));
+        assertFalse(p.matches("xaay"));
+    }
+
+    @Test
+    public void testEscape()
+    {
+        NamePattern p = NamePattern.compile("tbl\\_01");
+        assertTrue(p.isLiteral());
+        assertTrue(p.matches("tbl_01"));
+        assertFalse(p.matches("tblx01"));
+
+        p = NamePattern.compile("100\\%%");
+        assertEquals("100%", p.getPrefix());
+        assertTrue(p.matches("100%abc"));
+        assertFalse(p.matches("100abc"));
+    }
+
+    @Test
+    public void testCache()
+    {
+        assertSame(NamePattern.compile("t%_x"), NamePattern.compile("t%_x"));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.model.Database;
+import com.treasure_data.model.TableSummary;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSchemaLoader
+{
+    private static class SlowClientAPI
+            extends NullClientAPI
+    {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override
+        public List<TableSummary> showTables(String database)
+                throws ClientException
+        {
+            int n = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), n));
+            }
+            try {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException e) {
+                throw new ClientException(e);
+            }
+            finally {
+                running.decrementAndGet();
+            }
+            if (database.equals("error")) {
+                throw new ClientException("not found: " + database);
+            }
+            List<TableSummary> list = new ArrayList<TableSummary>();
+            list.add(new TableSummary(new Database(database), "tbl_" + database, 0, "[]", "", ""));
+            return list;
+        }
+    }
+
+    private static List<String> catalogs(int n)
+    {
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            list.add(String.format("db%02d", i));
+        }
+        return list;
+    }
+
+    @Test
+    public void testLoadAll()
+            throws Exception
+    {
+        SlowClientAPI api = new SlowClientAPI();
+        SchemaLoader loader = new SchemaLoader(api, null, 0, 4);
+
+        List<String> catalogs = catalogs(20);
+        List<SchemaSnapshot> snapshots = loader.loadAll(catalogs);
+        assertEquals(20, snapshots.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(catalogs.get(i), snapshots.get(i).getCatalog());
+            assertEquals(Arrays.asList("tbl_" + catalogs.get(i)), snapshots.get(i).findTables(NamePattern.ALL));
+        }
+
+        // bounded by the parallelism
+        assertTrue(api.maxRunning.get() > 1);
+        assertTrue(api.maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testLoadAllError()
+            throws Exception
+    {
+        SchemaLoader loader = new SchemaLoader(new SlowClientAPI(), null, 0, 4);
+        List<String> catalogs = catalogs(10);
+        catalogs.set(5, "error");
+        try {
+            loader.loadAll(catalogs);
+            fail();
+        }
+        catch (ClientException e) {
+            assertTrue(e.getMessage().contains("not found: error"));
+        }
+    }
+
+    @Test
+    public void testLoadAllWithCache()
+            throws Exception
+    {
+        SlowClientAPI api = new SlowClientAPI();
+        SchemaLoader loader = new SchemaLoader(api, new MetaDataCache(), 60000, 4);
+        List<SchemaSnapshot> s1 = loader.loadAll(catalogs(8));
+        List<SchemaSnapshot> s2 = loader.loadAll(catalogs(8));
+        for (int i = 0; i < 8; i++) {
+            assertTrue(s1.get(i) == s2.get(i));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import com.treasure_data.client.ClientException;
+import com.treasure_data.model.Database;
+import com.treasure_data.model.TableSummary;
+import com.treasuredata.jdbc.model.TDColumn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestSchemaSnapshotStore
+{
+    private File dir;
+
+    @Before
+    public void setUp()
+            throws IOException
+    {
+        dir = File.createTempFile("td-jdbc-schema", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static List<TableSummary> tables(String tbl02UpdatedAt)
+    {
+        Database db = new Database("db01");
+        List<TableSummary> list = new ArrayList<TableSummary>();
+        list.add(new TableSummary(db, "tbl01", 0, "[[\"f01\",\"string\"],[\"f02\",\"int\"]]", "t0", "t1"));
+        list.add(new TableSummary(db, "tbl02", 0, "[[\"f01\",\"double\"]]", "t0", tbl02UpdatedAt));
+        return list;
+    }
+
+    @Test
+    public void testSaveAndLoad()
+            throws Exception
+    {
+        SchemaSnapshotStore store = new SchemaSnapshotStore(dir, "account01");
+        assertNull(store.load("db01"));
+
+        SchemaSnapshot saved = SchemaSnapshot.build("db01", tables("t1"));
+        store.save(saved);
+
+        SchemaSnapshot loaded = store.load("db01");
+        assertEquals("db01", loaded.getCatalog());
+        assertEquals(saved.getCreatedAt(), loaded.getCreatedAt());
+        assertEquals(Arrays.asList("tbl01", "tbl02"), loaded.findTables(NamePattern.ALL));
+        List<TDColumn> columns = loaded.findColumns(NamePattern.ALL, NamePattern.ALL);
+        assertEquals(5, columns.size());
+        assertEquals("f02", columns.get(1).getColumnName());
+        assertEquals("int", columns.get(1).getType());
+        assertEquals(2, columns.get(1).getOrdinal());
+        assertEquals("time", columns.get(2).getColumnName());
+        assertEquals("double", columns.get(3).getType());
+
+        // another account or database
+        assertNull(new SchemaSnapshotStore(dir, "account02").load("db01"));
+        assertNull(store.load("db02"));
+    }
+
+    @Test
+    public void testBrokenFile()
+            throws Exception
+    {
+        SchemaSnapshotStore store = new SchemaSnapshotStore(dir, "account01");
+        FileOutputStream out = new FileOutputStream(store.file("db01"));
+        out.write("broken".getBytes("UTF-8"));
+        out.close();
+        assertNull(store.load("db01"));
+        assertTrue(!store.file("db01").exists());
+    }
+
+    @Test
+    public void testReuseUnchangedTables()
+    {
+        SchemaSnapshot s1 = SchemaSnapshot.build("db01", tables("t1"));
+        SchemaSnapshot s2 = SchemaSnapshot.build("db01", tables("t2"), s1);
+        List<TDColumn> c1 = s1.findColumns(NamePattern.ALL, NamePattern.ALL);
+        List<TDColumn> c2 = s2.findColumns(NamePattern.ALL, NamePattern.ALL);
+        assertEquals(c1.size(), c2.size());
+        // tbl01 is not updated
+        assertSame(c1.get(0), c2.get(0));
+        // tbl02 is updated
+        assertNotSame(c1.get(3), c2.get(3));
+    }
+
+    @Test
+    public void testRestore()
+            throws Exception
+    {
+        SchemaSnapshotStore store = new SchemaSnapshotStore(dir, "account01");
+        SchemaSnapshot saved = SchemaSnapshot.build("db01", tables("t1"));
+        store.save(saved);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger showTablesCount = new AtomicInteger();
+        NullClientAPI api = new NullClientAPI()
+        {
+            @Override
+            public List<TableSummary> showTables(String database)
+                    throws ClientException
+            {
+                showTablesCount.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new ClientException(e);
+                }
+                return tables("t2");
+            }
+        };
+
+        MetaDataCache cache = new MetaDataCache();
+        cache.setStore(store);
+        cache.restore("db01", api);
+
+        // answered from the saved snapshot while it is revalidated
+        SchemaSnapshot restored = cache.getSchema("db01", api, 60000);
+        assertEquals(saved.getCreatedAt(), restored.getCreatedAt());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        SchemaSnapshot revalidated = restored;
+        while (revalidated == restored && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            revalidated = cache.getSchema("db01", api, 60000);
+        }
+        assertNotSame(restored, revalidated);
+        assertEquals(1, showTablesCount.get());
+        assertSame(restored.findColumns(NamePattern.compile("tbl01"), NamePattern.ALL).get(0),
+                revalidated.findColumns(NamePattern.compile("tbl01"), NamePattern.ALL).get(0));
+
+        // read once per process
+        cache.restore("db01", api);
+        assertEquals(1, showTablesCount.get());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.treasuredata.jdbc.command;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestStreamingResultInputStream
+{
+    private static byte[] newData(int size)
+    {
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in)
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRead()
+            throws Exception
+    {
+        byte[] data = newData(StreamingResultInputStream.CHUNK_SIZE * 5 + 123);
+        // buffer smaller than the data
+        InputStream in = new StreamingResultInputStream(new ByteArrayInputStream(data), data.length,
+                StreamingResultInputStream.CHUNK_SIZE * 2);
+        byte[] read = readAll(in);
+        in.close();
+        assertTrue(Arrays.equals(data, read));
+    }
+
+    @Test
+    public void testReadEmpty()
+            throws Exception
+    {
+        InputStream in = new StreamingResultInputStream(new ByteArrayInputStream(new byte[0]), 0, 1024);
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void testTruncatedResult()
+            throws Exception
+    {
+        byte[] data = newData(1000);
+        InputStream in = new StreamingResultInputStream(new ByteArrayInputStream(data), 2000, 1024);
+        try {
+            readAll(in);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Cannot read all data"));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testCloseBeforeEnd()
+            throws Exception
+    {
+        final int[] closed = new int[1];
+        // endless source
+        InputStream source = new InputStream()
+        {
+            @Override
+            public int read()
+            {
+                return 1;
+            }
+
+            @Override
+            public void close()
+            {
+                closed[0]++;
+            }
+        };
+        InputStream in = new StreamingResultInputStream(source, -1, StreamingResultInputStream.CHUNK_SIZE);
+        assertEquals(1, in.read());
+        in.close();
+        assertTrue(closed[0] > 0);
+        try {
+            in.read();
+            fail();
+        }
+        catch (IOException e) {
+            // closed
+        }
+    }
+}
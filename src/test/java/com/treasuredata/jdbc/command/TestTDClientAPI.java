@@ -29,6 +29,8 @@ import com.treasure_data.model.Database;
 import com.treasure_data.model.Job;
 import com.treasure_data.model.JobSummary;
 import com.treasure_data.model.JobSummary.Debug;
+import com.treasure_data.model.KillJobRequest;
+import com.treasure_data.model.KillJobResult;
 import com.treasure_data.model.ShowJobRequest;
 import com.treasure_data.model.ShowJobResult;
 import com.treasure_data.model.ShowJobStatusRequest;
@@ -37,6 +39,8 @@ import org.junit.Test;
 
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -214,6 +218,42 @@ public class TestTDClientAPI
         assertEquals("rschema", js.getResultSchema());
     }
 
+    @Test
+    public void testKillJob()
+            throws Exception
+    {
+        Config config = newTestConfig();
+        final List<KillJobRequest> killed = new ArrayList<KillJobRequest>();
+        TreasureDataClient c = new TreasureDataClient(config.toProperties())
+        {
+            @Override
+            public AuthenticateResult authenticate(AuthenticateRequest request)
+            {
+                return null;
+            }
+
+            @Override
+            public KillJobResult killJob(KillJobRequest request)
+            {
+                killed.add(request);
+                return null;
+            }
+        };
+        TDClientAPI api = new TDClientAPI(config, c, new Database("mugadb"));
+
+        Job job = new Job("12345");
+        assertTrue(api.killJob(job));
+        assertEquals(1, killed.size());
+        try {
+            // the result of the killed job is not downloaded
+            api.getJobResult2(job);
+            fail();
+        }
+        catch (ClientException e) {
+            assertTrue(e.getMessage().contains("cancelled"));
+        }
+    }
+
     @Test
     public void testMetaDataWithSelect1()
             throws Exception